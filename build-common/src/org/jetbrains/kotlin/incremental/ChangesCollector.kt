@@ -27,7 +27,15 @@ class ChangesCollector {
     private val changedMembers = hashMapOf<FqName, MutableSet<String>>()
     private val areSubclassesAffected = hashMapOf<FqName, Boolean>()
 
+    // Comparison of protos is the most expensive part, so it is postponed until changes are requested
+    // and then done in parallel for all classes
+    private val pendingProtoChanges = arrayListOf<PendingProtoChange>()
+
+    private class PendingProtoChange(val oldData: ProtoData?, val newData: ProtoData?, val collectAllMembersForNewClass: Boolean)
+
     fun changes(): List<ChangeInfo> {
+        processPendingProtoChanges()
+
         val changes = arrayListOf<ChangeInfo>()
 
         for ((fqName, members) in removedMembers) {
@@ -77,6 +85,27 @@ class ChangesCollector {
             throw IllegalStateException("Old and new value are null")
         }
 
+        pendingProtoChanges.add(PendingProtoChange(oldData, newData, collectAllMembersForNewClass))
+    }
+
+    private fun processPendingProtoChanges() {
+        if (pendingProtoChanges.isEmpty()) return
+
+        val collectors = pendingProtoChanges.chunkedInParallel(MIN_PROTO_CHANGES_PER_THREAD) { chunk ->
+            ChangesCollector().apply {
+                chunk.forEach { doCollectProtoChanges(it.oldData, it.newData, it.collectAllMembersForNewClass) }
+            }
+        }
+        pendingProtoChanges.clear()
+
+        for (collector in collectors) {
+            collector.removedMembers.forEach { (scope, names) -> collectRemovedMembers(scope, names) }
+            collector.changedMembers.forEach { (scope, names) -> collectChangedMembers(scope, names) }
+            collector.areSubclassesAffected.forEach { (fqName, areSubclassesAffected) -> collectSignature(fqName, areSubclassesAffected) }
+        }
+    }
+
+    private fun doCollectProtoChanges(oldData: ProtoData?, newData: ProtoData?, collectAllMembersForNewClass: Boolean) {
         if (oldData == null) {
             newData!!.collectAll(isRemoved = false, collectAllMembersForNewClass = collectAllMembersForNewClass)
             return
@@ -194,4 +223,8 @@ class ChangesCollector {
         val prevValue = this.areSubclassesAffected[fqName] ?: false
         this.areSubclassesAffected[fqName] = prevValue || areSubclassesAffected
     }
+
+    private companion object {
+        const val MIN_PROTO_CHANGES_PER_THREAD = 32
+    }
 }
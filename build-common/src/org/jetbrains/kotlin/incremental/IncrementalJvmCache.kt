@@ -88,6 +88,18 @@ open class IncrementalJvmCache(
     fun isMultifileFacade(className: JvmClassName): Boolean =
             className in multifileFacadeToParts
 
+    // Reports all non-private declarations of the Kotlin classes compiled from the sources as changed,
+    // i.e. the worst case of what their recompilation could change
+    fun collectAllDeclarations(sources: Iterable<File>, changesCollector: ChangesCollector) {
+        for (className in classesBySources(sources)) {
+            if (className.internalName == MODULE_MAPPING_FILE_NAME) continue
+
+            val proto = protoMap[className] ?: continue
+            changesCollector.collectProtoChanges(oldData = null, newData = proto.toProtoData(className.packageFqName),
+                                                 collectAllMembersForNewClass = true)
+        }
+    }
+
     override fun getClassFilePath(internalClassName: String): String {
         return toSystemIndependentName(File(outputDir, "$internalClassName.class").canonicalPath)
     }
@@ -17,7 +17,6 @@
 package org.jetbrains.kotlin.incremental
 
 import com.intellij.util.containers.MultiMap
-import com.intellij.util.containers.StringInterner
 import org.jetbrains.annotations.TestOnly
 import org.jetbrains.kotlin.incremental.components.LookupTracker
 import org.jetbrains.kotlin.incremental.components.Position
@@ -27,18 +26,33 @@ import org.jetbrains.kotlin.utils.Printer
 import org.jetbrains.kotlin.utils.keysToMap
 import java.io.File
 import java.util.*
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.ConcurrentLinkedQueue
+import java.util.concurrent.locks.ReentrantReadWriteLock
+import kotlin.concurrent.read
+import kotlin.concurrent.write
 
 
 open class LookupStorage(targetDataDir: File) : BasicMapsOwner(targetDataDir) {
     companion object {
         private val DELETED_TO_SIZE_TRESHOLD = 0.5
         private val MINIMUM_GARBAGE_COLLECTIBLE_SIZE = 10000
+
+        private val USE_COLUMNAR_LOOKUPS = System.getProperty("kotlin.incremental.lookups.columnar") == "true"
+        private val COLUMNAR_LOOKUPS_FILE_PREFIX = "lookups-columnar"
     }
 
     private val countersFile = "counters".storageFile
     private val idToFile = registerMap(IdToFileMap("id-to-file".storageFile))
     private val fileToId = registerMap(FileToIdMap("file-to-id".storageFile))
-    private val lookupMap = registerMap(LookupMap("lookups".storageFile))
+
+    // Lookups are stored either in a PersistentHashMap or in a sorted memory-mapped file, which is more compact and faster to query,
+    // see ColumnarLookupMap. Lookups stored in the other format by a previous build are migrated.
+    private val columnarLookupMap = if (USE_COLUMNAR_LOOKUPS) ColumnarLookupMap(targetDataDir, COLUMNAR_LOOKUPS_FILE_PREFIX) else null
+    private val lookupMap: LookupSymbolMap = columnarLookupMap ?: registerMap(LookupMap("lookups".storageFile))
+
+    // Queries may run concurrently, modifications are exclusive
+    private val lock = ReentrantReadWriteLock()
 
     @Volatile
     private var size: Int = 0
@@ -52,10 +66,11 @@ open class LookupStorage(targetDataDir: File) : BasicMapsOwner(targetDataDir) {
             size = lines[0].toInt()
             deletedCount = lines[1].toInt()
         }
+
+        migrateLookups()
     }
 
-    @Synchronized
-    fun get(lookupSymbol: LookupSymbol): Collection<String> {
+    fun get(lookupSymbol: LookupSymbol): Collection<String> = lock.read {
         val key = LookupSymbolKey(lookupSymbol.name, lookupSymbol.scope)
         val fileIds = lookupMap[key] ?: return emptySet()
 
@@ -65,8 +80,7 @@ open class LookupStorage(targetDataDir: File) : BasicMapsOwner(targetDataDir) {
         }
     }
 
-    @Synchronized
-    fun addAll(lookups: Set<Map.Entry<LookupSymbol, Collection<String>>>, allPaths: Set<String>) {
+    fun addAll(lookups: Set<Map.Entry<LookupSymbol, Collection<String>>>, allPaths: Set<String>) = lock.write {
         val pathToId = allPaths.keysToMap { addFileIfNeeded(File(it)) }
 
         for ((lookupSymbol, paths) in lookups) {
@@ -77,8 +91,7 @@ open class LookupStorage(targetDataDir: File) : BasicMapsOwner(targetDataDir) {
         }
     }
 
-    @Synchronized
-    fun removeLookupsFrom(files: Sequence<File>) {
+    fun removeLookupsFrom(files: Sequence<File>) = lock.write {
         for (file in files) {
             val id = fileToId[file] ?: continue
             idToFile.remove(id)
@@ -87,8 +100,7 @@ open class LookupStorage(targetDataDir: File) : BasicMapsOwner(targetDataDir) {
         }
     }
 
-    @Synchronized
-    override fun clean() {
+    override fun clean() = lock.write {
         if (countersFile.exists()) {
             countersFile.delete()
         }
@@ -96,11 +108,20 @@ open class LookupStorage(targetDataDir: File) : BasicMapsOwner(targetDataDir) {
         size = 0
         deletedCount = 0
 
+        columnarLookupMap?.clean()
         super.clean()
     }
 
-    @Synchronized
-    override fun flush(memoryCachesOnly: Boolean) {
+    override fun close() = lock.write {
+        try {
+            columnarLookupMap?.close()
+        }
+        finally {
+            super.close()
+        }
+    }
+
+    override fun flush(memoryCachesOnly: Boolean) = lock.write {
         try {
             removeGarbageIfNeeded()
 
@@ -114,10 +135,34 @@ open class LookupStorage(targetDataDir: File) : BasicMapsOwner(targetDataDir) {
             }
         }
         finally {
+            // Writing a new segment is as expensive as a full flush, so columnar lookups are kept in memory until one
+            if (!memoryCachesOnly) {
+                columnarLookupMap?.flush()
+            }
             super.flush(memoryCachesOnly)
         }
     }
 
+    private fun migrateLookups() {
+        val hashMapFile = "lookups".storageFile
+        val oldLookupMap = when {
+            columnarLookupMap != null -> if (hashMapFile.exists()) LookupMap(hashMapFile) else null
+            // Checked without loading, as this is done on every open of the storage
+            ColumnarLookupMap.exists(cachesDir, COLUMNAR_LOOKUPS_FILE_PREFIX) -> ColumnarLookupMap(cachesDir, COLUMNAR_LOOKUPS_FILE_PREFIX)
+            else -> null
+        } ?: return
+
+        for (key in oldLookupMap.keys) {
+            oldLookupMap[key]?.let { lookupMap[key] = it.toSet() }
+        }
+
+        when (oldLookupMap) {
+            is LookupMap -> oldLookupMap.clean()
+            is ColumnarLookupMap -> oldLookupMap.clean()
+        }
+        flush(false)
+    }
+
     private fun addFileIfNeeded(file: File): Int {
         val existing = fileToId[file]
         if (existing != null) return existing
@@ -193,21 +238,123 @@ open class LookupStorage(targetDataDir: File) : BasicMapsOwner(targetDataDir) {
     }
 }
 
+// Lookups are recorded for every resolved name, so recording must be cheap and may happen on several threads.
+// Names, scopes and paths are mapped to ids, and each thread appends (name, scope, path) id triples to its own buffer without
+// locking. Duplicates are removed in bulk when lookups are requested, which must happen after the analysis has finished.
 class LookupTrackerImpl(private val delegate: LookupTracker) : LookupTracker {
-    val lookups = MultiMap.createSet<LookupSymbol, String>()
-    val pathInterner = StringInterner()
-    private val interner = StringInterner()
+    private val names = IdTable()
+    private val paths = IdTable()
+    private val buffers = ConcurrentLinkedQueue<RecordBuffer>()
+    private val threadBuffer = ThreadLocal.withInitial { RecordBuffer().also { buffers.add(it) } }
+
+    // Computed on each access
+    val lookups: MultiMap<LookupSymbol, String>
+        get() {
+            val result = MultiMap.createSet<LookupSymbol, String>()
+            val nameValues = names.values()
+            val pathValues = paths.values()
+            forEachUniqueRecord { nameId, scopeId, pathId ->
+                result.putValue(LookupSymbol(nameValues[nameId], nameValues[scopeId]), pathValues[pathId])
+            }
+            return result
+        }
+
+    val recordedPaths: Collection<String>
+        get() = paths.values()
 
     override val requiresPosition: Boolean
         get() = delegate.requiresPosition
 
     override fun record(filePath: String, position: Position, scopeFqName: String, scopeKind: ScopeKind, name: String) {
-        val internedScopeFqName = interner.intern(scopeFqName)
-        val internedName = interner.intern(name)
-        val internedFilePath = pathInterner.intern(filePath)
+        val buffer = threadBuffer.get()
+        buffer.add(names.id(name), names.id(scopeFqName), buffer.pathId(filePath, paths))
+
+        if (delegate !== LookupTracker.DO_NOTHING) {
+            delegate.record(filePath, position, scopeFqName, scopeKind, name)
+        }
+    }
+
+    // Records are grouped by path with a counting sort, then (name, scope) pairs packed into longs are sorted for each path
+    private inline fun forEachUniqueRecord(action: (nameId: Int, scopeId: Int, pathId: Int) -> Unit) {
+        val pathCount = paths.size
+        val starts = IntArray(pathCount + 1)
+        for (buffer in buffers) {
+            for (i in 0 until buffer.size) {
+                starts[buffer.pathIdAt(i) + 1]++
+            }
+        }
+        for (pathId in 0 until pathCount) {
+            starts[pathId + 1] += starts[pathId]
+        }
+
+        val symbols = LongArray(starts[pathCount])
+        val positions = starts.copyOf(pathCount)
+        for (buffer in buffers) {
+            for (i in 0 until buffer.size) {
+                symbols[positions[buffer.pathIdAt(i)]++] = (buffer.nameIdAt(i).toLong() shl 32) or (buffer.scopeIdAt(i).toLong() and 0xFFFFFFFFL)
+            }
+        }
+
+        for (pathId in 0 until pathCount) {
+            val from = starts[pathId]
+            val to = starts[pathId + 1]
+            Arrays.sort(symbols, from, to)
+            for (i in from until to) {
+                if (i == from || symbols[i] != symbols[i - 1]) {
+                    action((symbols[i] ushr 32).toInt(), symbols[i].toInt(), pathId)
+                }
+            }
+        }
+    }
+
+    private class IdTable {
+        private val ids = ConcurrentHashMap<String, Int>()
+        private val values = ArrayList<String>()
+
+        val size: Int get() = synchronized(values) { values.size }
+
+        fun id(value: String): Int =
+                ids[value] ?: synchronized(values) {
+                    ids.getOrPut(value) {
+                        values.add(value)
+                        values.size - 1
+                    }
+                }
+
+        fun values(): List<String> = synchronized(values) { ArrayList(values) }
+    }
+
+    // Only accessed by the thread which owns it while recording
+    private class RecordBuffer {
+        private var records = IntArray(3 * 1024)
+        var size = 0
+            private set
+
+        // Consecutive lookups usually come from the same file
+        private var lastPath: String? = null
+        private var lastPathId = -1
+
+        fun pathId(path: String, paths: IdTable): Int {
+            if (path !== lastPath) {
+                lastPath = path
+                lastPathId = paths.id(path)
+            }
+            return lastPathId
+        }
+
+        fun add(nameId: Int, scopeId: Int, pathId: Int) {
+            if (3 * size == records.size) {
+                records = records.copyOf(records.size * 2)
+            }
+            records[3 * size] = nameId
+            records[3 * size + 1] = scopeId
+            records[3 * size + 2] = pathId
+            size++
+        }
 
-        lookups.putValue(LookupSymbol(internedName, internedScopeFqName), internedFilePath)
-        delegate.record(internedFilePath, position, internedScopeFqName, scopeKind, internedName)
+        fun nameIdAt(index: Int): Int = records[3 * index]
+        fun scopeIdAt(index: Int): Int = records[3 * index + 1]
+        fun pathIdAt(index: Int): Int = records[3 * index + 2]
     }
 }
 
@@ -107,7 +107,7 @@ fun LookupStorage.update(
 
     removeLookupsFrom(filesToCompile.asSequence() + removedFiles.asSequence())
 
-    addAll(lookupTracker.lookups.entrySet(), lookupTracker.pathInterner.values)
+    addAll(lookupTracker.lookups.entrySet(), lookupTracker.recordedPaths)
 }
 
 data class DirtyData(
@@ -122,31 +122,45 @@ fun ChangesCollector.getDirtyData(
     val dirtyLookupSymbols = HashSet<LookupSymbol>()
     val dirtyClassesFqNames = HashSet<FqName>()
 
-    for (change in changes()) {
+    // subtypes of changed classes are looked up in the caches independently for each change
+    val changes = changes()
+    val dirtyDataByChange = changes.chunkedInParallel(MIN_CHANGES_PER_THREAD) { chunk -> chunk.map { it.getDirtyData(caches) } }.flatten()
+
+    for ((change, dirtyData) in changes.zip(dirtyDataByChange)) {
         reporter.report { "Process $change" }
 
-        if (change is ChangeInfo.SignatureChanged) {
-            val fqNames = if (!change.areSubclassesAffected) listOf(change.fqName) else withSubtypes(change.fqName, caches)
+        dirtyLookupSymbols.addAll(dirtyData.dirtyLookupSymbols)
+        dirtyClassesFqNames.addAll(dirtyData.dirtyClassesFqNames)
+    }
 
-            for (classFqName in fqNames) {
-                assert(!classFqName.isRoot) { "$classFqName is root when processing $change" }
+    return DirtyData(dirtyLookupSymbols, dirtyClassesFqNames)
+}
 
-                val scope = classFqName.parent().asString()
-                val name = classFqName.shortName().identifier
-                dirtyLookupSymbols.add(LookupSymbol(name, scope))
-            }
-        }
-        else if (change is ChangeInfo.MembersChanged) {
-            val fqNames = withSubtypes(change.fqName, caches)
-            // need to recompile subtypes because changed member might break override
-            dirtyClassesFqNames.addAll(fqNames)
+private fun ChangeInfo.getDirtyData(caches: Iterable<IncrementalCacheCommon<*>>): DirtyData {
+    val dirtyLookupSymbols = HashSet<LookupSymbol>()
+    val dirtyClassesFqNames = HashSet<FqName>()
 
-            for (name in change.names) {
-                fqNames.mapTo(dirtyLookupSymbols) { LookupSymbol(name, it.asString()) }
-            }
+    if (this is ChangeInfo.SignatureChanged) {
+        val fqNames = if (!areSubclassesAffected) listOf(fqName) else withSubtypes(fqName, caches)
 
-            fqNames.mapTo(dirtyLookupSymbols) { LookupSymbol(SAM_LOOKUP_NAME.asString(), it.asString()) }
+        for (classFqName in fqNames) {
+            assert(!classFqName.isRoot) { "$classFqName is root when processing $this" }
+
+            val scope = classFqName.parent().asString()
+            val name = classFqName.shortName().identifier
+            dirtyLookupSymbols.add(LookupSymbol(name, scope))
+        }
+    }
+    else if (this is ChangeInfo.MembersChanged) {
+        val fqNames = withSubtypes(fqName, caches)
+        // need to recompile subtypes because changed member might break override
+        dirtyClassesFqNames.addAll(fqNames)
+
+        for (name in names) {
+            fqNames.mapTo(dirtyLookupSymbols) { LookupSymbol(name, it.asString()) }
         }
+
+        fqNames.mapTo(dirtyLookupSymbols) { LookupSymbol(SAM_LOOKUP_NAME.asString(), it.asString()) }
     }
 
     return DirtyData(dirtyLookupSymbols, dirtyClassesFqNames)
@@ -160,8 +174,12 @@ fun mapLookupSymbolsToFiles(
 ): Set<File> {
     val dirtyFiles = HashSet<File>()
 
-    for (lookup in lookupSymbols) {
-        val affectedFiles = lookupStorage.get(lookup).map(::File).filter { it !in excludes }
+    val lookups = lookupSymbols.toList()
+    val affectedFilesByLookup = lookups.chunkedInParallel(MIN_LOOKUPS_PER_THREAD) { chunk ->
+        chunk.map { lookup -> lookupStorage.get(lookup).map(::File).filter { it !in excludes } }
+    }.flatten()
+
+    for ((lookup, affectedFiles) in lookups.zip(affectedFilesByLookup)) {
         reporter.report { "${lookup.scope}#${lookup.name} caused recompilation of: ${reporter.pathsAsString(affectedFiles)}" }
         dirtyFiles.addAll(affectedFiles)
     }
@@ -211,3 +229,5 @@ fun withSubtypes(
     return subtypes
 }
 
+private const val MIN_CHANGES_PER_THREAD = 16
+private const val MIN_LOOKUPS_PER_THREAD = 64
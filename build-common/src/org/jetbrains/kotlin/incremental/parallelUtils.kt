@@ -0,0 +1,59 @@
+/*
+ * Copyright 2000-2018 JetBrains s.r.o. Use of this source code is governed by the Apache 2.0 license
+ * that can be found in the license/LICENSE.txt file.
+ */
+
+package org.jetbrains.kotlin.incremental
+
+import org.jetbrains.annotations.TestOnly
+import java.util.concurrent.Callable
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.Executors
+
+private val PARALLELISM = Runtime.getRuntime().availableProcessors()
+
+private class IncrementalWorkerThread(runnable: Runnable) : Thread(runnable, "Incremental compilation worker") {
+    init {
+        isDaemon = true
+    }
+}
+
+private val executor: ExecutorService by lazy {
+    Executors.newFixedThreadPool(PARALLELISM) { IncrementalWorkerThread(it) }
+}
+
+object IncrementalParallelism {
+    /**
+     * Replaces the minimal chunk sizes of all callers of [chunkedInParallel] if set, so that tests can process small inputs
+     * in parallel (1) or sequentially ([Int.MAX_VALUE])
+     */
+    @TestOnly
+    @Volatile
+    var minChunkSizeOverride: Int? = null
+}
+
+/**
+ * Splits the list into chunks of at least [minChunkSize] elements and transforms them in parallel, at most one chunk per processor.
+ * Results are returned in the order of chunks. Small lists, as well as lists processed from a worker thread, are transformed
+ * on the calling thread as a single chunk.
+ */
+internal fun <T, R> List<T>.chunkedInParallel(minChunkSize: Int, transform: (List<T>) -> R): List<R> {
+    val chunksCount = minOf(PARALLELISM, size / (IncrementalParallelism.minChunkSizeOverride ?: minChunkSize))
+    if (chunksCount <= 1 || Thread.currentThread() is IncrementalWorkerThread) return listOf(transform(this))
+
+    val chunkSize = (size + chunksCount - 1) / chunksCount
+    val futures = (0 until size step chunkSize).map { start ->
+        val chunk = subList(start, minOf(start + chunkSize, size))
+        executor.submit(Callable { transform(chunk) })
+    }
+
+    return futures.map { future ->
+        try {
+            future.get()
+        }
+        catch (e: ExecutionException) {
+            throw e.cause ?: e
+        }
+    }
+}
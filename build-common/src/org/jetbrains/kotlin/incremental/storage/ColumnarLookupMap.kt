@@ -0,0 +1,280 @@
+/*
+ * Copyright 2000-2018 JetBrains s.r.o. Use of this source code is governed by the Apache 2.0 license
+ * that can be found in the license/LICENSE.txt file.
+ */
+
+package org.jetbrains.kotlin.incremental.storage
+
+import java.io.*
+import java.nio.ByteBuffer
+import java.nio.channels.FileChannel
+import java.util.*
+import java.util.concurrent.ConcurrentHashMap
+
+/**
+ * Lookup map stored as a sorted immutable segment mapped into memory, plus the changes made since the last flush kept on the heap.
+ *
+ * The segment consists of delta-encoded posting lists of file ids, followed by three columns: name hashes and scope hashes of the keys
+ * (sorted by LookupSymbolKey order) and offsets of their posting lists. A key is found by binary search over the columns.
+ * On flush, the changes are merged with the segment into a new one in a single sequential pass.
+ *
+ * Reads don't need any locks: the segment is immutable and the changes are in a concurrent map. Writes and flushes must not be
+ * concurrent with each other, see LookupStorage.
+ *
+ * Segments are written into files with increasing generation numbers instead of replacing the file in place, because a mapped file
+ * can't be replaced or deleted on Windows until the mapping is garbage collected. Obsolete generations are deleted when possible.
+ */
+internal class ColumnarLookupMap(private val storageDirectory: File, private val fileNamePrefix: String) : LookupSymbolMap {
+    @Volatile
+    private var segment: Segment? = null
+    private var generation = -1
+
+    // Keys set since the last flush. An empty array means that the key is removed
+    private val changes = ConcurrentHashMap<LookupSymbolKey, IntArray>()
+
+    init {
+        val generations = existingGenerations()
+        if (generations.isNotEmpty()) {
+            generation = generations.last()
+            segment = Segment.load(generationFile(generation))
+            deleteGenerationsBefore(generation)
+        }
+    }
+
+    val exists: Boolean get() = segment != null || changes.isNotEmpty()
+
+    override operator fun get(key: LookupSymbolKey): Collection<Int>? {
+        val changed = changes[key]
+        if (changed != null) return if (changed.isEmpty()) null else changed.asList()
+
+        return segment?.get(key)?.asList()
+    }
+
+    override operator fun set(key: LookupSymbolKey, fileIds: Set<Int>) {
+        changes[key] = fileIds.toIntArray().apply { sort() }
+    }
+
+    override fun remove(key: LookupSymbolKey) {
+        changes[key] = REMOVED
+    }
+
+    override val keys: Collection<LookupSymbolKey>
+        get() {
+            val result = LinkedHashSet<LookupSymbolKey>()
+            segment?.forEach { key, _ -> if (key !in changes) result.add(key) }
+            for ((key, fileIds) in changes) {
+                if (fileIds.isNotEmpty()) result.add(key)
+            }
+            return result
+        }
+
+    fun flush() {
+        if (changes.isEmpty()) return
+
+        val sortedChanges = changes.entries.sortedBy { it.key }
+        val newGeneration = generation + 1
+        val newFile = generationFile(newGeneration)
+        writeMerged(newFile, segment, sortedChanges)
+
+        segment = Segment.load(newFile)
+        generation = newGeneration
+        // Changes made during the flush would be lost, but writes are not allowed to be concurrent with flushes
+        changes.clear()
+        deleteGenerationsBefore(newGeneration)
+    }
+
+    // Unlike PersistentHashMap, the segment has nothing to release, but the changes should not be lost
+    fun close() {
+        flush()
+    }
+
+    fun clean() {
+        changes.clear()
+        segment = null
+        generation = -1
+        existingGenerations().forEach { generationFile(it).delete() }
+    }
+
+    private fun writeMerged(file: File, segment: Segment?, sortedChanges: List<Map.Entry<LookupSymbolKey, IntArray>>) {
+        Segment.write(file) { add ->
+            var changeIndex = 0
+            fun addChangesBefore(key: LookupSymbolKey?) {
+                while (changeIndex < sortedChanges.size && (key == null || sortedChanges[changeIndex].key < key)) {
+                    val (changedKey, changedIds) = sortedChanges[changeIndex++]
+                    if (changedIds.isNotEmpty()) add(changedKey, changedIds)
+                }
+            }
+
+            segment?.forEach { key, fileIds ->
+                addChangesBefore(key)
+                if (changeIndex < sortedChanges.size && sortedChanges[changeIndex].key == key) {
+                    val changedIds = sortedChanges[changeIndex++].value
+                    if (changedIds.isNotEmpty()) add(key, changedIds)
+                }
+                else {
+                    add(key, fileIds())
+                }
+            }
+            addChangesBefore(null)
+        }
+    }
+
+    private fun generationFile(generation: Int): File = File(storageDirectory, "$fileNamePrefix.$generation.$EXTENSION")
+
+    private fun existingGenerations(): List<Int> = existingGenerations(storageDirectory, fileNamePrefix)
+
+    private fun deleteGenerationsBefore(generation: Int) {
+        for (obsolete in existingGenerations()) {
+            if (obsolete < generation) {
+                // Fails on Windows while the old segment is still mapped, it will be deleted by one of the next flushes then
+                generationFile(obsolete).delete()
+            }
+        }
+    }
+
+    private class Segment(private val buffer: ByteBuffer, private val size: Int, private val columnsStart: Int) {
+        fun nameHash(index: Int): Int = buffer.getInt(columnsStart + index * 4)
+        fun scopeHash(index: Int): Int = buffer.getInt(columnsStart + (size + index) * 4)
+        fun postingsOffset(index: Int): Int = buffer.getInt(columnsStart + (2 * size + index) * 4)
+
+        fun get(key: LookupSymbolKey): IntArray? {
+            var low = 0
+            var high = size - 1
+            while (low <= high) {
+                val middle = (low + high) ushr 1
+                val comparison = compare(nameHash(middle), scopeHash(middle), key)
+                when {
+                    comparison < 0 -> low = middle + 1
+                    comparison > 0 -> high = middle - 1
+                    else -> return readPostings(postingsOffset(middle))
+                }
+            }
+            return null
+        }
+
+        // File ids are decoded only if requested, so that merging doesn't decode posting lists of unchanged keys twice
+        inline fun forEach(action: (LookupSymbolKey, () -> IntArray) -> Unit) {
+            for (index in 0 until size) {
+                val offset = postingsOffset(index)
+                action(LookupSymbolKey(nameHash(index), scopeHash(index))) { readPostings(offset) }
+            }
+        }
+
+        private fun compare(nameHash: Int, scopeHash: Int, key: LookupSymbolKey): Int {
+            val nameComparison = nameHash.compareTo(key.nameHash)
+            return if (nameComparison != 0) nameComparison else scopeHash.compareTo(key.scopeHash)
+        }
+
+        fun readPostings(offset: Int): IntArray {
+            var position = offset
+            fun readVarInt(): Int {
+                var result = 0
+                var shift = 0
+                while (true) {
+                    val byte = buffer.get(position++).toInt()
+                    result = result or ((byte and 0x7F) shl shift)
+                    if (byte and 0x80 == 0) return result
+                    shift += 7
+                }
+            }
+
+            val count = readVarInt()
+            val result = IntArray(count)
+            var previous = 0
+            for (i in 0 until count) {
+                previous += readVarInt()
+                result[i] = previous
+            }
+            return result
+        }
+
+        companion object {
+            fun load(file: File): Segment {
+                val buffer = RandomAccessFile(file, "r").use { it.channel.map(FileChannel.MapMode.READ_ONLY, 0, it.length()) }
+                val footer = buffer.limit() - FOOTER_SIZE
+                if (buffer.limit() < FOOTER_SIZE || buffer.getInt(footer) != MAGIC || buffer.getInt(footer + 4) != VERSION) {
+                    throw IOException("Invalid lookups file: $file")
+                }
+                return Segment(buffer, buffer.getInt(footer + 8), buffer.getInt(footer + 12))
+            }
+
+            // Keys must be added in ascending order
+            fun write(file: File, addEntries: ((LookupSymbolKey, IntArray) -> Unit) -> Unit) {
+                var nameHashes = IntArray(INITIAL_CAPACITY)
+                var scopeHashes = IntArray(INITIAL_CAPACITY)
+                var offsets = IntArray(INITIAL_CAPACITY)
+                var size = 0
+
+                val tmpFile = File(file.parentFile, file.name + ".tmp")
+                file.parentFile.mkdirs()
+                DataOutputStream(BufferedOutputStream(FileOutputStream(tmpFile))).use { output ->
+                    fun writeVarInt(value: Int) {
+                        var remaining = value
+                        while (remaining and 0x7F.inv() != 0) {
+                            output.writeByte((remaining and 0x7F) or 0x80)
+                            remaining = remaining ushr 7
+                        }
+                        output.writeByte(remaining)
+                    }
+
+                    addEntries { key, fileIds ->
+                        if (size == nameHashes.size) {
+                            nameHashes = nameHashes.copyOf(size * 2)
+                            scopeHashes = scopeHashes.copyOf(size * 2)
+                            offsets = offsets.copyOf(size * 2)
+                        }
+                        if (output.size() == Int.MAX_VALUE) throw IOException("Lookups file is too large: $file")
+                        nameHashes[size] = key.nameHash
+                        scopeHashes[size] = key.scopeHash
+                        offsets[size] = output.size()
+                        size++
+
+                        writeVarInt(fileIds.size)
+                        var previous = 0
+                        for (fileId in fileIds) {
+                            writeVarInt(fileId - previous)
+                            previous = fileId
+                        }
+                    }
+
+                    val columnsStart = output.size()
+                    for (i in 0 until size) output.writeInt(nameHashes[i])
+                    for (i in 0 until size) output.writeInt(scopeHashes[i])
+                    for (i in 0 until size) output.writeInt(offsets[i])
+
+                    output.writeInt(MAGIC)
+                    output.writeInt(VERSION)
+                    output.writeInt(size)
+                    output.writeInt(columnsStart)
+                }
+
+                if (!tmpFile.renameTo(file)) {
+                    tmpFile.delete()
+                    throw IOException("Could not write lookups file: $file")
+                }
+            }
+
+            private const val MAGIC = 0x4b4c4b50
+            private const val VERSION = 1
+            private const val FOOTER_SIZE = 16
+            private const val INITIAL_CAPACITY = 1024
+        }
+    }
+
+    companion object {
+        private const val EXTENSION = "tab"
+
+        private val REMOVED = IntArray(0)
+
+        // Checks for stored generations without loading the last one
+        fun exists(storageDirectory: File, fileNamePrefix: String): Boolean =
+                existingGenerations(storageDirectory, fileNamePrefix).isNotEmpty()
+
+        private fun existingGenerations(storageDirectory: File, fileNamePrefix: String): List<Int> {
+            val fileNames = storageDirectory.list() ?: return emptyList()
+            return fileNames.mapNotNull { name ->
+                name.removePrefix("$fileNamePrefix.").takeIf { it != name }?.removeSuffix(".$EXTENSION")?.toIntOrNull()
+            }.sorted()
+        }
+    }
+}
@@ -0,0 +1,228 @@
+/*
+ * Copyright 2000-2018 JetBrains s.r.o. Use of this source code is governed by the Apache 2.0 license
+ * that can be found in the license/LICENSE.txt file.
+ */
+
+package org.jetbrains.kotlin.incremental.storage
+
+import java.io.File
+import java.io.IOException
+import java.util.*
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.Executors
+import java.util.concurrent.Future
+import java.util.logging.Level
+import java.util.logging.Logger
+
+/**
+ * Keeps the contents of LazyStorage-s in memory between builds in a long-living process (the compile daemon),
+ * so that the caches of a module compiled again are not reopened and re-read from disk.
+ *
+ * Each storage has a generation stamp file next to it, which is changed on every modification of the storage on disk
+ * (by the daemon or by any other process). Contents kept in memory are dropped if the stamp on disk does not match the one
+ * the contents correspond to.
+ * Modifications are kept in memory during a build and are written back on a background thread when the storage is closed;
+ * a storage opened again waits for the pending write-back.
+ *
+ * Before the compilation returns, a dirty marker is written next to each storage with modifications which are not on disk yet,
+ * the marker is deleted after a successful write-back. A marker left by a process which was killed or failed to write
+ * the modifications means that the storage on disk is outdated, see [LazyStorage].
+ */
+object InMemoryStorageCache {
+    // Is set by the daemon; caches are always read from disk otherwise
+    @Volatile
+    var isEnabled = false
+
+    private val storages = ConcurrentHashMap<File, InMemoryStorage<*, *>>()
+
+    private val writeBackExecutor: ExecutorService by lazy {
+        Executors.newSingleThreadExecutor { runnable ->
+            Thread(runnable, "Incremental caches write-back").apply { isDaemon = true }
+        }
+    }
+
+    private val log by lazy { Logger.getLogger(InMemoryStorageCache::class.java.name) }
+
+    // Returns null if the layer is disabled
+    internal fun <K, V> acquire(storageFile: File): InMemoryStorage<K, V>? {
+        if (!isEnabled) return null
+
+        @Suppress("UNCHECKED_CAST")
+        val storage = storages.getOrPut(storageFile.canonicalFile) { InMemoryStorage<K, V>() } as InMemoryStorage<K, V>
+        storage.awaitWriteBack()
+        storage.validate(readStamp(storageFile))
+        return storage
+    }
+
+    internal fun scheduleWriteBack(storage: InMemoryStorage<*, *>, writeBack: () -> Unit) {
+        storage.pendingWriteBack = writeBackExecutor.submit {
+            try {
+                writeBack()
+            }
+            catch (e: Throwable) {
+                // modifications stay in memory and are written again when the storage is closed next time;
+                // the dirty marker is kept, so that another process does not trust the storage on disk
+                log.log(Level.WARNING, "Could not write back incremental caches", e)
+            }
+        }
+    }
+
+    /**
+     * Waits until all modifications are written to disk, should be called before the process exits
+     */
+    fun awaitWriteBack() {
+        storages.values.forEach { it.awaitWriteBack() }
+    }
+
+    /**
+     * Writes back all modifications and drops all contents kept in memory
+     */
+    fun clear() {
+        awaitWriteBack()
+        storages.clear()
+    }
+
+    /**
+     * Drops the contents kept in memory for the storages in the given directory, e.g. when its caches are going to be rebuilt.
+     * Pending write-backs are awaited, so that they don't write to the storages after they are deleted
+     */
+    fun drop(directory: File) {
+        val canonicalDirectory = directory.canonicalFile
+        for ((storageFile, storage) in storages) {
+            if (storageFile.startsWith(canonicalDirectory)) {
+                storages.remove(storageFile, storage)
+                storage.awaitWriteBack()
+                storage.reset()
+            }
+        }
+    }
+
+    internal fun stampFile(storageFile: File): File =
+            // starts with the name of the storage file, so it is deleted together with the storage, see PersistentHashMap.deleteFilesStartingWith
+            File(storageFile.parentFile, storageFile.name + ".stamp")
+
+    internal fun dirtyMarkerFile(storageFile: File): File =
+            // starts with the name of the storage file for the same reason as the stamp file
+            File(storageFile.parentFile, storageFile.name + ".dirty")
+
+    internal fun readStamp(storageFile: File): Long {
+        val stampFile = stampFile(storageFile)
+        return try {
+            if (stampFile.exists()) stampFile.readText().toLong() else NO_STAMP
+        }
+        catch (e: IOException) {
+            INVALID_STAMP
+        }
+        catch (e: NumberFormatException) {
+            INVALID_STAMP
+        }
+    }
+
+    internal fun writeNewStamp(storageFile: File): Long {
+        var stamp: Long
+        do {
+            stamp = random.nextLong()
+        } while (stamp == NO_STAMP || stamp == INVALID_STAMP)
+
+        stampFile(storageFile).writeText(stamp.toString())
+        return stamp
+    }
+
+    private val random = Random()
+
+    internal const val NO_STAMP = 0L
+    private const val INVALID_STAMP = -1L
+}
+
+internal class InMemoryStorage<K, V> {
+    @Volatile
+    var pendingWriteBack: Future<*>? = null
+
+    // generation of the storage on disk the contents correspond to
+    private var stamp = InMemoryStorageCache.NO_STAMP
+    // all keys, null if not loaded yet
+    private var keys: MutableSet<K>? = null
+    // loaded or modified values, NULL_VALUE for the keys which don't have values
+    private val values = HashMap<K, Any?>()
+    // modifications which are not written to disk yet, NULL_VALUE for the removed keys
+    private val dirty = LinkedHashMap<K, Any?>()
+
+    fun awaitWriteBack() {
+        pendingWriteBack?.get()
+    }
+
+    @Synchronized
+    fun hasModifications(): Boolean = dirty.isNotEmpty()
+
+    @Synchronized
+    fun validate(stampOnDisk: Long) {
+        if (stampOnDisk != stamp) {
+            reset(stampOnDisk)
+        }
+    }
+
+    @Synchronized
+    fun reset(newStamp: Long = InMemoryStorageCache.NO_STAMP) {
+        stamp = newStamp
+        keys = null
+        values.clear()
+        dirty.clear()
+    }
+
+    @Synchronized
+    fun keys(load: () -> Collection<K>): Collection<K> {
+        val loadedKeys = keys ?: load().toHashSet().also { keys = it }
+        return ArrayList(loadedKeys)
+    }
+
+    @Synchronized
+    fun get(key: K, load: (K) -> V?): V? {
+        val value = if (key in values) values[key] else (load(key) ?: NULL_VALUE).also { values[key] = it }
+        @Suppress("UNCHECKED_CAST")
+        return if (value === NULL_VALUE) null else value as V
+    }
+
+    @Synchronized
+    fun set(key: K, value: V) {
+        values[key] = value
+        dirty[key] = value
+        keys?.add(key)
+    }
+
+    @Synchronized
+    fun remove(key: K) {
+        values[key] = NULL_VALUE
+        dirty[key] = NULL_VALUE
+        keys?.remove(key)
+    }
+
+    // Appended data can't be combined with a value in memory, so it is written to disk right away
+    @Synchronized
+    fun append(key: K, write: (K, V?) -> Unit, append: () -> Unit) {
+        if (key in dirty) {
+            write(key, dirtyValue(dirty.remove(key)))
+        }
+        append()
+        values.remove(key)
+        keys?.add(key)
+    }
+
+    @Synchronized
+    fun writeBack(modifiedOnDisk: Boolean, write: (K, V?) -> Unit, newStamp: () -> Long) {
+        if (dirty.isEmpty() && !modifiedOnDisk) return
+
+        for ((key, value) in dirty) {
+            write(key, dirtyValue(value))
+        }
+        dirty.clear()
+        stamp = newStamp()
+    }
+
+    @Suppress("UNCHECKED_CAST")
+    private fun dirtyValue(value: Any?): V? = if (value === NULL_VALUE) null else value as V
+
+    private companion object {
+        val NULL_VALUE = Any()
+    }
+}
@@ -26,7 +26,8 @@ import java.io.IOException
 
 
 /**
- * It's lazy in a sense that PersistentHashMap is created only on write
+ * It's lazy in a sense that PersistentHashMap is created only on write.
+ * If InMemoryStorageCache is enabled, contents are read from disk only once per process and modifications are written back on close.
  */
 class LazyStorage<K, V>(
         private val storageFile: File,
@@ -36,6 +37,16 @@ class LazyStorage<K, V>(
     @Volatile
     private var storage: PersistentHashMap<K, V>? = null
 
+    private val memory: InMemoryStorage<K, V>? = InMemoryStorageCache.acquire(storageFile)
+
+    // Modifications kept in memory by a daemon were not written back completely (e.g. it was killed), so the storage on disk
+    // is outdated. Reading or writing it throws an exception then, and the incremental compilation falls back to a rebuild
+    private val isOutdated = InMemoryStorageCache.dirtyMarkerFile(storageFile).exists()
+
+    // true if the storage on disk was modified since the generation stamp was written
+    @Volatile
+    private var isModifiedOnDisk = false
+
     @Synchronized
     private fun getStorageIfExists(): PersistentHashMap<K, V>? {
         if (storage != null) return storage
@@ -58,20 +69,39 @@ class LazyStorage<K, V>(
     }
 
     val keys: Collection<K>
-        get() = getStorageIfExists()?.allKeysWithExistingMapping ?: listOf()
+        get() {
+            checkNotOutdated()
+            return memory?.keys { diskKeys() } ?: diskKeys()
+        }
 
-    operator fun contains(key: K): Boolean =
-            getStorageIfExists()?.containsMapping(key) ?: false
+    operator fun contains(key: K): Boolean {
+        checkNotOutdated()
+        return if (memory != null) memory.get(key) { diskGet(it) } != null else getStorageIfExists()?.containsMapping(key) ?: false
+    }
 
-    operator fun get(key: K): V? =
-            getStorageIfExists()?.get(key)
+    operator fun get(key: K): V? {
+        checkNotOutdated()
+        return if (memory != null) memory.get(key) { diskGet(it) } else diskGet(key)
+    }
 
     operator fun set(key: K, value: V) {
-        getStorageOrCreateNew().put(key, value)
+        checkNotOutdated()
+        if (memory != null) {
+            memory.set(key, value)
+        }
+        else {
+            diskWrite(key, value)
+        }
     }
 
     fun remove(key: K) {
-        getStorageIfExists()?.remove(key)
+        checkNotOutdated()
+        if (memory != null) {
+            memory.remove(key)
+        }
+        else {
+            diskWrite(key, null)
+        }
     }
 
     fun append(key: K, value: String) {
@@ -82,20 +112,25 @@ class LazyStorage<K, V>(
         append(key) { out -> out.writeInt(value) }
     }
 
-    @Synchronized
     fun clean() {
-        try {
-            storage?.close()
-        }
-        catch (ignored: Throwable) {
-        }
+        synchronized(this) {
+            try {
+                storage?.close()
+            }
+            catch (ignored: Throwable) {
+            }
 
-        PersistentHashMap.deleteFilesStartingWith(storageFile)
-        storage = null
+            PersistentHashMap.deleteFilesStartingWith(storageFile)
+            storage = null
+            isModifiedOnDisk = false
+        }
+        // outside of the lock: the memory layer calls this storage under its own lock
+        memory?.reset()
     }
 
     @Synchronized
     fun flush(memoryCachesOnly: Boolean) {
+        // modifications kept in memory are written on close
         val existingStorage = storage ?: return
 
         if (memoryCachesOnly) {
@@ -105,18 +140,96 @@ class LazyStorage<K, V>(
         }
         else {
             existingStorage.force()
+            if (memory == null) {
+                updateStampIfModified()
+            }
         }
     }
 
-    @Synchronized
     fun close() {
-        storage?.close()
+        if (memory == null) {
+            synchronized(this) {
+                storage?.close()
+                updateStampIfModified()
+            }
+            return
+        }
+
+        // Not under the lock of this storage: the memory layer calls this storage under its own lock (see clean())
+        val hasModifications = memory.hasModifications()
+
+        val modifiedOnDisk = synchronized(this) {
+            isModifiedOnDisk.also { isModifiedOnDisk = false }
+        }
+
+        // Written before the compilation returns, so that the storage is known to be outdated if the write-back never completes
+        val dirtyMarker = InMemoryStorageCache.dirtyMarkerFile(storageFile)
+        if (hasModifications) {
+            dirtyMarker.parentFile.mkdirs()
+            dirtyMarker.writeText("")
+        }
+
+        InMemoryStorageCache.scheduleWriteBack(memory) {
+            try {
+                memory.writeBack(modifiedOnDisk, { key, value -> diskWrite(key, value) }) {
+                    storage?.force()
+                    InMemoryStorageCache.writeNewStamp(storageFile)
+                }
+                dirtyMarker.delete()
+            }
+            finally {
+                synchronized(this) {
+                    storage?.close()
+                    storage = null
+                }
+            }
+        }
+    }
+
+    private fun checkNotOutdated() {
+        if (isOutdated) {
+            throw IOException("Storage $storageFile is outdated: modifications kept in memory were not written to it")
+        }
+    }
+
+    private fun updateStampIfModified() {
+        if (isModifiedOnDisk) {
+            isModifiedOnDisk = false
+            InMemoryStorageCache.writeNewStamp(storageFile)
+        }
     }
 
     private fun createMap(): PersistentHashMap<K, V> =
             PersistentHashMap(storageFile, keyDescriptor, valueExternalizer)
 
+    private fun diskKeys(): Collection<K> =
+            getStorageIfExists()?.allKeysWithExistingMapping ?: listOf()
+
+    private fun diskGet(key: K): V? =
+            getStorageIfExists()?.get(key)
+
+    private fun diskWrite(key: K, value: V?) {
+        if (value != null) {
+            getStorageOrCreateNew().put(key, value)
+        }
+        else {
+            getStorageIfExists()?.remove(key)
+        }
+        isModifiedOnDisk = true
+    }
+
     private fun append(key: K, append: (DataOutput)->Unit) {
-        getStorageOrCreateNew().appendData(key, append)
+        checkNotOutdated()
+        val diskAppend = {
+            getStorageOrCreateNew().appendData(key, append)
+            isModifiedOnDisk = true
+        }
+
+        if (memory != null) {
+            memory.append(key, { k, v -> diskWrite(k, v) }, diskAppend)
+        }
+        else {
+            diskAppend()
+        }
     }
 }
@@ -18,7 +18,18 @@ package org.jetbrains.kotlin.incremental.storage
 
 import java.io.File
 
-internal class LookupMap(storage: File) : BasicMap<LookupSymbolKey, Collection<Int>>(storage, LookupSymbolKeyDescriptor, IntCollectionExternalizer) {
+internal interface LookupSymbolMap {
+    operator fun get(key: LookupSymbolKey): Collection<Int>?
+
+    operator fun set(key: LookupSymbolKey, fileIds: Set<Int>)
+
+    fun remove(key: LookupSymbolKey)
+
+    val keys: Collection<LookupSymbolKey>
+}
+
+internal class LookupMap(storage: File) :
+        BasicMap<LookupSymbolKey, Collection<Int>>(storage, LookupSymbolKeyDescriptor, IntCollectionExternalizer), LookupSymbolMap {
     override fun dumpKey(key: LookupSymbolKey): String = key.toString()
 
     override fun dumpValue(value: Collection<Int>): String = value.toString()
@@ -27,16 +38,16 @@ internal class LookupMap(storage: File) : BasicMap<LookupSymbolKey, Collection<I
         storage.append(LookupSymbolKey(name, scope), fileId)
     }
 
-    operator fun get(key: LookupSymbolKey): Collection<Int>? = storage[key]
+    override operator fun get(key: LookupSymbolKey): Collection<Int>? = storage[key]
 
-    operator fun set(key: LookupSymbolKey, fileIds: Set<Int>) {
+    override operator fun set(key: LookupSymbolKey, fileIds: Set<Int>) {
         storage[key] = fileIds
     }
 
-    fun remove(key: LookupSymbolKey) {
+    override fun remove(key: LookupSymbolKey) {
         storage.remove(key)
     }
 
-    val keys: Collection<LookupSymbolKey>
+    override val keys: Collection<LookupSymbolKey>
         get() = storage.keys
 }
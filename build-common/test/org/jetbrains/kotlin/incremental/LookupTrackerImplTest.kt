@@ -0,0 +1,53 @@
+/*
+ * Copyright 2000-2018 JetBrains s.r.o. Use of this source code is governed by the Apache 2.0 license
+ * that can be found in the license/LICENSE.txt file.
+ */
+
+package org.jetbrains.kotlin.incremental
+
+import org.jetbrains.kotlin.incremental.components.LookupTracker
+import org.jetbrains.kotlin.incremental.components.Position
+import org.jetbrains.kotlin.incremental.components.ScopeKind
+import org.junit.Assert.assertEquals
+import org.junit.Test
+import kotlin.concurrent.thread
+
+class LookupTrackerImplTest {
+    @Test
+    fun testDuplicatesAreRemoved() {
+        val tracker = LookupTrackerImpl(LookupTracker.DO_NOTHING)
+        tracker.record("a.kt", Position.NO_POSITION, "foo", ScopeKind.PACKAGE, "bar")
+        tracker.record("b.kt", Position.NO_POSITION, "foo", ScopeKind.PACKAGE, "bar")
+        tracker.record("a.kt", Position.NO_POSITION, "foo", ScopeKind.PACKAGE, "bar")
+        tracker.record("a.kt", Position.NO_POSITION, "bar", ScopeKind.CLASSIFIER, "foo")
+
+        assertEquals(
+                mapOf(
+                        LookupSymbol("bar", "foo") to setOf("a.kt", "b.kt"),
+                        LookupSymbol("foo", "bar") to setOf("a.kt")
+                ),
+                tracker.lookups.entrySet().associate { it.key to it.value.toSet() }
+        )
+        assertEquals(setOf("a.kt", "b.kt"), tracker.recordedPaths.toSet())
+    }
+
+    @Test
+    fun testConcurrentRecording() {
+        val tracker = LookupTrackerImpl(LookupTracker.DO_NOTHING)
+        val threads = (0 until 4).map { threadIndex ->
+            thread {
+                for (i in 0 until 10000) {
+                    tracker.record("file${i % 10}.kt", Position.NO_POSITION, "scope${threadIndex % 2}", ScopeKind.PACKAGE, "name${i % 100}")
+                }
+            }
+        }
+        threads.forEach(Thread::join)
+
+        val lookups = tracker.lookups
+        assertEquals(200, lookups.keySet().size)
+        for (lookup in lookups.keySet()) {
+            assertEquals(1, lookups[lookup].size)
+        }
+        assertEquals(10, tracker.recordedPaths.size)
+    }
+}
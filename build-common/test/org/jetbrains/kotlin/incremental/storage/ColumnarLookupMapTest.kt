@@ -0,0 +1,85 @@
+/*
+ * Copyright 2000-2018 JetBrains s.r.o. Use of this source code is governed by the Apache 2.0 license
+ * that can be found in the license/LICENSE.txt file.
+ */
+
+package org.jetbrains.kotlin.incremental.storage
+
+import org.jetbrains.kotlin.TestWithWorkingDir
+import org.junit.Assert.*
+import org.junit.Test
+import java.util.*
+
+class ColumnarLookupMapTest : TestWithWorkingDir() {
+    @Test
+    fun testSetAndRemoveAcrossFlushes() {
+        val map = ColumnarLookupMap(workingDir, "lookups")
+        val foo = LookupSymbolKey("foo", "a.b")
+        val bar = LookupSymbolKey("bar", "a.b")
+        val baz = LookupSymbolKey("baz", "")
+
+        map[foo] = setOf(3, 1, 200)
+        map[bar] = setOf(70000)
+        assertEquals(listOf(1, 3, 200), map[foo])
+        map.flush()
+
+        assertEquals(listOf(1, 3, 200), map[foo])
+        assertEquals(listOf(70000), map[bar])
+        assertNull(map[baz])
+
+        map[baz] = setOf(5)
+        map.remove(bar)
+        assertNull(map[bar])
+        assertEquals(setOf(foo, baz), map.keys.toSet())
+        map.flush()
+
+        val reopened = ColumnarLookupMap(workingDir, "lookups")
+        assertEquals(listOf(1, 3, 200), reopened[foo])
+        assertEquals(listOf(5), reopened[baz])
+        assertNull(reopened[bar])
+        assertEquals(setOf(foo, baz), reopened.keys.toSet())
+    }
+
+    @Test
+    fun testMergeMatchesHashMap() {
+        val map = ColumnarLookupMap(workingDir, "lookups")
+        val expected = HashMap<LookupSymbolKey, Set<Int>>()
+        val random = Random(42)
+
+        repeat(5) {
+            repeat(1000) {
+                val key = LookupSymbolKey(random.nextInt(300), random.nextInt(3))
+                if (random.nextInt(5) == 0) {
+                    map.remove(key)
+                    expected.remove(key)
+                }
+                else {
+                    val fileIds = (0..random.nextInt(10)).mapTo(HashSet()) { random.nextInt(100000) }
+                    map[key] = fileIds
+                    expected[key] = fileIds
+                }
+            }
+            map.flush()
+        }
+
+        val reopened = ColumnarLookupMap(workingDir, "lookups")
+        assertEquals(expected.keys, reopened.keys.toSet())
+        for ((key, fileIds) in expected) {
+            assertEquals(fileIds.sorted(), reopened[key])
+        }
+    }
+
+    @Test
+    fun testClean() {
+        val map = ColumnarLookupMap(workingDir, "lookups")
+        map[LookupSymbolKey("foo", "")] = setOf(1)
+        map.flush()
+        assertTrue(ColumnarLookupMap.exists(workingDir, "lookups"))
+        map.clean()
+
+        assertFalse(map.exists)
+        assertFalse(ColumnarLookupMap(workingDir, "lookups").exists)
+        assertFalse(ColumnarLookupMap.exists(workingDir, "lookups"))
+        assertTrue(workingDir.listFiles().isEmpty())
+    }
+}
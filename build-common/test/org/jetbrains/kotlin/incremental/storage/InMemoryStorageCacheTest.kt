@@ -0,0 +1,148 @@
+/*
+ * Copyright 2000-2018 JetBrains s.r.o. Use of this source code is governed by the Apache 2.0 license
+ * that can be found in the license/LICENSE.txt file.
+ */
+
+package org.jetbrains.kotlin.incremental.storage
+
+import com.intellij.util.io.EnumeratorStringDescriptor
+import com.intellij.util.io.PersistentHashMap
+import org.jetbrains.kotlin.TestWithWorkingDir
+import org.junit.Assert.*
+import org.junit.Test
+import java.io.File
+import java.io.IOException
+
+class InMemoryStorageCacheTest : TestWithWorkingDir() {
+    private val storageFile: File
+        get() = File(workingDir, "test.tab")
+
+    override fun setUp() {
+        super.setUp()
+        InMemoryStorageCache.isEnabled = true
+    }
+
+    override fun tearDown() {
+        InMemoryStorageCache.clear()
+        InMemoryStorageCache.isEnabled = false
+        super.tearDown()
+    }
+
+    @Test
+    fun testModificationsAreWrittenBackOnClose() {
+        storage().apply {
+            this["foo"] = 1
+            this["bar"] = 2
+            remove("bar")
+            append("baz", 3)
+            close()
+        }
+        InMemoryStorageCache.awaitWriteBack()
+
+        val diskStorage = withoutMemoryCache { storage() }
+        assertEquals(1, diskStorage["foo"])
+        assertNull(diskStorage["bar"])
+        assertEquals(3, diskStorage["baz"])
+        assertEquals(setOf("foo", "baz"), diskStorage.keys.toSet())
+        diskStorage.close()
+    }
+
+    @Test
+    fun testContentsAreDroppedIfStorageIsModifiedOnDisk() {
+        storage().apply {
+            this["foo"] = 1
+            close()
+        }
+        InMemoryStorageCache.awaitWriteBack()
+
+        withoutMemoryCache {
+            storage().apply {
+                this["foo"] = 2
+                close()
+            }
+        }
+
+        val storage = storage()
+        assertEquals(2, storage["foo"])
+        storage.close()
+    }
+
+    @Test
+    fun testClean() {
+        storage().apply {
+            this["foo"] = 1
+            close()
+        }
+        InMemoryStorageCache.awaitWriteBack()
+
+        storage().apply {
+            clean()
+            assertNull(this["foo"])
+            assertTrue(keys.isEmpty())
+            close()
+        }
+        InMemoryStorageCache.awaitWriteBack()
+        assertTrue(workingDir.listFiles().isEmpty())
+    }
+
+    @Test
+    fun testDirtyMarkerIsDeletedAfterWriteBack() {
+        storage().apply {
+            this["foo"] = 1
+            close()
+        }
+        InMemoryStorageCache.awaitWriteBack()
+        assertFalse(InMemoryStorageCache.dirtyMarkerFile(storageFile).exists())
+    }
+
+    @Test
+    fun testStorageWithDirtyMarkerIsOutdated() {
+        storage().apply {
+            this["foo"] = 1
+            close()
+        }
+        InMemoryStorageCache.awaitWriteBack()
+        // as if the process was killed before the write-back
+        InMemoryStorageCache.dirtyMarkerFile(storageFile).writeText("")
+        InMemoryStorageCache.clear()
+
+        val storage = storage()
+        try {
+            storage["foo"]
+            fail("Outdated storage should not be read")
+        }
+        catch (e: IOException) {
+        }
+
+        storage.clean()
+        storage.close()
+        InMemoryStorageCache.awaitWriteBack()
+        assertFalse(InMemoryStorageCache.dirtyMarkerFile(storageFile).exists())
+    }
+
+    @Test
+    fun testDroppedContentsAreNotWrittenBack() {
+        storage().apply {
+            this["foo"] = 1
+            close()
+        }
+        InMemoryStorageCache.drop(workingDir)
+        PersistentHashMap.deleteFilesStartingWith(storageFile)
+
+        val storage = storage()
+        assertNull(storage["foo"])
+        storage.close()
+    }
+
+    private fun storage() = LazyStorage(storageFile, EnumeratorStringDescriptor(), IntExternalizer)
+
+    private fun <T> withoutMemoryCache(fn: () -> T): T {
+        InMemoryStorageCache.isEnabled = false
+        try {
+            return fn()
+        }
+        finally {
+            InMemoryStorageCache.isEnabled = true
+        }
+    }
+}
@@ -56,6 +56,7 @@ public class ClassFileFactory implements OutputFileCollection {
     private final GenerationState state;
     private final ClassBuilderFactory builderFactory;
     private final Map<String, OutAndSourceFileList> generators = new LinkedHashMap<>();
+    private final ThreadLocal<OutputBuffer> currentBuffer = new ThreadLocal<>();
 
     private boolean isDone = false;
 
@@ -86,13 +87,57 @@ public class ClassFileFactory implements OutputFileCollection {
             @NotNull Collection<? extends PsiFile> sourceFiles
     ) {
         ClassBuilder answer = builderFactory.newClassBuilder(origin);
-        generators.put(
+        registerGenerator(
                 asmType.getInternalName() + ".class",
                 new ClassBuilderAndSourceFileList(answer, toIoFilesIgnoringNonPhysical(sourceFiles))
         );
         return answer;
     }
 
+    private void registerGenerator(@NotNull String relativePath, @NotNull OutAndSourceFileList generator) {
+        OutputBuffer buffer = currentBuffer.get();
+        if (buffer != null) {
+            buffer.generators.put(relativePath, generator);
+        }
+        else {
+            synchronized (generators) {
+                generators.put(relativePath, generator);
+            }
+        }
+    }
+
+    /**
+     * Runs the given generation collecting all classes it creates on the current thread into a separate buffer.
+     * Buffers are merged back with {@link #mergeBuffer} in a fixed order, so that the order of output files
+     * does not depend on how independent parts were scheduled between backend threads.
+     */
+    @NotNull
+    public OutputBuffer generateIntoBuffer(@NotNull Runnable generation) {
+        assert currentBuffer.get() == null : "Nested output buffers are not supported";
+        OutputBuffer buffer = new OutputBuffer();
+        currentBuffer.set(buffer);
+        try {
+            generation.run();
+        }
+        finally {
+            currentBuffer.remove();
+        }
+        return buffer;
+    }
+
+    public void mergeBuffer(@NotNull OutputBuffer buffer) {
+        synchronized (generators) {
+            // Buffers are merged in the sequential order, so this removes exactly the classes generated before the buffer's part
+            // which the sequential mode would have removed
+            generators.keySet().removeAll(buffer.removedPaths);
+            generators.putAll(buffer.generators);
+        }
+    }
+
+    public boolean isGeneratingIntoBuffer() {
+        return currentBuffer.get() != null;
+    }
+
     public void done() {
         if (!isDone) {
             isDone = true;
@@ -101,7 +146,25 @@ public class ClassFileFactory implements OutputFileCollection {
     }
 
     public void releaseGeneratedOutput() {
-        generators.clear();
+        synchronized (generators) {
+            generators.clear();
+        }
+    }
+
+    /**
+     * Returns the output generated so far and removes it from this factory, so that class builders (and their class writers) can be
+     * collected as soon as the returned files are written. Released files are not returned by {@link #asList()} anymore.
+     */
+    @NotNull
+    public List<OutputFile> releaseCurrentOutput() {
+        synchronized (generators) {
+            List<OutputFile> result = new ArrayList<>(generators.size());
+            for (Map.Entry<String, OutAndSourceFileList> entry : generators.entrySet()) {
+                result.add(new OutputClassFile(entry.getKey(), entry.getValue()));
+            }
+            generators.clear();
+            return result;
+        }
     }
 
     private void writeModuleMappings() {
@@ -176,7 +239,11 @@ public class ClassFileFactory implements OutputFileCollection {
     @Override
     @Nullable
     public OutputFile get(@NotNull String relativePath) {
-        return generators.containsKey(relativePath) ? new OutputClassFile(relativePath) : null;
+        // The generator is captured, because the output can be released concurrently by the parallel backend, see releaseCurrentOutput
+        synchronized (generators) {
+            OutAndSourceFileList generator = generators.get(relativePath);
+            return generator != null ? new OutputClassFile(relativePath, generator) : null;
+        }
     }
 
     @NotNull
@@ -237,13 +304,18 @@ public class ClassFileFactory implements OutputFileCollection {
     private PackagePartRegistry buildNewPackagePartRegistry(@NotNull FqName packageFqName) {
         String packageFqNameAsString = packageFqName.asString();
         return (partInternalName, facadeInternalName) -> {
-            PackageParts packageParts = partsGroupedByPackage.computeIfAbsent(packageFqNameAsString, PackageParts::new);
-            packageParts.addPart(partInternalName, facadeInternalName);
+            synchronized (partsGroupedByPackage) {
+                PackageParts packageParts = partsGroupedByPackage.computeIfAbsent(packageFqNameAsString, PackageParts::new);
+                packageParts.addPart(partInternalName, facadeInternalName);
+            }
         };
     }
 
     private void registerPackagePartSourceFiles(Collection<KtFile> files) {
-        packagePartSourceFiles.addAll(toIoFilesIgnoringNonPhysical(PackagePartClassUtils.getFilesWithCallables(files)));
+        List<File> sourceFiles = toIoFilesIgnoringNonPhysical(PackagePartClassUtils.getFilesWithCallables(files));
+        synchronized (packagePartSourceFiles) {
+            packagePartSourceFiles.addAll(sourceFiles);
+        }
     }
 
     @NotNull
@@ -262,9 +334,20 @@ public class ClassFileFactory implements OutputFileCollection {
 
     private class OutputClassFile implements OutputFile {
         private final String relativeClassFilePath;
+        // Not null for files which can be released from the factory before they're written, see releaseCurrentOutput
+        private final OutAndSourceFileList releasedGenerator;
 
         public OutputClassFile(String relativeClassFilePath) {
+            this(relativeClassFilePath, null);
+        }
+
+        private OutputClassFile(String relativeClassFilePath, @Nullable OutAndSourceFileList releasedGenerator) {
             this.relativeClassFilePath = relativeClassFilePath;
+            this.releasedGenerator = releasedGenerator;
+        }
+
+        private OutAndSourceFileList getGenerator() {
+            return releasedGenerator != null ? releasedGenerator : generators.get(relativeClassFilePath);
         }
 
         @NotNull
@@ -276,7 +359,7 @@ public class ClassFileFactory implements OutputFileCollection {
         @NotNull
         @Override
         public List<File> getSourceFiles() {
-            OutAndSourceFileList pair = generators.get(relativeClassFilePath);
+            OutAndSourceFileList pair = getGenerator();
             if (pair == null) {
                 throw new IllegalStateException("No record for binary file " + relativeClassFilePath);
             }
@@ -288,7 +371,7 @@ public class ClassFileFactory implements OutputFileCollection {
         @Override
         public byte[] asByteArray() {
             try {
-                return generators.get(relativeClassFilePath).asBytes(builderFactory);
+                return getGenerator().asBytes(builderFactory);
             }
             catch (RuntimeException e) {
                 throw new RuntimeException("Error generating class file " + this.toString() + ": " + e.getMessage(), e);
@@ -299,7 +382,7 @@ public class ClassFileFactory implements OutputFileCollection {
         @Override
         public String asText() {
             try {
-                return generators.get(relativeClassFilePath).asText(builderFactory);
+                return getGenerator().asText(builderFactory);
             }
             catch (RuntimeException e) {
                 throw new RuntimeException("Error generating class file " + this.toString() + ": " + e.getMessage(), e);
@@ -332,6 +415,15 @@ public class ClassFileFactory implements OutputFileCollection {
         }
     }
 
+    public static final class OutputBuffer {
+        private final Map<String, OutAndSourceFileList> generators = new LinkedHashMap<>();
+        // Classes removed while generating into this buffer which were not generated into it, see removeClasses
+        private final Set<String> removedPaths = new LinkedHashSet<>();
+
+        private OutputBuffer() {
+        }
+    }
+
     private static abstract class OutAndSourceFileList {
 
         protected final List<File> sourceFiles;
@@ -346,8 +438,19 @@ public class ClassFileFactory implements OutputFileCollection {
     }
 
     public void removeClasses(Set<String> classNamesToRemove) {
+        OutputBuffer buffer = currentBuffer.get();
         for (String classInternalName : classNamesToRemove) {
-            generators.remove(classInternalName + ".class");
+            String relativePath = classInternalName + ".class";
+            if (buffer != null) {
+                if (buffer.generators.remove(relativePath) == null) {
+                    buffer.removedPaths.add(relativePath);
+                }
+            }
+            else {
+                synchronized (generators) {
+                    generators.remove(relativePath);
+                }
+            }
         }
     }
 
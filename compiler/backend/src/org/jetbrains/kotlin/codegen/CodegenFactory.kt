@@ -23,6 +23,9 @@ import org.jetbrains.kotlin.fileClasses.JvmFileClassUtil
 import org.jetbrains.kotlin.name.FqName
 import org.jetbrains.kotlin.progress.ProgressIndicatorAndCompilationCanceledStatus
 import org.jetbrains.kotlin.psi.KtFile
+import java.util.concurrent.Callable
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.Executors
 
 interface CodegenFactory {
     fun generateModule(state: GenerationState, files: Collection<KtFile?>, errorHandler: CompilationErrorHandler)
@@ -56,16 +59,58 @@ object DefaultCodegenFactory : CodegenFactory {
             }
         }
 
+        val independentParts = ArrayList<() -> Unit>()
+
         val obsoleteMultifileClasses = HashSet(state.obsoleteMultifileClasses)
         for (multifileClassFqName in filesInMultifileClasses.keySet() + obsoleteMultifileClasses) {
-            CodegenFactory.doCheckCancelled(state)
-            generateMultifileClass(state, multifileClassFqName, filesInMultifileClasses.get(multifileClassFqName), errorHandler)
+            independentParts.add {
+                generateMultifileClass(state, multifileClassFqName, filesInMultifileClasses.get(multifileClassFqName), errorHandler)
+            }
         }
 
         val packagesWithObsoleteParts = HashSet(state.packagesWithObsoleteParts)
         for (packageFqName in packagesWithObsoleteParts + filesInPackages.keySet()) {
-            CodegenFactory.doCheckCancelled(state)
-            generatePackage(state, packageFqName, filesInPackages.get(packageFqName), errorHandler)
+            independentParts.add {
+                generatePackage(state, packageFqName, filesInPackages.get(packageFqName), errorHandler)
+            }
+        }
+
+        if (state.isParallelCodegen && independentParts.size > 1) {
+            generateInParallel(state, independentParts)
+        }
+        else {
+            for (part in independentParts) {
+                CodegenFactory.doCheckCancelled(state)
+                part()
+            }
+        }
+    }
+
+    // Each part is generated into its own output buffer, and buffers are merged in the same order as in the sequential mode,
+    // so that the set and the order of output files (and thus the resulting bytes) don't depend on the thread scheduling
+    private fun generateInParallel(state: GenerationState, independentParts: List<() -> Unit>) {
+        val executor = Executors.newFixedThreadPool(minOf(state.backendThreadCount, independentParts.size))
+        try {
+            val buffers = independentParts.map { part ->
+                executor.submit(Callable {
+                    CodegenFactory.doCheckCancelled(state)
+                    state.factory.generateIntoBuffer(Runnable(part))
+                })
+            }
+
+            for (buffer in buffers) {
+                val generated = try {
+                    buffer.get()
+                }
+                catch (e: ExecutionException) {
+                    throw e.cause ?: e
+                }
+                state.factory.mergeBuffer(generated)
+                state.afterIndependentPart()
+            }
+        }
+        finally {
+            executor.shutdownNow()
         }
     }
 
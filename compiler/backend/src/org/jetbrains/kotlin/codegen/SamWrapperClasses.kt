@@ -36,8 +36,10 @@ class SamWrapperClasses(private val state: GenerationState) {
         contextDescriptor: CallableMemberDescriptor
     ): Type {
         val isInsideInline = InlineUtil.isInlineOrContainingInline(expressionCodegen.context.contextDescriptor)
-        return samInterfaceToWrapperClass.getOrPut(WrapperKey(samType, file, isInsideInline)) {
-            SamWrapperCodegen(state, samType, expressionCodegen.parentCodegen, isInsideInline).genWrapper(file, contextDescriptor)
+        return synchronized(samInterfaceToWrapperClass) {
+            samInterfaceToWrapperClass.getOrPut(WrapperKey(samType, file, isInsideInline)) {
+                SamWrapperCodegen(state, samType, expressionCodegen.parentCodegen, isInsideInline).genWrapper(file, contextDescriptor)
+            }
         }
     }
 }
@@ -51,20 +51,50 @@ public abstract class TransformationMethodVisitor extends MethodVisitor {
         this.mv = wrapWithMaxLocalCalc(methodNode);
     }
 
+    @NotNull
+    protected MethodNode getMethodNode() {
+        return methodNode;
+    }
+
     @Override
     public void visitEnd() {
+        completeMethodNode();
+        transform();
+        emit();
+    }
+
+    /**
+     * Finishes building the method node. Must be called on the thread which generates the method.
+     */
+    protected void completeMethodNode() {
         // force mv to calculate maxStack/maxLocals in case it didn't yet done
         if (methodNode.maxLocals <= 0 || methodNode.maxStack <= 0) {
             mv.visitMaxs(-1, -1);
         }
 
         super.visitEnd();
+    }
 
+    /**
+     * Transforms the completed method node. Touches nothing but the node, so it can be called on any thread.
+     */
+    protected void transform() {
         try {
             if (shouldBeTransformed(methodNode)) {
                 performTransformations(methodNode);
             }
+        }
+        catch (Throwable t) {
+            throw new CompilationException("Couldn't transform method node:\n" + getNodeText(methodNode), t, null);
+        }
+    }
 
+    /**
+     * Writes the transformed method node to the delegate. Must not be called concurrently with other methods of the same class,
+     * as the delegate usually shares the constant pool with them.
+     */
+    protected void emit() {
+        try {
             methodNode.accept(new EndIgnoringMethodVisitorDecorator(Opcodes.ASM5, delegate));
 
 
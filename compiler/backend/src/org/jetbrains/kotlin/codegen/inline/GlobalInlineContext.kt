@@ -12,22 +12,24 @@ import java.util.*
 
 class GlobalInlineContext(diagnostics: DiagnosticSink) {
 
-    private val inlineCycleReporter: InlineCycleReporter = InlineCycleReporter(diagnostics)
+    // Inlining state is confined to the generating thread: independent package parts may be generated concurrently
+    private val inlineCycleReporter: ThreadLocal<InlineCycleReporter> = ThreadLocal.withInitial { InlineCycleReporter(diagnostics) }
 
-    private val typesUsedInInlineFunctions = LinkedList<MutableSet<String>>()
+    private val typesUsedInInlineFunctions: ThreadLocal<LinkedList<MutableSet<String>>> = ThreadLocal.withInitial { LinkedList<MutableSet<String>>() }
 
     fun enterIntoInlining(call: ResolvedCall<*>?) =
-        inlineCycleReporter.enterIntoInlining(call).also {
-            if (it) typesUsedInInlineFunctions.push(hashSetOf())
+        inlineCycleReporter.get().enterIntoInlining(call).also {
+            if (it) typesUsedInInlineFunctions.get().push(hashSetOf())
         }
 
     fun exitFromInliningOf(call: ResolvedCall<*>?) {
-        inlineCycleReporter.exitFromInliningOf(call)
-        val pop = typesUsedInInlineFunctions.pop()
-        typesUsedInInlineFunctions.peek()?.addAll(pop)
+        inlineCycleReporter.get().exitFromInliningOf(call)
+        val types = typesUsedInInlineFunctions.get()
+        val pop = types.pop()
+        types.peek()?.addAll(pop)
     }
 
-    fun recordTypeFromInlineFunction(type: String) = typesUsedInInlineFunctions.peek().add(type)
+    fun recordTypeFromInlineFunction(type: String) = typesUsedInInlineFunctions.get().peek().add(type)
 
-    fun isTypeFromInlineFunction(type: String) = typesUsedInInlineFunctions.peek().contains(type)
+    fun isTypeFromInlineFunction(type: String) = typesUsedInInlineFunctions.get().peek().contains(type)
 }
\ No newline at end of file
@@ -16,26 +16,76 @@
 
 package org.jetbrains.kotlin.codegen.inline
 
-import com.intellij.util.containers.SLRUMap
+import com.intellij.openapi.vfs.StandardFileSystems
+import com.intellij.openapi.vfs.VirtualFile
 import org.jetbrains.kotlin.name.ClassId
 import org.jetbrains.kotlin.name.FqName
+import org.jetbrains.kotlin.utils.JarContentHashes
+import org.jetbrains.kotlin.utils.WeightedLruCache
 import org.jetbrains.org.objectweb.asm.commons.Method
 
 data class MethodId(val containingFqName: FqName, val method: Method)
 
 class InlineCache {
-    val classBytes: SLRUMap<ClassId, ByteArray> = SLRUMap(30, 20)
-    val methodNodeById: SLRUMap<MethodId, SMAPAndMethodNode> = SLRUMap(60, 50)
+    val classBytes = WeightedLruCache<ClassId, ByteArray>(CLASS_BYTES_BUDGET) { it.size.toLong() }
+    val methodNodeById = WeightedLruCache<MethodId, SMAPAndMethodNode>(METHOD_NODES_BUDGET, ::estimateSize)
+
+    companion object {
+        private const val CLASS_BYTES_BUDGET = 16L * 1024 * 1024
+        private const val METHOD_NODES_BUDGET = 16L * 1024 * 1024
+    }
 }
 
-inline fun <K, V> SLRUMap<K, V>.getOrPut(key: K, defaultValue: () -> V): V {
-    val value = get(key)
-    return if (value == null) {
-        val answer = defaultValue()
-        put(key, answer)
-        answer
+// Bodies of inline functions from library jars, shared between all compilations in the process (e.g. between sessions of the compile
+// daemon), so that the same library functions are not read and parsed again on each build.
+// Entries are keyed by the content hash of the containing jar, which makes them valid for any compilation with the same jar.
+class LibraryInlineCache private constructor(maxSizeInBytes: Long) {
+    private data class LibraryMethodId(val jarHash: String, val methodId: MethodId)
+
+    private val methodNodes = WeightedLruCache<LibraryMethodId, SMAPAndMethodNode>(maxSizeInBytes, ::estimateSize)
+
+    val statistics: WeightedLruCache.Statistics
+        get() = methodNodes.statistics
+
+    fun getOrPut(classFile: VirtualFile, methodId: MethodId, compute: () -> SMAPAndMethodNode?): SMAPAndMethodNode? {
+        if (classFile.fileSystem.protocol != StandardFileSystems.JAR_PROTOCOL) return compute()
+        val jarHash = JarContentHashes.ofJarEntry(classFile.path) ?: return compute()
+
+        val key = LibraryMethodId(jarHash, methodId)
+        methodNodes.get(key)?.let { return it }
+        return compute()?.also { methodNodes.put(key, it) }
     }
-    else {
-        value
+
+    companion object {
+        @Volatile private var instance: LibraryInlineCache? = null
+
+        @JvmStatic
+        val statistics: WeightedLruCache.Statistics?
+            get() = instance?.statistics
+
+        @JvmStatic
+        fun clear() {
+            instance?.methodNodes?.clear()
+        }
+
+        @JvmStatic
+        @Synchronized
+        fun getInstance(maxSizeInBytes: Long): LibraryInlineCache {
+            instance?.let {
+                it.methodNodes.resize(maxSizeInBytes)
+                return it
+            }
+            return LibraryInlineCache(maxSizeInBytes).also { instance = it }
+        }
     }
 }
+
+// A rough estimation of the retained size of a parsed method, used to keep the caches within their byte budgets
+private fun estimateSize(methodNode: SMAPAndMethodNode): Long {
+    val node = methodNode.node
+    return 256L +
+           node.instructions.size() * 48L +
+           (node.localVariables?.size ?: 0) * 64L +
+           (node.tryCatchBlocks?.size ?: 0) * 48L +
+           methodNode.sortedRanges.size * 32L
+}
@@ -503,11 +503,12 @@ abstract class InlineCodegen<out T: BaseExpressionCodegen>(
 
             val resultInCache = state.inlineCache.methodNodeById.getOrPut(methodId
             ) {
-                doCreateMethodNodeFromCompiled(directMember, state, asmMethod)
+                doCreateMethodNodeFromCompiled(directMember, state, methodId)
                 ?: throw IllegalStateException("Couldn't obtain compiled function body for " + functionDescriptor)
             }
 
-            return resultInCache.copyWithNewNode(cloneMethodNode(resultInCache.node))
+            // Cloning resets labels of the cached node, so it must not be cloned concurrently
+            return resultInCache.copyWithNewNode(synchronized(resultInCache.node) { cloneMethodNode(resultInCache.node) })
         }
 
         private fun getDirectMemberAndCallableFromObject(functionDescriptor: FunctionDescriptor): CallableMemberDescriptor {
@@ -526,8 +527,9 @@ abstract class InlineCodegen<out T: BaseExpressionCodegen>(
         private fun doCreateMethodNodeFromCompiled(
                 callableDescriptor: CallableMemberDescriptor,
                 state: GenerationState,
-                asmMethod: Method
+                methodId: MethodId
         ): SMAPAndMethodNode? {
+            val asmMethod = methodId.method
             if (isBuiltInArrayIntrinsic(callableDescriptor)) {
                 val classId = classId
                 val bytes = state.inlineCache.classBytes.getOrPut(classId) { bytecode }
@@ -540,20 +542,25 @@ abstract class InlineCodegen<out T: BaseExpressionCodegen>(
 
             val containerId = containingClasses.implClassId
 
-            val bytes = state.inlineCache.classBytes.getOrPut(containerId) {
-                findVirtualFile(state, containerId)?.contentsToByteArray() ?:
-                throw IllegalStateException("Couldn't find declaration file for " + containerId)
-            }
-
-            val methodNode = getMethodNode(bytes, asmMethod.name, asmMethod.descriptor, AsmUtil.asmTypeByClassId(containerId)) ?: return null
+            val containerFile = findVirtualFile(state, containerId)
+                                ?: throw IllegalStateException("Couldn't find declaration file for " + containerId)
 
-            // KLUDGE: Inline suspend function built with compiler version less than 1.1.4/1.2-M1 did not contain proper
-            // before/after suspension point marks, so we detect those functions here and insert the corresponding marks
-            if (isLegacySuspendInlineFunction(callableDescriptor)) {
-                insertLegacySuspendInlineMarks(methodNode.node)
+            val readMethodNode = {
+                val bytes = state.inlineCache.classBytes.getOrPut(containerId) { containerFile.contentsToByteArray() }
+                getMethodNode(bytes, asmMethod.name, asmMethod.descriptor, AsmUtil.asmTypeByClassId(containerId))?.also { methodNode ->
+                    // KLUDGE: Inline suspend function built with compiler version less than 1.1.4/1.2-M1 did not contain proper
+                    // before/after suspension point marks, so we detect those functions here and insert the corresponding marks
+                    if (isLegacySuspendInlineFunction(callableDescriptor)) {
+                        insertLegacySuspendInlineMarks(methodNode.node)
+                    }
+                }
             }
 
-            return methodNode
+            val libraryInlineCache = state.libraryInlineCache
+            return if (libraryInlineCache != null)
+                libraryInlineCache.getOrPut(containerFile, methodId, readMethodNode)
+            else
+                readMethodNode()
         }
 
         private fun isBuiltInArrayIntrinsic(callableDescriptor: CallableMemberDescriptor): Boolean {
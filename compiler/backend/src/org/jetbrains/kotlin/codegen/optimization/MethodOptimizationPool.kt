@@ -0,0 +1,40 @@
+/*
+ * Copyright 2000-2018 JetBrains s.r.o. Use of this source code is governed by the Apache 2.0 license
+ * that can be found in the license/LICENSE.txt file.
+ */
+
+package org.jetbrains.kotlin.codegen.optimization
+
+import java.util.concurrent.*
+import java.util.concurrent.atomic.AtomicInteger
+
+// Worker threads which transform completed method nodes while the codegen thread goes on generating the class.
+// The queue is bounded, so that method nodes waiting for optimization don't pile up in memory: when it's full, the codegen thread
+// transforms the method itself.
+// Pools are shared by all compilations in the process (e.g. each line of a REPL or each script has its own GenerationState), so they are
+// never shut down: the threads are daemons and stop when idle.
+class MethodOptimizationPool private constructor(threadCount: Int) {
+    private val threadIndex = AtomicInteger()
+
+    private val executor = ThreadPoolExecutor(
+            threadCount, threadCount, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+            ArrayBlockingQueue<Runnable>(threadCount * QUEUE_SIZE_PER_THREAD),
+            ThreadFactory { runnable ->
+                Thread(runnable, "Kotlin method optimization ${threadIndex.incrementAndGet()}").apply { isDaemon = true }
+            },
+            ThreadPoolExecutor.CallerRunsPolicy()
+    ).apply { allowCoreThreadTimeOut(true) }
+
+    fun submit(transformation: () -> Unit): Future<*> = executor.submit(Runnable(transformation))
+
+    companion object {
+        private const val QUEUE_SIZE_PER_THREAD = 16
+        private const val KEEP_ALIVE_SECONDS = 1L
+
+        private val pools = ConcurrentHashMap<Int, MethodOptimizationPool>()
+
+        @JvmStatic
+        fun forThreadCount(threadCount: Int): MethodOptimizationPool =
+                pools.getOrPut(threadCount) { MethodOptimizationPool(threadCount) }
+    }
+}
@@ -24,19 +24,43 @@ import org.jetbrains.kotlin.config.JVMConstructorCallNormalizationMode;
 import org.jetbrains.kotlin.resolve.jvm.diagnostics.JvmDeclarationOrigin;
 import org.jetbrains.org.objectweb.asm.MethodVisitor;
 
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * With an optimization pool, large methods (see {@link OptimizationMethodVisitor}) are written to the delegate when the class is done,
+ * rather than when they are generated. Methods keep their order in the class file, but entries of the constant pool are added in
+ * a different order than with the sequential optimization, so the class files are equivalent to the sequential ones but not byte-for-byte
+ * identical to them. Whether a method is deferred depends only on its size, so the output is the same for any number of optimization
+ * threads greater than one.
+ */
 public class OptimizationClassBuilder extends DelegatingClassBuilder {
     private final ClassBuilder delegate;
     private final boolean disableOptimization;
     private final JVMConstructorCallNormalizationMode constructorCallNormalizationMode;
+    @Nullable
+    private final MethodOptimizationPool optimizationPool;
+    // Methods which may be transformed on the optimization pool, in the order of creation
+    private final List<OptimizationMethodVisitor> methods = new ArrayList<>();
 
     public OptimizationClassBuilder(
             @NotNull ClassBuilder delegate,
             boolean disableOptimization,
             JVMConstructorCallNormalizationMode constructorCallNormalizationMode
+    ) {
+        this(delegate, disableOptimization, constructorCallNormalizationMode, null);
+    }
+
+    public OptimizationClassBuilder(
+            @NotNull ClassBuilder delegate,
+            boolean disableOptimization,
+            JVMConstructorCallNormalizationMode constructorCallNormalizationMode,
+            @Nullable MethodOptimizationPool optimizationPool
     ) {
         this.delegate = delegate;
         this.disableOptimization = disableOptimization;
         this.constructorCallNormalizationMode = constructorCallNormalizationMode;
+        this.optimizationPool = optimizationPool;
     }
 
     @NotNull
@@ -55,10 +79,30 @@ public class OptimizationClassBuilder extends DelegatingClassBuilder {
             @Nullable String signature,
             @Nullable String[] exceptions
     ) {
-        return new OptimizationMethodVisitor(
+        OptimizationMethodVisitor visitor = new OptimizationMethodVisitor(
                 super.newMethod(origin, access, name, desc, signature, exceptions),
                 disableOptimization, constructorCallNormalizationMode,
-                access, name, desc, signature, exceptions
+                access, name, desc, signature, exceptions, optimizationPool
         );
+        if (optimizationPool != null) {
+            methods.add(visitor);
+        }
+        return visitor;
+    }
+
+    /**
+     * Writes methods transformed on the optimization pool to the delegate. Must be called before the class is written.
+     */
+    public void emitPendingMethods() {
+        for (OptimizationMethodVisitor method : methods) {
+            method.emitTransformedIfPending();
+        }
+        methods.clear();
+    }
+
+    @Override
+    public void done() {
+        emitPendingMethods();
+        super.done();
     }
 }
@@ -17,6 +17,8 @@
 package org.jetbrains.kotlin.codegen.optimization;
 
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.jetbrains.kotlin.codegen.ClassBuilder;
 import org.jetbrains.kotlin.codegen.ClassBuilderFactory;
 import org.jetbrains.kotlin.codegen.DelegatingClassBuilderFactory;
 import org.jetbrains.kotlin.config.JVMConstructorCallNormalizationMode;
@@ -25,22 +27,50 @@ import org.jetbrains.kotlin.resolve.jvm.diagnostics.JvmDeclarationOrigin;
 public class OptimizationClassBuilderFactory extends DelegatingClassBuilderFactory {
     private final boolean disableOptimization;
     private final JVMConstructorCallNormalizationMode constructorCallNormalizationMode;
+    @Nullable
+    private final MethodOptimizationPool optimizationPool;
 
     public OptimizationClassBuilderFactory(
             ClassBuilderFactory delegate,
             boolean disableOptimization,
             JVMConstructorCallNormalizationMode constructorCallNormalizationMode
+    ) {
+        this(delegate, disableOptimization, constructorCallNormalizationMode, 1);
+    }
+
+    /**
+     * @param optimizationThreads if greater than 1, large methods are transformed on a shared pool of this many threads,
+     *                            see {@link MethodOptimizationPool}
+     */
+    public OptimizationClassBuilderFactory(
+            ClassBuilderFactory delegate,
+            boolean disableOptimization,
+            JVMConstructorCallNormalizationMode constructorCallNormalizationMode,
+            int optimizationThreads
     ) {
         super(delegate);
         this.disableOptimization = disableOptimization;
         this.constructorCallNormalizationMode = constructorCallNormalizationMode;
+        this.optimizationPool = optimizationThreads > 1 ? MethodOptimizationPool.forThreadCount(optimizationThreads) : null;
     }
 
     @NotNull
     @Override
     public OptimizationClassBuilder newClassBuilder(@NotNull JvmDeclarationOrigin origin) {
         return new OptimizationClassBuilder(
-                getDelegate().newClassBuilder(origin), disableOptimization, constructorCallNormalizationMode
+                getDelegate().newClassBuilder(origin), disableOptimization, constructorCallNormalizationMode, optimizationPool
         );
     }
+
+    @Override
+    public byte[] asBytes(ClassBuilder builder) {
+        ((OptimizationClassBuilder) builder).emitPendingMethods();
+        return super.asBytes(builder);
+    }
+
+    @Override
+    public String asText(ClassBuilder builder) {
+        ((OptimizationClassBuilder) builder).emitPendingMethods();
+        return super.asText(builder);
+    }
 }
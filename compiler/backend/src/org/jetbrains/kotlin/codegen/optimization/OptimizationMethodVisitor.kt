@@ -26,6 +26,8 @@ import org.jetbrains.kotlin.codegen.optimization.transformer.CompositeMethodTran
 import org.jetbrains.kotlin.config.JVMConstructorCallNormalizationMode
 import org.jetbrains.org.objectweb.asm.MethodVisitor
 import org.jetbrains.org.objectweb.asm.tree.MethodNode
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.Future
 
 class OptimizationMethodVisitor(
     delegate: MethodVisitor,
@@ -35,11 +37,45 @@ class OptimizationMethodVisitor(
     name: String,
     desc: String,
     signature: String?,
-    exceptions: Array<String>?
+    exceptions: Array<String>?,
+    private val optimizationPool: MethodOptimizationPool? = null
 ) : TransformationMethodVisitor(delegate, access, name, desc, signature, exceptions) {
     private val constructorCallNormalizationTransformer =
         UninitializedStoresMethodTransformer(constructorCallNormalizationMode)
 
+    private var pendingTransformation: Future<*>? = null
+
+    override fun visitEnd() {
+        if (optimizationPool == null) {
+            super.visitEnd()
+            return
+        }
+
+        completeMethodNode()
+        if (methodNode.instructions.size() < MIN_INSTRUCTIONS_FOR_POOL) {
+            // Not worth a trip to another thread
+            transform()
+            emit()
+        }
+        else {
+            pendingTransformation = optimizationPool.submit { transform() }
+        }
+    }
+
+    // Called by OptimizationClassBuilder on the codegen thread in the order the methods were created, so that the output
+    // doesn't depend on how transformations were scheduled
+    fun emitTransformedIfPending() {
+        val transformation = pendingTransformation ?: return
+        pendingTransformation = null
+        try {
+            transformation.get()
+        }
+        catch (e: ExecutionException) {
+            throw e.cause ?: e
+        }
+        emit()
+    }
+
     override fun performTransformations(methodNode: MethodNode) {
         normalizationMethodTransformer.transform("fake", methodNode)
         constructorCallNormalizationTransformer.transform("fake", methodNode)
@@ -54,6 +90,8 @@ class OptimizationMethodVisitor(
     companion object {
         private val MEMORY_LIMIT_BY_METHOD_MB = 50
 
+        private val MIN_INSTRUCTIONS_FOR_POOL = 100
+
         val normalizationMethodTransformer = CompositeMethodTransformer(
             FixStackWithLabelNormalizationMethodTransformer(),
             MethodVerifier("AFTER mandatory stack transformations")
@@ -27,6 +27,7 @@ import org.jetbrains.kotlin.codegen.context.RootContext
 import org.jetbrains.kotlin.codegen.extensions.ClassBuilderInterceptorExtension
 import org.jetbrains.kotlin.codegen.inline.GlobalInlineContext
 import org.jetbrains.kotlin.codegen.inline.InlineCache
+import org.jetbrains.kotlin.codegen.inline.LibraryInlineCache
 import org.jetbrains.kotlin.codegen.intrinsics.IntrinsicMethods
 import org.jetbrains.kotlin.codegen.optimization.OptimizationClassBuilderFactory
 import org.jetbrains.kotlin.config.*
@@ -46,6 +47,8 @@ import org.jetbrains.kotlin.resolve.jvm.JvmClassName
 import org.jetbrains.kotlin.resolve.jvm.diagnostics.JvmDeclarationOrigin
 import org.jetbrains.kotlin.resolve.jvm.diagnostics.JvmDeclarationOriginKind.*
 import org.jetbrains.kotlin.serialization.deserialization.DeserializationConfiguration
+import org.jetbrains.kotlin.storage.LazyResolveStorageManager
+import org.jetbrains.kotlin.storage.LockBasedLazyResolveStorageManager
 import org.jetbrains.kotlin.storage.LockBasedStorageManager
 import java.io.File
 
@@ -136,6 +139,9 @@ class GenerationState private constructor(
 
     val inlineCache: InlineCache = InlineCache()
 
+    val libraryInlineCache: LibraryInlineCache? =
+            configuration.get(JVMConfigurationKeys.LIBRARY_INLINE_CACHE_SIZE)?.let { LibraryInlineCache.getInstance(it) }
+
     val incrementalCacheForThisTarget: IncrementalCache?
     val packagesWithObsoleteParts: Set<FqName>
     val obsoleteMultifileClasses: List<FqName>
@@ -162,8 +168,17 @@ class GenerationState private constructor(
         }
     }
 
+    val backendThreadCount: Int =
+        if (builderFactory.classBuilderMode.generateBodies) configuration.get(JVMConfigurationKeys.PARALLEL_BACKEND_THREADS, 1) else 1
+
+    val isParallelCodegen: Boolean get() = backendThreadCount > 1
+
+    // Traces are shared between all backend threads, so they are protected by a lock when package parts are generated concurrently
+    private val parallelCodegenStorageManager: LazyResolveStorageManager? =
+        if (isParallelCodegen) LockBasedLazyResolveStorageManager(LockBasedStorageManager()) else null
+
     val extraJvmDiagnosticsTrace: BindingTrace =
-        DelegatingBindingTrace(bindingContext, "For extra diagnostics in ${this::class.java}", false)
+        DelegatingBindingTrace(bindingContext, "For extra diagnostics in ${this::class.java}", false).protectedIfParallel()
     private val interceptedBuilderFactory: ClassBuilderFactory
     private var used = false
 
@@ -185,7 +200,7 @@ class GenerationState private constructor(
     val bindingTrace: BindingTrace = DelegatingBindingTrace(
         bindingContext, "trace in GenerationState",
         filter = if (wantsDiagnostics) BindingTraceFilter.ACCEPT_ALL else BindingTraceFilter.NO_DIAGNOSTICS
-    )
+    ).protectedIfParallel()
     val bindingContext: BindingContext = bindingTrace.bindingContext
     val typeMapper: KotlinTypeMapper = KotlinTypeMapper(
         this.bindingContext, classBuilderMode, IncompatibleClassTrackerImpl(extraJvmDiagnosticsTrace),
@@ -237,10 +252,12 @@ class GenerationState private constructor(
 
     init {
         val disableOptimization = configuration.get(JVMConfigurationKeys.DISABLE_OPTIMIZATION, false)
+        val optimizationThreads =
+            if (builderFactory.classBuilderMode.generateBodies) configuration.get(JVMConfigurationKeys.PARALLEL_OPTIMIZATION_THREADS, 1) else 1
 
         this.interceptedBuilderFactory = builderFactory
             .wrapWith(
-                { OptimizationClassBuilderFactory(it, disableOptimization, constructorCallNormalizationMode) },
+                { OptimizationClassBuilderFactory(it, disableOptimization, constructorCallNormalizationMode, optimizationThreads) },
                 {
                     BuilderFactoryForDuplicateSignatureDiagnostics(
                         it, this.bindingContext, diagnostics, this.moduleName,
@@ -267,9 +284,16 @@ class GenerationState private constructor(
     }
 
     fun afterIndependentPart() {
+        // With the parallel backend, parts are generated into separate buffers and the callback is invoked once a buffer is merged,
+        // see DefaultCodegenFactory.generateInParallel
+        if (factory.isGeneratingIntoBuffer) return
+
         onIndependentPartCompilationEnd(this)
     }
 
+    private fun BindingTrace.protectedIfParallel(): BindingTrace =
+        parallelCodegenStorageManager?.createSafeTrace(this) ?: this
+
     private fun markUsed() {
         if (used) throw IllegalStateException("${GenerationState::class.java} cannot be used more than once")
 
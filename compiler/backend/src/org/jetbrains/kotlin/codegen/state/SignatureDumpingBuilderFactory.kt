@@ -92,31 +92,33 @@ class SignatureDumpingBuilderFactory(
         }
 
         override fun done() {
-            if (firstClassWritten) outputStream.append(",\n") else firstClassWritten = true
-            outputStream.append("\t{\n")
-            origin.descriptor?.let {
-                outputStream.append("\t\t").appendNameValue("declaration", TYPE_RENDERER.render(it)).append(",\n")
-                (it as? DeclarationDescriptorWithVisibility)?.visibility?.let {
-                    outputStream.append("\t\t").appendNameValue("visibility", it.displayName).append(",\n")
-                }
-            }
-            outputStream.append("\t\t").appendNameValue("class", javaClassName).append(",\n")
-
-            outputStream.append("\t\t").appendQuoted("members").append(": [\n")
-            signatures.joinTo(outputStream, ",\n") { buildString {
-                val (signature, descriptor) = it
-                append("\t\t\t{")
-                descriptor?.let {
+            synchronized(this@SignatureDumpingBuilderFactory) {
+                if (firstClassWritten) outputStream.append(",\n") else firstClassWritten = true
+                outputStream.append("\t{\n")
+                origin.descriptor?.let {
+                    outputStream.append("\t\t").appendNameValue("declaration", TYPE_RENDERER.render(it)).append(",\n")
                     (it as? DeclarationDescriptorWithVisibility)?.visibility?.let {
-                        appendNameValue("visibility", it.displayName).append(",\t")
+                        outputStream.append("\t\t").appendNameValue("visibility", it.displayName).append(",\n")
                     }
-                    appendNameValue("declaration", MEMBER_RENDERER.render(it)).append(", ")
-
                 }
-                appendNameValue("name", signature.name).append(", ")
-                appendNameValue("desc", signature.desc).append("}")
-            }}
-            outputStream.append("\n\t\t]\n\t}")
+                outputStream.append("\t\t").appendNameValue("class", javaClassName).append(",\n")
+
+                outputStream.append("\t\t").appendQuoted("members").append(": [\n")
+                signatures.joinTo(outputStream, ",\n") { buildString {
+                    val (signature, descriptor) = it
+                    append("\t\t\t{")
+                    descriptor?.let {
+                        (it as? DeclarationDescriptorWithVisibility)?.visibility?.let {
+                            appendNameValue("visibility", it.displayName).append(",\t")
+                        }
+                        appendNameValue("declaration", MEMBER_RENDERER.render(it)).append(", ")
+
+                    }
+                    appendNameValue("name", signature.name).append(", ")
+                    appendNameValue("desc", signature.desc).append("}")
+                }}
+                outputStream.append("\n\t\t]\n\t}")
+            }
 
             super.done()
         }
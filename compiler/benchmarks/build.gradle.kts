@@ -0,0 +1,32 @@
+
+apply { plugin("kotlin") }
+
+jvmTarget = "1.8"
+
+dependencies {
+    compile(project(":compiler:util"))
+    compile(project(":compiler:frontend"))
+    compile(project(":compiler:frontend.java"))
+    compile(project(":compiler:backend"))
+    compile(project(":compiler:cli"))
+    compile(commonDep("org.openjdk.jmh", "jmh-core"))
+    // JMH annotation processor generates the benchmark harness when the sources are compiled
+    compileOnly(commonDep("org.openjdk.jmh", "jmh-generator-annprocess"))
+    compile(intellijCoreDep()) { includeJars("intellij-core") }
+    compile(intellijDep()) { includeIntellijCoreJarDependencies(project) }
+}
+
+sourceSets {
+    "main" { projectDefault() }
+    "test" {}
+}
+
+// Usage: ./gradlew :compiler:benchmarks:jmh [-Pjmh="<JMH command line arguments>"], e.g. -Pjmh="Lexer -prof gc"
+val jmh by task<JavaExec> {
+    dependsOn(":dist")
+    classpath = the<JavaPluginConvention>().sourceSets.getByName("main").runtimeClasspath
+    main = "org.openjdk.jmh.Main"
+    // corpora are resolved relative to the repository root
+    workingDir = rootDir
+    args = (findProperty("jmh") as String?)?.split(' ')?.filter(String::isNotEmpty) ?: emptyList()
+}
@@ -0,0 +1,229 @@
+/*
+ * Copyright 2000-2018 JetBrains s.r.o. Use of this source code is governed by the Apache 2.0 license
+ * that can be found in the license/LICENSE.txt file.
+ */
+
+package org.jetbrains.kotlin.benchmarks;
+
+import com.intellij.openapi.Disposable;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.util.Disposer;
+import com.intellij.openapi.util.io.FileUtil;
+import com.intellij.openapi.vfs.CharsetToolkit;
+import com.intellij.psi.PsiFile;
+import com.intellij.psi.PsiManager;
+import com.intellij.psi.search.GlobalSearchScope;
+import com.intellij.testFramework.LightVirtualFile;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.kotlin.analyzer.AnalysisResult;
+import org.jetbrains.kotlin.cli.common.CLIConfigurationKeys;
+import org.jetbrains.kotlin.cli.common.messages.MessageCollector;
+import org.jetbrains.kotlin.cli.jvm.compiler.CliLightClassGenerationSupport;
+import org.jetbrains.kotlin.cli.jvm.compiler.EnvironmentConfigFiles;
+import org.jetbrains.kotlin.cli.jvm.compiler.KotlinCoreEnvironment;
+import org.jetbrains.kotlin.cli.jvm.compiler.TopDownAnalyzerFacadeForJVM;
+import org.jetbrains.kotlin.cli.jvm.config.JvmContentRootsKt;
+import org.jetbrains.kotlin.codegen.ClassBuilderFactories;
+import org.jetbrains.kotlin.codegen.CompilationErrorHandler;
+import org.jetbrains.kotlin.codegen.KotlinCodegenFacade;
+import org.jetbrains.kotlin.codegen.state.GenerationState;
+import org.jetbrains.kotlin.config.CommonConfigurationKeys;
+import org.jetbrains.kotlin.config.CompilerConfiguration;
+import org.jetbrains.kotlin.config.JVMConfigurationKeys;
+import org.jetbrains.kotlin.diagnostics.Diagnostic;
+import org.jetbrains.kotlin.descriptors.PackagePartProvider;
+import org.jetbrains.kotlin.diagnostics.Severity;
+import org.jetbrains.kotlin.idea.KotlinLanguage;
+import org.jetbrains.kotlin.psi.KtFile;
+import org.jetbrains.kotlin.utils.PathUtil;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+import java.util.regex.Pattern;
+
+/**
+ * Compiler environment and source corpora shared by the benchmarks.
+ * Corpora are fixed sets of files in the repository, so benchmarks must be run from the repository root (as the jmh task does).
+ */
+public final class BenchmarkEnvironment {
+    // Parser test data: lots of syntax, including erroneous code, which is fine for lexing and parsing
+    public static final String[] SYNTAX_CORPUS = {"compiler/testData/psi"};
+
+    // Box tests that compile without errors when put together into one module, see loadCompilableCorpus
+    public static final String[] COMPILABLE_CORPUS = {
+            "compiler/testData/codegen/box/controlStructures",
+            "compiler/testData/codegen/box/classes",
+            "compiler/testData/codegen/box/closures",
+            "compiler/testData/codegen/box/when",
+            "compiler/testData/codegen/box/smartCasts",
+            "compiler/testData/codegen/box/strings",
+            "compiler/testData/codegen/box/extensionFunctions",
+            "compiler/testData/codegen/box/dataClasses",
+            "compiler/testData/codegen/box/properties",
+            "compiler/testData/codegen/box/ranges"
+    };
+
+    // Code with lots of smart casts, i.e. data flow info operations on deep if/when chains, see loadCompilableCorpus
+    public static final String[] SMART_CAST_CORPUS = {
+            "compiler/testData/codegen/box/smartCasts",
+            "compiler/testData/codegen/box/when",
+            "compiler/testData/codegen/box/elvis",
+            "compiler/testData/codegen/box/safeCall",
+            "compiler/testData/codegen/box/casts",
+            "compiler/testData/codegen/box/nullCheckOptimization",
+            "compiler/testData/diagnostics/tests/smartCasts"
+    };
+
+    // Sources of the compiler frontend, a large real-world module. They are resolved against the benchmark classpath,
+    // see createWithBenchmarkClasspath
+    public static final String[] FRONTEND_SOURCES_CORPUS = {"compiler/frontend/src"};
+
+    // Box tests relying on these directives need a special setup and are not included into the compilable corpus
+    private static final String[] UNSUPPORTED_DIRECTIVES = {
+            "// FILE:", "// MODULE:", "// IGNORE_BACKEND", "// TARGET_BACKEND", "// WITH_REFLECT", "// FULL_JDK", "// LANGUAGE",
+            "// !", "// COMMON_COROUTINES_TEST", "@file:", "package "
+    };
+
+    public static final class SourceFile {
+        public final String name;
+        public final String text;
+
+        public SourceFile(@NotNull String name, @NotNull String text) {
+            this.name = name;
+            this.text = text;
+        }
+    }
+
+    private final Disposable disposable = Disposer.newDisposable();
+    private final CompilerConfiguration configuration;
+    private final KotlinCoreEnvironment environment;
+
+    public BenchmarkEnvironment() {
+        this(new CompilerConfiguration());
+    }
+
+    public BenchmarkEnvironment(@NotNull CompilerConfiguration initialConfiguration) {
+        configuration = initialConfiguration.copy();
+        configuration.put(CLIConfigurationKeys.MESSAGE_COLLECTOR_KEY, MessageCollector.Companion.getNONE());
+        configuration.put(CommonConfigurationKeys.MODULE_NAME, "benchmark");
+        JvmContentRootsKt.addJvmClasspathRoot(configuration, PathUtil.getKotlinPathsForDistDirectory().getStdlibPath());
+
+        environment = KotlinCoreEnvironment.createForProduction(disposable, configuration, EnvironmentConfigFiles.JVM_CONFIG_FILES);
+    }
+
+    // The classpath of the benchmark contains the compiled compiler with its dependencies, which the compiler sources depend on
+    @NotNull
+    public static BenchmarkEnvironment createWithBenchmarkClasspath() {
+        CompilerConfiguration configuration = new CompilerConfiguration();
+        for (String path : System.getProperty("java.class.path").split(File.pathSeparator)) {
+            JvmContentRootsKt.addJvmClasspathRoot(configuration, new File(path));
+        }
+        return new BenchmarkEnvironment(configuration);
+    }
+
+    @NotNull
+    public Project getProject() {
+        return environment.getProject();
+    }
+
+    @NotNull
+    public CompilerConfiguration getConfiguration() {
+        return configuration;
+    }
+
+    @NotNull
+    public PackagePartProvider createPackagePartProvider(@NotNull GlobalSearchScope scope) {
+        return environment.createPackagePartProvider(scope);
+    }
+
+    public void dispose() {
+        Disposer.dispose(disposable);
+    }
+
+    @NotNull
+    public static List<SourceFile> loadCorpus(@NotNull String... directories) {
+        List<SourceFile> result = new ArrayList<>();
+        for (String directory : directories) {
+            File root = new File(directory);
+            if (!root.isDirectory()) {
+                throw new IllegalStateException("Corpus directory " + root.getAbsolutePath() + " is not found, " +
+                                                "benchmarks should be run from the repository root");
+            }
+            for (File file : FileUtil.findFilesByMask(Pattern.compile(".*\\.kt"), root)) {
+                try {
+                    result.add(new SourceFile(file.getName(), FileUtil.loadFile(file, CharsetToolkit.UTF8, true)));
+                }
+                catch (IOException e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+        }
+        result.sort(Comparator.comparing(sourceFile -> sourceFile.name));
+        return result;
+    }
+
+    // Box tests from the given directories, each one in its own package, so that they can be compiled together.
+    // Tests which don't compile in this setup are excluded.
+    @NotNull
+    public List<SourceFile> loadCompilableCorpus(@NotNull String... directories) {
+        List<SourceFile> candidates = new ArrayList<>();
+        int index = 0;
+        for (SourceFile file : loadCorpus(directories)) {
+            if (Arrays.stream(UNSUPPORTED_DIRECTIVES).anyMatch(file.text::contains)) continue;
+            candidates.add(new SourceFile("p" + index + "_" + file.name, "package benchmark.p" + index + "\n" + file.text));
+            index++;
+        }
+
+        List<KtFile> ktFiles = createKtFiles(candidates);
+        AnalysisResult result = analyze(ktFiles);
+
+        Set<PsiFile> filesWithErrors = new HashSet<>();
+        for (Diagnostic diagnostic : result.getBindingContext().getDiagnostics().all()) {
+            if (diagnostic.getSeverity() == Severity.ERROR) {
+                filesWithErrors.add(diagnostic.getPsiFile());
+            }
+        }
+
+        List<SourceFile> compilable = new ArrayList<>();
+        for (int i = 0; i < candidates.size(); i++) {
+            if (!filesWithErrors.contains(ktFiles.get(i))) {
+                compilable.add(candidates.get(i));
+            }
+        }
+        return compilable;
+    }
+
+    @NotNull
+    public List<KtFile> createKtFiles(@NotNull List<SourceFile> sources) {
+        PsiManager psiManager = PsiManager.getInstance(getProject());
+        List<KtFile> result = new ArrayList<>(sources.size());
+        for (SourceFile source : sources) {
+            LightVirtualFile virtualFile = new LightVirtualFile(source.name, KotlinLanguage.INSTANCE, source.text);
+            virtualFile.setCharset(CharsetToolkit.UTF8_CHARSET);
+            result.add((KtFile) psiManager.findFile(virtualFile));
+        }
+        return result;
+    }
+
+    @NotNull
+    public AnalysisResult analyze(@NotNull List<KtFile> files) {
+        return TopDownAnalyzerFacadeForJVM.analyzeFilesWithJavaIntegration(
+                getProject(), files, new CliLightClassGenerationSupport.NoScopeRecordCliBindingTrace(), configuration,
+                this::createPackagePartProvider
+        );
+    }
+
+    @NotNull
+    public GenerationState generate(@NotNull AnalysisResult analysisResult, @NotNull List<KtFile> files, boolean optimize) {
+        CompilerConfiguration codegenConfiguration = configuration.copy();
+        codegenConfiguration.put(JVMConfigurationKeys.DISABLE_OPTIMIZATION, !optimize);
+
+        GenerationState state = new GenerationState.Builder(
+                getProject(), ClassBuilderFactories.binaries(false), analysisResult.getModuleDescriptor(),
+                analysisResult.getBindingContext(), files, codegenConfiguration
+        ).build();
+        KotlinCodegenFacade.compileCorrectFiles(state, CompilationErrorHandler.THROW_EXCEPTION);
+        return state;
+    }
+}
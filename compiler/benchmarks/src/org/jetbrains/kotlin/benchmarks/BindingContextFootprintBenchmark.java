@@ -0,0 +1,76 @@
+/*
+ * Copyright 2000-2018 JetBrains s.r.o. Use of this source code is governed by the Apache 2.0 license
+ * that can be found in the license/LICENSE.txt file.
+ */
+
+package org.jetbrains.kotlin.benchmarks;
+
+import org.jetbrains.kotlin.analyzer.AnalysisResult;
+import org.jetbrains.kotlin.psi.KtFile;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Heap retained by the binding context after the full analysis of the Kotlin sources of the compiler frontend, with the default
+ * and the columnar sliced map (see BindingTraceContext.USE_COLUMNAR_SLICED_MAP). The footprint is reported as the "retainedBytes"
+ * secondary result.
+ * Time includes two full GCs and is only indicative.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+@Fork(1)
+public class BindingContextFootprintBenchmark {
+    @Param({"default", "columnar"})
+    public String slicedMap;
+
+    private BenchmarkEnvironment environment;
+    private List<BenchmarkEnvironment.SourceFile> corpus;
+
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    @State(Scope.Thread)
+    public static class Footprint {
+        public long retainedBytes;
+    }
+
+    @Setup
+    public void setUp() {
+        // Must be set before BindingTraceContext is initialized; each parameter value is run in a separate fork
+        System.setProperty("kotlin.binding.context.columnar", String.valueOf(slicedMap.equals("columnar")));
+        environment = BenchmarkEnvironment.createWithBenchmarkClasspath();
+        corpus = BenchmarkEnvironment.loadCorpus(BenchmarkEnvironment.FRONTEND_SOURCES_CORPUS);
+    }
+
+    @TearDown
+    public void tearDown() {
+        environment.dispose();
+    }
+
+    @Benchmark
+    public void analyze(Footprint footprint, Blackhole blackhole) {
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+
+        List<KtFile> files = environment.createKtFiles(corpus);
+        fullGc(memory);
+        long before = memory.getHeapMemoryUsage().getUsed();
+
+        AnalysisResult result = environment.analyze(files);
+
+        fullGc(memory);
+        footprint.retainedBytes = memory.getHeapMemoryUsage().getUsed() - before;
+        blackhole.consume(result.getBindingContext());
+    }
+
+    private static void fullGc(MemoryMXBean memory) {
+        for (int i = 0; i < 3; i++) {
+            memory.gc();
+        }
+    }
+}
@@ -0,0 +1,71 @@
+/*
+ * Copyright 2000-2018 JetBrains s.r.o. Use of this source code is governed by the Apache 2.0 license
+ * that can be found in the license/LICENSE.txt file.
+ */
+
+package org.jetbrains.kotlin.benchmarks;
+
+import org.jetbrains.kotlin.backend.common.output.OutputFile;
+import org.jetbrains.kotlin.codegen.optimization.OptimizationMethodVisitor;
+import org.jetbrains.kotlin.config.JVMConstructorCallNormalizationMode;
+import org.jetbrains.kotlin.psi.KtFile;
+import org.jetbrains.org.objectweb.asm.ClassReader;
+import org.jetbrains.org.objectweb.asm.Opcodes;
+import org.jetbrains.org.objectweb.asm.tree.ClassNode;
+import org.jetbrains.org.objectweb.asm.tree.MethodNode;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The bytecode optimization pipeline (OptimizationMethodVisitor) applied to the unoptimized methods generated for the corpus.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class BytecodeOptimizationBenchmark {
+    private final List<MethodNode> methods = new ArrayList<>();
+
+    @Setup
+    public void setUp() {
+        BenchmarkEnvironment environment = new BenchmarkEnvironment();
+        try {
+            List<KtFile> files = environment.createKtFiles(environment.loadCompilableCorpus(BenchmarkEnvironment.COMPILABLE_CORPUS));
+            for (OutputFile outputFile : environment.generate(environment.analyze(files), files, false).getFactory().asList()) {
+                if (!outputFile.getRelativePath().endsWith(".class")) continue;
+
+                ClassNode classNode = new ClassNode();
+                new ClassReader(outputFile.asByteArray()).accept(classNode, 0);
+                for (MethodNode method : classNode.methods) {
+                    if ((method.access & (Opcodes.ACC_ABSTRACT | Opcodes.ACC_NATIVE)) == 0) {
+                        methods.add(method);
+                    }
+                }
+            }
+        }
+        finally {
+            environment.dispose();
+        }
+    }
+
+    @Benchmark
+    public void optimize(Blackhole blackhole) {
+        for (MethodNode method : methods) {
+            // Transformations modify the method in place, so each invocation works on a fresh copy
+            MethodNode result = new MethodNode(method.access, method.name, method.desc, method.signature,
+                                               method.exceptions.toArray(new String[method.exceptions.size()]));
+            method.accept(new OptimizationMethodVisitor(
+                    result, false, JVMConstructorCallNormalizationMode.DEFAULT,
+                    method.access, method.name, method.desc, method.signature,
+                    method.exceptions.toArray(new String[method.exceptions.size()])
+            ));
+            blackhole.consume(result);
+        }
+    }
+}
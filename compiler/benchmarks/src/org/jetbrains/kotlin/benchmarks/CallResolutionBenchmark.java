@@ -0,0 +1,43 @@
+/*
+ * Copyright 2000-2018 JetBrains s.r.o. Use of this source code is governed by the Apache 2.0 license
+ * that can be found in the license/LICENSE.txt file.
+ */
+
+package org.jetbrains.kotlin.benchmarks;
+
+import org.jetbrains.kotlin.psi.KtFile;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Full analysis of the corpus including function bodies, which is dominated by call resolution and type inference.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class CallResolutionBenchmark {
+    private BenchmarkEnvironment environment;
+    private List<KtFile> files;
+
+    @Setup
+    public void setUp() {
+        environment = new BenchmarkEnvironment();
+        files = environment.createKtFiles(environment.loadCompilableCorpus(BenchmarkEnvironment.COMPILABLE_CORPUS));
+    }
+
+    @TearDown
+    public void tearDown() {
+        environment.dispose();
+    }
+
+    @Benchmark
+    public void analyze(Blackhole blackhole) {
+        blackhole.consume(environment.analyze(files));
+    }
+}
@@ -0,0 +1,46 @@
+/*
+ * Copyright 2000-2018 JetBrains s.r.o. Use of this source code is governed by the Apache 2.0 license
+ * that can be found in the license/LICENSE.txt file.
+ */
+
+package org.jetbrains.kotlin.benchmarks;
+
+import org.jetbrains.kotlin.analyzer.AnalysisResult;
+import org.jetbrains.kotlin.psi.KtFile;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Bytecode generation of the analyzed corpus, without the optimization pipeline (see BytecodeOptimizationBenchmark).
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class CodegenBenchmark {
+    private BenchmarkEnvironment environment;
+    private List<KtFile> files;
+    private AnalysisResult analysisResult;
+
+    @Setup
+    public void setUp() {
+        environment = new BenchmarkEnvironment();
+        files = environment.createKtFiles(environment.loadCompilableCorpus(BenchmarkEnvironment.COMPILABLE_CORPUS));
+        analysisResult = environment.analyze(files);
+    }
+
+    @TearDown
+    public void tearDown() {
+        environment.dispose();
+    }
+
+    @Benchmark
+    public void generate(Blackhole blackhole) {
+        blackhole.consume(environment.generate(analysisResult, files, false).getFactory().asList());
+    }
+}
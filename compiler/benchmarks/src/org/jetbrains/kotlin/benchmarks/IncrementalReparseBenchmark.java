@@ -0,0 +1,137 @@
+/*
+ * Copyright 2000-2018 JetBrains s.r.o. Use of this source code is governed by the Apache 2.0 license
+ * that can be found in the license/LICENSE.txt file.
+ */
+
+package org.jetbrains.kotlin.benchmarks;
+
+import com.intellij.lang.ASTNode;
+import com.intellij.psi.PsiElement;
+import com.intellij.psi.impl.source.DummyHolderFactory;
+import com.intellij.psi.impl.source.tree.TreeElement;
+import com.intellij.psi.tree.IReparseableElementType;
+import com.intellij.psi.util.PsiTreeUtil;
+import org.jetbrains.kotlin.KtNodeTypes;
+import org.jetbrains.kotlin.idea.KotlinLanguage;
+import org.jetbrains.kotlin.psi.KtBlockExpression;
+import org.jetbrains.kotlin.psi.KtFile;
+import org.jetbrains.kotlin.psi.KtNamedFunction;
+import org.jetbrains.kotlin.psi.KtTreeVisitorVoid;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * A statement is added to the biggest function body of each of the biggest parser test data files,
+ * then either the whole file is parsed anew, or only the changed body is reparsed (as the IDE does for lazy blocks).
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class IncrementalReparseBenchmark {
+    private static final int FILES = 20;
+    private static final String ADDED_STATEMENT = "\nval benchmark = 42\n";
+
+    private static final class Edit {
+        final KtBlockExpression body;
+        final String newBodyText;
+
+        Edit(KtBlockExpression body, String newBodyText) {
+            this.body = body;
+            this.newBodyText = newBodyText;
+        }
+    }
+
+    private BenchmarkEnvironment environment;
+    private List<BenchmarkEnvironment.SourceFile> editedFiles;
+    private List<Edit> edits;
+
+    @Setup
+    public void setUp() {
+        environment = new BenchmarkEnvironment();
+        List<BenchmarkEnvironment.SourceFile> biggestFiles = BenchmarkEnvironment.loadCorpus(BenchmarkEnvironment.SYNTAX_CORPUS).stream()
+                .sorted(Comparator.comparingInt((BenchmarkEnvironment.SourceFile file) -> file.text.length()).reversed())
+                .collect(Collectors.toList());
+
+        editedFiles = new ArrayList<>();
+        edits = new ArrayList<>();
+        List<KtFile> ktFiles = environment.createKtFiles(biggestFiles);
+        for (int i = 0; i < ktFiles.size() && edits.size() < FILES; i++) {
+            KtBlockExpression body = findBiggestReparseableBody(ktFiles.get(i));
+            if (body == null) continue;
+
+            String bodyText = body.getText();
+            String newBodyText = "{" + ADDED_STATEMENT + bodyText.substring(1);
+            if (reparse(body, newBodyText) == null) continue;
+
+            int offset = body.getTextRange().getStartOffset();
+            String text = biggestFiles.get(i).text;
+            edits.add(new Edit(body, newBodyText));
+            editedFiles.add(new BenchmarkEnvironment.SourceFile(
+                    biggestFiles.get(i).name, text.substring(0, offset) + newBodyText + text.substring(offset + bodyText.length())));
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        environment.dispose();
+    }
+
+    @Benchmark
+    public void parseEditedFiles(Blackhole blackhole) {
+        for (KtFile file : environment.createKtFiles(editedFiles)) {
+            blackhole.consume(countElements(file));
+        }
+    }
+
+    @Benchmark
+    public void reparseEditedBodies(Blackhole blackhole) {
+        for (Edit edit : edits) {
+            ASTNode reparsed = reparse(edit.body, edit.newBodyText);
+            blackhole.consume(countElements(reparsed.getPsi()));
+        }
+    }
+
+    private static KtBlockExpression findBiggestReparseableBody(KtFile file) {
+        KtBlockExpression result = null;
+        for (KtNamedFunction function : PsiTreeUtil.findChildrenOfType(file, KtNamedFunction.class)) {
+            if (!(function.getBodyExpression() instanceof KtBlockExpression)) continue;
+            KtBlockExpression body = (KtBlockExpression) function.getBodyExpression();
+            if (result == null || body.getTextLength() > result.getTextLength()) {
+                result = body;
+            }
+        }
+        return result;
+    }
+
+    // Same as BlockSupportImpl does when a lazy block can be reparsed alone, except for merging the new tree into the file
+    private static ASTNode reparse(KtBlockExpression body, String newText) {
+        IReparseableElementType elementType = (IReparseableElementType) KtNodeTypes.BLOCK;
+        if (!elementType.isParsable(body.getTreeParent(), newText, KotlinLanguage.INSTANCE, body.getProject())) return null;
+
+        TreeElement chameleon = (TreeElement) elementType.createNode(newText);
+        DummyHolderFactory.createHolder(body.getManager(), null, body).getTreeElement().rawAddChildren(chameleon);
+        return chameleon;
+    }
+
+    // Visiting the whole tree forces parsing of lazy elements
+    private static int countElements(PsiElement root) {
+        int[] elements = new int[1];
+        root.accept(new KtTreeVisitorVoid() {
+            @Override
+            public void visitElement(PsiElement element) {
+                elements[0]++;
+                super.visitElement(element);
+            }
+        });
+        return elements[0];
+    }
+}
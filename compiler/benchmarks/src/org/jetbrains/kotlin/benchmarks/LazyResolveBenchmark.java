@@ -0,0 +1,57 @@
+/*
+ * Copyright 2000-2018 JetBrains s.r.o. Use of this source code is governed by the Apache 2.0 license
+ * that can be found in the license/LICENSE.txt file.
+ */
+
+package org.jetbrains.kotlin.benchmarks;
+
+import org.jetbrains.kotlin.cli.jvm.compiler.CliLightClassGenerationSupport;
+import org.jetbrains.kotlin.cli.jvm.compiler.TopDownAnalyzerFacadeForJVM;
+import org.jetbrains.kotlin.container.ComponentProvider;
+import org.jetbrains.kotlin.container.DslKt;
+import org.jetbrains.kotlin.psi.KtFile;
+import org.jetbrains.kotlin.resolve.lazy.ResolveSession;
+import org.jetbrains.kotlin.resolve.lazy.declarations.FileBasedDeclarationProviderFactory;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Lazy resolution of all declarations (but not bodies) of the corpus, i.e. what the IDE does for the files of a module.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class LazyResolveBenchmark {
+    private BenchmarkEnvironment environment;
+    private List<KtFile> files;
+
+    @Setup
+    public void setUp() {
+        environment = new BenchmarkEnvironment();
+        files = environment.createKtFiles(environment.loadCompilableCorpus(BenchmarkEnvironment.COMPILABLE_CORPUS));
+    }
+
+    @TearDown
+    public void tearDown() {
+        environment.dispose();
+    }
+
+    @Benchmark
+    public void resolveDeclarations(Blackhole blackhole) {
+        TopDownAnalyzerFacadeForJVM facade = TopDownAnalyzerFacadeForJVM.INSTANCE;
+        ComponentProvider container = facade.createContainer(
+                environment.getProject(), files, new CliLightClassGenerationSupport.NoScopeRecordCliBindingTrace(),
+                environment.getConfiguration(), environment::createPackagePartProvider, FileBasedDeclarationProviderFactory::new,
+                facade.newModuleSearchScope(environment.getProject(), files)
+        );
+        ResolveSession resolveSession = DslKt.getService(container, ResolveSession.class);
+        resolveSession.forceResolveAll();
+        blackhole.consume(resolveSession);
+    }
+}
@@ -0,0 +1,42 @@
+/*
+ * Copyright 2000-2018 JetBrains s.r.o. Use of this source code is governed by the Apache 2.0 license
+ * that can be found in the license/LICENSE.txt file.
+ */
+
+package org.jetbrains.kotlin.benchmarks;
+
+import org.jetbrains.kotlin.lexer.KotlinLexer;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class LexerBenchmark {
+    private List<BenchmarkEnvironment.SourceFile> corpus;
+
+    @Setup
+    public void setUp() {
+        corpus = BenchmarkEnvironment.loadCorpus(BenchmarkEnvironment.SYNTAX_CORPUS);
+    }
+
+    @Benchmark
+    public void lex(Blackhole blackhole) {
+        KotlinLexer lexer = new KotlinLexer();
+        for (BenchmarkEnvironment.SourceFile file : corpus) {
+            lexer.start(file.text);
+            int tokens = 0;
+            while (lexer.getTokenType() != null) {
+                tokens++;
+                lexer.advance();
+            }
+            blackhole.consume(tokens);
+        }
+    }
+}
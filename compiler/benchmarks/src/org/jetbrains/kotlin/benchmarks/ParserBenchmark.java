@@ -0,0 +1,55 @@
+/*
+ * Copyright 2000-2018 JetBrains s.r.o. Use of this source code is governed by the Apache 2.0 license
+ * that can be found in the license/LICENSE.txt file.
+ */
+
+package org.jetbrains.kotlin.benchmarks;
+
+import com.intellij.psi.PsiElement;
+import org.jetbrains.kotlin.psi.KtFile;
+import org.jetbrains.kotlin.psi.KtTreeVisitorVoid;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class ParserBenchmark {
+    private BenchmarkEnvironment environment;
+    private List<BenchmarkEnvironment.SourceFile> corpus;
+
+    @Setup
+    public void setUp() {
+        environment = new BenchmarkEnvironment();
+        corpus = BenchmarkEnvironment.loadCorpus(BenchmarkEnvironment.SYNTAX_CORPUS);
+    }
+
+    @TearDown
+    public void tearDown() {
+        environment.dispose();
+    }
+
+    @Benchmark
+    public void parse(Blackhole blackhole) {
+        // Files are created anew on each invocation, and visiting the whole tree forces parsing of lazy blocks as well
+        List<KtFile> files = environment.createKtFiles(corpus);
+        int[] elements = new int[1];
+        KtTreeVisitorVoid visitor = new KtTreeVisitorVoid() {
+            @Override
+            public void visitElement(PsiElement element) {
+                elements[0]++;
+                super.visitElement(element);
+            }
+        };
+        for (KtFile file : files) {
+            file.accept(visitor);
+        }
+        blackhole.consume(elements[0]);
+    }
+}
@@ -0,0 +1,44 @@
+/*
+ * Copyright 2000-2018 JetBrains s.r.o. Use of this source code is governed by the Apache 2.0 license
+ * that can be found in the license/LICENSE.txt file.
+ */
+
+package org.jetbrains.kotlin.benchmarks;
+
+import org.jetbrains.kotlin.psi.KtFile;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Full analysis of smart cast heavy code, which stresses operations on data flow info.
+ * Run with "-prof gc" to compare allocation rates.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class SmartCastBenchmark {
+    private BenchmarkEnvironment environment;
+    private List<KtFile> files;
+
+    @Setup
+    public void setUp() {
+        environment = new BenchmarkEnvironment();
+        files = environment.createKtFiles(environment.loadCompilableCorpus(BenchmarkEnvironment.SMART_CAST_CORPUS));
+    }
+
+    @TearDown
+    public void tearDown() {
+        environment.dispose();
+    }
+
+    @Benchmark
+    public void analyze(Blackhole blackhole) {
+        blackhole.consume(environment.analyze(files));
+    }
+}
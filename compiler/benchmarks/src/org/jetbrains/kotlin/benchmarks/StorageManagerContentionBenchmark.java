@@ -0,0 +1,114 @@
+/*
+ * Copyright 2000-2018 JetBrains s.r.o. Use of this source code is governed by the Apache 2.0 license
+ * that can be found in the license/LICENSE.txt file.
+ */
+
+package org.jetbrains.kotlin.benchmarks;
+
+import org.jetbrains.kotlin.storage.*;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Memoized functions and lazy values computed concurrently from several threads, see StripedLockStorageManager.
+ * Each computation depends on another memoized value, like lazy descriptors resolving their supertypes.
+ *
+ * Every benchmark is run on 1, 2, 4, 8 and 16 threads to show how the storage managers scale.
+ * {@code @Threads} can't be a {@code @Param}, so there is a method per thread count.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class StorageManagerContentionBenchmark {
+    @Param({"lockBased", "striped"})
+    public String storageManager;
+
+    private final AtomicInteger nextKey = new AtomicInteger();
+
+    private MemoizedFunctionToNotNull<Integer, NotNullLazyValue<Integer>> descriptors;
+    private MemoizedFunctionToNotNull<Integer, Integer> supertypes;
+
+    @Setup(Level.Iteration)
+    public void setUp() {
+        StorageManager manager = storageManager.equals("striped") ? new StripedLockStorageManager() : new LockBasedStorageManager();
+        supertypes = manager.createMemoizedFunction(key -> Integer.rotateLeft(key * 31, 7));
+        descriptors = manager.createMemoizedFunction(key -> manager.createLazyValue(() -> supertypes.invoke(key / 2) + key));
+        nextKey.set(0);
+    }
+
+    @Benchmark
+    @Threads(1)
+    public void computeNew01(Blackhole blackhole) {
+        computeNew(blackhole);
+    }
+
+    @Benchmark
+    @Threads(2)
+    public void computeNew02(Blackhole blackhole) {
+        computeNew(blackhole);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void computeNew04(Blackhole blackhole) {
+        computeNew(blackhole);
+    }
+
+    @Benchmark
+    @Threads(8)
+    public void computeNew08(Blackhole blackhole) {
+        computeNew(blackhole);
+    }
+
+    @Benchmark
+    @Threads(16)
+    public void computeNew16(Blackhole blackhole) {
+        computeNew(blackhole);
+    }
+
+    @Benchmark
+    @Threads(1)
+    public void readComputed01(Blackhole blackhole) {
+        readComputed(blackhole);
+    }
+
+    @Benchmark
+    @Threads(2)
+    public void readComputed02(Blackhole blackhole) {
+        readComputed(blackhole);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void readComputed04(Blackhole blackhole) {
+        readComputed(blackhole);
+    }
+
+    @Benchmark
+    @Threads(8)
+    public void readComputed08(Blackhole blackhole) {
+        readComputed(blackhole);
+    }
+
+    @Benchmark
+    @Threads(16)
+    public void readComputed16(Blackhole blackhole) {
+        readComputed(blackhole);
+    }
+
+    private void computeNew(Blackhole blackhole) {
+        blackhole.consume(descriptors.invoke(nextKey.getAndIncrement()).invoke());
+    }
+
+    private void readComputed(Blackhole blackhole) {
+        // Keys repeat, so most of the values are already computed, as it happens with descriptors shared between files
+        int key = nextKey.getAndIncrement() & 1023;
+        blackhole.consume(descriptors.invoke(key).invoke());
+    }
+}
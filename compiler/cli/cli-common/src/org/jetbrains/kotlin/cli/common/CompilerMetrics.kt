@@ -0,0 +1,158 @@
+/*
+ * Copyright 2000-2018 JetBrains s.r.o. Use of this source code is governed by the Apache 2.0 license
+ * that can be found in the license/LICENSE.txt file.
+ */
+
+package org.jetbrains.kotlin.cli.common
+
+import org.jetbrains.kotlin.util.PerformanceCounter
+import java.lang.management.ManagementFactory
+import java.util.*
+import java.util.concurrent.TimeUnit
+
+/**
+ * Wall time, CPU time, allocated memory and GC time of the compiler phases, together with the amount of processed source code.
+ *
+ * CPU time and allocations are measured for the thread which runs the phase, so work done on other threads (e.g. with the parallel
+ * backend) is not included into them. Measurements of the same phase and target are summed up, e.g. when output is written in parts
+ * or when the incremental compiler runs several iterations.
+ */
+class CompilerMetrics {
+    enum class Phase {
+        PARSE,
+        ANALYZE,
+        CODEGEN,
+        WRITE
+    }
+
+    class PhaseMeasurement(
+            val phase: Phase,
+            val target: String?,
+            val files: Int,
+            val lines: Int,
+            val wallTimeNanos: Long,
+            // -1 if not supported by the JVM
+            val cpuTimeNanos: Long,
+            // -1 if not supported by the JVM
+            val allocatedBytes: Long,
+            val gcTimeMillis: Long
+    ) {
+        val wallTimeMillis: Long
+            get() = TimeUnit.NANOSECONDS.toMillis(wallTimeNanos)
+
+        val linesPerSecond: Double
+            get() = if (wallTimeNanos == 0L) 0.0 else lines.toDouble() * TimeUnit.SECONDS.toNanos(1) / wallTimeNanos
+
+        val filesPerSecond: Double
+            get() = if (wallTimeNanos == 0L) 0.0 else files.toDouble() * TimeUnit.SECONDS.toNanos(1) / wallTimeNanos
+
+        internal operator fun plus(other: PhaseMeasurement) = PhaseMeasurement(
+                phase, target, files + other.files, lines + other.lines, wallTimeNanos + other.wallTimeNanos,
+                sumOrUnsupported(cpuTimeNanos, other.cpuTimeNanos), sumOrUnsupported(allocatedBytes, other.allocatedBytes),
+                gcTimeMillis + other.gcTimeMillis
+        )
+    }
+
+    class Start internal constructor(
+            internal val wallTimeNanos: Long,
+            internal val cpuTimeNanos: Long,
+            internal val allocatedBytes: Long,
+            internal val gcTimeMillis: Long
+    )
+
+    private val measurements = LinkedHashMap<Pair<Phase, String?>, PhaseMeasurement>()
+
+    val phases: List<PhaseMeasurement>
+        get() = synchronized(measurements) { measurements.values.toList() }
+
+    fun start(): Start = Start(System.nanoTime(), currentThreadCpuTime(), currentThreadAllocatedBytes(), totalGcTime())
+
+    fun finish(start: Start, phase: Phase, files: Int, lines: Int, target: String? = null): PhaseMeasurement {
+        val cpuTime = currentThreadCpuTime()
+        val allocatedBytes = currentThreadAllocatedBytes()
+        val measurement = PhaseMeasurement(
+                phase, target, files, lines,
+                wallTimeNanos = System.nanoTime() - start.wallTimeNanos,
+                cpuTimeNanos = if (cpuTime < 0 || start.cpuTimeNanos < 0) -1 else cpuTime - start.cpuTimeNanos,
+                allocatedBytes = if (allocatedBytes < 0 || start.allocatedBytes < 0) -1 else allocatedBytes - start.allocatedBytes,
+                gcTimeMillis = totalGcTime() - start.gcTimeMillis
+        )
+        synchronized(measurements) {
+            val key = phase to target
+            measurements[key] = measurements[key]?.let { it + measurement } ?: measurement
+        }
+        return measurement
+    }
+
+    fun toJson(): String = buildString {
+        append("{\n  \"phases\": [")
+        phases.forEachIndexed { index, measurement ->
+            if (index > 0) append(",")
+            with(measurement) {
+                append("\n    {")
+                append("\"phase\": ").appendQuoted(phase.name)
+                append(", \"target\": ").appendQuoted(target)
+                append(", \"files\": ").append(files)
+                append(", \"lines\": ").append(lines)
+                append(", \"wallTimeMs\": ").append(wallTimeMillis)
+                append(", \"cpuTimeMs\": ").append(if (cpuTimeNanos < 0) -1 else TimeUnit.NANOSECONDS.toMillis(cpuTimeNanos))
+                append(", \"allocatedBytes\": ").append(allocatedBytes)
+                append(", \"gcTimeMs\": ").append(gcTimeMillis)
+                append(", \"filesPerSecond\": ").append(formatRate(filesPerSecond))
+                append(", \"linesPerSecond\": ").append(formatRate(linesPerSecond))
+                append("}")
+            }
+        }
+        append("\n  ],\n  \"counters\": [")
+        PerformanceCounter.getAllCounters().forEachIndexed { index, counter ->
+            if (index > 0) append(",")
+            append("\n    {")
+            append("\"name\": ").appendQuoted(counter.name)
+            append(", \"count\": ").append(counter.count)
+            append(", \"totalTimeMs\": ").append(TimeUnit.NANOSECONDS.toMillis(counter.totalTimeNanos))
+            append("}")
+        }
+        append("\n  ]\n}\n")
+    }
+
+    private companion object {
+        fun sumOrUnsupported(first: Long, second: Long): Long = if (first < 0 || second < 0) -1 else first + second
+
+        fun currentThreadCpuTime(): Long {
+            val bean = ManagementFactory.getThreadMXBean()
+            return if (bean.isCurrentThreadCpuTimeSupported) bean.currentThreadCpuTime else -1
+        }
+
+        fun currentThreadAllocatedBytes(): Long {
+            val bean = ManagementFactory.getThreadMXBean() as? com.sun.management.ThreadMXBean ?: return -1
+            if (!bean.isThreadAllocatedMemorySupported || !bean.isThreadAllocatedMemoryEnabled) return -1
+            return bean.getThreadAllocatedBytes(Thread.currentThread().id)
+        }
+
+        fun totalGcTime(): Long = ManagementFactory.getGarbageCollectorMXBeans().sumByLong { maxOf(it.collectionTime, 0L) }
+
+        inline fun <T> Iterable<T>.sumByLong(selector: (T) -> Long): Long {
+            var sum = 0L
+            for (element in this) sum += selector(element)
+            return sum
+        }
+
+        fun formatRate(value: Double): String = String.format(Locale.US, "%.3f", value)
+
+        fun StringBuilder.appendQuoted(value: String?): StringBuilder {
+            if (value == null) return append("null")
+            append('"')
+            for (c in value) {
+                when (c) {
+                    '"' -> append("\\\"")
+                    '\\' -> append("\\\\")
+                    '\n' -> append("\\n")
+                    '\r' -> append("\\r")
+                    '\t' -> append("\\t")
+                    else -> if (c < ' ') append(String.format("\\u%04x", c.toInt())) else append(c)
+                }
+            }
+            return append('"')
+        }
+    }
+}
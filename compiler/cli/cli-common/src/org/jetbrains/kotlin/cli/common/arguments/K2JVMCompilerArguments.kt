@@ -123,9 +123,72 @@ class K2JVMCompilerArguments : CommonCompilerArguments() {
     )
     var constructorCallNormalizationMode: String? by FreezableVar(JVMConstructorCallNormalizationMode.DEFAULT.description)
 
+    @Argument(
+        value = "-Xbackend-threads",
+        valueDescription = "<N>",
+        description = "Generate bytecode for independent package parts and multifile facades on N threads [experimental].\n" +
+                "Default value is 1, which means sequential code generation"
+    )
+    var backendThreads: String? by FreezableVar(null)
+
+    @Argument(
+        value = "-Xoptimization-threads",
+        valueDescription = "<N>",
+        description = "Optimize bytecode of large methods on N threads while the rest of the class is generated [experimental].\n" +
+                "Default value is 1, which means that methods are optimized on the thread which generates them.\n" +
+                "With more threads, constant pools of class files are ordered differently than with 1 thread"
+    )
+    var optimizationThreads: String? by FreezableVar(null)
+
+    @Argument(
+        value = "-Xbody-resolution-threads",
+        valueDescription = "<N>",
+        description = "Resolve bodies of functions on N threads [experimental].\n" +
+                "Default value is 1, which means sequential resolution"
+    )
+    var bodyResolutionThreads: String? by FreezableVar(null)
+
+    @Argument(
+        value = "-Xparsing-threads",
+        valueDescription = "<N>",
+        description = "Parse source files on N threads before analysis [experimental].\n" +
+                "Default value is 1, which means that source files are parsed on demand during analysis"
+    )
+    var parsingThreads: String? by FreezableVar(null)
+
+    @Argument(
+        value = "-Xjar-package-index",
+        valueDescription = "<path>",
+        description = "Cache the list of packages of each classpath jar in the given directory, to avoid looking into jars for absent packages"
+    )
+    var jarPackageIndexDirectory: String? by FreezableVar(null)
+
+    @Argument(
+        value = "-Xlibrary-inline-cache-size",
+        valueDescription = "<MB>",
+        description = "Keep bodies of inline functions from library jars in a cache of the given size, shared between compilations in the same process.\n" +
+                "Enabled by default in the compile daemon"
+    )
+    var libraryInlineCacheSize: String? by FreezableVar(null)
+
+    @Argument(
+        value = "-Xlibrary-metadata-cache-size",
+        valueDescription = "<MB>",
+        description = "Keep parsed metadata of classes from library jars in a cache of the given size, shared between compilations in the same process.\n" +
+                "Enabled by default in the compile daemon"
+    )
+    var libraryMetadataCacheSize: String? by FreezableVar(null)
+
     @Argument(value = "-Xreport-perf", description = "Report detailed performance statistics")
     var reportPerf: Boolean by FreezableVar(false)
 
+    @Argument(
+        value = "-Xreport-metrics",
+        valueDescription = "<path>",
+        description = "Write time, CPU time, allocated memory and GC time of the compiler phases to the given file in JSON format"
+    )
+    var reportMetricsPath: String? by FreezableVar(null)
+
     @Argument(
         value = "-Xbuild-file",
         deprecatedName = "-module",
@@ -150,6 +213,12 @@ class K2JVMCompilerArguments : CommonCompilerArguments() {
     )
     var useOldClassFilesReading: Boolean by FreezableVar(false)
 
+    @Argument(
+        value = "-Xuse-fast-jar-file-system",
+        description = "Read classpath jars by mapping their central directories into memory instead of loading them into the heap [experimental]"
+    )
+    var useFastJarFileSystem: Boolean by FreezableVar(false)
+
     @Argument(
         value = "-Xdump-declarations-to",
         valueDescription = "<path>",
@@ -29,6 +29,8 @@ public class CLIConfigurationKeys {
             CompilerConfigurationKey.create("allow kotlin package");
     public static final CompilerConfigurationKey<Boolean> REPORT_PERF =
             CompilerConfigurationKey.create("report performance information");
+    public static final CompilerConfigurationKey<CompilerMetrics> COMPILER_METRICS =
+            CompilerConfigurationKey.create("compiler phase metrics");
     public static final CompilerConfigurationKey<Boolean> IS_API_VERSION_EXPLICIT =
             CompilerConfigurationKey.create("is API version explicit");
 
@@ -21,14 +21,17 @@ import com.intellij.openapi.Disposable
 import org.jetbrains.kotlin.cli.common.CLICompiler
 import org.jetbrains.kotlin.cli.common.CLIConfigurationKeys
 import org.jetbrains.kotlin.cli.common.CLITool
+import org.jetbrains.kotlin.cli.common.CompilerMetrics
 import org.jetbrains.kotlin.cli.common.ExitCode
 import org.jetbrains.kotlin.cli.common.ExitCode.*
+import org.jetbrains.kotlin.cli.common.KOTLIN_COMPILER_ENVIRONMENT_KEEPALIVE_PROPERTY
 import org.jetbrains.kotlin.cli.common.arguments.K2JVMCompilerArguments
 import org.jetbrains.kotlin.cli.common.messages.CompilerMessageSeverity.*
 import org.jetbrains.kotlin.cli.common.messages.FilteringMessageCollector
 import org.jetbrains.kotlin.cli.common.messages.MessageCollector
 import org.jetbrains.kotlin.cli.common.messages.MessageUtil
 import org.jetbrains.kotlin.cli.common.messages.OutputMessageUtil
+import org.jetbrains.kotlin.cli.common.toBooleanLenient
 import org.jetbrains.kotlin.cli.jvm.compiler.CompileEnvironmentUtil
 import org.jetbrains.kotlin.cli.jvm.compiler.EnvironmentConfigFiles
 import org.jetbrains.kotlin.cli.jvm.compiler.KotlinCoreEnvironment
@@ -55,6 +58,7 @@ import org.jetbrains.kotlin.util.PerformanceCounter
 import org.jetbrains.kotlin.utils.KotlinPaths
 import org.jetbrains.kotlin.utils.PathUtil
 import java.io.File
+import java.io.IOException
 import java.lang.management.ManagementFactory
 import java.net.URLClassLoader
 import java.util.*
@@ -211,6 +215,10 @@ class K2JVMCompiler : CLICompiler<K2JVMCompilerArguments>() {
                 }
             }
 
+            arguments.reportMetricsPath?.let { path ->
+                writeMetrics(configuration, File(path))
+            }
+
             if (arguments.reportPerf) {
                 reportGCTime(configuration)
                 reportCompilationTime(configuration)
@@ -296,6 +304,11 @@ class K2JVMCompiler : CLICompiler<K2JVMCompilerArguments>() {
     override fun setupPlatformSpecificArgumentsAndServices(
         configuration: CompilerConfiguration, arguments: K2JVMCompilerArguments, services: Services
     ) {
+        // Metrics may be requested by the caller (e.g. the daemon) or from the command line
+        val metrics = services.get(CompilerMetrics::class.java)
+                ?: if (arguments.reportPerf || arguments.reportMetricsPath != null) CompilerMetrics() else null
+        metrics?.let { configuration.put(CLIConfigurationKeys.COMPILER_METRICS, it) }
+
         if (IncrementalCompilation.isEnabled()) {
             services.get(LookupTracker::class.java)?.let {
                 configuration.put(CommonConfigurationKeys.LOOKUP_TRACKER, it)
@@ -328,6 +341,9 @@ class K2JVMCompiler : CLICompiler<K2JVMCompilerArguments>() {
     override fun executableScriptFileName(): String = "kotlinc-jvm"
 
     companion object {
+        private const val DEFAULT_LIBRARY_INLINE_CACHE_SIZE = 64L * 1024 * 1024
+        private const val DEFAULT_LIBRARY_METADATA_CACHE_SIZE = 128L * 1024 * 1024
+
         private var initStartNanos = System.nanoTime()
         // allows to track GC time for each run when repeated compilation is used
         private val elapsedGCTime = hashMapOf<String, Long>()
@@ -350,6 +366,18 @@ class K2JVMCompiler : CLICompiler<K2JVMCompilerArguments>() {
             configuration.getNotNull(CLIConfigurationKeys.MESSAGE_COLLECTOR_KEY).report(INFO, "PERF: $message")
         }
 
+        private fun writeMetrics(configuration: CompilerConfiguration, file: File) {
+            val metrics = configuration.get(CLIConfigurationKeys.COMPILER_METRICS) ?: return
+            try {
+                file.absoluteFile.parentFile?.mkdirs()
+                file.writeText(metrics.toJson())
+            }
+            catch (e: IOException) {
+                configuration.getNotNull(CLIConfigurationKeys.MESSAGE_COLLECTOR_KEY)
+                    .report(WARNING, "Could not write compiler metrics to $file: ${e.message}")
+            }
+        }
+
         fun reportGCTime(configuration: CompilerConfiguration) {
             ManagementFactory.getGarbageCollectorMXBeans().forEach {
                 val currentTime = it.collectionTime
@@ -391,9 +419,60 @@ class K2JVMCompiler : CLICompiler<K2JVMCompilerArguments>() {
                 constructorCallNormalizationMode ?: JVMConstructorCallNormalizationMode.DEFAULT
             )
 
+            arguments.backendThreads?.let { backendThreads ->
+                configuration.parsePositiveInt(backendThreads, "Number of backend threads")?.let {
+                    configuration.put(JVMConfigurationKeys.PARALLEL_BACKEND_THREADS, it)
+                }
+            }
+
+            arguments.optimizationThreads?.let { optimizationThreads ->
+                configuration.parsePositiveInt(optimizationThreads, "Number of optimization threads")?.let {
+                    configuration.put(JVMConfigurationKeys.PARALLEL_OPTIMIZATION_THREADS, it)
+                }
+            }
+
+            arguments.bodyResolutionThreads?.let { bodyResolutionThreads ->
+                configuration.parsePositiveInt(bodyResolutionThreads, "Number of body resolution threads")?.let {
+                    configuration.put(JVMConfigurationKeys.PARALLEL_BODY_RESOLUTION_THREADS, it)
+                }
+            }
+
+            arguments.parsingThreads?.let { parsingThreads ->
+                configuration.parsePositiveInt(parsingThreads, "Number of parsing threads")?.let {
+                    configuration.put(JVMConfigurationKeys.PARALLEL_PARSING_THREADS, it)
+                }
+            }
+
+            val libraryInlineCacheSize = arguments.libraryInlineCacheSize
+            if (libraryInlineCacheSize != null) {
+                configuration.parseCacheSize(libraryInlineCacheSize, "Size of the library inline cache")?.let {
+                    configuration.put(JVMConfigurationKeys.LIBRARY_INLINE_CACHE_SIZE, it)
+                }
+            }
+            else if (System.getProperty(KOTLIN_COMPILER_ENVIRONMENT_KEEPALIVE_PROPERTY).toBooleanLenient() == true) {
+                // The compiler is kept alive between compilations (e.g. in the daemon), so library inline functions are worth keeping too
+                configuration.put(JVMConfigurationKeys.LIBRARY_INLINE_CACHE_SIZE, DEFAULT_LIBRARY_INLINE_CACHE_SIZE)
+            }
+
+            val libraryMetadataCacheSize = arguments.libraryMetadataCacheSize
+            if (libraryMetadataCacheSize != null) {
+                configuration.parseCacheSize(libraryMetadataCacheSize, "Size of the library metadata cache")?.let {
+                    configuration.put(JVMConfigurationKeys.LIBRARY_METADATA_CACHE_SIZE, it)
+                }
+            }
+            else if (System.getProperty(KOTLIN_COMPILER_ENVIRONMENT_KEEPALIVE_PROPERTY).toBooleanLenient() == true) {
+                // Library jars rarely change between builds in a long-lived process, so their parsed metadata is kept as well
+                configuration.put(JVMConfigurationKeys.LIBRARY_METADATA_CACHE_SIZE, DEFAULT_LIBRARY_METADATA_CACHE_SIZE)
+            }
+
+            arguments.jarPackageIndexDirectory?.let { path ->
+                configuration.put(JVMConfigurationKeys.JAR_PACKAGE_INDEX_DIRECTORY, File(path))
+            }
+
             configuration.put(JVMConfigurationKeys.INHERIT_MULTIFILE_PARTS, arguments.inheritMultifileParts)
             configuration.put(JVMConfigurationKeys.SKIP_RUNTIME_VERSION_CHECK, arguments.skipRuntimeVersionCheck)
             configuration.put(JVMConfigurationKeys.USE_FAST_CLASS_FILES_READING, !arguments.useOldClassFilesReading)
+            configuration.put(JVMConfigurationKeys.USE_FAST_JAR_FILE_SYSTEM, arguments.useFastJarFileSystem)
 
             if (arguments.useOldClassFilesReading) {
                 configuration.getNotNull(CLIConfigurationKeys.MESSAGE_COLLECTOR_KEY)
@@ -409,6 +488,28 @@ class K2JVMCompiler : CLICompiler<K2JVMCompilerArguments>() {
             arguments.declarationsOutputPath?.let { configuration.put(JVMConfigurationKeys.DECLARATIONS_JSON_PATH, it) }
         }
 
+        // Returns null and reports an error if the value is not a positive integer
+        private fun CompilerConfiguration.parsePositiveInt(value: String, description: String): Int? {
+            val result = value.toIntOrNull()
+            if (result == null || result < 1) {
+                getNotNull(CLIConfigurationKeys.MESSAGE_COLLECTOR_KEY).report(ERROR, "$description should be a positive integer: $value")
+                return null
+            }
+            return result
+        }
+
+        // Returns the size in bytes, or null if the cache is disabled by zero or the value is not a non-negative number of megabytes
+        private fun CompilerConfiguration.parseCacheSize(value: String, description: String): Long? {
+            val sizeInMegabytes = value.toLongOrNull()
+            if (sizeInMegabytes == null || sizeInMegabytes < 0) {
+                getNotNull(CLIConfigurationKeys.MESSAGE_COLLECTOR_KEY).report(
+                    ERROR, "$description should be a non-negative number of megabytes: $value"
+                )
+                return null
+            }
+            return if (sizeInMegabytes > 0) sizeInMegabytes * 1024 * 1024 else null
+        }
+
         private fun configureContentRoots(paths: KotlinPaths?, arguments: K2JVMCompilerArguments, configuration: CompilerConfiguration) {
             val messageCollector = configuration.getNotNull(CLIConfigurationKeys.MESSAGE_COLLECTOR_KEY)
             for (path in arguments.classpath?.split(File.pathSeparatorChar).orEmpty()) {
@@ -72,9 +72,26 @@ public class CompileEnvironmentUtil {
         return ModuleChunk.EMPTY;
     }
 
-    // TODO: includeRuntime should be not a flag but a path to runtime
-    private static void doWriteToJar(OutputFileCollection outputFiles, OutputStream fos, @Nullable FqName mainClass, boolean includeRuntime) {
-        try {
+    public static void writeToJar(File jarPath, boolean jarRuntime, FqName mainClass, OutputFileCollection outputFiles) {
+        try (JarWriter writer = new JarWriter(jarPath, mainClass)) {
+            writer.write(outputFiles.asList());
+            writer.finish(jarRuntime);
+        }
+    }
+
+    /**
+     * Writes output files into a jar as they're generated. The jar is written into a temporary file which replaces the destination
+     * only in {@link #finish}, so that a failed compilation doesn't leave a partially written jar.
+     */
+    public static final class JarWriter implements Closeable {
+        private final File jarPath;
+        private final File tmpFile;
+        private final JarOutputStream stream;
+        private boolean finished = false;
+
+        public JarWriter(@NotNull File jarPath, @Nullable FqName mainClass) {
+            this.jarPath = jarPath;
+
             Manifest manifest = new Manifest();
             Attributes mainAttributes = manifest.getMainAttributes();
             mainAttributes.putValue("Manifest-Version", "1.0");
@@ -82,36 +99,53 @@ public class CompileEnvironmentUtil {
             if (mainClass != null) {
                 mainAttributes.putValue("Main-Class", mainClass.asString());
             }
-            JarOutputStream stream = new JarOutputStream(fos, manifest);
-            for (OutputFile outputFile : outputFiles.asList()) {
-                stream.putNextEntry(new JarEntry(outputFile.getRelativePath()));
-                stream.write(outputFile.asByteArray());
+
+            File tmp = null;
+            try {
+                File parent = jarPath.getAbsoluteFile().getParentFile();
+                tmp = File.createTempFile(jarPath.getName(), ".tmp", parent);
+                this.tmpFile = tmp;
+                this.stream = new JarOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)), manifest);
             }
-            if (includeRuntime) {
-                writeRuntimeToJar(stream);
+            catch (IOException e) {
+                if (tmp != null) FileUtil.delete(tmp);
+                throw new CompileEnvironmentException("Invalid jar path " + jarPath, e);
             }
-            stream.finish();
-        }
-        catch (IOException e) {
-            throw new CompileEnvironmentException("Failed to generate jar file", e);
         }
-    }
 
-    public static void writeToJar(File jarPath, boolean jarRuntime, FqName mainClass, OutputFileCollection outputFiles) {
-        FileOutputStream outputStream = null;
-        try {
-            outputStream = new FileOutputStream(jarPath);
-            doWriteToJar(outputFiles, outputStream, mainClass, jarRuntime);
-            outputStream.close();
-        }
-        catch (FileNotFoundException e) {
-            throw new CompileEnvironmentException("Invalid jar path " + jarPath, e);
+        public void write(@NotNull Collection<OutputFile> outputFiles) {
+            try {
+                for (OutputFile outputFile : outputFiles) {
+                    stream.putNextEntry(new JarEntry(outputFile.getRelativePath()));
+                    stream.write(outputFile.asByteArray());
+                }
+            }
+            catch (IOException e) {
+                throw new CompileEnvironmentException("Failed to generate jar file", e);
+            }
         }
-        catch (IOException e) {
-            throw ExceptionUtilsKt.rethrow(e);
+
+        // TODO: includeRuntime should be not a flag but a path to runtime
+        public void finish(boolean includeRuntime) {
+            try {
+                if (includeRuntime) {
+                    writeRuntimeToJar(stream);
+                }
+                stream.close();
+                FileUtil.rename(tmpFile, jarPath);
+                finished = true;
+            }
+            catch (IOException e) {
+                throw new CompileEnvironmentException("Failed to generate jar file", e);
+            }
         }
-        finally {
-            ExceptionUtilsKt.closeQuietly(outputStream);
+
+        @Override
+        public void close() {
+            if (!finished) {
+                ExceptionUtilsKt.closeQuietly(stream);
+                FileUtil.delete(tmpFile);
+            }
         }
     }
 
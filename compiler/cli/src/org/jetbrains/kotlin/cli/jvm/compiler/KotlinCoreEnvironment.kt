@@ -66,6 +66,7 @@ import org.jetbrains.kotlin.asJava.LightClassGenerationSupport
 import org.jetbrains.kotlin.asJava.classes.KtLightClassForFacade
 import org.jetbrains.kotlin.asJava.finder.JavaElementFinder
 import org.jetbrains.kotlin.cli.common.CLIConfigurationKeys
+import org.jetbrains.kotlin.cli.common.CompilerMetrics
 import org.jetbrains.kotlin.cli.common.CliModuleVisibilityManagerImpl
 import org.jetbrains.kotlin.cli.common.KOTLIN_COMPILER_ENVIRONMENT_KEEPALIVE_PROPERTY
 import org.jetbrains.kotlin.cli.common.messages.CompilerMessageSeverity
@@ -77,6 +78,7 @@ import org.jetbrains.kotlin.cli.common.script.CliScriptDependenciesProvider
 import org.jetbrains.kotlin.cli.common.script.CliScriptReportSink
 import org.jetbrains.kotlin.cli.common.toBooleanLenient
 import org.jetbrains.kotlin.cli.jvm.JvmRuntimeVersionsConsistencyChecker
+import org.jetbrains.kotlin.cli.jvm.compiler.jarfs.FastJarFileSystem
 import org.jetbrains.kotlin.cli.jvm.config.*
 import org.jetbrains.kotlin.cli.jvm.index.*
 import org.jetbrains.kotlin.cli.jvm.javac.JavacWrapperRegistrar
@@ -158,6 +160,12 @@ class KotlinCoreEnvironment private constructor(
 
     val configuration: CompilerConfiguration = initialConfiguration.apply { setupJdkClasspathRoots(configFiles) }.copy()
 
+    private val fastJarFileSystem: FastJarFileSystem? =
+            if (configuration.getBoolean(JVMConfigurationKeys.USE_FAST_JAR_FILE_SYSTEM)) {
+                FastJarFileSystem().also { fileSystem -> Disposer.register(parentDisposable, Disposable { fileSystem.clearHandlers() }) }
+            }
+            else null
+
     init {
         PersistentFSConstants::class.java.getDeclaredField("ourMaxIntellisenseFileSize")
                 .apply { isAccessible = true }
@@ -191,12 +199,31 @@ class KotlinCoreEnvironment private constructor(
         val messageCollector = configuration.get(CLIConfigurationKeys.MESSAGE_COLLECTOR_KEY)
         registerProjectServices(projectEnvironment, messageCollector)
 
-        sourceFiles += CompileEnvironmentUtil.getKtFiles(project, getSourceRootsCheckingForDuplicates(), this.configuration, {
-            message ->
-            report(ERROR, message)
-        })
+        val metrics = configuration.get(CLIConfigurationKeys.COMPILER_METRICS)
+        val parseStart = metrics?.start()
+
+        SourceFilesParser.findSourceFilesCounter.time {
+            sourceFiles += CompileEnvironmentUtil.getKtFiles(project, getSourceRootsCheckingForDuplicates(), this.configuration, {
+                message ->
+                report(ERROR, message)
+            })
+        }
         sourceFiles.sortBy { it.virtualFile.path }
 
+        val parsingThreads = configuration.get(JVMConfigurationKeys.PARALLEL_PARSING_THREADS, 1)
+        if (parsingThreads > 1) {
+            SourceFilesParser.parseAll(sourceFiles, parsingThreads)
+        }
+        else if (metrics != null) {
+            // Trees are otherwise built on the first access during analysis. Lazily parseable blocks (e.g. function bodies) are still
+            // parsed later and are accounted to the analysis
+            sourceFiles.forEach { it.node }
+        }
+
+        if (metrics != null) {
+            metrics.finish(parseStart!!, CompilerMetrics.Phase.PARSE, sourceFiles.size, countLinesOfCode(sourceFiles))
+        }
+
         val scriptDefinitionProvider = ScriptDefinitionProvider.getInstance(project) as? CliScriptDefinitionProvider
         if (scriptDefinitionProvider != null) {
             scriptDefinitionProvider.setScriptDefinitions(
@@ -246,8 +273,10 @@ class KotlinCoreEnvironment private constructor(
                 initialRoots.partition { (file) -> file.isDirectory || file.extension != JavaFileType.DEFAULT_EXTENSION }
 
         // REPL and kapt2 update classpath dynamically
-        rootsIndex = JvmDependenciesDynamicCompoundIndex().apply {
-            addIndex(JvmDependenciesIndexImpl(roots))
+        // indices are kept in memory for the process anyway, the directory only lets them survive it
+        val jarPackageIndexCache = JarPackageIndexCache(configuration.get(JVMConfigurationKeys.JAR_PACKAGE_INDEX_DIRECTORY))
+        rootsIndex = JvmDependenciesDynamicCompoundIndex(jarPackageIndexCache).apply {
+            addIndex(JvmDependenciesIndexImpl(roots, jarPackageIndexCache))
             updateClasspathFromRootsIndex(this)
         }
 
@@ -360,8 +389,11 @@ class KotlinCoreEnvironment private constructor(
         }
     }
 
-    private fun findJarRoot(file: File): VirtualFile? =
-            applicationEnvironment.jarFileSystem.findFileByPath("$file${URLUtil.JAR_SEPARATOR}")
+    private fun findJarRoot(file: File): VirtualFile? {
+        val path = "$file${URLUtil.JAR_SEPARATOR}"
+        // Jars which aren't supported by the fast file system (e.g. zip64 ones) are read with the default one
+        return fastJarFileSystem?.findFileByPath(path) ?: applicationEnvironment.jarFileSystem.findFileByPath(path)
+    }
 
     private fun getSourceRootsCheckingForDuplicates(): Collection<String> {
         val uniqueSourceRoots = linkedSetOf<String>()
@@ -26,10 +26,12 @@ import com.intellij.psi.search.DelegatingGlobalSearchScope
 import com.intellij.psi.search.GlobalSearchScope
 import org.jetbrains.kotlin.analyzer.AnalysisResult
 import org.jetbrains.kotlin.asJava.FilteredJvmDiagnostics
+import org.jetbrains.kotlin.backend.common.output.OutputFile
 import org.jetbrains.kotlin.backend.common.output.OutputFileCollection
 import org.jetbrains.kotlin.backend.common.output.SimpleOutputFileCollection
 import org.jetbrains.kotlin.backend.jvm.JvmIrCodegenFactory
 import org.jetbrains.kotlin.cli.common.CLIConfigurationKeys
+import org.jetbrains.kotlin.cli.common.CompilerMetrics
 import org.jetbrains.kotlin.cli.common.ExitCode
 import org.jetbrains.kotlin.cli.common.checkKotlinPackageUsage
 import org.jetbrains.kotlin.cli.common.messages.AnalyzerWithCompilerReport
@@ -53,13 +55,12 @@ import org.jetbrains.kotlin.modules.TargetId
 import org.jetbrains.kotlin.name.FqName
 import org.jetbrains.kotlin.progress.ProgressIndicatorAndCompilationCanceledStatus
 import org.jetbrains.kotlin.psi.KtFile
+import org.jetbrains.kotlin.resolve.BindingContext
 import org.jetbrains.kotlin.script.tryConstructClassFromStringArgs
-import org.jetbrains.kotlin.util.PerformanceCounter
 import org.jetbrains.kotlin.utils.newLinkedHashMapWithExpectedSize
 import java.io.File
 import java.lang.reflect.InvocationTargetException
 import java.net.URLClassLoader
-import java.util.concurrent.TimeUnit
 
 object KotlinToJVMBytecodeCompiler {
 
@@ -79,6 +80,26 @@ object KotlinToJVMBytecodeCompiler {
             configuration: CompilerConfiguration,
             outputFiles: OutputFileCollection,
             mainClass: FqName?
+    ) {
+        measureWrite(configuration, { outputFiles.asList().size }) {
+            doWriteOutput(configuration, outputFiles, mainClass)
+        }
+    }
+
+    private inline fun measureWrite(configuration: CompilerConfiguration, outputFileCount: () -> Int, write: () -> Unit) {
+        val metrics = configuration.get(CLIConfigurationKeys.COMPILER_METRICS)
+        val start = metrics?.start()
+        write()
+        if (metrics != null) {
+            // Files are output files here, there are no source lines to count
+            metrics.finish(start!!, CompilerMetrics.Phase.WRITE, outputFileCount(), 0)
+        }
+    }
+
+    private fun doWriteOutput(
+            configuration: CompilerConfiguration,
+            outputFiles: OutputFileCollection,
+            mainClass: FqName?
     ) {
         val reportOutputFiles = configuration.getBoolean(CommonConfigurationKeys.REPORT_OUTPUT_FILES)
         val jarPath = configuration.get(JVMConfigurationKeys.OUTPUT_JAR)
@@ -110,6 +131,60 @@ object KotlinToJVMBytecodeCompiler {
         }
     }
 
+    private fun createStreamingOutputIfPossible(configuration: CompilerConfiguration, mainClass: FqName?): StreamingOutput? =
+            if (configuration.get(JVMConfigurationKeys.RETAIN_OUTPUT_IN_MEMORY, false)) null
+            else StreamingOutput(configuration, mainClass)
+
+    // Writes output files to the destination directory or jar as soon as an independent part of the module (see
+    // GenerationState.afterIndependentPart) is generated, and releases them from ClassFileFactory. This way class builders with
+    // the bytes of all classes of a module are never held in memory at the same time. The rest of the output (e.g. the module
+    // mapping) is written in finish
+    private class StreamingOutput(private val configuration: CompilerConfiguration, mainClass: FqName?) : GenerationStateEventCallback {
+        private val reportOutputFiles = configuration.getBoolean(CommonConfigurationKeys.REPORT_OUTPUT_FILES)
+        private val messageCollector = configuration.get(CLIConfigurationKeys.MESSAGE_COLLECTOR_KEY, MessageCollector.NONE)
+        private val jarPath = configuration.get(JVMConfigurationKeys.OUTPUT_JAR)
+        private val jarWriter = jarPath?.let { CompileEnvironmentUtil.JarWriter(it, mainClass) }
+        private val jarSourceFiles = LinkedHashSet<File>()
+
+        override fun invoke(state: GenerationState) {
+            write(state.factory.releaseCurrentOutput())
+        }
+
+        fun finish(state: GenerationState) {
+            state.factory.done()
+            write(state.factory.releaseCurrentOutput())
+
+            if (jarWriter != null) {
+                jarWriter.finish(configuration.get(JVMConfigurationKeys.INCLUDE_RUNTIME, false))
+                if (reportOutputFiles) {
+                    messageCollector.report(OUTPUT, OutputMessageUtil.formatOutputMessage(jarSourceFiles, jarPath))
+                }
+            }
+        }
+
+        // Removes the partially written jar if the compilation has failed
+        fun close() {
+            jarWriter?.close()
+        }
+
+        private fun write(outputFiles: List<OutputFile>) {
+            if (outputFiles.isEmpty()) return
+
+            measureWrite(configuration, { outputFiles.size }) {
+                if (jarWriter != null) {
+                    jarWriter.write(outputFiles)
+                    if (reportOutputFiles) {
+                        outputFiles.flatMapTo(jarSourceFiles) { it.sourceFiles }
+                    }
+                }
+                else {
+                    val outputDir = configuration.get(JVMConfigurationKeys.OUTPUT_DIRECTORY) ?: File(".")
+                    SimpleOutputFileCollection(outputFiles).writeAll(outputDir, messageCollector, reportOutputFiles)
+                }
+            }
+        }
+    }
+
     internal fun compileModules(environment: KotlinCoreEnvironment, buildFile: File, chunk: List<Module>): Boolean {
         ProgressIndicatorAndCompilationCanceledStatus.checkCanceled()
 
@@ -125,9 +200,9 @@ object KotlinToJVMBytecodeCompiler {
             moduleVisibilityManager.addFriendPath(path)
         }
 
-        val targetDescription = "in targets [" + chunk.joinToString { input -> input.getModuleName() + "-" + input.getModuleType() } + "]"
+        val targetName = chunk.joinToString { input -> input.getModuleName() + "-" + input.getModuleType() }
 
-        val result = repeatAnalysisIfNeeded(analyze(environment, targetDescription), environment, targetDescription)
+        val result = repeatAnalysisIfNeeded(analyze(environment, targetName), environment, targetName)
         if (result == null || !result.shouldGenerateCode) return false
 
         ProgressIndicatorAndCompilationCanceledStatus.checkCanceled()
@@ -135,25 +210,40 @@ object KotlinToJVMBytecodeCompiler {
         result.throwIfError()
 
         val outputs = newLinkedHashMapWithExpectedSize<Module, GenerationState>(chunk.size)
+        val streamingOutputs = newLinkedHashMapWithExpectedSize<Module, StreamingOutput>(chunk.size)
 
-        for (module in chunk) {
-            ProgressIndicatorAndCompilationCanceledStatus.checkCanceled()
-            val ktFiles = CompileEnvironmentUtil.getKtFiles(
-                    environment.project, getAbsolutePaths(buildFile, module), projectConfiguration
-            ) { path -> throw IllegalStateException("Should have been checked before: $path") }
-            if (!checkKotlinPackageUsage(environment, ktFiles)) return false
-
-            val moduleConfiguration = projectConfiguration.copy().apply {
-                put(JVMConfigurationKeys.OUTPUT_DIRECTORY, File(module.getOutputDirectory()))
-            }
+        try {
+            for (module in chunk) {
+                ProgressIndicatorAndCompilationCanceledStatus.checkCanceled()
+                val ktFiles = CompileEnvironmentUtil.getKtFiles(
+                        environment.project, getAbsolutePaths(buildFile, module), projectConfiguration
+                ) { path -> throw IllegalStateException("Should have been checked before: $path") }
+                if (!checkKotlinPackageUsage(environment, ktFiles)) return false
 
-            outputs[module] = generate(environment, moduleConfiguration, result, ktFiles, module)
-        }
+                val moduleConfiguration = projectConfiguration.copy().apply {
+                    put(JVMConfigurationKeys.OUTPUT_DIRECTORY, File(module.getOutputDirectory()))
+                }
 
-        try {
-            for ((_, state) in outputs) {
+                val streamingOutput = createStreamingOutputIfPossible(moduleConfiguration, mainClass = null)
+                if (streamingOutput != null) {
+                    streamingOutputs[module] = streamingOutput
+                }
+
+                outputs[module] = generate(
+                        environment, moduleConfiguration, result, ktFiles, module,
+                        streamingOutput ?: createOutputFilesFlushingCallbackIfPossible(moduleConfiguration)
+                )
+            }
+
+            for ((module, state) in outputs) {
                 ProgressIndicatorAndCompilationCanceledStatus.checkCanceled()
-                writeOutput(state.configuration, state.factory, null)
+                val streamingOutput = streamingOutputs[module]
+                if (streamingOutput != null) {
+                    streamingOutput.finish(state)
+                }
+                else {
+                    writeOutput(state.configuration, state.factory, null)
+                }
             }
 
             if (projectConfiguration.getBoolean(JVMConfigurationKeys.COMPILE_JAVA)) {
@@ -174,6 +264,7 @@ object KotlinToJVMBytecodeCompiler {
             return true
         }
         finally {
+            streamingOutputs.values.forEach(StreamingOutput::close)
             outputs.values.forEach(GenerationState::destroy)
         }
     }
@@ -220,8 +311,8 @@ object KotlinToJVMBytecodeCompiler {
         configuration.addAll(JVMConfigurationKeys.MODULES, chunk)
     }
 
-    private fun findMainClass(generationState: GenerationState, files: List<KtFile>): FqName? {
-        val mainFunctionDetector = MainFunctionDetector(generationState.bindingContext)
+    private fun findMainClass(bindingContext: BindingContext, files: List<KtFile>): FqName? {
+        val mainFunctionDetector = MainFunctionDetector(bindingContext)
         return files.asSequence()
                 .map { file ->
                     if (mainFunctionDetector.hasMain(file.declarations))
@@ -242,16 +333,34 @@ object KotlinToJVMBytecodeCompiler {
 
         if (!checkKotlinPackageUsage(environment, environment.getSourceFiles())) return false
 
-        val generationState = analyzeAndGenerate(environment) ?: return false
+        val result = analyzeForGeneration(environment) ?: return false
+        val configuration = environment.configuration
+        val sourceFiles = environment.getSourceFiles()
 
-        val mainClass = findMainClass(generationState, environment.getSourceFiles())
+        // The main class is needed for the jar manifest, which is written before the classes when the output is streamed
+        val mainClass = findMainClass(result.bindingContext, sourceFiles)
 
+        val streamingOutput = createStreamingOutputIfPossible(configuration, mainClass)
         try {
-            writeOutput(environment.configuration, generationState.factory, mainClass)
-            return true
+            val generationState = generate(
+                    environment, configuration, result, sourceFiles, null,
+                    streamingOutput ?: createOutputFilesFlushingCallbackIfPossible(configuration)
+            )
+            try {
+                if (streamingOutput != null) {
+                    streamingOutput.finish(generationState)
+                }
+                else {
+                    writeOutput(configuration, generationState.factory, mainClass)
+                }
+                return true
+            }
+            finally {
+                generationState.destroy()
+            }
         }
         finally {
-            generationState.destroy()
+            streamingOutput?.close()
         }
     }
 
@@ -280,7 +389,7 @@ object KotlinToJVMBytecodeCompiler {
     private fun repeatAnalysisIfNeeded(
             result: AnalysisResult?,
             environment: KotlinCoreEnvironment,
-            targetDescription: String?
+            targetName: String?
     ): AnalysisResult? {
         if (result is AnalysisResult.RetryWithAdditionalJavaRoots) {
             val configuration = environment.configuration
@@ -303,7 +412,7 @@ object KotlinToJVMBytecodeCompiler {
             configuration[CLIConfigurationKeys.MESSAGE_COLLECTOR_KEY]?.clear()
 
             // Repeat analysis with additional Java roots (kapt generated sources)
-            return analyze(environment, targetDescription)
+            return analyze(environment, targetName)
         }
 
         return result
@@ -347,20 +456,27 @@ object KotlinToJVMBytecodeCompiler {
     }
 
     fun analyzeAndGenerate(environment: KotlinCoreEnvironment): GenerationState? {
+        val result = analyzeForGeneration(environment) ?: return null
+
+        return generate(environment, environment.configuration, result, environment.getSourceFiles(), null)
+    }
+
+    private fun analyzeForGeneration(environment: KotlinCoreEnvironment): AnalysisResult? {
         val result = repeatAnalysisIfNeeded(analyze(environment, null), environment, null) ?: return null
 
         if (!result.shouldGenerateCode) return null
 
         result.throwIfError()
 
-        return generate(environment, environment.configuration, result, environment.getSourceFiles(), null)
+        return result
     }
 
-    private fun analyze(environment: KotlinCoreEnvironment, targetDescription: String?): AnalysisResult? {
+    private fun analyze(environment: KotlinCoreEnvironment, targetName: String?): AnalysisResult? {
         val sourceFiles = environment.getSourceFiles()
         val collector = environment.messageCollector
 
-        val analysisStart = PerformanceCounter.currentTime()
+        val metrics = environment.configuration.get(CLIConfigurationKeys.COMPILER_METRICS)
+        val analysisStart = metrics?.start()
         val analyzerWithCompilerReport = AnalyzerWithCompilerReport(collector, environment.configuration.languageVersionSettings)
         analyzerWithCompilerReport.analyzeAndReport(sourceFiles) {
             val project = environment.project
@@ -381,16 +497,15 @@ object KotlinToJVMBytecodeCompiler {
             )
         }
 
-        val analysisNanos = PerformanceCounter.currentTime() - analysisStart
+        if (metrics != null) {
+            val sourceLinesOfCode = environment.countLinesOfCode(sourceFiles)
+            val measurement = metrics.finish(analysisStart!!, CompilerMetrics.Phase.ANALYZE, sourceFiles.size, sourceLinesOfCode, targetName)
 
-        val sourceLinesOfCode = environment.countLinesOfCode(sourceFiles)
-        val time = TimeUnit.NANOSECONDS.toMillis(analysisNanos)
-        val speed = sourceLinesOfCode.toFloat() * 1000 / time
+            val message = "ANALYZE: ${sourceFiles.size} files ($sourceLinesOfCode lines) ${targetName?.let { "in targets [$it] " } ?: ""}" +
+                          "in ${measurement.wallTimeMillis} ms - ${"%.3f".format(measurement.linesPerSecond)} loc/s"
 
-        val message = "ANALYZE: ${sourceFiles.size} files ($sourceLinesOfCode lines) ${targetDescription ?: ""}" +
-                      "in $time ms - ${"%.3f".format(speed)} loc/s"
-
-        K2JVMCompiler.reportPerf(environment.configuration, message)
+            K2JVMCompiler.reportPerf(environment.configuration, message)
+        }
 
         val analysisResult = analyzerWithCompilerReport.analysisResult
 
@@ -431,7 +546,8 @@ object KotlinToJVMBytecodeCompiler {
             configuration: CompilerConfiguration,
             result: AnalysisResult,
             sourceFiles: List<KtFile>,
-            module: Module?
+            module: Module?,
+            outputCallback: GenerationStateEventCallback = createOutputFilesFlushingCallbackIfPossible(configuration)
     ): GenerationState {
         val isKapt2Enabled = environment.project.getUserData(IS_KAPT2_ENABLED_KEY) ?: false
         val generationState = GenerationState.Builder(
@@ -444,24 +560,26 @@ object KotlinToJVMBytecodeCompiler {
         )
                 .codegenFactory(if (configuration.getBoolean(JVMConfigurationKeys.IR)) JvmIrCodegenFactory else DefaultCodegenFactory)
                 .withModule(module)
-                .onIndependentPartCompilationEnd(createOutputFilesFlushingCallbackIfPossible(configuration))
+                .onIndependentPartCompilationEnd(outputCallback)
                 .build()
 
         ProgressIndicatorAndCompilationCanceledStatus.checkCanceled()
 
-        val generationStart = PerformanceCounter.currentTime()
+        val metrics = configuration.get(CLIConfigurationKeys.COMPILER_METRICS)
+        val generationStart = metrics?.start()
 
         KotlinCodegenFacade.compileCorrectFiles(generationState, CompilationErrorHandler.THROW_EXCEPTION)
 
-        val generationNanos = PerformanceCounter.currentTime() - generationStart
-        val desc = if (module != null) "target " + module.getModuleName() + "-" + module.getModuleType() + " " else ""
-        val numberOfSourceFiles = sourceFiles.size
-        val numberOfLines = environment.countLinesOfCode(sourceFiles)
-        val time = TimeUnit.NANOSECONDS.toMillis(generationNanos)
-        val speed = numberOfLines.toFloat() * 1000 / time
-        val message = "GENERATE: $numberOfSourceFiles files ($numberOfLines lines) ${desc}in $time ms - ${"%.3f".format(speed)} loc/s"
+        if (metrics != null) {
+            val targetName = module?.let { it.getModuleName() + "-" + it.getModuleType() }
+            val numberOfSourceFiles = sourceFiles.size
+            val numberOfLines = environment.countLinesOfCode(sourceFiles)
+            val measurement = metrics.finish(generationStart!!, CompilerMetrics.Phase.CODEGEN, numberOfSourceFiles, numberOfLines, targetName)
+            val message = "GENERATE: $numberOfSourceFiles files ($numberOfLines lines) ${targetName?.let { "target $it " } ?: ""}" +
+                          "in ${measurement.wallTimeMillis} ms - ${"%.3f".format(measurement.linesPerSecond)} loc/s"
 
-        K2JVMCompiler.reportPerf(environment.configuration, message)
+            K2JVMCompiler.reportPerf(environment.configuration, message)
+        }
         ProgressIndicatorAndCompilationCanceledStatus.checkCanceled()
 
         AnalyzerWithCompilerReport.reportDiagnostics(
@@ -0,0 +1,71 @@
+/*
+ * Copyright 2000-2018 JetBrains s.r.o. Use of this source code is governed by the Apache 2.0 license
+ * that can be found in the license/LICENSE.txt file.
+ */
+
+package org.jetbrains.kotlin.cli.jvm.compiler
+
+import com.intellij.lang.ASTNode
+import com.intellij.openapi.application.ApplicationManager
+import com.intellij.openapi.util.Computable
+import org.jetbrains.kotlin.psi.KtFile
+import org.jetbrains.kotlin.util.PerformanceCounter
+import java.util.concurrent.Callable
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.Executors
+
+/**
+ * Builds syntax trees of source files on a pool of threads before the analysis, so that it does not parse them one by one on demand.
+ * Lazily parseable elements (e.g. bodies of functions and lambdas) are parsed as well
+ */
+internal object SourceFilesParser {
+    val findSourceFilesCounter = PerformanceCounter.create("Find source files")
+    private val parseCounter = PerformanceCounter.create("Lex and parse source files")
+
+    // Timed on the calling thread, so that the counter shows the wall time of parsing rather than the sum over the threads
+    fun parseAll(files: List<KtFile>, threadCount: Int) {
+        parseCounter.time {
+            if (threadCount <= 1 || files.size <= 1) {
+                files.forEach(::parse)
+            }
+            else {
+                parseInParallel(files, threadCount)
+            }
+        }
+    }
+
+    private fun parseInParallel(files: List<KtFile>, threadCount: Int) {
+        val executor = Executors.newFixedThreadPool(minOf(threadCount, files.size))
+        try {
+            val futures = files.map { file -> executor.submit(Callable { parse(file) }) }
+            for (future in futures) {
+                try {
+                    future.get()
+                }
+                catch (e: ExecutionException) {
+                    throw e.cause ?: e
+                }
+            }
+        }
+        finally {
+            executor.shutdownNow()
+        }
+    }
+
+    private fun parse(file: KtFile) {
+        // Trees are only read here, which is allowed on any thread holding a read action
+        ApplicationManager.getApplication().runReadAction(Computable { ensureParsed(file.node) })
+    }
+
+    private fun ensureParsed(root: ASTNode) {
+        // Getting the first child of a lazily parseable element parses it. Trees can be deep, so they are walked without recursion
+        val stack = arrayListOf(root)
+        while (stack.isNotEmpty()) {
+            var child = stack.removeAt(stack.lastIndex).firstChildNode
+            while (child != null) {
+                stack.add(child)
+                child = child.treeNext
+            }
+        }
+    }
+}
@@ -32,6 +32,8 @@ import org.jetbrains.kotlin.context.ContextForNewModule
 import org.jetbrains.kotlin.context.ModuleContext
 import org.jetbrains.kotlin.context.MutableModuleContext
 import org.jetbrains.kotlin.context.ProjectContext
+import org.jetbrains.kotlin.context.StripedLockGlobalContext
+import org.jetbrains.kotlin.context.withProject
 import org.jetbrains.kotlin.descriptors.ClassDescriptor
 import org.jetbrains.kotlin.descriptors.ModuleDescriptor
 import org.jetbrains.kotlin.descriptors.PackageFragmentProvider
@@ -52,6 +54,7 @@ import org.jetbrains.kotlin.load.java.structure.JavaClass
 import org.jetbrains.kotlin.load.java.structure.impl.VirtualFileBoundJavaClass
 import org.jetbrains.kotlin.load.kotlin.DeserializationComponentsForJava
 import org.jetbrains.kotlin.load.kotlin.KotlinClassFinder
+import org.jetbrains.kotlin.load.kotlin.LibraryMetadataCache
 import org.jetbrains.kotlin.load.kotlin.incremental.IncrementalPackageFragmentProvider
 import org.jetbrains.kotlin.load.kotlin.incremental.IncrementalPackagePartProvider
 import org.jetbrains.kotlin.modules.TargetId
@@ -59,6 +62,7 @@ import org.jetbrains.kotlin.name.Name
 import org.jetbrains.kotlin.platform.JvmBuiltIns
 import org.jetbrains.kotlin.psi.KtFile
 import org.jetbrains.kotlin.resolve.BindingTrace
+import org.jetbrains.kotlin.resolve.BodyResolveParallelism
 import org.jetbrains.kotlin.resolve.LazyTopDownAnalyzer
 import org.jetbrains.kotlin.resolve.TopDownAnalysisMode
 import org.jetbrains.kotlin.resolve.jvm.JavaDescriptorResolver
@@ -68,6 +72,7 @@ import org.jetbrains.kotlin.resolve.lazy.KotlinCodeAnalyzer
 import org.jetbrains.kotlin.resolve.lazy.declarations.DeclarationProviderFactory
 import org.jetbrains.kotlin.resolve.lazy.declarations.FileBasedDeclarationProviderFactory
 import org.jetbrains.kotlin.serialization.deserialization.DeserializationConfiguration
+import org.jetbrains.kotlin.storage.LockBasedLazyResolveStorageManager
 import org.jetbrains.kotlin.storage.StorageManager
 import java.util.*
 
@@ -109,7 +114,12 @@ object TopDownAnalyzerFacadeForJVM {
             }
         }
 
-        container.get<LazyTopDownAnalyzer>().analyzeDeclarations(TopDownAnalysisMode.TopLevelDeclarations, files)
+        try {
+            container.get<LazyTopDownAnalyzer>().analyzeDeclarations(TopDownAnalysisMode.TopLevelDeclarations, files)
+        }
+        finally {
+            (container.get<BodyResolveParallelism>() as? BodyResolveParallelism.Threads)?.shutdown()
+        }
         container.get<JavaClassesTracker>().onCompletedAnalysis(module)
 
         invokeExtensionsOnAnalysisComplete()?.let { return it }
@@ -163,6 +173,8 @@ object TopDownAnalyzerFacadeForJVM {
                 if (configuration.getBoolean(JVMConfigurationKeys.USE_JAVAC)) StorageComponentContainer::useJavac
                 else null
 
+        val metadataCache = configuration.get(JVMConfigurationKeys.LIBRARY_METADATA_CACHE_SIZE)?.let { LibraryMetadataCache.getInstance(it) }
+
         val dependencyModule = if (separateModules) {
             val dependenciesContext = ContextForNewModule(
                     moduleContext, Name.special("<dependencies of ${configuration.getNotNull(CommonConfigurationKeys.MODULE_NAME)}>"),
@@ -174,7 +186,8 @@ object TopDownAnalyzerFacadeForJVM {
 
             val dependenciesContainer = createContainerForTopDownAnalyzerForJvm(
                     dependenciesContext, trace, DeclarationProviderFactory.EMPTY, dependencyScope, lookupTracker, expectActualTracker,
-                    packagePartProvider(dependencyScope), moduleClassResolver, jvmTarget, languageVersionSettings, configureJavaClassFinder
+                    packagePartProvider(dependencyScope), moduleClassResolver, jvmTarget, languageVersionSettings, configureJavaClassFinder,
+                    metadataCache = metadataCache
             )
 
             moduleClassResolver.compiledCodeResolver = dependenciesContainer.get<JavaDescriptorResolver>()
@@ -197,10 +210,18 @@ object TopDownAnalyzerFacadeForJVM {
         // CliLightClassGenerationSupport#initialize is invoked when container is created, so only the last module descriptor is going
         // to be stored in CliLightClassGenerationSupport, and it better be the source one (otherwise light classes would not be found)
         // TODO: get rid of duplicate invocation of CodeAnalyzerInitializer#initialize, or refactor CliLightClassGenerationSupport
+        // Bodies of functions are resolved concurrently into separate buffers, which are merged into the trace of the container,
+        // so the trace is guarded by the lock of the storage manager to be consistent with lazy resolution of declarations
+        val bodyResolveParallelism = configuration.get(JVMConfigurationKeys.PARALLEL_BODY_RESOLUTION_THREADS)
+                ?.takeIf { it > 1 }?.let { BodyResolveParallelism.Threads(it) }
+        val sourceTrace = if (bodyResolveParallelism != null) LockBasedLazyResolveStorageManager(storageManager).createSafeTrace(trace) else trace
+
         val container = createContainerForTopDownAnalyzerForJvm(
-                moduleContext, trace, declarationProviderFactory(storageManager, files), sourceScope, lookupTracker, expectActualTracker,
+                moduleContext, sourceTrace, declarationProviderFactory(storageManager, files), sourceScope, lookupTracker, expectActualTracker,
                 partProvider, moduleClassResolver, jvmTarget, languageVersionSettings, configureJavaClassFinder,
-                javaClassTracker = configuration[JVMConfigurationKeys.JAVA_CLASSES_TRACKER]
+                javaClassTracker = configuration[JVMConfigurationKeys.JAVA_CLASSES_TRACKER],
+                metadataCache = metadataCache,
+                bodyResolveParallelism = bodyResolveParallelism
         ).apply {
             initJvmBuiltInsForTopDownAnalysis()
             (partProvider as? IncrementalPackagePartProvider)?.deserializationConfiguration = get<DeserializationConfiguration>()
@@ -280,7 +301,11 @@ object TopDownAnalyzerFacadeForJVM {
             configuration: CompilerConfiguration,
             createBuiltInsFromModule: Boolean
     ): MutableModuleContext {
-        val projectContext = ProjectContext(project)
+        val projectContext = if (configuration.getBoolean(CommonConfigurationKeys.USE_STRIPED_LOCK_STORAGE_MANAGER) ||
+                                 (configuration.get(JVMConfigurationKeys.PARALLEL_BODY_RESOLUTION_THREADS) ?: 1) > 1)
+            StripedLockGlobalContext().withProject(project)
+        else
+            ProjectContext(project)
         val builtIns = JvmBuiltIns(projectContext.storageManager, !createBuiltInsFromModule)
         return ContextForNewModule(
                 projectContext, Name.special("<${configuration.getNotNull(CommonConfigurationKeys.MODULE_NAME)}>"), builtIns, null
@@ -0,0 +1,60 @@
+/*
+ * Copyright 2000-2018 JetBrains s.r.o. Use of this source code is governed by the Apache 2.0 license
+ * that can be found in the license/LICENSE.txt file.
+ */
+
+package org.jetbrains.kotlin.cli.jvm.compiler.jarfs
+
+import com.intellij.openapi.vfs.DeprecatedVirtualFileSystem
+import com.intellij.openapi.vfs.StandardFileSystems
+import com.intellij.openapi.vfs.VirtualFile
+import com.intellij.util.containers.ConcurrentFactoryMap
+import com.intellij.util.io.URLUtil
+import java.io.File
+
+// Jar file system which reads central directories of jars mapped into memory instead of building a map of all entries of each jar
+// on the heap, as CoreJarFileSystem does. It's not registered in VirtualFileManager and is only used for classpath roots of the
+// environment which created it, see KotlinCoreEnvironment.findJarRoot.
+// Jars which can't be read this way (e.g. zip64 ones) are not found here, and the caller should fall back to CoreJarFileSystem.
+class FastJarFileSystem : DeprecatedVirtualFileSystem() {
+    private val handlers = object : ConcurrentFactoryMap<String, FastJarHandler?>() {
+        override fun create(jarPath: String): FastJarHandler? {
+            val file = File(jarPath)
+            val zipFile = MappedZipFile.open(file) ?: return null
+            return FastJarHandler(this@FastJarFileSystem, jarPath, zipFile, file.lastModified())
+        }
+    }
+
+    internal class FastJarHandler(
+            val virtualFileSystem: FastJarFileSystem,
+            val jarPath: String,
+            val zipFile: MappedZipFile,
+            val timeStamp: Long
+    ) {
+        val root = FastJarVirtualFile(this, "", parent = null, entryIndex = -1, isDirectory = true)
+
+        fun findFile(relativePath: String): VirtualFile? =
+                relativePath.split('/').filter(String::isNotEmpty).fold(root as VirtualFile?) { file, name -> file?.findChild(name) }
+    }
+
+    override fun getProtocol(): String = StandardFileSystems.JAR_PROTOCOL
+
+    override fun findFileByPath(path: String): VirtualFile? {
+        val separator = path.indexOf(URLUtil.JAR_SEPARATOR)
+        if (separator < 0) {
+            throw IllegalArgumentException("Path in FastJarFileSystem must contain a separator: $path")
+        }
+        return handlers[path.substring(0, separator)]?.findFile(path.substring(separator + 2))
+    }
+
+    // Unmaps all jars opened by this file system. Their virtual files must not be used after that
+    fun clearHandlers() {
+        val opened = handlers.values.filterNotNull()
+        handlers.clear()
+        opened.forEach { it.zipFile.close() }
+    }
+
+    override fun refresh(asynchronous: Boolean) {}
+
+    override fun refreshAndFindFileByPath(path: String): VirtualFile? = findFileByPath(path)
+}
@@ -0,0 +1,117 @@
+/*
+ * Copyright 2000-2018 JetBrains s.r.o. Use of this source code is governed by the Apache 2.0 license
+ * that can be found in the license/LICENSE.txt file.
+ */
+
+package org.jetbrains.kotlin.cli.jvm.compiler.jarfs
+
+import com.intellij.openapi.util.io.FileUtil
+import com.intellij.openapi.vfs.VfsUtilCore
+import com.intellij.openapi.vfs.VirtualFile
+import com.intellij.openapi.vfs.VirtualFileSystem
+import com.intellij.util.ArrayUtil
+import com.intellij.util.io.URLUtil
+import org.jetbrains.kotlin.cli.jvm.compiler.jarfs.FastJarFileSystem.FastJarHandler
+import java.io.ByteArrayInputStream
+import java.io.InputStream
+import java.io.OutputStream
+
+// A file or a directory in a jar. Directories don't need to have their own entries in the jar.
+// Children are looked up by binary search and not cached, so files are compared by path rather than by identity.
+internal class FastJarVirtualFile(
+        private val handler: FastJarHandler,
+        // path in the jar, without leading and trailing slashes
+        private val relativePath: String,
+        private val parent: FastJarVirtualFile?,
+        // index of the entry in MappedZipFile, -1 for directories without an entry
+        private val entryIndex: Int,
+        private val isDirectory: Boolean
+) : VirtualFile() {
+    private val zipFile: MappedZipFile get() = handler.zipFile
+
+    // prefix of the names of entries under this directory
+    private val childPrefix: String get() = if (relativePath.isEmpty()) "" else "$relativePath/"
+
+    override fun getFileSystem(): VirtualFileSystem = handler.virtualFileSystem
+
+    override fun getName(): String = relativePath.substringAfterLast('/')
+
+    override fun getPath(): String =
+            FileUtil.toSystemIndependentName(handler.jarPath + URLUtil.JAR_SEPARATOR + relativePath)
+
+    override fun isWritable(): Boolean = false
+
+    override fun isDirectory(): Boolean = isDirectory
+
+    override fun isValid(): Boolean = true
+
+    override fun getParent(): VirtualFile? = parent
+
+    override fun findChild(name: String): VirtualFile? {
+        if (!isDirectory || name.isEmpty() || name.contains('/')) return null
+
+        val childPath = childPrefix + name
+        val fileIndex = zipFile.find(childPath.toByteArray(Charsets.UTF_8))
+        if (fileIndex >= 0 && !zipFile.isDirectory(fileIndex)) {
+            return FastJarVirtualFile(handler, childPath, this, fileIndex, isDirectory = false)
+        }
+
+        val directoryPrefix = "$childPath/".toByteArray(Charsets.UTF_8)
+        val firstIndex = zipFile.lowerBound(directoryPrefix, 0)
+        if (firstIndex < zipFile.entryCount && zipFile.startsWith(firstIndex, directoryPrefix)) {
+            return FastJarVirtualFile(handler, childPath, this, zipFile.find(directoryPrefix), isDirectory = true)
+        }
+
+        return null
+    }
+
+    override fun getChildren(): Array<out VirtualFile> {
+        if (!isDirectory) return VirtualFile.EMPTY_ARRAY
+
+        val prefix = childPrefix.toByteArray(Charsets.UTF_8)
+        val children = mutableListOf<VirtualFile>()
+        var index = zipFile.lowerBound(prefix, 0)
+        while (index < zipFile.entryCount && zipFile.startsWith(index, prefix)) {
+            val slash = zipFile.indexOfSlash(index, prefix.size)
+            if (slash < 0) {
+                children.add(FastJarVirtualFile(handler, zipFile.name(index), this, index, isDirectory = false))
+                index++
+            }
+            else if (slash == prefix.size) {
+                // an entry with an empty name segment, e.g. the entry of this directory itself
+                index++
+            }
+            else {
+                // skip all the entries under the child directory
+                val childName = String(zipFile.nameBytes(index, prefix.size, slash), Charsets.UTF_8)
+                val directoryPrefix = (childPrefix + childName + "/").toByteArray(Charsets.UTF_8)
+                children.add(FastJarVirtualFile(handler, childPrefix + childName, this, zipFile.find(directoryPrefix), isDirectory = true))
+                index = zipFile.prefixEnd(directoryPrefix, index)
+            }
+        }
+        return if (children.isEmpty()) VirtualFile.EMPTY_ARRAY else children.toTypedArray()
+    }
+
+    override fun getOutputStream(requestor: Any, newModificationStamp: Long, newTimeStamp: Long): OutputStream =
+            throw UnsupportedOperationException()
+
+    override fun contentsToByteArray(): ByteArray =
+            if (isDirectory || entryIndex < 0) ArrayUtil.EMPTY_BYTE_ARRAY else zipFile.read(entryIndex)
+
+    override fun getTimeStamp(): Long = handler.timeStamp
+
+    override fun getLength(): Long = if (isDirectory || entryIndex < 0) 0 else zipFile.uncompressedSize(entryIndex)
+
+    override fun refresh(asynchronous: Boolean, recursive: Boolean, postRunnable: Runnable?) {}
+
+    override fun getInputStream(): InputStream =
+            VfsUtilCore.inputStreamSkippingBOM(ByteArrayInputStream(contentsToByteArray()), this)
+
+    override fun getModificationStamp(): Long = 0
+
+    override fun equals(other: Any?): Boolean =
+            other is FastJarVirtualFile && handler == other.handler && relativePath == other.relativePath
+
+    override fun hashCode(): Int =
+            handler.jarPath.hashCode() * 31 + relativePath.hashCode()
+}
@@ -0,0 +1,279 @@
+/*
+ * Copyright 2000-2018 JetBrains s.r.o. Use of this source code is governed by the Apache 2.0 license
+ * that can be found in the license/LICENSE.txt file.
+ */
+
+package org.jetbrains.kotlin.cli.jvm.compiler.jarfs
+
+import java.io.File
+import java.io.IOException
+import java.io.RandomAccessFile
+import java.nio.ByteBuffer
+import java.nio.ByteOrder
+import java.nio.MappedByteBuffer
+import java.nio.channels.FileChannel
+import java.util.zip.DataFormatException
+import java.util.zip.Inflater
+
+// A zip file mapped into memory. The only data kept on the heap is the array of offsets of the central directory headers, sorted by
+// entry names, so that an entry or all entries under a directory are found by binary search over the mapped central directory.
+// Zip64 archives and files larger than 2 Gb are not supported, see open.
+// The mapping is released by close rather than by the garbage collector, so that the jar can be replaced or deleted (e.g. on Windows)
+// as soon as the file is not used anymore.
+internal class MappedZipFile private constructor(mapped: MappedByteBuffer, private val headerOffsets: IntArray) {
+    @Volatile
+    private var mapped: MappedByteBuffer? = mapped
+
+    private val buffer: ByteBuffer
+        get() = mapped ?: throw IllegalStateException("Zip file is closed")
+
+    val entryCount: Int get() = headerOffsets.size
+
+    // The file must not be read after it's closed, including concurrently with this call: its memory is unmapped here
+    fun close() {
+        val buffer = mapped ?: return
+        mapped = null
+        unmap(buffer)
+    }
+
+    fun name(index: Int): String {
+        val header = headerOffsets[index]
+        val bytes = ByteArray(nameLength(header))
+        buffer.duplicate().apply { position(header + CEN_HEADER_SIZE) }.get(bytes)
+        return String(bytes, Charsets.UTF_8)
+    }
+
+    fun isDirectory(index: Int): Boolean {
+        val header = headerOffsets[index]
+        val length = nameLength(header)
+        return length > 0 && buffer.get(header + CEN_HEADER_SIZE + length - 1) == SLASH
+    }
+
+    fun uncompressedSize(index: Int): Long = buffer.getInt(headerOffsets[index] + CEN_UNCOMPRESSED_SIZE).toLong() and 0xFFFFFFFFL
+
+    // Index of the entry with the given name, or -1
+    fun find(name: ByteArray): Int {
+        val index = lowerBound(name, 0)
+        return if (index < entryCount && compare(index, name, asPrefix = false) == 0) index else -1
+    }
+
+    // Index of the first entry which is not less than the given name, starting from the given index
+    fun lowerBound(name: ByteArray, from: Int): Int {
+        var low = from
+        var high = entryCount
+        while (low < high) {
+            val middle = (low + high) ushr 1
+            if (compare(middle, name, asPrefix = false) < 0) low = middle + 1 else high = middle
+        }
+        return low
+    }
+
+    // Index of the first entry after the ones starting with the given prefix, starting from the given index
+    fun prefixEnd(prefix: ByteArray, from: Int): Int {
+        var low = from
+        var high = entryCount
+        while (low < high) {
+            val middle = (low + high) ushr 1
+            if (compare(middle, prefix, asPrefix = true) <= 0) low = middle + 1 else high = middle
+        }
+        return low
+    }
+
+    fun startsWith(index: Int, prefix: ByteArray): Boolean = compare(index, prefix, asPrefix = true) == 0
+
+    // Position of the first '/' in the name of the entry at or after the given position, or -1
+    fun indexOfSlash(index: Int, from: Int): Int {
+        val header = headerOffsets[index]
+        val length = nameLength(header)
+        for (i in from until length) {
+            if (buffer.get(header + CEN_HEADER_SIZE + i) == SLASH) return i
+        }
+        return -1
+    }
+
+    fun nameBytes(index: Int, from: Int, to: Int): ByteArray {
+        val bytes = ByteArray(to - from)
+        buffer.duplicate().apply { position(headerOffsets[index] + CEN_HEADER_SIZE + from) }.get(bytes)
+        return bytes
+    }
+
+    fun read(index: Int): ByteArray {
+        val header = headerOffsets[index]
+        val method = buffer.getShort(header + CEN_METHOD).toInt() and 0xFFFF
+        val compressedSize = buffer.getInt(header + CEN_COMPRESSED_SIZE)
+        val uncompressedSize = buffer.getInt(header + CEN_UNCOMPRESSED_SIZE)
+
+        val localHeader = buffer.getInt(header + CEN_LOCAL_HEADER_OFFSET)
+        if (buffer.getInt(localHeader) != LOC_SIGNATURE) throw IOException("Invalid local header of ${name(index)}")
+        val dataStart = localHeader + LOC_HEADER_SIZE +
+                        (buffer.getShort(localHeader + LOC_NAME_LENGTH).toInt() and 0xFFFF) +
+                        (buffer.getShort(localHeader + LOC_EXTRA_LENGTH).toInt() and 0xFFFF)
+
+        val data = ByteArray(compressedSize)
+        buffer.duplicate().apply { position(dataStart) }.get(data)
+
+        return when (method) {
+            METHOD_STORED -> data
+            METHOD_DEFLATED -> {
+                val result = ByteArray(uncompressedSize)
+                val inflater = Inflater(true)
+                try {
+                    inflater.setInput(data)
+                    var offset = 0
+                    while (offset < result.size) {
+                        val inflated = inflater.inflate(result, offset, result.size - offset)
+                        if (inflated == 0 && (inflater.finished() || inflater.needsInput())) break
+                        offset += inflated
+                    }
+                    if (offset != result.size) throw IOException("Unexpected end of data of ${name(index)}")
+                }
+                catch (e: DataFormatException) {
+                    throw IOException("Invalid compressed data of ${name(index)}", e)
+                }
+                finally {
+                    inflater.end()
+                }
+                result
+            }
+            else -> throw IOException("Unsupported compression method $method of ${name(index)}")
+        }
+    }
+
+    private fun nameLength(header: Int): Int = buffer.getShort(header + CEN_NAME_LENGTH).toInt() and 0xFFFF
+
+    // Compares names as unsigned bytes. In prefix mode names starting with the key are considered equal to it
+    private fun compare(index: Int, key: ByteArray, asPrefix: Boolean): Int {
+        val header = headerOffsets[index]
+        val length = nameLength(header)
+        val start = header + CEN_HEADER_SIZE
+        val common = minOf(length, key.size)
+        for (i in 0 until common) {
+            val difference = (buffer.get(start + i).toInt() and 0xFF) - (key[i].toInt() and 0xFF)
+            if (difference != 0) return difference
+        }
+        return if (asPrefix && length >= key.size) 0 else length - key.size
+    }
+
+    companion object {
+        private const val SLASH = '/'.toByte()
+
+        private const val EOCD_SIGNATURE = 0x06054b50
+        private const val EOCD_SIZE = 22
+        private const val EOCD_TOTAL_ENTRIES = 10
+        private const val EOCD_DIRECTORY_OFFSET = 16
+
+        private const val CEN_SIGNATURE = 0x02014b50
+        private const val CEN_HEADER_SIZE = 46
+        private const val CEN_METHOD = 10
+        private const val CEN_COMPRESSED_SIZE = 20
+        private const val CEN_UNCOMPRESSED_SIZE = 24
+        private const val CEN_NAME_LENGTH = 28
+        private const val CEN_EXTRA_LENGTH = 30
+        private const val CEN_COMMENT_LENGTH = 32
+        private const val CEN_LOCAL_HEADER_OFFSET = 42
+
+        private const val LOC_SIGNATURE = 0x04034b50
+        private const val LOC_HEADER_SIZE = 30
+        private const val LOC_NAME_LENGTH = 26
+        private const val LOC_EXTRA_LENGTH = 28
+
+        private const val METHOD_STORED = 0
+        private const val METHOD_DEFLATED = 8
+
+        private const val ZIP64_MARKER = -1 // 0xFFFFFFFF
+
+        // Returns null if the file is not a zip file or uses features which are not supported here, e.g. zip64
+        fun open(file: File): MappedZipFile? {
+            val length = file.length()
+            if (length < EOCD_SIZE || length > Int.MAX_VALUE) return null
+
+            val buffer = try {
+                RandomAccessFile(file, "r").use { it.channel.map(FileChannel.MapMode.READ_ONLY, 0, length) }
+            }
+            catch (e: IOException) {
+                return null
+            }
+
+            return open(buffer) ?: run {
+                unmap(buffer)
+                null
+            }
+        }
+
+        private fun open(buffer: MappedByteBuffer): MappedZipFile? {
+            buffer.order(ByteOrder.LITTLE_ENDIAN)
+
+            val endOfDirectory = findEndOfCentralDirectory(buffer) ?: return null
+            val totalEntries = buffer.getShort(endOfDirectory + EOCD_TOTAL_ENTRIES).toInt() and 0xFFFF
+            val directoryOffset = buffer.getInt(endOfDirectory + EOCD_DIRECTORY_OFFSET)
+            if (totalEntries == 0xFFFF || directoryOffset == ZIP64_MARKER || directoryOffset < 0) return null
+
+            val offsets = IntArray(totalEntries)
+            var header = directoryOffset
+            for (i in 0 until totalEntries) {
+                if (header + CEN_HEADER_SIZE > endOfDirectory || buffer.getInt(header) != CEN_SIGNATURE) return null
+                if (buffer.getInt(header + CEN_COMPRESSED_SIZE) == ZIP64_MARKER ||
+                    buffer.getInt(header + CEN_UNCOMPRESSED_SIZE) == ZIP64_MARKER ||
+                    buffer.getInt(header + CEN_LOCAL_HEADER_OFFSET) == ZIP64_MARKER) return null
+                offsets[i] = header
+                header += CEN_HEADER_SIZE +
+                          (buffer.getShort(header + CEN_NAME_LENGTH).toInt() and 0xFFFF) +
+                          (buffer.getShort(header + CEN_EXTRA_LENGTH).toInt() and 0xFFFF) +
+                          (buffer.getShort(header + CEN_COMMENT_LENGTH).toInt() and 0xFFFF)
+            }
+
+            val unsorted = MappedZipFile(buffer, offsets)
+            val order = (0 until totalEntries).sortedWith(Comparator { first, second -> unsorted.compareEntries(first, second) })
+            return MappedZipFile(buffer, IntArray(totalEntries) { offsets[order[it]] })
+        }
+
+        // Direct buffers can only be released through internal API: Unsafe.invokeCleaner since Java 9, the cleaner of the buffer before.
+        // If neither is available, the mapping is released when the buffer is collected
+        private fun unmap(buffer: MappedByteBuffer) {
+            try {
+                val unsafeClass = Class.forName("sun.misc.Unsafe")
+                val invokeCleaner = try {
+                    unsafeClass.getMethod("invokeCleaner", ByteBuffer::class.java)
+                }
+                catch (e: NoSuchMethodException) {
+                    null
+                }
+
+                if (invokeCleaner != null) {
+                    val unsafe = unsafeClass.getDeclaredField("theUnsafe").apply { isAccessible = true }.get(null)
+                    invokeCleaner.invoke(unsafe, buffer)
+                }
+                else {
+                    val cleaner = buffer.javaClass.getMethod("cleaner").apply { isAccessible = true }.invoke(buffer) ?: return
+                    cleaner.javaClass.getMethod("clean").apply { isAccessible = true }.invoke(cleaner)
+                }
+            }
+            catch (e: Exception) {
+                // Left to the garbage collector
+            }
+        }
+
+        private fun findEndOfCentralDirectory(buffer: ByteBuffer): Int? {
+            // The record is followed by a comment of at most 65535 bytes
+            val last = buffer.limit() - EOCD_SIZE
+            val first = maxOf(0, last - 0xFFFF)
+            for (position in last downTo first) {
+                if (buffer.getInt(position) == EOCD_SIGNATURE) return position
+            }
+            return null
+        }
+    }
+
+    private fun compareEntries(first: Int, second: Int): Int {
+        val firstHeader = headerOffsets[first]
+        val secondHeader = headerOffsets[second]
+        val firstLength = nameLength(firstHeader)
+        val secondLength = nameLength(secondHeader)
+        for (i in 0 until minOf(firstLength, secondLength)) {
+            val difference = (buffer.get(firstHeader + CEN_HEADER_SIZE + i).toInt() and 0xFF) -
+                             (buffer.get(secondHeader + CEN_HEADER_SIZE + i).toInt() and 0xFF)
+            if (difference != 0) return difference
+        }
+        return firstLength - secondLength
+    }
+}
@@ -0,0 +1,142 @@
+/*
+ * Copyright 2000-2018 JetBrains s.r.o. Use of this source code is governed by the Apache 2.0 license
+ * that can be found in the license/LICENSE.txt file.
+ */
+
+package org.jetbrains.kotlin.cli.jvm.index
+
+import com.intellij.openapi.util.io.FileUtil
+import java.io.*
+import java.util.concurrent.ConcurrentHashMap
+import java.util.zip.ZipFile
+
+// Set of package directories (in the form "org/jetbrains/kotlin") of a single jar, computed from the jar's central directory.
+// Directories which are shadowed by a class file with the same name and contain no classes are excluded, as they're not considered
+// packages by JvmDependenciesIndexImpl.
+class JarPackageIndex internal constructor(internal val packages: Set<String>) {
+    fun containsPackage(relativePath: String): Boolean = relativePath.isEmpty() || relativePath in packages
+
+    companion object {
+        private const val CLASS_FILE_SUFFIX = ".class"
+
+        fun compute(jar: File): JarPackageIndex {
+            val directories = HashSet<String>()
+            val directoriesWithClasses = HashSet<String>()
+            val classFiles = HashSet<String>()
+
+            ZipFile(jar).use { zipFile ->
+                for (entry in zipFile.entries()) {
+                    val name = entry.name.trimEnd('/')
+                    val isClassFile = !entry.isDirectory && name.endsWith(CLASS_FILE_SUFFIX)
+                    if (isClassFile) {
+                        classFiles.add(name.removeSuffix(CLASS_FILE_SUFFIX))
+                    }
+                    else if (entry.isDirectory && name.isNotEmpty()) {
+                        directories.add(name)
+                    }
+
+                    var parent = parentPath(name)
+                    while (parent.isNotEmpty()) {
+                        val isNewDirectory = directories.add(parent)
+                        val isNewDirectoryWithClasses = isClassFile && directoriesWithClasses.add(parent)
+                        // all the parents have been already recorded while processing some other entry
+                        if (!isNewDirectory && !isNewDirectoryWithClasses) break
+                        parent = parentPath(parent)
+                    }
+                }
+            }
+
+            val ignored = directories.filterTo(HashSet()) { it in classFiles && it !in directoriesWithClasses }
+            val packages = if (ignored.isEmpty()) directories else directories.filterTo(HashSet()) { !isUnder(it, ignored) }
+            return JarPackageIndex(packages)
+        }
+
+        private fun parentPath(path: String): String {
+            val lastSlash = path.lastIndexOf('/')
+            return if (lastSlash < 0) "" else path.substring(0, lastSlash)
+        }
+
+        private fun isUnder(path: String, directories: Set<String>): Boolean {
+            var current = path
+            while (current.isNotEmpty()) {
+                if (current in directories) return true
+                current = parentPath(current)
+            }
+            return false
+        }
+    }
+}
+
+// Caches package indices of jars in memory (shared between compilations in the same process, e.g. in the daemon) and, if
+// storageDirectory is given, on disk. Entries are keyed by the jar's path and invalidated when its modification time or size changes.
+class JarPackageIndexCache(private val storageDirectory: File?) {
+    fun getOrCompute(jar: File): JarPackageIndex? {
+        val path = jar.absolutePath
+        val lastModified = jar.lastModified()
+        val length = jar.length()
+        if (lastModified == 0L) return null
+
+        val key = JarKey(path, lastModified, length)
+        inMemoryIndices[path]?.let { (cachedKey, index) ->
+            if (cachedKey == key) return index
+        }
+
+        val storageFile = storageDirectory?.let { File(it, "${jar.name}-${Integer.toHexString(path.hashCode())}.packages") }
+        val index = storageFile?.let { load(it, key) } ?: try {
+            JarPackageIndex.compute(jar).also { computed -> storageFile?.let { save(it, key, computed) } }
+        }
+        catch (e: IOException) {
+            return null
+        }
+
+        inMemoryIndices[path] = key to index
+        return index
+    }
+
+    private fun load(file: File, key: JarKey): JarPackageIndex? {
+        if (!file.isFile) return null
+        return try {
+            DataInputStream(BufferedInputStream(FileInputStream(file))).use { input ->
+                if (input.readInt() != STORAGE_VERSION) return null
+                if (JarKey(input.readUTF(), input.readLong(), input.readLong()) != key) return null
+                val size = input.readInt()
+                val packages = HashSet<String>(size * 2)
+                repeat(size) { packages.add(input.readUTF()) }
+                JarPackageIndex(packages)
+            }
+        }
+        catch (e: IOException) {
+            null
+        }
+    }
+
+    private fun save(file: File, key: JarKey, index: JarPackageIndex) {
+        // Write to a temporary file first, so that concurrent compilations never observe a partially written index
+        try {
+            file.parentFile.mkdirs()
+            val tmpFile = File.createTempFile(file.name, ".tmp", file.parentFile)
+            DataOutputStream(BufferedOutputStream(FileOutputStream(tmpFile))).use { output ->
+                output.writeInt(STORAGE_VERSION)
+                output.writeUTF(key.path)
+                output.writeLong(key.lastModified)
+                output.writeLong(key.length)
+                output.writeInt(index.packages.size)
+                index.packages.forEach(output::writeUTF)
+            }
+            if (!tmpFile.renameTo(file)) {
+                FileUtil.rename(tmpFile, file)
+            }
+        }
+        catch (e: IOException) {
+            // the index will be recomputed next time
+        }
+    }
+
+    private data class JarKey(val path: String, val lastModified: Long, val length: Long)
+
+    companion object {
+        private const val STORAGE_VERSION = 1
+
+        private val inMemoryIndices = ConcurrentHashMap<String, Pair<JarKey, JarPackageIndex>>()
+    }
+}
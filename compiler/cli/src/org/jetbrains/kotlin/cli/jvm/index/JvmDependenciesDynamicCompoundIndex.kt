@@ -23,7 +23,7 @@ import java.util.concurrent.locks.ReentrantReadWriteLock
 import kotlin.concurrent.read
 import kotlin.concurrent.write
 
-class JvmDependenciesDynamicCompoundIndex : JvmDependenciesIndex {
+class JvmDependenciesDynamicCompoundIndex(private val jarPackageIndexCache: JarPackageIndexCache? = null) : JvmDependenciesIndex {
     private val indices = arrayListOf<JvmDependenciesIndex>()
     private val lock = ReentrantReadWriteLock()
 
@@ -38,7 +38,7 @@ class JvmDependenciesDynamicCompoundIndex : JvmDependenciesIndex {
                 val alreadyIndexed = indexedRoots.toHashSet()
                 val newRoots = roots.filter { root -> root !in alreadyIndexed }
                 if (newRoots.isEmpty()) null
-                else JvmDependenciesIndexImpl(newRoots).also(this::addIndex)
+                else JvmDependenciesIndexImpl(newRoots, jarPackageIndexCache).also(this::addIndex)
             }
 
     override val indexedRoots: Sequence<JavaRoot> get() = indices.asSequence().flatMap { it.indexedRoots }
@@ -18,18 +18,25 @@ package org.jetbrains.kotlin.cli.jvm.index
 
 import com.intellij.ide.highlighter.JavaClassFileType
 import com.intellij.ide.highlighter.JavaFileType
+import com.intellij.openapi.vfs.StandardFileSystems
 import com.intellij.openapi.vfs.VfsUtilCore
 import com.intellij.openapi.vfs.VirtualFile
 import com.intellij.util.containers.IntArrayList
+import com.intellij.util.io.URLUtil
 import gnu.trove.THashMap
 import org.jetbrains.kotlin.name.ClassId
 import org.jetbrains.kotlin.name.FqName
+import java.io.File
 import java.util.*
 
 // speeds up finding files/classes in classpath/java source roots
-// NOT THREADSAFE, needs to be adapted/removed if we want compiler to be multithreaded
 // the main idea of this class is for each package to store roots which contains it to avoid excessive file system traversal
-class JvmDependenciesIndexImpl(_roots: List<JavaRoot>): JvmDependenciesIndex {
+// lookups may be performed concurrently: the "Cache" tree is guarded by cacheTreeLock, and the per-root package caches are guarded
+// by the corresponding map, so that file system traversal in different roots doesn't block each other
+class JvmDependenciesIndexImpl(
+        _roots: List<JavaRoot>,
+        private val jarPackageIndexCache: JarPackageIndexCache? = null
+): JvmDependenciesIndex {
     //these fields are computed based on _roots passed to constructor which are filled in later
     private val roots: List<JavaRoot> by lazy { _roots.toList() }
 
@@ -46,8 +53,17 @@ class JvmDependenciesIndexImpl(_roots: List<JavaRoot>): JvmDependenciesIndex {
         // if this list contains [1, 3, 5] then roots with indices 1, 3 and 5 are known to contain this package, 2 and 4 are known not to (no information about roots 6 or higher)
         // if this list contains maxIndex that means that all roots containing this package are known
         val rootIndices = IntArrayList(2)
+
+        // the list is sorted, and concurrent searches may try to record the same root more than once
+        fun addRootIndex(rootIndex: Int) {
+            if (rootIndices.isEmpty || rootIndices[rootIndices.size() - 1] < rootIndex) {
+                rootIndices.add(rootIndex)
+            }
+        }
     }
 
+    private val cacheTreeLock = Any()
+
     // root "Cache" object corresponds to DefaultPackage which exists in every root. Roots with non-default fqname are also listed here but
     // they will be ignored on requests with invalid fqname prefix.
     private val rootCache: Cache by lazy {
@@ -60,7 +76,7 @@ class JvmDependenciesIndexImpl(_roots: List<JavaRoot>): JvmDependenciesIndex {
 
     // holds the request and the result last time we searched for class
     // helps improve several scenarios, LazyJavaResolverContext.findClassInJava being the most important
-    private var lastClassSearch: Pair<FindClassRequest, SearchResult>? = null
+    @Volatile private var lastClassSearch: Pair<FindClassRequest, SearchResult>? = null
 
     override val indexedRoots by lazy { roots.asSequence() }
 
@@ -68,6 +84,11 @@ class JvmDependenciesIndexImpl(_roots: List<JavaRoot>): JvmDependenciesIndex {
         Array(roots.size) { THashMap<String, VirtualFile?>() }
     }
 
+    // package sets of jar roots, which allow to answer whether a jar contains a package without traversing its directories
+    private val jarPackageIndices: Array<JarPackageIndex?> by lazy {
+        Array(roots.size) { rootIndex -> jarPackageIndexCache?.let { computeJarPackageIndex(roots[rootIndex], it) } }
+    }
+
     override fun traverseDirectoriesInPackage(
             packageFqName: FqName,
             acceptedRootTypes: Set<JavaRoot.RootType>,
@@ -85,11 +106,13 @@ class JvmDependenciesIndexImpl(_roots: List<JavaRoot>): JvmDependenciesIndex {
             findClassGivenDirectory: (VirtualFile, JavaRoot.RootType) -> T?
     ): T? {
         // make a decision based on information saved from last class search
-        if (lastClassSearch?.first?.classId != classId) {
+        // the field is read once, because other threads may replace it at any moment
+        val lastSearch = lastClassSearch
+        if (lastSearch?.first?.classId != classId) {
             return search(FindClassRequest(classId, acceptedRootTypes), findClassGivenDirectory)
         }
 
-        val (cachedRequest, cachedResult) = lastClassSearch!!
+        val (cachedRequest, cachedResult) = lastSearch
         return when (cachedResult) {
             is SearchResult.NotFound -> {
                 val limitedRootTypes = acceptedRootTypes - cachedRequest.acceptedRootTypes
@@ -115,7 +138,7 @@ class JvmDependenciesIndexImpl(_roots: List<JavaRoot>): JvmDependenciesIndex {
         // a list of package sub names, ["org", "jb", "kotlin"]
         val packagesPath = request.packageFqName.pathSegments().map { it.identifier }
         // a list of caches corresponding to packages, [default, "org", "org.jb", "org.jb.kotlin"]
-        val caches = cachesPath(packagesPath)
+        val caches = synchronized(cacheTreeLock) { cachesPath(packagesPath) }
 
         var processedRootsUpTo = -1
         // traverse caches starting from last, which contains most specific information
@@ -123,8 +146,16 @@ class JvmDependenciesIndexImpl(_roots: List<JavaRoot>): JvmDependenciesIndex {
         // NOTE: indices manipulation instead of using caches.reversed() is here for performance reasons
         for (cacheIndex in caches.lastIndex downTo 0) {
             val cacheRootIndices = caches[cacheIndex].rootIndices
-            for (i in 0..cacheRootIndices.size() - 1) {
-                val rootIndex = cacheRootIndices[i]
+            // the list may grow while the handler is running (only by appending larger indices), so it's re-read on each iteration
+            var i = 0
+            var lastProcessedRootIndex = processedRootsUpTo
+            while (true) {
+                val rootIndex = synchronized(cacheTreeLock) {
+                    if (i < cacheRootIndices.size()) cacheRootIndices[i] else NO_MORE_ROOTS
+                }
+                if (rootIndex == NO_MORE_ROOTS) break
+                i++
+                lastProcessedRootIndex = rootIndex
                 if (rootIndex <= processedRootsUpTo) continue // roots with those indices have been processed by now
 
                 val directoryInRoot = travelPath(rootIndex, request.packageFqName, packagesPath, cacheIndex, caches) ?: continue
@@ -139,7 +170,7 @@ class JvmDependenciesIndexImpl(_roots: List<JavaRoot>): JvmDependenciesIndex {
                     }
                 }
             }
-            processedRootsUpTo = if (cacheRootIndices.isEmpty) processedRootsUpTo else cacheRootIndices.get(cacheRootIndices.size() - 1)
+            processedRootsUpTo = lastProcessedRootIndex
         }
 
         if (request is FindClassRequest) {
@@ -158,16 +189,25 @@ class JvmDependenciesIndexImpl(_roots: List<JavaRoot>): JvmDependenciesIndex {
             cachesPath: List<Cache>
     ): VirtualFile? {
         if (rootIndex >= maxIndex) {
-            for (i in (fillCachesAfter + 1)..(cachesPath.size - 1)) {
-                // we all know roots that contain this package by now
-                cachesPath[i].rootIndices.add(maxIndex)
-                cachesPath[i].rootIndices.trimToSize()
+            synchronized(cacheTreeLock) {
+                for (i in (fillCachesAfter + 1)..(cachesPath.size - 1)) {
+                    // we all know roots that contain this package by now
+                    cachesPath[i].addRootIndex(maxIndex)
+                    cachesPath[i].rootIndices.trimToSize()
+                }
             }
             return null
         }
 
-        return packageCache[rootIndex].getOrPut(packageFqName.asString()) {
-            doTravelPath(rootIndex, packagesPath, fillCachesAfter, cachesPath)
+        val packageCacheForRoot = packageCache[rootIndex]
+        return synchronized(packageCacheForRoot) {
+            packageCacheForRoot.getOrPut(packageFqName.asString()) {
+                val jarPackageIndex = jarPackageIndices[rootIndex]
+                if (jarPackageIndex != null)
+                    doTravelPathWithIndex(rootIndex, jarPackageIndex, packagesPath, fillCachesAfter, cachesPath)
+                else
+                    doTravelPath(rootIndex, packagesPath, fillCachesAfter, cachesPath)
+            }
         }
     }
 
@@ -192,13 +232,49 @@ class JvmDependenciesIndexImpl(_roots: List<JavaRoot>): JvmDependenciesIndex {
             val correspondingCacheIndex = pathIndex + 1
             if (correspondingCacheIndex > fillCachesAfter) {
                 // subPackageName exists in this root
-                cachesPath[correspondingCacheIndex].rootIndices.add(rootIndex)
+                synchronized(cacheTreeLock) {
+                    cachesPath[correspondingCacheIndex].addRootIndex(rootIndex)
+                }
             }
         }
 
         return currentFile
     }
 
+    // same as doTravelPath, but checks package existence against the jar's package index instead of looking into directories
+    private fun doTravelPathWithIndex(
+            rootIndex: Int,
+            jarPackageIndex: JarPackageIndex,
+            packagesPath: List<String>,
+            fillCachesAfter: Int,
+            cachesPath: List<Cache>
+    ): VirtualFile? {
+        val relativePath = StringBuilder()
+        for (pathIndex in packagesPath.indices) {
+            if (pathIndex > 0) relativePath.append('/')
+            relativePath.append(packagesPath[pathIndex])
+            if (!jarPackageIndex.containsPackage(relativePath.toString())) return null
+
+            val correspondingCacheIndex = pathIndex + 1
+            if (correspondingCacheIndex > fillCachesAfter) {
+                synchronized(cacheTreeLock) {
+                    cachesPath[correspondingCacheIndex].addRootIndex(rootIndex)
+                }
+            }
+        }
+
+        val rootFile = roots[rootIndex].file
+        return if (relativePath.isEmpty()) rootFile else rootFile.findFileByRelativePath(relativePath.toString())
+    }
+
+    private fun computeJarPackageIndex(root: JavaRoot, cache: JarPackageIndexCache): JarPackageIndex? {
+        val file = root.file
+        if (root.type != JavaRoot.RootType.BINARY || root.prefixFqName != null) return null
+        if (file.fileSystem.protocol != StandardFileSystems.JAR_PROTOCOL || file.parent != null) return null
+
+        return cache.getOrCompute(File(file.path.substringBefore(URLUtil.JAR_SEPARATOR)))
+    }
+
     private fun VirtualFile.findChildPackage(subPackageName: String, rootType: JavaRoot.RootType): VirtualFile? {
         val childDirectory = findChild(subPackageName) ?: return null
 
@@ -218,6 +294,7 @@ class JvmDependenciesIndexImpl(_roots: List<JavaRoot>): JvmDependenciesIndex {
         return childDirectory
     }
 
+    // must be called under cacheTreeLock
     private fun cachesPath(path: List<String>): List<Cache> {
         val caches = ArrayList<Cache>(path.size + 1)
         caches.add(rootCache)
@@ -249,4 +326,8 @@ class JvmDependenciesIndexImpl(_roots: List<JavaRoot>): JvmDependenciesIndex {
 
         object NotFound : SearchResult()
     }
+
+    private companion object {
+        const val NO_MORE_ROOTS = -1
+    }
 }
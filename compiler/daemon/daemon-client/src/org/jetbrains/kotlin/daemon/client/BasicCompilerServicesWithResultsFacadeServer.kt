@@ -38,6 +38,16 @@ open class BasicCompilerServicesWithResultsFacadeServer(
     }
 }
 
+// Is used with the local transport, which calls the facade directly, see LocalTransportClient
+class BasicCompilerServicesWithResultsFacade(
+        val messageCollector: MessageCollector,
+        val outputsCollector: ((File, List<File>) -> Unit)? = null
+) : CompilerServicesFacadeBase {
+    override fun report(category: Int, severity: Int, message: String?, attachment: Serializable?) {
+        messageCollector.reportFromDaemon(outputsCollector, category, severity, message, attachment)
+    }
+}
+
 fun MessageCollector.reportFromDaemon(outputsCollector: ((File, List<File>) -> Unit)?, category: Int, severity: Int, message: String?, attachment: Serializable?) {
     val reportCategory = ReportCategory.fromCode(category)
 
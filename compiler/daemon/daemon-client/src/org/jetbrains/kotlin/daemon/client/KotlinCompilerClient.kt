@@ -193,19 +193,21 @@ object KotlinCompilerClient {
                 port: Int = SOCKET_ANY_FREE_PORT,
                 profiler: Profiler = DummyProfiler()
     ): Int = profiler.withMeasure(this) {
-        val services = BasicCompilerServicesWithResultsFacadeServer(messageCollector, outputsCollector, port)
-        compilerService.compile(
-                sessionId,
-                args,
-                CompilationOptions(
-                        compilerMode,
-                        targetPlatform,
-                        arrayOf(ReportCategory.COMPILER_MESSAGE.code, ReportCategory.DAEMON_MESSAGE.code, ReportCategory.EXCEPTION.code, ReportCategory.OUTPUT_MESSAGE.code),
-                        reportSeverity.code,
-                        emptyArray()),
-                services,
-                null
-        ).get()
+        val compilationOptions = CompilationOptions(
+                compilerMode,
+                targetPlatform,
+                arrayOf(ReportCategory.COMPILER_MESSAGE.code, ReportCategory.DAEMON_MESSAGE.code, ReportCategory.EXCEPTION.code, ReportCategory.OUTPUT_MESSAGE.code),
+                reportSeverity.code,
+                emptyArray())
+        val localTransportResult = LocalTransportClient.compile(compilerService, sessionId, args, compilationOptions,
+                                                                BasicCompilerServicesWithResultsFacade(messageCollector, outputsCollector), null)
+        if (localTransportResult != null) {
+            localTransportResult.get()
+        }
+        else {
+            val services = BasicCompilerServicesWithResultsFacadeServer(messageCollector, outputsCollector, port)
+            compilerService.compile(sessionId, args, compilationOptions, services, null).get()
+        }
     }
 
     val COMPILE_DAEMON_CLIENT_OPTIONS_PROPERTY: String = "kotlin.daemon.client.options"
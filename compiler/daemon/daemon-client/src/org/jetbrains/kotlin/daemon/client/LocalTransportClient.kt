@@ -0,0 +1,199 @@
+/*
+ * Copyright 2000-2018 JetBrains s.r.o. Use of this source code is governed by the Apache 2.0 license
+ * that can be found in the license/LICENSE.txt file.
+ */
+
+package org.jetbrains.kotlin.daemon.client
+
+import org.jetbrains.kotlin.daemon.common.*
+import org.jetbrains.kotlin.daemon.common.LocalTransportProtocol as Protocol
+import java.io.*
+import java.rmi.RemoteException
+import java.rmi.server.UnicastRemoteObject
+
+/**
+ * Sends compile requests to the daemon over its local transport, see [LocalTransportProtocol].
+ * Reports and calls of the daemon are passed to the services facade directly, so it doesn't need to be exported over RMI.
+ */
+object LocalTransportClient {
+    val isEnabled: Boolean
+        get() = System.getProperty(COMPILE_DAEMON_LOCAL_TRANSPORT_PROPERTY) != "false"
+
+    /**
+     * Returns null if the local transport is not available, the compilation should be done over RMI then
+     */
+    fun compile(
+            compileService: CompileService,
+            sessionId: Int,
+            compilerArguments: Array<out String>,
+            compilationOptions: CompilationOptions,
+            servicesFacade: CompilerServicesFacadeBase,
+            compilationResults: CompilationResults?
+    ): CompileService.CallResult<Int>? {
+        if (!isEnabled || !Protocol.isSupported(compilationOptions)) return null
+
+        val address = try {
+            compileService.getLocalTransportAddress().get()
+        }
+        catch (e: Exception) {
+            null
+        } ?: return null
+
+        val socket = try {
+            LoopbackNetworkInterface.clientLoopbackSocketFactory.createSocket(LoopbackNetworkInterface.loopbackInetAddressName, address.port)
+        }
+        catch (e: IOException) {
+            return null
+        }
+
+        return socket.use {
+            try {
+                socket.tcpNoDelay = true
+                val input = DataInputStream(BufferedInputStream(socket.getInputStream()))
+                val output = DataOutputStream(BufferedOutputStream(socket.getOutputStream()))
+
+                Protocol.writeRequest(output, Protocol.Request(address.token, sessionId, compilerArguments, compilationOptions,
+                                                               hasCompilationResults = compilationResults != null))
+                output.flush()
+
+                serve(input, output, servicesFacade, compilationResults)
+            }
+            catch (e: IOException) {
+                // the compilation could have been started already, so it is not retried over RMI
+                throw RemoteException("Local transport connection to the daemon failed", e)
+            }
+        }
+    }
+
+    private fun serve(
+            input: DataInputStream,
+            output: DataOutputStream,
+            servicesFacade: CompilerServicesFacadeBase,
+            compilationResults: CompilationResults?
+    ): CompileService.CallResult<Int> {
+        while (true) {
+            when (input.readByte().toInt()) {
+                Protocol.REPORT -> {
+                    servicesFacade.report(input.readInt(), input.readInt(), Protocol.readString(input), Protocol.readSerializable(input))
+                }
+                Protocol.COMPILATION_RESULT -> {
+                    val category = input.readInt()
+                    val value = Protocol.readSerializable(input) ?: throw IOException("Compilation result is null")
+                    compilationResults?.add(category, value)
+                }
+                Protocol.CALL -> reply(input.readByte().toInt(), input, output, servicesFacade)
+                Protocol.CALL_RESULT_GOOD -> return CompileService.CallResult.Good(input.readInt())
+                Protocol.CALL_RESULT_DYING -> return CompileService.CallResult.Dying()
+                Protocol.CALL_RESULT_ERROR -> return CompileService.CallResult.Error(Protocol.readString(input).orEmpty())
+                else -> throw IOException("Unexpected frame from the daemon")
+            }
+        }
+    }
+
+    // Arguments are read before the call, so that a failed call is reported to the daemon without breaking the connection
+    private fun reply(method: Int, input: DataInput, output: DataOutputStream, servicesFacade: CompilerServicesFacadeBase) {
+        fun facade() = servicesFacade as? IncrementalCompilerServicesFacade
+                       ?: throw IllegalStateException("IC services are not available for the compilation")
+
+        when (method) {
+            Protocol.HAS_ANNOTATIONS_FILE_UPDATER -> replyWith(output) {
+                val result = facade().hasAnnotationsFileUpdater()
+                val writeResult: (DataOutput) -> Unit = { it.writeBoolean(result) }
+                writeResult
+            }
+            Protocol.UPDATE_ANNOTATIONS -> {
+                val outdatedClassesJvmNames = Protocol.readStrings(input)
+                replyWith(output) {
+                    facade().updateAnnotations(outdatedClassesJvmNames)
+                    NO_RESULT
+                }
+            }
+            Protocol.REVERT -> replyWith(output) {
+                facade().revert()
+                NO_RESULT
+            }
+            Protocol.REGISTER_CHANGES -> {
+                val timestamp = input.readLong()
+                val dirtyData = Protocol.readDirtyData(input)
+                replyWith(output) {
+                    facade().registerChanges(timestamp, dirtyData)
+                    NO_RESULT
+                }
+            }
+            Protocol.UNKNOWN_CHANGES -> {
+                val timestamp = input.readLong()
+                replyWith(output) {
+                    facade().unknownChanges(timestamp)
+                    NO_RESULT
+                }
+            }
+            Protocol.GET_CHANGES -> {
+                val artifact = File(Protocol.readString(input)!!)
+                val sinceTS = input.readLong()
+                replyWith(output) {
+                    val changes = facade().getChanges(artifact, sinceTS)?.toList()
+                    val writeResult: (DataOutput) -> Unit = { out ->
+                        out.writeBoolean(changes != null)
+                        if (changes != null) {
+                            out.writeInt(changes.size)
+                            changes.forEach { Protocol.writeDirtyData(out, it) }
+                        }
+                    }
+                    writeResult
+                }
+            }
+            else -> throw IOException("Unknown call from the daemon: $method")
+        }
+    }
+
+    private inline fun replyWith(output: DataOutputStream, call: () -> (DataOutput) -> Unit) {
+        val writeResult = try {
+            call()
+        }
+        catch (e: Exception) {
+            output.writeByte(Protocol.REPLY_FAILED)
+            Protocol.writeString(output, e.toString())
+            output.flush()
+            return
+        }
+
+        output.writeByte(Protocol.REPLY)
+        writeResult(output)
+        output.flush()
+    }
+
+    private val NO_RESULT: (DataOutput) -> Unit = {}
+}
+
+/**
+ * Calls [CompileService.compile] over the local transport if the daemon provides it, and over RMI otherwise.
+ * The services facade and the compilation results should not be exported by the caller: they are exported for the duration
+ * of the call only if it is done over RMI
+ */
+fun CompileService.compileOverLocalTransportIfAvailable(
+        sessionId: Int,
+        compilerArguments: Array<out String>,
+        compilationOptions: CompilationOptions,
+        servicesFacade: CompilerServicesFacadeBase,
+        compilationResults: CompilationResults?,
+        port: Int = SOCKET_ANY_FREE_PORT
+): CompileService.CallResult<Int> {
+    LocalTransportClient.compile(this, sessionId, compilerArguments, compilationOptions, servicesFacade, compilationResults)?.let {
+        return it
+    }
+
+    val exported = listOfNotNull(servicesFacade, compilationResults)
+    for (remote in exported) {
+        UnicastRemoteObject.exportObject(remote, port,
+                                         LoopbackNetworkInterface.clientLoopbackSocketFactory,
+                                         LoopbackNetworkInterface.serverLoopbackSocketFactory)
+    }
+    try {
+        return compile(sessionId, compilerArguments, compilationOptions, servicesFacade, compilationResults)
+    }
+    finally {
+        for (remote in exported) {
+            UnicastRemoteObject.unexportObject(remote, true)
+        }
+    }
+}
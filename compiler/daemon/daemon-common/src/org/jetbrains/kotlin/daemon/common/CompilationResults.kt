@@ -26,5 +26,7 @@ interface CompilationResults : Remote {
 }
 
 enum class CompilationResultCategory(val code: Int) {
-    IC_COMPILE_ITERATION(0)
+    IC_COMPILE_ITERATION(0),
+    // JSON string with phase metrics of the compilation, see CompilerMetrics
+    COMPILER_METRICS(1)
 }
\ No newline at end of file
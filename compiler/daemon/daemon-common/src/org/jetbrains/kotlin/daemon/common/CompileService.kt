@@ -83,6 +83,12 @@ interface CompileService : Remote {
     @Throws(RemoteException::class)
     fun getDaemonJVMOptions(): CallResult<DaemonJVMOptions>
 
+    /**
+     * Returns the address of the socket which accepts compile requests without RMI, see [LocalTransportProtocol], or null if it is not available
+     */
+    @Throws(RemoteException::class)
+    fun getLocalTransportAddress(): CallResult<LocalTransportAddress?>
+
     @Throws(RemoteException::class)
     fun registerClient(aliveFlagPath: String?): CallResult<Nothing>
 
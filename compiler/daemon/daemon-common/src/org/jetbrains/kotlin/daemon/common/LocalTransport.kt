@@ -0,0 +1,248 @@
+/*
+ * Copyright 2000-2018 JetBrains s.r.o. Use of this source code is governed by the Apache 2.0 license
+ * that can be found in the license/LICENSE.txt file.
+ */
+
+package org.jetbrains.kotlin.daemon.common
+
+import java.io.*
+
+const val COMPILE_DAEMON_LOCAL_TRANSPORT_PROPERTY = "kotlin.daemon.local.transport"
+
+/**
+ * Address of the local transport of a daemon: a loopback socket accepting compile requests encoded with [LocalTransportProtocol].
+ * The token is known only to the clients which got the address over RMI, other connections are rejected.
+ */
+class LocalTransportAddress(val port: Int, val token: Long) : Serializable {
+    companion object {
+        const val serialVersionUID: Long = 0
+    }
+}
+
+/**
+ * Compact binary protocol of the local transport, an alternative to calling [CompileService.compile] and the services facades over RMI.
+ *
+ * A connection serves one compilation: the client sends a request, then the daemon sends reports, compilation results
+ * and calls of IC services, and finishes with the result of the compilation. Reports and results are not acknowledged,
+ * a call blocks the daemon until the client sends its result.
+ * JPS compilations are not supported, they rely on a lot of services which are only available over RMI.
+ */
+object LocalTransportProtocol {
+    const val VERSION = 2
+
+    // Lengths read from a connection are limited, so that a malformed or malicious frame cannot exhaust the memory of the reader
+    const val MAX_STRING_BYTES = 64 * 1024 * 1024
+    const val MAX_COLLECTION_SIZE = 1024 * 1024
+    const val MAX_SERIALIZED_BYTES = 64 * 1024 * 1024
+
+    // frames sent by the daemon
+    const val REPORT = 1
+    const val COMPILATION_RESULT = 2
+    const val CALL = 3
+    const val CALL_RESULT_GOOD = 4
+    const val CALL_RESULT_DYING = 5
+    const val CALL_RESULT_ERROR = 6
+
+    // frames sent by the client in reply to CALL
+    const val REPLY = 10
+    const val REPLY_FAILED = 11
+
+    // calls of IncrementalCompilerServicesFacade
+    const val HAS_ANNOTATIONS_FILE_UPDATER = 1
+    const val UPDATE_ANNOTATIONS = 2
+    const val REVERT = 3
+    const val REGISTER_CHANGES = 4
+    const val UNKNOWN_CHANGES = 5
+    const val GET_CHANGES = 6
+
+    class Request(
+            val token: Long,
+            val sessionId: Int,
+            val compilerArguments: Array<out String>,
+            val compilationOptions: CompilationOptions,
+            val hasCompilationResults: Boolean
+    )
+
+    fun isSupported(compilationOptions: CompilationOptions): Boolean =
+            compilationOptions.compilerMode != CompilerMode.JPS_COMPILER &&
+            (compilationOptions.compilerMode != CompilerMode.INCREMENTAL_COMPILER || compilationOptions is IncrementalCompilationOptions)
+
+    fun writeRequest(output: DataOutput, request: Request) {
+        output.writeInt(VERSION)
+        output.writeLong(request.token)
+        output.writeInt(request.sessionId)
+        output.writeStrings(request.compilerArguments.asList())
+        writeCompilationOptions(output, request.compilationOptions)
+        output.writeBoolean(request.hasCompilationResults)
+    }
+
+    /**
+     * Reads the version of the protocol and the token of a request. The rest of the request should be read with [readRequest]
+     * only if the token is valid, so that nothing is allocated for connections of unknown clients
+     */
+    fun readToken(input: DataInput): Long {
+        val version = input.readInt()
+        if (version != VERSION) throw IOException("Unsupported version of the local transport protocol: $version")
+
+        return input.readLong()
+    }
+
+    fun readRequest(input: DataInput, token: Long): Request {
+        return Request(
+                token = token,
+                sessionId = input.readInt(),
+                compilerArguments = input.readStrings().toTypedArray(),
+                compilationOptions = readCompilationOptions(input),
+                hasCompilationResults = input.readBoolean()
+        )
+    }
+
+    private fun writeCompilationOptions(output: DataOutput, options: CompilationOptions) {
+        output.writeInt(options.compilerMode.ordinal)
+        output.writeInt(options.targetPlatform.ordinal)
+        output.writeInts(options.reportCategories)
+        output.writeInt(options.reportSeverity)
+        output.writeInts(options.requestedCompilationResults)
+
+        output.writeBoolean(options is IncrementalCompilationOptions)
+        if (options is IncrementalCompilationOptions) {
+            output.writeBoolean(options.areFileChangesKnown)
+            output.writeNullableFiles(options.modifiedFiles)
+            output.writeNullableFiles(options.deletedFiles)
+            output.writeString(options.workingDir.path)
+            output.writeString(options.customCacheVersionFileName)
+            output.writeInt(options.customCacheVersion)
+            output.writeNullableString(options.resultDifferenceFile?.path)
+            output.writeNullableString(options.friendDifferenceFile?.path)
+            output.writeBoolean(options.usePreciseJavaTracking)
+        }
+    }
+
+    private fun readCompilationOptions(input: DataInput): CompilationOptions {
+        val compilerMode = input.readEnum(CompilerMode.values())
+        val targetPlatform = input.readEnum(CompileService.TargetPlatform.values())
+        val reportCategories = input.readInts()
+        val reportSeverity = input.readInt()
+        val requestedCompilationResults = input.readInts()
+
+        if (!input.readBoolean()) {
+            return CompilationOptions(compilerMode, targetPlatform, reportCategories, reportSeverity, requestedCompilationResults)
+        }
+
+        return IncrementalCompilationOptions(
+                areFileChangesKnown = input.readBoolean(),
+                modifiedFiles = input.readNullableFiles(),
+                deletedFiles = input.readNullableFiles(),
+                workingDir = File(input.readString()),
+                customCacheVersionFileName = input.readString(),
+                customCacheVersion = input.readInt(),
+                compilerMode = compilerMode,
+                targetPlatform = targetPlatform,
+                reportCategories = reportCategories,
+                reportSeverity = reportSeverity,
+                requestedCompilationResults = requestedCompilationResults,
+                resultDifferenceFile = input.readNullableString()?.let(::File),
+                friendDifferenceFile = input.readNullableString()?.let(::File),
+                usePreciseJavaTracking = input.readBoolean()
+        )
+    }
+
+    fun writeDirtyData(output: DataOutput, dirtyData: SimpleDirtyData) {
+        output.writeStrings(dirtyData.dirtyLookupSymbols)
+        output.writeStrings(dirtyData.dirtyClassesFqNames)
+    }
+
+    fun readDirtyDataList(input: DataInput): List<SimpleDirtyData> =
+            (0 until input.readLength(MAX_COLLECTION_SIZE)).map { readDirtyData(input) }
+
+    fun readDirtyData(input: DataInput): SimpleDirtyData =
+            SimpleDirtyData(dirtyLookupSymbols = input.readStrings(), dirtyClassesFqNames = input.readStrings())
+
+    fun writeString(output: DataOutput, value: String?) {
+        output.writeNullableString(value)
+    }
+
+    fun readString(input: DataInput): String? =
+            input.readNullableString()
+
+    fun writeStrings(output: DataOutput, values: Collection<String>) {
+        output.writeStrings(values)
+    }
+
+    fun readStrings(input: DataInput): List<String> =
+            input.readStrings()
+
+    // Values of rarely used open types (report attachments, compilation results) are written with java serialization
+    fun writeSerializable(output: DataOutput, value: Serializable?) {
+        output.writeBoolean(value != null)
+        if (value == null) return
+
+        val bytes = ByteArrayOutputStream().apply { ObjectOutputStream(this).use { it.writeObject(value) } }.toByteArray()
+        output.writeInt(bytes.size)
+        output.write(bytes)
+    }
+
+    fun readSerializable(input: DataInput): Serializable? {
+        if (!input.readBoolean()) return null
+
+        val bytes = ByteArray(input.readLength(MAX_SERIALIZED_BYTES))
+        input.readFully(bytes)
+        return ObjectInputStream(ByteArrayInputStream(bytes)).use { it.readObject() as Serializable }
+    }
+}
+
+// unlike writeUTF, allows strings longer than 64K, e.g. long classpaths
+private fun DataOutput.writeString(value: String) {
+    val bytes = value.toByteArray(Charsets.UTF_8)
+    writeInt(bytes.size)
+    write(bytes)
+}
+
+private fun DataInput.readLength(max: Int): Int {
+    val length = readInt()
+    if (length < 0 || length > max) throw IOException("Invalid length in the local transport protocol: $length")
+    return length
+}
+
+private fun <T : Enum<T>> DataInput.readEnum(values: Array<T>): T {
+    val ordinal = readInt()
+    return values.getOrNull(ordinal) ?: throw IOException("Invalid ordinal in the local transport protocol: $ordinal")
+}
+
+private fun DataInput.readString(): String {
+    val bytes = ByteArray(readLength(LocalTransportProtocol.MAX_STRING_BYTES))
+    readFully(bytes)
+    return String(bytes, Charsets.UTF_8)
+}
+
+private fun DataOutput.writeNullableString(value: String?) {
+    writeBoolean(value != null)
+    value?.let { writeString(it) }
+}
+
+private fun DataInput.readNullableString(): String? =
+        if (readBoolean()) readString() else null
+
+private fun DataOutput.writeStrings(values: Collection<String>) {
+    writeInt(values.size)
+    values.forEach { writeString(it) }
+}
+
+private fun DataInput.readStrings(): List<String> =
+        (0 until readLength(LocalTransportProtocol.MAX_COLLECTION_SIZE)).map { readString() }
+
+private fun DataOutput.writeInts(values: Array<Int>) {
+    writeInt(values.size)
+    values.forEach { writeInt(it) }
+}
+
+private fun DataInput.readInts(): Array<Int> =
+        Array(readLength(LocalTransportProtocol.MAX_COLLECTION_SIZE)) { readInt() }
+
+private fun DataOutput.writeNullableFiles(files: List<File>?) {
+    writeBoolean(files != null)
+    files?.let { writeStrings(it.map(File::getPath)) }
+}
+
+private fun DataInput.readNullableFiles(): List<File>? =
+        if (readBoolean()) readStrings().map(::File) else null
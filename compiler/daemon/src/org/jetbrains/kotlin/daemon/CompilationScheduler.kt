@@ -0,0 +1,155 @@
+/*
+ * Copyright 2000-2018 JetBrains s.r.o. Use of this source code is governed by the Apache 2.0 license
+ * that can be found in the license/LICENSE.txt file.
+ */
+
+package org.jetbrains.kotlin.daemon
+
+import java.lang.management.ManagementFactory
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicLong
+import java.util.concurrent.locks.ReentrantLock
+import kotlin.concurrent.withLock
+
+/**
+ * Lets compilations of different sessions run concurrently, at most [maxParallelCompilations] at a time.
+ * A new compilation waits for the running ones to finish while the heap usage is above [memoryThreshold] of the max heap,
+ * so a busy daemon degrades to sequential compilation instead of running out of memory.
+ *
+ * Also accounts memory allocated by the compilations of each session.
+ */
+class CompilationScheduler(
+        val maxParallelCompilations: Int,
+        private val memoryThreshold: Double = DEFAULT_MEMORY_THRESHOLD
+) {
+    class SessionMemoryUsage {
+        val compilations = AtomicLong()
+        val allocatedBytes = AtomicLong()
+
+        override fun toString() = "${compilations.get()} compilations, ${allocatedBytes.get() / 1024} kb allocated"
+    }
+
+    private val lock = ReentrantLock()
+    private val compilationFinished = lock.newCondition()
+    private var runningCompilations = 0
+    private val idleActions = ArrayList<() -> Unit>()
+    // idle actions are run without holding the lock, new compilations wait for them
+    private var isRunningIdleActions = false
+
+    private val memoryUsageBySession = ConcurrentHashMap<Int, SessionMemoryUsage>()
+
+    val activeCompilations: Int
+        get() = lock.withLock { runningCompilations }
+
+    fun <R> compile(sessionId: Int, body: () -> R): R {
+        acquire()
+        val allocatedBefore = currentThreadAllocatedBytes()
+        try {
+            return body()
+        }
+        finally {
+            val allocated = currentThreadAllocatedBytes() - allocatedBefore
+            memoryUsageBySession.getOrPut(sessionId) { SessionMemoryUsage() }.apply {
+                compilations.incrementAndGet()
+                allocatedBytes.addAndGet(allocated)
+            }
+            release()
+        }
+    }
+
+    fun memoryUsage(sessionId: Int): SessionMemoryUsage? = memoryUsageBySession[sessionId]
+
+    fun removeSession(sessionId: Int): SessionMemoryUsage? = memoryUsageBySession.remove(sessionId)
+
+    /**
+     * Runs the action when no compilation is running, e.g. to drop caches shared by the compilations.
+     * New compilations are not started until the action is finished.
+     */
+    fun whenIdle(action: () -> Unit) {
+        lock.withLock {
+            if (runningCompilations > 0 || isRunningIdleActions) {
+                idleActions.add(action)
+                return
+            }
+            isRunningIdleActions = true
+        }
+        runIdleActions(listOf(action))
+    }
+
+    private fun acquire() {
+        lock.withLock {
+            while (isRunningIdleActions ||
+                   runningCompilations >= maxParallelCompilations ||
+                   (runningCompilations > 0 && isMemoryLow())) {
+                // memory could be freed by GC without a finished compilation, so the check is repeated periodically
+                compilationFinished.await(MEMORY_CHECK_INTERVAL_MS, TimeUnit.MILLISECONDS)
+            }
+            runningCompilations++
+        }
+    }
+
+    private fun release() {
+        val actions = lock.withLock {
+            runningCompilations--
+            compilationFinished.signalAll()
+            if (runningCompilations > 0 || isRunningIdleActions || idleActions.isEmpty()) return
+            isRunningIdleActions = true
+            takeIdleActions()
+        }
+        runIdleActions(actions)
+    }
+
+    private fun runIdleActions(actions: List<() -> Unit>) {
+        var pending = actions
+        var isFinished = false
+        try {
+            while (!isFinished) {
+                pending.forEach { it() }
+                lock.withLock {
+                    // actions added while the previous ones were running
+                    pending = takeIdleActions()
+                    if (pending.isEmpty()) {
+                        finishIdleActions()
+                        isFinished = true
+                    }
+                }
+            }
+        }
+        finally {
+            if (!isFinished) {
+                lock.withLock { finishIdleActions() }
+            }
+        }
+    }
+
+    private fun takeIdleActions(): List<() -> Unit> {
+        val actions = idleActions.toList()
+        idleActions.clear()
+        return actions
+    }
+
+    private fun finishIdleActions() {
+        isRunningIdleActions = false
+        compilationFinished.signalAll()
+    }
+
+    private fun isMemoryLow(): Boolean {
+        val runtime = Runtime.getRuntime()
+        val used = runtime.totalMemory() - runtime.freeMemory()
+        return used > runtime.maxMemory() * memoryThreshold
+    }
+
+    companion object {
+        const val DEFAULT_MEMORY_THRESHOLD = 0.8
+        private const val MEMORY_CHECK_INTERVAL_MS = 500L
+
+        private val threadMXBean = ManagementFactory.getThreadMXBean() as? com.sun.management.ThreadMXBean
+
+        // only allocations of the compiling thread are accounted, helper threads of the compiler are not
+        private fun currentThreadAllocatedBytes(): Long =
+                threadMXBean?.takeIf { it.isThreadAllocatedMemorySupported && it.isThreadAllocatedMemoryEnabled }
+                        ?.getThreadAllocatedBytes(Thread.currentThread().id)
+                ?: 0L
+    }
+}
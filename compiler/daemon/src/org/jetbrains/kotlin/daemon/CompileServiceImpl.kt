@@ -22,6 +22,7 @@ import com.intellij.openapi.vfs.impl.ZipHandler
 import com.intellij.openapi.vfs.impl.jar.CoreJarFileSystem
 import org.jetbrains.kotlin.build.JvmSourceRoot
 import org.jetbrains.kotlin.cli.common.CLICompiler
+import org.jetbrains.kotlin.cli.common.CompilerMetrics
 import org.jetbrains.kotlin.cli.common.ExitCode
 import org.jetbrains.kotlin.cli.common.KOTLIN_COMPILER_ENVIRONMENT_KEEPALIVE_PROPERTY
 import org.jetbrains.kotlin.cli.common.arguments.*
@@ -38,6 +39,8 @@ import org.jetbrains.kotlin.cli.js.K2JSCompiler
 import org.jetbrains.kotlin.cli.jvm.K2JVMCompiler
 import org.jetbrains.kotlin.cli.jvm.compiler.KotlinCoreEnvironment
 import org.jetbrains.kotlin.cli.metadata.K2MetadataCompiler
+import org.jetbrains.kotlin.codegen.inline.LibraryInlineCache
+import org.jetbrains.kotlin.config.IncrementalCompilation
 import org.jetbrains.kotlin.config.Services
 import org.jetbrains.kotlin.daemon.common.*
 import org.jetbrains.kotlin.daemon.incremental.RemoteAnnotationsFileUpdater
@@ -49,12 +52,15 @@ import org.jetbrains.kotlin.daemon.report.DaemonMessageReporterPrintStreamAdapte
 import org.jetbrains.kotlin.daemon.report.RemoteICReporter
 import org.jetbrains.kotlin.incremental.*
 import org.jetbrains.kotlin.incremental.components.LookupTracker
+import org.jetbrains.kotlin.incremental.storage.InMemoryStorageCache
+import org.jetbrains.kotlin.load.kotlin.LibraryMetadataCache
 import org.jetbrains.kotlin.load.kotlin.incremental.components.IncrementalCompilationComponents
 import org.jetbrains.kotlin.modules.Module
 import org.jetbrains.kotlin.progress.CompilationCanceledStatus
 import java.io.BufferedOutputStream
 import java.io.ByteArrayOutputStream
 import java.io.File
+import java.io.IOException
 import java.io.PrintStream
 import java.rmi.NoSuchObjectException
 import java.rmi.registry.Registry
@@ -72,8 +78,36 @@ import kotlin.concurrent.write
 
 const val REMOTE_STREAM_BUFFER_SIZE = 4096
 
+// Contents of incremental caches are kept in memory between builds unless the property is "false", see InMemoryStorageCache
+const val KEEP_INCREMENTAL_CACHES_IN_MEMORY_PROPERTY = "kotlin.daemon.incremental.caches.in.memory"
+
 fun nowSeconds() = TimeUnit.NANOSECONDS.toSeconds(System.nanoTime())
 
+// Unlike withIC, IC is switched for the compilation of the current session only, compilations of other sessions run concurrently
+private inline fun <R> withSessionIC(enabled: Boolean = true, fn: () -> R): R {
+    val isEnabledBackup = IncrementalCompilation.getIsEnabledForCurrentThread()
+    IncrementalCompilation.setIsEnabledForCurrentThread(enabled)
+
+    try {
+        return fn()
+    }
+    finally {
+        IncrementalCompilation.setIsEnabledForCurrentThread(isEnabledBackup)
+    }
+}
+
+private inline fun <R> withSessionJsIC(fn: () -> R): R {
+    val isJsEnabledBackup = IncrementalCompilation.getIsEnabledForJsForCurrentThread()
+    IncrementalCompilation.setIsEnabledForJsForCurrentThread(true)
+
+    try {
+        return withSessionIC { fn() }
+    }
+    finally {
+        IncrementalCompilation.setIsEnabledForJsForCurrentThread(isJsEnabledBackup)
+    }
+}
+
 interface CompilerSelector {
     operator fun get(targetPlatform: CompileService.TargetPlatform): CLICompiler<*>
 }
@@ -109,6 +143,7 @@ class CompileServiceImpl(
 
     init {
         System.setProperty(KOTLIN_COMPILER_ENVIRONMENT_KEEPALIVE_PROPERTY, "true")
+        InMemoryStorageCache.isEnabled = System.getProperty(KEEP_INCREMENTAL_CACHES_IN_MEMORY_PROPERTY) != "false"
     }
 
     // wrapped in a class to encapsulate alive check logic
@@ -124,6 +159,34 @@ class CompileServiceImpl(
 
     private val compilationsCounter = AtomicInteger(0)
 
+    // compilations only take the read lock of rwlock, the number of concurrent ones is limited by the scheduler
+    private val compilationScheduler = CompilationScheduler(
+            daemonOptions.maxParallelCompilations.takeIf { it > 0 } ?: Runtime.getRuntime().availableProcessors())
+
+    // caches are evicted in the order of the cost of their rebuilding, jar caches and incremental caches are only dropped between compilations
+    private val memoryPressureMonitor = MemoryPressureMonitor(
+            evictionSteps = listOf(
+                    MemoryPressureMonitor.EvictionStep("jar caches") { onEvicted ->
+                        compilationScheduler.whenIdle { try { clearJarCache() } finally { onEvicted() } }
+                    },
+                    MemoryPressureMonitor.EvictionStep("library inline cache") { onEvicted ->
+                        try { LibraryInlineCache.clear() } finally { onEvicted() }
+                    },
+                    MemoryPressureMonitor.EvictionStep("library metadata cache") { onEvicted ->
+                        try { LibraryMetadataCache.clear() } finally { onEvicted() }
+                    },
+                    MemoryPressureMonitor.EvictionStep("incremental caches") { onEvicted ->
+                        compilationScheduler.whenIdle { try { InMemoryStorageCache.clear() } finally { onEvicted() } }
+                    }
+            ),
+            // a fresh daemon is started by the clients of new sessions
+            onCachesExhausted = { gracefulShutdown(true) }
+    )
+
+    // started on the first request of its address
+    @Volatile private var localTransportServer: LocalTransportServer? = null
+    private var isLocalTransportServerFailed = false
+
     private val classpathWatcher = LazyClasspathWatcher(compilerId.compilerClasspath)
 
     enum class Aliveness {
@@ -262,6 +325,10 @@ class CompileServiceImpl(
         CompileService.CallResult.Good(daemonJVMOptions)
     }
 
+    override fun getLocalTransportAddress(): CompileService.CallResult<LocalTransportAddress?> = ifAlive {
+        CompileService.CallResult.Good(getOrStartLocalTransportServer()?.address)
+    }
+
     override fun registerClient(aliveFlagPath: String?): CompileService.CallResult<Nothing> = ifAlive(minAliveness = Aliveness.Alive) {
         state.addClient(aliveFlagPath)
         log.info("Registered a client alive file: $aliveFlagPath")
@@ -284,7 +351,11 @@ class CompileServiceImpl(
     override fun releaseCompileSession(sessionId: Int) = ifAlive(minAliveness = Aliveness.LastSession) {
         state.sessions.remove(sessionId)
         log.info("cleaning after session $sessionId")
-        rwlock.write {
+        compilationScheduler.removeSession(sessionId)?.let {
+            log.info("session $sessionId memory usage: $it")
+        }
+        // jar caches are shared by the compilations of all sessions, so they are only cleared between compilations
+        compilationScheduler.whenIdle {
             clearJarCache()
         }
         if (state.sessions.isEmpty()) {
@@ -372,6 +443,11 @@ class CompileServiceImpl(
                 CompileService.TargetPlatform.METADATA -> K2MetadataCompiler()
             } as CLICompiler<CommonCompilerArguments>
 
+            val compilerMetrics =
+                if (compilationResults != null && CompilationResultCategory.COMPILER_METRICS.code in compilationOptions.requestedCompilationResults)
+                    CompilerMetrics()
+                else null
+
             val k2PlatformArgs = compiler.createArguments()
             parseCommandLineArguments(compilerArguments.asList(), k2PlatformArgs)
             val argumentParseError = validateArguments(k2PlatformArgs.errors)
@@ -383,16 +459,17 @@ class CompileServiceImpl(
                 CompilerMode.JPS_COMPILER -> {
                     val jpsServicesFacade = servicesFacade as JpsCompilerServicesFacade
 
-                    withIC(enabled = servicesFacade.hasIncrementalCaches()) {
+                    withSessionIC(enabled = servicesFacade.hasIncrementalCaches()) {
                         doCompile(sessionId, daemonReporter, tracer = null) { eventManger, profiler ->
-                            val services = createCompileServices(jpsServicesFacade, eventManger, profiler)
+                            val services = createCompileServices(jpsServicesFacade, eventManger, profiler, compilerMetrics)
                             compiler.exec(messageCollector, services, k2PlatformArgs)
                         }
                     }
                 }
                 CompilerMode.NON_INCREMENTAL_COMPILER -> {
                     doCompile(sessionId, daemonReporter, tracer = null) { _, _ ->
-                        compiler.exec(messageCollector, Services.EMPTY, k2PlatformArgs)
+                        val services = compilerMetrics?.let { Services.Builder().register(CompilerMetrics::class.java, it).build() }
+                        compiler.exec(messageCollector, services ?: Services.EMPTY, k2PlatformArgs)
                     }
                 }
                 CompilerMode.INCREMENTAL_COMPILER -> {
@@ -403,17 +480,17 @@ class CompileServiceImpl(
                         CompileService.TargetPlatform.JVM -> {
                             val k2jvmArgs = k2PlatformArgs as K2JVMCompilerArguments
 
-                            withIC {
+                            withSessionIC {
                                 doCompile(sessionId, daemonReporter, tracer = null) { _, _ ->
                                     execIncrementalCompiler(k2jvmArgs, gradleIncrementalArgs, gradleIncrementalServicesFacade, compilationResults!!,
-                                                            messageCollector, daemonReporter)
+                                                            messageCollector, daemonReporter, compilerMetrics)
                                 }
                             }
                         }
                         CompileService.TargetPlatform.JS -> {
                             val k2jsArgs = k2PlatformArgs as K2JSCompilerArguments
 
-                            withJsIC {
+                            withSessionJsIC {
                                 doCompile(sessionId, daemonReporter, tracer = null) { _, _ ->
                                     execJsIncrementalCompiler(k2jsArgs, gradleIncrementalArgs, gradleIncrementalServicesFacade, compilationResults!!, messageCollector)
                                 }
@@ -424,6 +501,10 @@ class CompileServiceImpl(
                     }
                 }
                 else -> throw IllegalStateException("Unknown compilation mode ${compilationOptions.compilerMode}")
+            }.also {
+                if (compilerMetrics != null) {
+                    compilationResults?.add(CompilationResultCategory.COMPILER_METRICS.code, compilerMetrics.toJson())
+                }
             }
         }
     }
@@ -473,7 +554,8 @@ class CompileServiceImpl(
             servicesFacade: IncrementalCompilerServicesFacade,
             compilationResults: CompilationResults,
             compilerMessageCollector: MessageCollector,
-            daemonMessageReporter: DaemonMessageReporter
+            daemonMessageReporter: DaemonMessageReporter,
+            compilerMetrics: CompilerMetrics?
     ): ExitCode {
         val reporter = RemoteICReporter(servicesFacade, compilationResults, incrementalCompilationOptions)
         val annotationFileUpdater = if (servicesFacade.hasAnnotationsFileUpdater()) RemoteAnnotationsFileUpdater(servicesFacade) else null
@@ -522,8 +604,10 @@ class CompileServiceImpl(
                                                     artifactChanges, changesRegistry,
                                                     buildHistoryFile = incrementalCompilationOptions.resultDifferenceFile,
                                                     friendBuildHistoryFile = incrementalCompilationOptions.friendDifferenceFile,
-                                                    usePreciseJavaTracking = incrementalCompilationOptions.usePreciseJavaTracking
+                                                    usePreciseJavaTracking = incrementalCompilationOptions.usePreciseJavaTracking,
+                                                    classpathAbiSnapshotsDir = File(daemonOptions.runFilesPathOrDefault, "classpath-abi")
         )
+        compiler.compilerMetrics = compilerMetrics
         return compiler.compile(allKotlinFiles, k2jvmArgs, compilerMessageCollector, changedFiles)
     }
 
@@ -655,6 +739,8 @@ class CompileServiceImpl(
         val stub = UnicastRemoteObject.exportObject(this, port, LoopbackNetworkInterface.clientLoopbackSocketFactory, LoopbackNetworkInterface.serverLoopbackSocketFactory) as CompileService
         registry.rebind (COMPILER_SERVICE_RMI_NAME, stub)
 
+        memoryPressureMonitor.start()
+
         timer.schedule(10) {
             exceptionLoggingTimerThread { initiateElections() }
         }
@@ -683,6 +769,8 @@ class CompileServiceImpl(
 
         val anyDead = state.sessions.cleanDead() || state.cleanDeadClients()
 
+        memoryPressureMonitor.checkRecovered()
+
         ifAliveUnit(minAliveness = Aliveness.LastSession) {
             when {
                 // check if in graceful shutdown state and all sessions are closed
@@ -716,7 +804,9 @@ class CompileServiceImpl(
                     gracefulShutdown(false)
                 }
                 anyDead -> {
-                    clearJarCache()
+                    compilationScheduler.whenIdle {
+                        clearJarCache()
+                    }
                 }
             }
         }
@@ -803,11 +893,29 @@ class CompileServiceImpl(
         state.alive.set(Aliveness.Dying.ordinal)
 
         UnicastRemoteObject.unexportObject(this, true)
+        localTransportServer?.close()
+        memoryPressureMonitor.stop()
+        InMemoryStorageCache.awaitWriteBack()
         log.info("Shutdown complete")
         onShutdown()
         log.handlers.forEach { it.flush() }
     }
 
+    @Synchronized
+    private fun getOrStartLocalTransportServer(): LocalTransportServer? {
+        if (localTransportServer == null && !isLocalTransportServerFailed && System.getProperty(COMPILE_DAEMON_LOCAL_TRANSPORT_PROPERTY) != "false") {
+            try {
+                localTransportServer = LocalTransportServer(this)
+                log.info("Local transport is listening on port ${localTransportServer!!.address.port}")
+            }
+            catch (e: IOException) {
+                log.log(Level.WARNING, "Could not start local transport, RMI will be used", e)
+                isLocalTransportServerFailed = true
+            }
+        }
+        return localTransportServer
+    }
+
     private fun shutdownWithDelay() {
         state.delayedShutdownQueued.set(true)
         val currentClientsCount = state.clientsCounter
@@ -881,7 +989,7 @@ class CompileServiceImpl(
                         if (args.none())
                             throw IllegalArgumentException("Error: empty arguments list.")
                         log.info("Starting compilation with args: " + args.joinToString(" "))
-                        val exitCode = checkedCompile(compileServiceReporter, rpcProfiler) {
+                        val exitCode = checkedCompile(sessionId, compileServiceReporter, rpcProfiler) {
                             body(compilerMessagesStream, eventManger, rpcProfiler).code
                         }
                         CompileService.CallResult.Good(exitCode)
@@ -905,7 +1013,7 @@ class CompileServiceImpl(
                     val rpcProfiler = if (daemonOptions.reportPerf) WallAndThreadTotalProfiler() else DummyProfiler()
                     val eventManger = EventManagerImpl()
                     try {
-                        val exitCode = checkedCompile(daemonMessageReporter, rpcProfiler) {
+                        val exitCode = checkedCompile(sessionId, daemonMessageReporter, rpcProfiler) {
                             body(eventManger, rpcProfiler).code
                         }
                         CompileService.CallResult.Good(exitCode)
@@ -917,8 +1025,16 @@ class CompileServiceImpl(
                 }
             }
 
-    private fun createCompileServices(facade: CompilerCallbackServicesFacade, eventManager: EventManager, rpcProfiler: Profiler): Services {
+    private fun createCompileServices(
+            facade: CompilerCallbackServicesFacade,
+            eventManager: EventManager,
+            rpcProfiler: Profiler,
+            compilerMetrics: CompilerMetrics? = null
+    ): Services {
         val builder = Services.Builder()
+        if (compilerMetrics != null) {
+            builder.register(CompilerMetrics::class.java, compilerMetrics)
+        }
         if (facade.hasIncrementalCaches()) {
             builder.register(IncrementalCompilationComponents::class.java, RemoteIncrementalCompilationComponentsClient(facade, eventManager, rpcProfiler))
         }
@@ -932,11 +1048,18 @@ class CompileServiceImpl(
     }
 
 
-    private fun<R> checkedCompile(daemonMessageReporter: DaemonMessageReporter, rpcProfiler: Profiler, body: () -> R): R {
+    private fun<R> checkedCompile(sessionId: Int, daemonMessageReporter: DaemonMessageReporter, rpcProfiler: Profiler, body: () -> R): R {
         try {
             val profiler = if (daemonOptions.reportPerf) WallAndThreadAndMemoryTotalProfiler(withGC = false) else DummyProfiler()
+            val lastMemoryEventId = memoryPressureMonitor.lastEventId()
+
+            val res = compilationScheduler.compile(sessionId) {
+                profiler.withMeasure(null, body)
+            }
 
-            val res = profiler.withMeasure(null, body)
+            for (event in memoryPressureMonitor.eventsSince(lastMemoryEventId)) {
+                daemonMessageReporter.report(ReportSeverity.INFO, event)
+            }
 
             val endMem = if (daemonOptions.reportPerf) usedMemory(withGC = false) else 0L
 
@@ -953,6 +1076,27 @@ class CompileServiceImpl(
                     log.info(it)
                 }
 
+                compilationScheduler.memoryUsage(sessionId)?.let { usage ->
+                    "PERF: Session $sessionId: $usage".let {
+                        daemonMessageReporter.report(ReportSeverity.INFO, it)
+                        log.info(it)
+                    }
+                }
+
+                LibraryInlineCache.statistics?.let { statistics ->
+                    "PERF: Library inline cache: $statistics".let {
+                        daemonMessageReporter.report(ReportSeverity.INFO, it)
+                        log.info(it)
+                    }
+                }
+
+                LibraryMetadataCache.statistics?.let { statistics ->
+                    "PERF: Library metadata cache: $statistics".let {
+                        daemonMessageReporter.report(ReportSeverity.INFO, it)
+                        log.info(it)
+                    }
+                }
+
                 // this will only be reported if if appropriate (e.g. ByClass) profiler is used
                 for ((obj, counters) in rpcProfiler.getCounters()) {
                     "PERF: rpc by $obj: ${counters.count} calls, ${counters.time.ms()} ms, thread ${counters.threadTime.ms()} ms".let {
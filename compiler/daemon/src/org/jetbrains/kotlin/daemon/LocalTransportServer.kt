@@ -0,0 +1,193 @@
+/*
+ * Copyright 2000-2018 JetBrains s.r.o. Use of this source code is governed by the Apache 2.0 license
+ * that can be found in the license/LICENSE.txt file.
+ */
+
+package org.jetbrains.kotlin.daemon
+
+import org.jetbrains.kotlin.daemon.common.*
+import org.jetbrains.kotlin.daemon.common.LocalTransportProtocol as Protocol
+import java.io.*
+import java.net.ServerSocket
+import java.net.Socket
+import java.net.SocketException
+import java.rmi.RemoteException
+import java.security.SecureRandom
+import java.util.logging.Level
+import java.util.logging.Logger
+import kotlin.concurrent.thread
+
+/**
+ * Accepts compile requests over a loopback socket, see [LocalTransportProtocol], and passes them to [compileService]
+ * with services facades forwarding reports and calls to the client over the same connection.
+ */
+class LocalTransportServer(private val compileService: CompileService) {
+    private val log by lazy { Logger.getLogger("compiler") }
+
+    private val serverSocket: ServerSocket = LoopbackNetworkInterface.serverLoopbackSocketFactory.createServerSocket(SOCKET_ANY_FREE_PORT)
+
+    val address = LocalTransportAddress(serverSocket.localPort, SecureRandom().nextLong())
+
+    init {
+        thread(isDaemon = true, name = "Local transport acceptor") {
+            while (!serverSocket.isClosed) {
+                val socket = try {
+                    serverSocket.accept()
+                }
+                catch (e: SocketException) {
+                    // closed
+                    break
+                }
+                thread(isDaemon = true, name = "Local transport connection") { serve(socket) }
+            }
+        }
+    }
+
+    fun close() {
+        serverSocket.close()
+    }
+
+    private fun serve(socket: Socket) {
+        try {
+            socket.use {
+                socket.tcpNoDelay = true
+                val connection = Connection(DataInputStream(BufferedInputStream(socket.getInputStream())),
+                                            DataOutputStream(BufferedOutputStream(socket.getOutputStream())))
+
+                // A client which doesn't send its token promptly is not known to the daemon
+                socket.soTimeout = AUTHENTICATION_TIMEOUT_MS
+                if (Protocol.readToken(connection.input) != address.token) {
+                    log.warning("Local transport connection with a wrong token is rejected")
+                    return
+                }
+                socket.soTimeout = 0
+
+                val request = Protocol.readRequest(connection.input, address.token)
+
+                val servicesFacade =
+                        if (request.compilationOptions.compilerMode == CompilerMode.INCREMENTAL_COMPILER)
+                            IncrementalCompilerServicesFacadeClient(connection)
+                        else
+                            CompilerServicesFacadeClient(connection)
+                val compilationResults = if (request.hasCompilationResults) CompilationResultsClient(connection) else null
+
+                val result = try {
+                    compileService.compile(request.sessionId, request.compilerArguments, request.compilationOptions, servicesFacade, compilationResults)
+                }
+                catch (e: Exception) {
+                    CompileService.CallResult.Error(e.toString())
+                }
+                connection.sendResult(result)
+            }
+        }
+        catch (e: IOException) {
+            log.log(Level.WARNING, "Local transport connection failed", e)
+        }
+    }
+
+    private class Connection(val input: DataInputStream, private val output: DataOutputStream) {
+        @Synchronized
+        fun send(frame: Int, write: (DataOutput) -> Unit) {
+            output.writeByte(frame)
+            write(output)
+            output.flush()
+        }
+
+        // Sends a call to the client and waits for its reply
+        @Synchronized
+        fun <T> call(method: Int, writeArguments: (DataOutput) -> Unit = {}, readResult: (DataInput) -> T): T {
+            try {
+                send(Protocol.CALL) {
+                    it.writeByte(method)
+                    writeArguments(it)
+                }
+
+                return when (input.readByte().toInt()) {
+                    Protocol.REPLY -> readResult(input)
+                    Protocol.REPLY_FAILED -> throw RemoteException(Protocol.readString(input))
+                    else -> throw RemoteException("Unexpected reply frame")
+                }
+            }
+            catch (e: IOException) {
+                throw RemoteException("Local transport call failed", e)
+            }
+        }
+
+        fun sendResult(result: CompileService.CallResult<Int>) {
+            when (result) {
+                is CompileService.CallResult.Good -> send(Protocol.CALL_RESULT_GOOD) { it.writeInt(result.get()) }
+                is CompileService.CallResult.Dying -> send(Protocol.CALL_RESULT_DYING) {}
+                is CompileService.CallResult.Error -> send(Protocol.CALL_RESULT_ERROR) { Protocol.writeString(it, result.message) }
+                else -> send(Protocol.CALL_RESULT_ERROR) { Protocol.writeString(it, "Unexpected result: $result") }
+            }
+        }
+    }
+
+    private open class CompilerServicesFacadeClient(protected val connection: Connection) : CompilerServicesFacadeBase {
+        override fun report(category: Int, severity: Int, message: String?, attachment: Serializable?) {
+            try {
+                connection.send(Protocol.REPORT) {
+                    it.writeInt(category)
+                    it.writeInt(severity)
+                    Protocol.writeString(it, message)
+                    Protocol.writeSerializable(it, attachment)
+                }
+            }
+            catch (e: IOException) {
+                throw RemoteException("Local transport report failed", e)
+            }
+        }
+    }
+
+    private class IncrementalCompilerServicesFacadeClient(connection: Connection) :
+            CompilerServicesFacadeClient(connection), IncrementalCompilerServicesFacade
+    {
+        override fun hasAnnotationsFileUpdater(): Boolean =
+                connection.call(Protocol.HAS_ANNOTATIONS_FILE_UPDATER) { it.readBoolean() }
+
+        override fun updateAnnotations(outdatedClassesJvmNames: Iterable<String>) {
+            connection.call(Protocol.UPDATE_ANNOTATIONS, { Protocol.writeStrings(it, outdatedClassesJvmNames.toList()) }) {}
+        }
+
+        override fun revert() {
+            connection.call(Protocol.REVERT) {}
+        }
+
+        override fun registerChanges(timestamp: Long, dirtyData: SimpleDirtyData) {
+            connection.call(Protocol.REGISTER_CHANGES, {
+                it.writeLong(timestamp)
+                Protocol.writeDirtyData(it, dirtyData)
+            }) {}
+        }
+
+        override fun unknownChanges(timestamp: Long) {
+            connection.call(Protocol.UNKNOWN_CHANGES, { it.writeLong(timestamp) }) {}
+        }
+
+        override fun getChanges(artifact: File, sinceTS: Long): Iterable<SimpleDirtyData>? =
+                connection.call(Protocol.GET_CHANGES, {
+                    Protocol.writeString(it, artifact.path)
+                    it.writeLong(sinceTS)
+                }) { input ->
+                    if (input.readBoolean()) Protocol.readDirtyDataList(input) else null
+                }
+    }
+
+    private class CompilationResultsClient(private val connection: Connection) : CompilationResults {
+        override fun add(compilationResultCategory: Int, value: Serializable) {
+            try {
+                connection.send(Protocol.COMPILATION_RESULT) {
+                    it.writeInt(compilationResultCategory)
+                    Protocol.writeSerializable(it, value)
+                }
+            }
+            catch (e: IOException) {
+                throw RemoteException("Local transport compilation result failed", e)
+            }
+        }
+    }
+
+    private companion object {
+        const val AUTHENTICATION_TIMEOUT_MS = 10_000
+    }
+}
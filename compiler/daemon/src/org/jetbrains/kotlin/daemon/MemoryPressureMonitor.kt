@@ -0,0 +1,176 @@
+/*
+ * Copyright 2000-2018 JetBrains s.r.o. Use of this source code is governed by the Apache 2.0 license
+ * that can be found in the license/LICENSE.txt file.
+ */
+
+package org.jetbrains.kotlin.daemon
+
+import java.lang.management.ManagementFactory
+import java.lang.management.MemoryNotificationInfo
+import java.lang.management.MemoryPoolMXBean
+import java.lang.management.MemoryType
+import java.util.*
+import java.util.concurrent.Callable
+import java.util.concurrent.Executors
+import java.util.concurrent.RejectedExecutionException
+import java.util.concurrent.atomic.AtomicBoolean
+import java.util.logging.Level
+import java.util.logging.Logger
+import javax.management.NotificationEmitter
+import javax.management.NotificationListener
+
+/**
+ * Reacts to the heap staying close to its limit after garbage collections, using the collection usage threshold of the tenured pool.
+ * Each time the threshold is exceeded, the next of [evictionSteps] is performed, so that caches which are cheap to rebuild go first.
+ * A step may defer the eviction (e.g. until no compilation is running), the threshold being exceeded meanwhile doesn't
+ * escalate to the next step, since the memory couldn't be freed yet.
+ * If the heap is still above the threshold when all the caches are evicted, the retained heap can't be reduced by the daemon,
+ * and [onCachesExhausted] is called, e.g. to restart the daemon after the current sessions.
+ *
+ * Events are kept to be reported to the clients of compilations running at the time, see [eventsSince].
+ */
+class MemoryPressureMonitor(
+        private val evictionSteps: List<EvictionStep>,
+        private val onCachesExhausted: () -> Unit,
+        private val usageThreshold: Double = DEFAULT_USAGE_THRESHOLD,
+        private val tenuredPool: MemoryPoolMXBean? = findTenuredPool(),
+        private val notificationEmitter: NotificationEmitter = ManagementFactory.getMemoryMXBean() as NotificationEmitter
+) {
+    /**
+     * [evict] calls `onEvicted` when the caches are dropped, which may happen later on another thread
+     */
+    class EvictionStep(val name: String, val evict: (onEvicted: () -> Unit) -> Unit)
+
+    class Event(val id: Long, val message: String)
+
+    private val log by lazy { Logger.getLogger("compiler") }
+
+    // notifications come from a JMX thread, which shouldn't be blocked by evictions
+    private val executor = Executors.newSingleThreadExecutor { Thread(it, "Memory pressure monitor").apply { isDaemon = true } }
+
+    // accessed on the executor thread only
+    private var nextStep = 0
+    private var isEvictionPending = false
+    private var lastEventId = 0L
+    private val events = ArrayDeque<Event>()
+
+    private val listener = NotificationListener { notification, _ ->
+        if (notification.type == MemoryNotificationInfo.MEMORY_COLLECTION_THRESHOLD_EXCEEDED) {
+            executor.execute { onThresholdExceeded() }
+        }
+    }
+
+    fun start() {
+        val pool = tenuredPool ?: return
+        pool.collectionUsageThreshold = (pool.usage.max * usageThreshold).toLong()
+        notificationEmitter.addNotificationListener(listener, null, null)
+        log.info("Memory pressure threshold of ${pool.name}: ${pool.collectionUsageThreshold / (1024 * 1024)}mb")
+    }
+
+    fun stop() {
+        if (tenuredPool == null) return
+        try {
+            notificationEmitter.removeNotificationListener(listener)
+        }
+        catch (e: Exception) {
+            // not registered
+        }
+        executor.shutdown()
+    }
+
+    /**
+     * Starts evicting the caches from the first step again once the heap is below the threshold after a collection
+     */
+    fun checkRecovered() {
+        val pool = tenuredPool ?: return
+        val usedAfterCollection = pool.collectionUsage?.used ?: return
+        executor.execute {
+            if (nextStep > 0 && !isEvictionPending && usedAfterCollection < pool.collectionUsageThreshold) {
+                nextStep = 0
+                addEvent("Memory usage of the daemon is back to normal")
+            }
+        }
+    }
+
+    @Synchronized
+    fun lastEventId(): Long = lastEventId
+
+    // Visible for tests
+    internal fun awaitProcessed() {
+        executor.submit(Callable {}).get()
+    }
+
+    @Synchronized
+    fun eventsSince(eventId: Long): List<String> = events.filter { it.id > eventId }.map { it.message }
+
+    private fun onThresholdExceeded() {
+        val used = tenuredPool?.collectionUsage?.used ?: return
+        val max = tenuredPool.usage.max
+
+        if (isEvictionPending) return // the memory of the current step isn't freed yet
+        if (nextStep > evictionSteps.size) return // restart is already requested
+
+        val step = evictionSteps.getOrNull(nextStep)
+        if (step == null) {
+            nextStep++
+            addEvent("Memory usage of the daemon stays high after evicting all caches (${used.mb()} of ${max.mb()}mb), " +
+                     "it will be restarted when current sessions are finished")
+            onCachesExhausted()
+            return
+        }
+
+        isEvictionPending = true
+        val isFinished = AtomicBoolean()
+        try {
+            step.evict {
+                if (isFinished.compareAndSet(false, true)) {
+                    runOnExecutor {
+                        finishEviction()
+                        addEvent("Memory usage of the daemon is high (${used.mb()} of ${max.mb()}mb), evicted ${step.name}")
+                    }
+                }
+            }
+        }
+        catch (e: Exception) {
+            log.log(Level.WARNING, "Failed to evict ${step.name}", e)
+            if (isFinished.compareAndSet(false, true)) {
+                finishEviction()
+            }
+        }
+    }
+
+    private fun finishEviction() {
+        isEvictionPending = false
+        nextStep++
+    }
+
+    private fun runOnExecutor(action: () -> Unit) {
+        try {
+            executor.execute(action)
+        }
+        catch (e: RejectedExecutionException) {
+            // the monitor is stopped
+        }
+    }
+
+    @Synchronized
+    private fun addEvent(message: String) {
+        log.info(message)
+        events.addLast(Event(++lastEventId, message))
+        while (events.size > MAX_EVENTS) {
+            events.removeFirst()
+        }
+    }
+
+    private fun Long.mb() = this / (1024 * 1024)
+
+    companion object {
+        const val DEFAULT_USAGE_THRESHOLD = 0.85
+        private const val MAX_EVENTS = 32
+
+        private fun findTenuredPool(): MemoryPoolMXBean? =
+                ManagementFactory.getMemoryPoolMXBeans()
+                        .filter { it.type == MemoryType.HEAP && it.isCollectionUsageThresholdSupported && it.usage.max > 0 }
+                        .maxBy { it.usage.max }
+    }
+}
@@ -69,6 +69,27 @@ public class JVMConfigurationKeys {
     public static final CompilerConfigurationKey<Boolean> USE_TYPE_TABLE =
             CompilerConfigurationKey.create("use type table in serializer");
 
+    public static final CompilerConfigurationKey<Integer> PARALLEL_BACKEND_THREADS =
+            CompilerConfigurationKey.create("number of threads used to generate bytecode for independent package parts and facades");
+
+    public static final CompilerConfigurationKey<Integer> PARALLEL_BODY_RESOLUTION_THREADS =
+            CompilerConfigurationKey.create("number of threads used to resolve bodies of functions");
+
+    public static final CompilerConfigurationKey<Integer> PARALLEL_OPTIMIZATION_THREADS =
+            CompilerConfigurationKey.create("number of threads used to optimize bytecode of large methods");
+
+    public static final CompilerConfigurationKey<Integer> PARALLEL_PARSING_THREADS =
+            CompilerConfigurationKey.create("number of threads used to parse source files before analysis");
+
+    public static final CompilerConfigurationKey<Long> LIBRARY_INLINE_CACHE_SIZE =
+            CompilerConfigurationKey.create("size in bytes of the process-wide cache of inline functions from library jars");
+
+    public static final CompilerConfigurationKey<Long> LIBRARY_METADATA_CACHE_SIZE =
+            CompilerConfigurationKey.create("size in bytes of the process-wide cache of parsed metadata of classes from library jars");
+
+    public static final CompilerConfigurationKey<File> JAR_PACKAGE_INDEX_DIRECTORY =
+            CompilerConfigurationKey.create("directory to store package indices of classpath jars in");
+
     public static final CompilerConfigurationKey<Boolean> USE_SINGLE_MODULE =
             CompilerConfigurationKey.create("combine modules for source files and binary dependencies into a single module");
 
@@ -127,6 +148,9 @@ public class JVMConfigurationKeys {
     public static final CompilerConfigurationKey<Boolean> USE_FAST_CLASS_FILES_READING =
             CompilerConfigurationKey.create("use fast class files reading implementation [experimental]");
 
+    public static final CompilerConfigurationKey<Boolean> USE_FAST_JAR_FILE_SYSTEM =
+            CompilerConfigurationKey.create("read classpath jars with the memory-mapped jar file system [experimental]");
+
     public static final CompilerConfigurationKey<Boolean> USE_JAVAC =
             CompilerConfigurationKey.create("use javac [experimental]");
 
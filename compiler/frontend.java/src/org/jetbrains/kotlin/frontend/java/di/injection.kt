@@ -38,6 +38,7 @@ import org.jetbrains.kotlin.load.java.JavaClassesTracker
 import org.jetbrains.kotlin.load.java.components.*
 import org.jetbrains.kotlin.load.java.lazy.ModuleClassResolver
 import org.jetbrains.kotlin.load.kotlin.DeserializationComponentsForJava
+import org.jetbrains.kotlin.load.kotlin.DeserializedMetadataCache
 import org.jetbrains.kotlin.load.kotlin.VirtualFileFinderFactory
 import org.jetbrains.kotlin.platform.JvmBuiltIns
 import org.jetbrains.kotlin.resolve.*
@@ -88,7 +89,9 @@ fun createContainerForLazyResolveWithJava(
         languageVersionSettings: LanguageVersionSettings,
         useBuiltInsProvider: Boolean,
         configureJavaClassFinder: (StorageComponentContainer.() -> Unit)? = null,
-        javaClassTracker: JavaClassesTracker? = null
+        javaClassTracker: JavaClassesTracker? = null,
+        metadataCache: DeserializedMetadataCache? = null,
+        bodyResolveParallelism: BodyResolveParallelism? = null
 ): StorageComponentContainer = createContainer("LazyResolveWithJava", JvmPlatform) {
     configureModule(moduleContext, JvmPlatform, jvmTarget, bindingTrace)
     configureJavaTopDownAnalysis(moduleContentScope, moduleContext.project, lookupTracker, expectActualTracker)
@@ -117,6 +120,14 @@ fun createContainerForLazyResolveWithJava(
 
     useInstance(javaClassTracker ?: JavaClassesTracker.Default)
 
+    if (metadataCache != null) {
+        useInstance(metadataCache)
+    }
+
+    if (bodyResolveParallelism != null) {
+        useInstance(bodyResolveParallelism)
+    }
+
     targetEnvironment.configure(this)
 
     useImpl<ContractDeserializerImpl>()
@@ -137,13 +148,17 @@ fun createContainerForTopDownAnalyzerForJvm(
         jvmTarget: JvmTarget,
         languageVersionSettings: LanguageVersionSettings,
         configureJavaClassFinder: (StorageComponentContainer.() -> Unit)? = null,
-        javaClassTracker: JavaClassesTracker? = null
+        javaClassTracker: JavaClassesTracker? = null,
+        metadataCache: DeserializedMetadataCache? = null,
+        bodyResolveParallelism: BodyResolveParallelism? = null
 ): ComponentProvider = createContainerForLazyResolveWithJava(
         moduleContext, bindingTrace, declarationProviderFactory, moduleContentScope, moduleClassResolver,
         CompilerEnvironment, lookupTracker, expectActualTracker, packagePartProvider, jvmTarget, languageVersionSettings,
         useBuiltInsProvider = true,
         configureJavaClassFinder = configureJavaClassFinder,
-        javaClassTracker = javaClassTracker
+        javaClassTracker = javaClassTracker,
+        metadataCache = metadataCache,
+        bodyResolveParallelism = bodyResolveParallelism
 )
 
 
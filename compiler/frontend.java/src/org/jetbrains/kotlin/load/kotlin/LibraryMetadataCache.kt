@@ -0,0 +1,77 @@
+/*
+ * Copyright 2000-2018 JetBrains s.r.o. Use of this source code is governed by the Apache 2.0 license
+ * that can be found in the license/LICENSE.txt file.
+ */
+
+package org.jetbrains.kotlin.load.kotlin
+
+import com.intellij.openapi.vfs.StandardFileSystems
+import org.jetbrains.kotlin.load.kotlin.header.KotlinClassHeader
+import org.jetbrains.kotlin.serialization.ClassData
+import org.jetbrains.kotlin.serialization.PackageData
+import org.jetbrains.kotlin.utils.JarContentHashes
+import org.jetbrains.kotlin.utils.WeightedLruCache
+
+// Metadata of classes from library jars, shared between all compilations in the process (e.g. between sessions of the compile daemon),
+// so that the metadata of the same libraries is not parsed again on each build. Descriptors are still created by each compilation
+// with its own storage manager, only the parsed protos and name resolvers are shared.
+// Entries are keyed by the content hash of the containing jar, which makes them valid for any compilation with the same jar.
+class LibraryMetadataCache private constructor(maxSizeInBytes: Long) : DeserializedMetadataCache {
+    private data class LibraryClassId(val jarHash: String, val entryPath: String, val kind: KotlinClassHeader.Kind)
+
+    private val metadata = WeightedLruCache<LibraryClassId, Any>(maxSizeInBytes, ::estimateSize)
+
+    val statistics: WeightedLruCache.Statistics
+        get() = metadata.statistics
+
+    override fun getOrParseClassData(kotlinClass: KotlinJvmBinaryClass, parse: () -> ClassData): ClassData =
+            getOrParse(kotlinClass, parse) as ClassData
+
+    override fun getOrParsePackageData(kotlinClass: KotlinJvmBinaryClass, parse: () -> PackageData): PackageData =
+            getOrParse(kotlinClass, parse) as PackageData
+
+    private fun getOrParse(kotlinClass: KotlinJvmBinaryClass, parse: () -> Any): Any {
+        val file = (kotlinClass as? VirtualFileKotlinClass)?.file ?: return parse()
+        if (file.fileSystem.protocol != StandardFileSystems.JAR_PROTOCOL) return parse()
+        val jarHash = JarContentHashes.ofJarEntry(file.path) ?: return parse()
+
+        val key = LibraryClassId(jarHash, file.path.substringAfter(JAR_SEPARATOR), kotlinClass.classHeader.kind)
+        return metadata.getOrPut(key, parse)
+    }
+
+    // A rough estimation of the retained size of parsed metadata by the size of its serialized form
+    private fun estimateSize(data: Any): Long {
+        val (nameResolver, protoSize) = when (data) {
+            is ClassData -> data.nameResolver to data.classProto.serializedSize
+            is PackageData -> data.nameResolver to data.packageProto.serializedSize
+            else -> return 0
+        }
+        val strings = (nameResolver as? JvmNameResolver)?.strings?.sumBy { 48 + 2 * it.length } ?: 0
+        return 256L + protoSize * 8L + strings
+    }
+
+    companion object {
+        private const val JAR_SEPARATOR = "!/"
+
+        @Volatile private var instance: LibraryMetadataCache? = null
+
+        @JvmStatic
+        val statistics: WeightedLruCache.Statistics?
+            get() = instance?.statistics
+
+        @JvmStatic
+        fun clear() {
+            instance?.metadata?.clear()
+        }
+
+        @JvmStatic
+        @Synchronized
+        fun getInstance(maxSizeInBytes: Long): LibraryMetadataCache {
+            instance?.let {
+                it.metadata.resize(maxSizeInBytes)
+                return it
+            }
+            return LibraryMetadataCache(maxSizeInBytes).also { instance = it }
+        }
+    }
+}
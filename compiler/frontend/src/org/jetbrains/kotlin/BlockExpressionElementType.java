@@ -0,0 +1,63 @@
+/*
+ * Copyright 2000-2018 JetBrains s.r.o. Use of this source code is governed by the Apache 2.0 license
+ * that can be found in the license/LICENSE.txt file.
+ */
+
+package org.jetbrains.kotlin;
+
+import com.intellij.lang.ASTNode;
+import com.intellij.lang.Language;
+import com.intellij.lang.PsiBuilder;
+import com.intellij.lang.PsiBuilderFactory;
+import com.intellij.openapi.project.Project;
+import com.intellij.psi.tree.ICompositeElementType;
+import com.intellij.psi.tree.IElementType;
+import com.intellij.psi.tree.IErrorCounterReparseableElementType;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.jetbrains.kotlin.idea.KotlinLanguage;
+import org.jetbrains.kotlin.parsing.KotlinParser;
+import org.jetbrains.kotlin.psi.KtBlockExpression;
+
+// Blocks which are bodies of declarations are lazy (see KotlinParsing.parseBlock), other blocks are parsed along with their parents
+class BlockExpressionElementType extends IErrorCounterReparseableElementType implements ICompositeElementType {
+    public BlockExpressionElementType() {
+        super("BLOCK", KotlinLanguage.INSTANCE);
+    }
+
+    @Override
+    public ASTNode parseContents(ASTNode chameleon) {
+        Project project = chameleon.getPsi().getProject();
+        PsiBuilder builder = PsiBuilderFactory.getInstance().createBuilder(
+                project, chameleon, null, KotlinLanguage.INSTANCE, chameleon.getChars());
+        return KotlinParser.parseBlockExpression(builder).getFirstChildNode();
+    }
+
+    @Override
+    public ASTNode createNode(CharSequence text) {
+        return new KtBlockExpression(text);
+    }
+
+    @NotNull
+    @Override
+    public ASTNode createCompositeNode() {
+        return new KtBlockExpression(null);
+    }
+
+    @Override
+    public boolean isParsable(@Nullable ASTNode parent, CharSequence buffer, Language fileLanguage, Project project) {
+        // Blocks elsewhere (e.g. bodies of control structures) may turn into lambdas after a change
+        return parent != null && isDeclarationWithBody(parent.getElementType()) &&
+               super.isParsable(parent, buffer, fileLanguage, project);
+    }
+
+    @Override
+    public int getErrorsCount(CharSequence seq, Language fileLanguage, Project project) {
+        return ElementTypeUtils.getKotlinBlockImbalanceCount(seq);
+    }
+
+    private static boolean isDeclarationWithBody(IElementType type) {
+        return type == KtNodeTypes.FUN || type == KtNodeTypes.PROPERTY_ACCESSOR ||
+               type == KtNodeTypes.SECONDARY_CONSTRUCTOR || type == KtNodeTypes.CLASS_INITIALIZER;
+    }
+}
@@ -0,0 +1,45 @@
+/*
+ * Copyright 2000-2018 JetBrains s.r.o. Use of this source code is governed by the Apache 2.0 license
+ * that can be found in the license/LICENSE.txt file.
+ */
+
+package org.jetbrains.kotlin;
+
+import com.intellij.psi.tree.IElementType;
+import com.intellij.psi.tree.IErrorCounterReparseableElementType;
+import org.jetbrains.kotlin.lexer.KotlinLexer;
+import org.jetbrains.kotlin.lexer.KtTokens;
+
+final class ElementTypeUtils {
+    private ElementTypeUtils() {
+    }
+
+    // Number of not closed braces in a text which should be a block in braces,
+    // or FATAL_ERROR if the text doesn't start with a brace or lexing of anything after the block would be affected by it
+    static int getKotlinBlockImbalanceCount(CharSequence seq) {
+        KotlinLexer lexer = new KotlinLexer();
+
+        lexer.start(seq);
+        if (lexer.getTokenType() != KtTokens.LBRACE) return IErrorCounterReparseableElementType.FATAL_ERROR;
+        lexer.advance();
+        int balance = 1;
+        while (true) {
+            IElementType type = lexer.getTokenType();
+            if (type == null) break;
+            if (balance == 0) {
+                return IErrorCounterReparseableElementType.FATAL_ERROR;
+            }
+            if (type == KtTokens.LBRACE) {
+                balance++;
+            }
+            else if (type == KtTokens.RBRACE) {
+                balance--;
+            }
+            lexer.advance();
+        }
+        if (balance == 0 && !lexer.isAtRestartPoint()) {
+            return IErrorCounterReparseableElementType.FATAL_ERROR;
+        }
+        return balance;
+    }
+}
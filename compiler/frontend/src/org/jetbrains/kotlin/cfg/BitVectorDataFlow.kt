@@ -0,0 +1,533 @@
+/*
+ * Copyright 2000-2018 JetBrains s.r.o. Use of this source code is governed by the Apache 2.0 license
+ * that can be found in the license/LICENSE.txt file.
+ */
+
+package org.jetbrains.kotlin.cfg
+
+import org.jetbrains.kotlin.cfg.pseudocode.Pseudocode
+import org.jetbrains.kotlin.cfg.pseudocode.PseudocodeUtil
+import org.jetbrains.kotlin.cfg.pseudocode.instructions.BlockScope
+import org.jetbrains.kotlin.cfg.pseudocode.instructions.Instruction
+import org.jetbrains.kotlin.cfg.pseudocode.instructions.eval.MagicInstruction
+import org.jetbrains.kotlin.cfg.pseudocode.instructions.eval.MagicKind
+import org.jetbrains.kotlin.cfg.pseudocode.instructions.eval.ReadValueInstruction
+import org.jetbrains.kotlin.cfg.pseudocode.instructions.eval.WriteValueInstruction
+import org.jetbrains.kotlin.cfg.pseudocode.instructions.special.InlinedLocalFunctionDeclarationInstruction
+import org.jetbrains.kotlin.cfg.pseudocode.instructions.special.LocalFunctionDeclarationInstruction
+import org.jetbrains.kotlin.cfg.pseudocode.instructions.special.VariableDeclarationInstruction
+import org.jetbrains.kotlin.cfg.pseudocodeTraverser.*
+import org.jetbrains.kotlin.descriptors.VariableDescriptor
+import org.jetbrains.kotlin.psi.KtProperty
+import org.jetbrains.kotlin.resolve.BindingContext
+
+/**
+ * Dense numbering of the variables analyzed by a [BitVectorDataFlow].
+ * A state of all the variables is a [LongArray] of [planeCount] bit planes, each plane has a bit per variable.
+ * States are never changed after they are created, and bits of the variables which are not in a state are always zero,
+ * so that equal states have equal contents.
+ */
+internal class VariableBitSets(variables: Collection<VariableDescriptor>, private val planeCount: Int) {
+    val variables: List<VariableDescriptor> = variables.toList()
+
+    private val indices = HashMap<VariableDescriptor, Int>(this.variables.size).apply {
+        this@VariableBitSets.variables.forEachIndexed { index, variable -> put(variable, index) }
+    }
+
+    val words = (this.variables.size + 63) ushr 6
+
+    val emptyState = LongArray(planeCount * words)
+
+    fun indexOf(variable: VariableDescriptor): Int = indices[variable] ?: -1
+
+    fun offset(plane: Int) = plane * words
+
+    fun isSet(state: LongArray, plane: Int, index: Int): Boolean =
+        state[offset(plane) + (index ushr 6)] and (1L shl index) != 0L
+
+    fun set(state: LongArray, plane: Int, index: Int, value: Boolean) {
+        val word = offset(plane) + (index ushr 6)
+        state[word] = if (value) state[word] or (1L shl index) else state[word] and (1L shl index).inv()
+    }
+
+    fun mask(predicate: (VariableDescriptor) -> Boolean): LongArray {
+        val mask = LongArray(words)
+        variables.forEachIndexed { index, variable ->
+            if (predicate(variable)) {
+                mask[index ushr 6] = mask[index ushr 6] or (1L shl index)
+            }
+        }
+        return mask
+    }
+
+    fun retain(state: LongArray, mask: LongArray): LongArray {
+        var result = state
+        for (i in state.indices) {
+            val word = state[i] and mask[i % words]
+            if (word != state[i]) {
+                if (result === state) result = state.copyOf()
+                result[i] = word
+            }
+        }
+        return result
+    }
+}
+
+/**
+ * Analysis of variables which is run by [BitVectorDataFlow] in [traversalOrder]
+ */
+internal abstract class BitVectorAnalysis(val bits: VariableBitSets) {
+    abstract val traversalOrder: TraversalOrder
+
+    /**
+     * Called once for each analyzed instruction before the analysis, e.g. to find the variable it uses
+     */
+    abstract fun prepare(index: Int, instruction: Instruction)
+
+    /**
+     * Merges states of two or more incoming edges of an instruction
+     */
+    abstract fun merge(index: Int, incoming: List<LongArray>): LongArray
+
+    /**
+     * Returns the state after an instruction, the given state is returned as is if the instruction doesn't affect variables
+     */
+    abstract fun transfer(index: Int, enter: LongArray): LongArray
+}
+
+/**
+ * Runs an analysis of variables over pseudocode with dense states, see [VariableBitSets].
+ *
+ * Instructions are numbered and their predecessors (including ones in enclosing pseudocode for local declarations) are resolved
+ * to numbers once, so the fixpoint iteration only merges and compares bit vectors. Instructions are visited in the same order
+ * as by a traversal of pseudocode, and an instruction is only recomputed when the state of some of its predecessors is changed.
+ * Variables declared in an inner block are dropped by edges leaving the block.
+ */
+internal class BitVectorDataFlow(
+    private val pseudocode: Pseudocode,
+    private val analysis: BitVectorAnalysis,
+    private val blockScopeVariableInfo: BlockScopeVariableInfo
+) {
+    private class Step(
+        val index: Int,
+        val previous: IntArray,
+        // masks of variables in scope after an edge from the corresponding previous instruction, null if all variables are kept
+        val previousMasks: Array<LongArray?>,
+        val isLocalDeclaration: Boolean
+    )
+
+    private val traversalOrder = analysis.traversalOrder
+    private val bits = analysis.bits
+
+    private val instructions = ArrayList<Instruction>()
+    private val instructionIndices = HashMap<Instruction, Int>()
+    private val steps = ArrayList<Step>()
+    private val masksByDepth = HashMap<Int, LongArray>()
+
+    fun analyze(): Map<Instruction, Edges<LongArray>> {
+        val start = indexOf(pseudocode.getStartInstruction(traversalOrder))
+        collectSteps(pseudocode, emptyList(), isLocal = false)
+        for ((index, instruction) in instructions.withIndex()) {
+            analysis.prepare(index, instruction)
+        }
+
+        val incoming = arrayOfNulls<LongArray>(instructions.size)
+        val outgoing = arrayOfNulls<LongArray>(instructions.size)
+        val changed = ByteArray(instructions.size) { UNKNOWN }
+        incoming[start] = bits.emptyState
+        outgoing[start] = bits.emptyState
+
+        val incomingStates = ArrayList<LongArray>()
+        do {
+            var anyChanged = false
+            for (step in steps) {
+                val index = step.index
+                val newIncoming: LongArray?
+                val newOutgoing: LongArray?
+
+                if (step.isLocalDeclaration) {
+                    // flow through a local declaration is the flow out of its body
+                    val last = step.previous[0]
+                    newIncoming = incoming[last]?.let { filter(it, step.previousMasks[0]) }
+                    newOutgoing = outgoing[last]?.let { filter(it, step.previousMasks[0]) }
+                } else {
+                    if (incoming[index] != null && step.previous.all { changed[it] == UNCHANGED }) {
+                        changed[index] = UNCHANGED
+                        continue
+                    }
+
+                    incomingStates.clear()
+                    for ((i, previous) in step.previous.withIndex()) {
+                        val state = outgoing[previous] ?: continue
+                        incomingStates.add(filter(state, step.previousMasks[i]))
+                    }
+                    newIncoming = when (incomingStates.size) {
+                        0 -> bits.emptyState
+                        1 -> incomingStates[0]
+                        else -> analysis.merge(index, incomingStates)
+                    }
+                    newOutgoing = analysis.transfer(index, newIncoming)
+                }
+
+                if (newIncoming != null && newOutgoing != null &&
+                    !(incoming[index]?.contentEquals(newIncoming) == true && outgoing[index]?.contentEquals(newOutgoing) == true)) {
+                    incoming[index] = newIncoming
+                    outgoing[index] = newOutgoing
+                    changed[index] = CHANGED
+                    anyChanged = true
+                } else {
+                    changed[index] = UNCHANGED
+                }
+            }
+        } while (anyChanged)
+
+        val result = LinkedHashMap<Instruction, Edges<LongArray>>()
+        for ((index, instruction) in instructions.withIndex()) {
+            val enter = incoming[index] ?: continue
+            result.put(instruction, Edges(enter, outgoing[index]!!))
+        }
+        return result
+    }
+
+    private fun collectSteps(pseudocode: Pseudocode, previousSubGraphInstructions: List<Instruction>, isLocal: Boolean) {
+        val startInstruction = pseudocode.getStartInstruction(traversalOrder)
+
+        for (instruction in pseudocode.getInstructions(traversalOrder)) {
+            if (!isLocal && instruction.isStartInstruction(traversalOrder)) continue
+
+            var previousInstructions = instruction.getPreviousInstructions(traversalOrder)
+            if (instruction == startInstruction && previousSubGraphInstructions.isNotEmpty()) {
+                previousInstructions = previousInstructions + previousSubGraphInstructions
+            }
+
+            if (instruction is LocalFunctionDeclarationInstruction) {
+                val subroutinePseudocode = instruction.body
+                collectSteps(subroutinePseudocode, previousInstructions.toList(), isLocal = true)
+                // Special case for inlined functions: take flow from EXIT instructions (it contains flow which exits declaration normally)
+                val lastInstruction = if (instruction is InlinedLocalFunctionDeclarationInstruction && traversalOrder == TraversalOrder.FORWARD)
+                    subroutinePseudocode.exitInstruction
+                else
+                    subroutinePseudocode.getLastInstruction(traversalOrder)
+                steps.add(Step(indexOf(instruction), intArrayOf(indexOf(lastInstruction)), arrayOf(maskForEdge(lastInstruction, instruction)), true))
+                continue
+            }
+
+            steps.add(Step(
+                indexOf(instruction),
+                previousInstructions.map { indexOf(it) }.toIntArray(),
+                previousInstructions.map { maskForEdge(it, instruction) }.toTypedArray(),
+                false
+            ))
+        }
+    }
+
+    private fun indexOf(instruction: Instruction): Int = instructionIndices.getOrPut(instruction) {
+        instructions.add(instruction)
+        instructions.size - 1
+    }
+
+    private fun maskForEdge(from: Instruction, to: Instruction): LongArray? {
+        // If an edge goes from deeper scope to a less deep one, this means that it points outside of the deeper scope.
+        val toDepth = to.blockScope.depth
+        if (toDepth >= from.blockScope.depth) return null
+
+        // Variables declared in an inner (deeper) scope can't be accessed from an outer scope.
+        // Thus they can be filtered out upon leaving the inner scope.
+        return masksByDepth.getOrPut(toDepth) {
+            bits.mask { variable ->
+                // '-1' for variables declared outside this pseudocode
+                val depth = blockScopeVariableInfo.declaredIn[variable]?.depth ?: -1
+                depth <= toDepth
+            }
+        }
+    }
+
+    private fun filter(state: LongArray, mask: LongArray?) = if (mask == null) state else bits.retain(state, mask)
+
+    companion object {
+        private const val UNKNOWN: Byte = 0
+        private const val UNCHANGED: Byte = 1
+        private const val CHANGED: Byte = 2
+    }
+}
+
+/**
+ * Initialization of variables, see [InitState]: a variable is in a state if [PRESENT] is set,
+ * [MAY_BE_INITIALIZED] and [MAY_BE_NOT_INITIALIZED] encode INITIALIZED_EXHAUSTIVELY (none), INITIALIZED, NOT_INITIALIZED and UNKNOWN (both),
+ * so that merging of init states is a union of the bits.
+ */
+internal class InitializationAnalysis(
+    variables: Collection<VariableDescriptor>,
+    private val bindingContext: BindingContext,
+    private val blockScopeVariableInfo: BlockScopeVariableInfo
+) : BitVectorAnalysis(VariableBitSets(variables, PLANES)) {
+    override val traversalOrder get() = TraversalOrder.FORWARD
+
+    private sealed class Effect {
+        object ExhaustiveWhenElse : Effect()
+        class Write(val variable: Int, val isDeclaration: Boolean) : Effect()
+        class Declaration(val variable: Int, val isInitializedByDefault: Boolean) : Effect()
+    }
+
+    private val instructions = ArrayList<Instruction>()
+    private val effects = ArrayList<Effect?>()
+    private val initializedByDefault = HashMap<BlockScope?, LongArray>()
+
+    override fun prepare(index: Int, instruction: Instruction) {
+        instructions.add(instruction)
+        effects.add(computeEffect(instruction))
+    }
+
+    private fun computeEffect(instruction: Instruction): Effect? {
+        if (instruction is MagicInstruction && instruction.kind === MagicKind.EXHAUSTIVE_WHEN_ELSE) {
+            return Effect.ExhaustiveWhenElse
+        }
+        if (instruction !is WriteValueInstruction && instruction !is VariableDeclarationInstruction) {
+            return null
+        }
+        val variable = PseudocodeUtil.extractVariableDescriptorIfAny(instruction, bindingContext) ?: return null
+        val index = bits.indexOf(variable).takeIf { it >= 0 } ?: return null
+
+        if (instruction is WriteValueInstruction) {
+            // if writing to already initialized object
+            if (!PseudocodeUtil.isThisOrNoDispatchReceiver(instruction, bindingContext)) return null
+            return Effect.Write(index, instruction.element is KtProperty)
+        }
+        val defaultState = PseudocodeVariablesData.getDefaultValueForInitializers(variable, instruction, blockScopeVariableInfo)
+        return Effect.Declaration(index, defaultState.definitelyInitialized())
+    }
+
+    override fun merge(index: Int, incoming: List<LongArray>): LongArray {
+        val byDefault = initializedByDefault(instructions[index])
+        val result = LongArray(bits.emptyState.size)
+        for (w in 0 until bits.words) {
+            var present = 0L
+            var declared = -1L
+            var mayBeInitialized = 0L
+            var mayBeNotInitialized = 0L
+            for (state in incoming) {
+                val presentHere = state[bits.offset(PRESENT) + w]
+                // values of absent variables are the default ones, which are not declared
+                present = present or presentHere
+                declared = declared and state[bits.offset(DECLARED) + w]
+                mayBeInitialized = mayBeInitialized or state[bits.offset(MAY_BE_INITIALIZED) + w] or (presentHere.inv() and byDefault[w])
+                mayBeNotInitialized = mayBeNotInitialized or state[bits.offset(MAY_BE_NOT_INITIALIZED) + w] or
+                        (presentHere.inv() and byDefault[w].inv())
+            }
+            result[bits.offset(PRESENT) + w] = present
+            result[bits.offset(DECLARED) + w] = declared and present
+            result[bits.offset(MAY_BE_INITIALIZED) + w] = mayBeInitialized and present
+            result[bits.offset(MAY_BE_NOT_INITIALIZED) + w] = mayBeNotInitialized and present
+        }
+        return result
+    }
+
+    private fun initializedByDefault(instruction: Instruction): LongArray {
+        val declarationScope = instruction.blockScope.blockScopeForContainingDeclaration
+        return initializedByDefault.getOrPut(declarationScope) {
+            bits.mask { variable ->
+                val declaredIn = blockScopeVariableInfo.declaredIn[variable]
+                //declared outside this pseudocode or this declaration
+                declaredIn == null || declaredIn.blockScopeForContainingDeclaration != declarationScope
+            }
+        }
+    }
+
+    override fun transfer(index: Int, enter: LongArray): LongArray {
+        val effect = effects[index] ?: return enter
+        return when (effect) {
+            Effect.ExhaustiveWhenElse -> {
+                // everything which is not definitely initialized is initialized exhaustively
+                val result = enter.copyOf()
+                for (w in 0 until bits.words) {
+                    result[bits.offset(MAY_BE_INITIALIZED) + w] =
+                            enter[bits.offset(MAY_BE_INITIALIZED) + w] and enter[bits.offset(MAY_BE_NOT_INITIALIZED) + w].inv()
+                    result[bits.offset(MAY_BE_NOT_INITIALIZED) + w] = 0L
+                }
+                if (result.contentEquals(enter)) enter else result
+            }
+            is Effect.Write -> {
+                val variable = effect.variable
+                val isDeclared = effect.isDeclaration ||
+                                 bits.isSet(enter, PRESENT, variable) && bits.isSet(enter, DECLARED, variable)
+                update(enter, variable, isDeclared, mayBeInitialized = true, mayBeNotInitialized = false)
+            }
+            is Effect.Declaration -> {
+                val variable = effect.variable
+                if (bits.isSet(enter, PRESENT, variable)) {
+                    val mayBeInitialized = bits.isSet(enter, MAY_BE_INITIALIZED, variable)
+                    val mayBeNotInitialized = bits.isSet(enter, MAY_BE_NOT_INITIALIZED, variable)
+                    val isNotInitialized = !mayBeInitialized && mayBeNotInitialized
+                    if (isNotInitialized || !bits.isSet(enter, DECLARED, variable)) {
+                        update(enter, variable, true, mayBeInitialized, mayBeNotInitialized)
+                    }
+                    else enter
+                }
+                else {
+                    update(enter, variable, true, effect.isInitializedByDefault, !effect.isInitializedByDefault)
+                }
+            }
+        }
+    }
+
+    private fun update(
+        state: LongArray, variable: Int, isDeclared: Boolean, mayBeInitialized: Boolean, mayBeNotInitialized: Boolean
+    ): LongArray {
+        if (bits.isSet(state, PRESENT, variable) && bits.isSet(state, DECLARED, variable) == isDeclared &&
+            bits.isSet(state, MAY_BE_INITIALIZED, variable) == mayBeInitialized &&
+            bits.isSet(state, MAY_BE_NOT_INITIALIZED, variable) == mayBeNotInitialized) {
+            return state
+        }
+        val result = state.copyOf()
+        bits.set(result, PRESENT, variable, true)
+        bits.set(result, DECLARED, variable, isDeclared)
+        bits.set(result, MAY_BE_INITIALIZED, variable, mayBeInitialized)
+        bits.set(result, MAY_BE_NOT_INITIALIZED, variable, mayBeNotInitialized)
+        return result
+    }
+
+    fun info(state: LongArray): ReadOnlyInitControlFlowInfo = InitInfo(bits, state)
+
+    private class InitInfo(private val bits: VariableBitSets, private val state: LongArray) : ReadOnlyInitControlFlowInfo {
+        override fun getOrNull(variableDescriptor: VariableDescriptor): VariableControlFlowState? {
+            val index = bits.indexOf(variableDescriptor)
+            return if (index >= 0) stateOf(index) else null
+        }
+
+        private fun stateOf(index: Int): VariableControlFlowState? {
+            if (!bits.isSet(state, PRESENT, index)) return null
+            val mayBeInitialized = bits.isSet(state, MAY_BE_INITIALIZED, index)
+            val mayBeNotInitialized = bits.isSet(state, MAY_BE_NOT_INITIALIZED, index)
+            val initState = when {
+                mayBeInitialized && mayBeNotInitialized -> InitState.UNKNOWN
+                mayBeInitialized -> InitState.INITIALIZED
+                mayBeNotInitialized -> InitState.NOT_INITIALIZED
+                else -> InitState.INITIALIZED_EXHAUSTIVELY
+            }
+            return VariableControlFlowState.create(initState, bits.isSet(state, DECLARED, index))
+        }
+
+        // this = output of EXHAUSTIVE_WHEN_ELSE instruction
+        // merge = input of MergeInstruction
+        // returns true if definite initialization in when happens here
+        override fun checkDefiniteInitializationInWhen(merge: ReadOnlyInitControlFlowInfo): Boolean {
+            for ((index, variable) in bits.variables.withIndex()) {
+                if (stateOf(index)?.initState == InitState.INITIALIZED_EXHAUSTIVELY &&
+                    merge.getOrNull(variable)?.initState == InitState.INITIALIZED) {
+                    return true
+                }
+            }
+            return false
+        }
+
+        override fun asMap(): ImmutableMap<VariableDescriptor, VariableControlFlowState> =
+            bits.variables.withIndex().fold(ImmutableHashMap.empty<VariableDescriptor, VariableControlFlowState>()) { map, (index, variable) ->
+                stateOf(index)?.let { map.put(variable, it) } ?: map
+            }
+
+        override fun equals(other: Any?) = other is InitInfo && bits === other.bits && state.contentEquals(other.state)
+
+        override fun hashCode() = state.contentHashCode()
+
+        override fun toString() = asMap().toString()
+    }
+
+    private companion object {
+        const val PRESENT = 0
+        const val DECLARED = 1
+        const val MAY_BE_INITIALIZED = 2
+        const val MAY_BE_NOT_INITIALIZED = 3
+        const val PLANES = 4
+    }
+}
+
+/**
+ * Usage of variables, see [VariableUseState]: the states are ordered by their priority, and each plane is set for the states
+ * starting from some priority, so that merging of use states (taking the one with the highest priority) is a union of the bits.
+ */
+internal class UsageAnalysis(
+    variables: Collection<VariableDescriptor>,
+    private val bindingContext: BindingContext
+) : BitVectorAnalysis(VariableBitSets(variables, PLANES)) {
+    override val traversalOrder get() = TraversalOrder.BACKWARD
+
+    // variable read (positive) or written (negative) by an instruction, shifted by one, zero if none
+    private val effects = ArrayList<Int>()
+
+    override fun prepare(index: Int, instruction: Instruction) {
+        val variable = PseudocodeUtil.extractVariableDescriptorFromReference(instruction, bindingContext)
+        val variableIndex = variable?.let { bits.indexOf(it) } ?: -1
+        effects.add(
+            when {
+                variableIndex < 0 -> 0
+                instruction is ReadValueInstruction -> variableIndex + 1
+                instruction is WriteValueInstruction -> -(variableIndex + 1)
+                else -> 0
+            }
+        )
+    }
+
+    override fun merge(index: Int, incoming: List<LongArray>): LongArray {
+        val result = LongArray(bits.emptyState.size)
+        for (state in incoming) {
+            for (i in result.indices) {
+                result[i] = result[i] or state[i]
+            }
+        }
+        return result
+    }
+
+    override fun transfer(index: Int, enter: LongArray): LongArray {
+        val effect = effects[index]
+        if (effect == 0) return enter
+
+        val result = enter.copyOf()
+        if (effect > 0) {
+            val variable = effect - 1
+            bits.set(result, WRITTEN, variable, true)
+            bits.set(result, WRITTEN_AFTER_READ, variable, true)
+            bits.set(result, READ, variable, true)
+        }
+        else {
+            // UNUSED and ONLY_WRITTEN_NEVER_READ become ONLY_WRITTEN_NEVER_READ, READ and WRITTEN_AFTER_READ become WRITTEN_AFTER_READ
+            val variable = -effect - 1
+            bits.set(result, WRITTEN, variable, true)
+            bits.set(result, READ, variable, false)
+        }
+        return if (result.contentEquals(enter)) enter else result
+    }
+
+    fun info(state: LongArray): ReadOnlyUseControlFlowInfo = UseInfo(bits, state)
+
+    private class UseInfo(private val bits: VariableBitSets, private val state: LongArray) : ReadOnlyUseControlFlowInfo {
+        override fun getOrNull(variableDescriptor: VariableDescriptor): VariableUseState? {
+            val index = bits.indexOf(variableDescriptor)
+            return if (index >= 0) stateOf(index) else null
+        }
+
+        private fun stateOf(index: Int): VariableUseState? = when {
+            bits.isSet(state, READ, index) -> VariableUseState.READ
+            bits.isSet(state, WRITTEN_AFTER_READ, index) -> VariableUseState.WRITTEN_AFTER_READ
+            bits.isSet(state, WRITTEN, index) -> VariableUseState.ONLY_WRITTEN_NEVER_READ
+            else -> null
+        }
+
+        override fun asMap(): ImmutableMap<VariableDescriptor, VariableUseState> =
+            bits.variables.withIndex().fold(ImmutableHashMap.empty<VariableDescriptor, VariableUseState>()) { map, (index, variable) ->
+                stateOf(index)?.let { map.put(variable, it) } ?: map
+            }
+
+        override fun equals(other: Any?) = other is UseInfo && bits === other.bits && state.contentEquals(other.state)
+
+        override fun hashCode() = state.contentHashCode()
+
+        override fun toString() = asMap().toString()
+    }
+
+    private companion object {
+        const val WRITTEN = 0
+        const val WRITTEN_AFTER_READ = 1
+        const val READ = 2
+        const val PLANES = 3
+    }
+}
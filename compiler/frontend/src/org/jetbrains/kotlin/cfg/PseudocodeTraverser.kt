@@ -16,10 +16,8 @@
 
 package org.jetbrains.kotlin.cfg.pseudocodeTraverser
 
-import org.jetbrains.kotlin.cfg.ControlFlowInfo
 import org.jetbrains.kotlin.cfg.pseudocode.Pseudocode
 import org.jetbrains.kotlin.cfg.pseudocode.instructions.Instruction
-import org.jetbrains.kotlin.cfg.pseudocode.instructions.special.InlinedLocalFunctionDeclarationInstruction
 import org.jetbrains.kotlin.cfg.pseudocode.instructions.special.LocalFunctionDeclarationInstruction
 import org.jetbrains.kotlin.cfg.pseudocode.instructions.special.SubroutineEnterInstruction
 import org.jetbrains.kotlin.cfg.pseudocode.instructions.special.SubroutineSinkInstruction
@@ -56,119 +54,6 @@ fun <D> Pseudocode.traverse(
     }
 }
 
-fun <I : ControlFlowInfo<*, *>> Pseudocode.collectData(
-    traversalOrder: TraversalOrder,
-    mergeEdges: (Instruction, Collection<I>) -> Edges<I>,
-    updateEdge: (Instruction, Instruction, I) -> I,
-    initialInfo: I
-): Map<Instruction, Edges<I>> {
-    val edgesMap = LinkedHashMap<Instruction, Edges<I>>()
-    edgesMap.put(getStartInstruction(traversalOrder), Edges(initialInfo, initialInfo))
-
-    val changed = mutableMapOf<Instruction, Boolean>()
-    do {
-        collectDataFromSubgraph(
-            traversalOrder, edgesMap,
-            mergeEdges, updateEdge, Collections.emptyList<Instruction>(), changed, false
-        )
-    } while (changed.any { it.value })
-
-    return edgesMap
-}
-
-private fun <I : ControlFlowInfo<*, *>> Pseudocode.collectDataFromSubgraph(
-    traversalOrder: TraversalOrder,
-    edgesMap: MutableMap<Instruction, Edges<I>>,
-    mergeEdges: (Instruction, Collection<I>) -> Edges<I>,
-    updateEdge: (Instruction, Instruction, I) -> I,
-    previousSubGraphInstructions: Collection<Instruction>,
-    changed: MutableMap<Instruction, Boolean>,
-    isLocal: Boolean
-) {
-    val instructions = getInstructions(traversalOrder)
-    val startInstruction = getStartInstruction(traversalOrder)
-
-    for (instruction in instructions) {
-        val isStart = instruction.isStartInstruction(traversalOrder)
-        if (!isLocal && isStart)
-            continue
-
-        val previousInstructions =
-            getPreviousIncludingSubGraphInstructions(instruction, traversalOrder, startInstruction, previousSubGraphInstructions)
-
-        if (instruction is LocalFunctionDeclarationInstruction) {
-            val subroutinePseudocode = instruction.body
-            subroutinePseudocode.collectDataFromSubgraph(
-                traversalOrder, edgesMap, mergeEdges, updateEdge, previousInstructions, changed, true
-            )
-            // Special case for inlined functions: take flow from EXIT instructions (it contains flow which exits declaration normally)
-            val lastInstruction = if (instruction is InlinedLocalFunctionDeclarationInstruction && traversalOrder == FORWARD)
-                subroutinePseudocode.exitInstruction
-            else
-                subroutinePseudocode.getLastInstruction(traversalOrder)
-            val previousValue = edgesMap[instruction]
-            val newValue = edgesMap[lastInstruction]
-            val updatedValue = newValue?.let {
-                Edges(updateEdge(lastInstruction, instruction, it.incoming), updateEdge(lastInstruction, instruction, it.outgoing))
-            }
-            updateEdgeDataForInstruction(instruction, previousValue, updatedValue, edgesMap, changed)
-            continue
-        }
-
-
-        val previousDataValue = edgesMap[instruction]
-        if (previousDataValue != null && previousInstructions.all { changed[it] == false }) {
-            changed[instruction] = false
-            continue
-        }
-
-        val incomingEdgesData = HashSet<I>()
-
-        for (previousInstruction in previousInstructions) {
-            val previousData = edgesMap[previousInstruction]
-            if (previousData != null) {
-                incomingEdgesData.add(
-                    updateEdge(
-                        previousInstruction, instruction, previousData.outgoing
-                    )
-                )
-            }
-        }
-        val mergedData = mergeEdges(instruction, incomingEdgesData)
-        updateEdgeDataForInstruction(instruction, previousDataValue, mergedData, edgesMap, changed)
-    }
-}
-
-private fun getPreviousIncludingSubGraphInstructions(
-    instruction: Instruction,
-    traversalOrder: TraversalOrder,
-    startInstruction: Instruction,
-    previousSubGraphInstructions: Collection<Instruction>
-): Collection<Instruction> {
-    val previous = instruction.getPreviousInstructions(traversalOrder)
-    if (instruction != startInstruction || previousSubGraphInstructions.isEmpty()) {
-        return previous
-    }
-    val result = ArrayList(previous)
-    result.addAll(previousSubGraphInstructions)
-    return result
-}
-
-private fun <I : ControlFlowInfo<*, *>> updateEdgeDataForInstruction(
-    instruction: Instruction,
-    previousValue: Edges<I>?,
-    newValue: Edges<I>?,
-    edgesMap: MutableMap<Instruction, Edges<I>>,
-    changed: MutableMap<Instruction, Boolean>
-) {
-    if (previousValue != newValue && newValue != null) {
-        changed[instruction] = true
-        edgesMap.put(instruction, newValue)
-    } else {
-        changed[instruction] = false
-    }
-}
-
 data class Edges<out T>(val incoming: T, val outgoing: T)
 
 enum class TraverseInstructionResult {
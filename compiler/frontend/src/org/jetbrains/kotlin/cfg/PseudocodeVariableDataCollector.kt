@@ -20,9 +20,7 @@ import org.jetbrains.kotlin.cfg.pseudocode.Pseudocode
 import org.jetbrains.kotlin.cfg.pseudocode.instructions.BlockScope
 import org.jetbrains.kotlin.cfg.pseudocode.instructions.Instruction
 import org.jetbrains.kotlin.cfg.pseudocode.instructions.special.VariableDeclarationInstruction
-import org.jetbrains.kotlin.cfg.pseudocodeTraverser.Edges
 import org.jetbrains.kotlin.cfg.pseudocodeTraverser.TraversalOrder
-import org.jetbrains.kotlin.cfg.pseudocodeTraverser.collectData
 import org.jetbrains.kotlin.cfg.pseudocodeTraverser.traverse
 import org.jetbrains.kotlin.descriptors.VariableDescriptor
 import org.jetbrains.kotlin.resolve.BindingContext
@@ -34,39 +32,6 @@ class PseudocodeVariableDataCollector(
 ) {
     val blockScopeVariableInfo = computeBlockScopeVariableInfo(pseudocode)
 
-    fun <I : ControlFlowInfo<*, *>> collectData(
-        traversalOrder: TraversalOrder,
-        initialInfo: I,
-        instructionDataMergeStrategy: (Instruction, Collection<I>) -> Edges<I>
-    ): Map<Instruction, Edges<I>> {
-        return pseudocode.collectData(
-            traversalOrder,
-            instructionDataMergeStrategy,
-            { from, to, info -> filterOutVariablesOutOfScope(from, to, info) },
-            initialInfo
-        )
-    }
-
-    private fun <I : ControlFlowInfo<*, *>> filterOutVariablesOutOfScope(
-        from: Instruction,
-        to: Instruction,
-        info: I
-    ): I {
-        // If an edge goes from deeper scope to a less deep one, this means that it points outside of the deeper scope.
-        val toDepth = to.blockScope.depth
-        if (toDepth >= from.blockScope.depth) return info
-
-        // Variables declared in an inner (deeper) scope can't be accessed from an outer scope.
-        // Thus they can be filtered out upon leaving the inner scope.
-        @Suppress("UNCHECKED_CAST")
-        return info.retainAll { variable ->
-            val blockScope = blockScopeVariableInfo.declaredIn[variable]
-            // '-1' for variables declared outside this pseudocode
-            val depth = blockScope?.depth ?: -1
-            depth <= toDepth
-        } as I
-    }
-
     private fun computeBlockScopeVariableInfo(pseudocode: Pseudocode): BlockScopeVariableInfo {
         val blockScopeVariableInfo = BlockScopeVariableInfoImpl()
         pseudocode.traverse(TraversalOrder.FORWARD, { instruction ->
@@ -19,8 +19,6 @@ package org.jetbrains.kotlin.cfg
 import org.jetbrains.kotlin.cfg.pseudocode.Pseudocode
 import org.jetbrains.kotlin.cfg.pseudocode.PseudocodeUtil
 import org.jetbrains.kotlin.cfg.pseudocode.instructions.Instruction
-import org.jetbrains.kotlin.cfg.pseudocode.instructions.eval.MagicInstruction
-import org.jetbrains.kotlin.cfg.pseudocode.instructions.eval.MagicKind
 import org.jetbrains.kotlin.cfg.pseudocode.instructions.eval.ReadValueInstruction
 import org.jetbrains.kotlin.cfg.pseudocode.instructions.eval.WriteValueInstruction
 import org.jetbrains.kotlin.cfg.pseudocode.instructions.special.VariableDeclarationInstruction
@@ -147,19 +145,14 @@ class PseudocodeVariablesData(val pseudocode: Pseudocode, private val bindingCon
 
         if (rootVariables.nonTrivialVariables.isEmpty()) return resultForValsWithTrivialInitializer
 
-        return pseudocodeVariableDataCollector.collectData(
-            TraversalOrder.FORWARD,
-            InitControlFlowInfo()
-        ) { instruction: Instruction, incomingEdgesData: Collection<InitControlFlowInfo> ->
-
-            val enterInstructionData = mergeIncomingEdgesDataForInitializers(instruction, incomingEdgesData, blockScopeVariableInfo)
-            val exitInstructionData = addVariableInitStateFromCurrentInstructionIfAny(
-                instruction, enterInstructionData, blockScopeVariableInfo
-            )
-            Edges(enterInstructionData, exitInstructionData)
-        }.mapValues { (instruction, edges) ->
+        val analysis = InitializationAnalysis(rootVariables.nonTrivialVariables, bindingContext, blockScopeVariableInfo)
+        return BitVectorDataFlow(pseudocode, analysis, blockScopeVariableInfo).analyze()
+            .mapValues { (instruction, edges) ->
                 val trivialEdges = resultForValsWithTrivialInitializer[instruction]!!
-                Edges(trivialEdges.incoming.replaceDelegate(edges.incoming), trivialEdges.outgoing.replaceDelegate(edges.outgoing))
+                Edges(
+                    trivialEdges.incoming.replaceDelegate(analysis.info(edges.incoming)),
+                    trivialEdges.outgoing.replaceDelegate(analysis.info(edges.outgoing))
+                )
             }
     }
 
@@ -242,51 +235,6 @@ class PseudocodeVariablesData(val pseudocode: Pseudocode, private val bindingCon
         }
     }
 
-    private fun addVariableInitStateFromCurrentInstructionIfAny(
-        instruction: Instruction,
-        enterInstructionData: InitControlFlowInfo,
-        blockScopeVariableInfo: BlockScopeVariableInfo
-    ): InitControlFlowInfo {
-        if (instruction is MagicInstruction) {
-            if (instruction.kind === MagicKind.EXHAUSTIVE_WHEN_ELSE) {
-                return enterInstructionData.iterator().fold(enterInstructionData) { result, (key, value) ->
-                    if (!value.definitelyInitialized()) {
-                        result.put(key, VariableControlFlowState.createInitializedExhaustively(value.isDeclared))
-                    } else result
-                }
-            }
-        }
-        if (instruction !is WriteValueInstruction && instruction !is VariableDeclarationInstruction) {
-            return enterInstructionData
-        }
-        val variable =
-            PseudocodeUtil.extractVariableDescriptorIfAny(instruction, bindingContext)
-                ?.takeIf { it in rootVariables.nonTrivialVariables }
-                    ?: return enterInstructionData
-        var exitInstructionData = enterInstructionData
-        if (instruction is WriteValueInstruction) {
-            // if writing to already initialized object
-            if (!PseudocodeUtil.isThisOrNoDispatchReceiver(instruction, bindingContext)) {
-                return enterInstructionData
-            }
-
-            val enterInitState = enterInstructionData.getOrNull(variable)
-            val initializationAtThisElement = VariableControlFlowState.create(instruction.element is KtProperty, enterInitState)
-            exitInstructionData = exitInstructionData.put(variable, initializationAtThisElement, enterInitState)
-        } else {
-            // instruction instanceof VariableDeclarationInstruction
-            val enterInitState =
-                enterInstructionData.getOrNull(variable)
-                        ?: getDefaultValueForInitializers(variable, instruction, blockScopeVariableInfo)
-
-            if (!enterInitState.mayBeInitialized() || !enterInitState.isDeclared) {
-                val variableDeclarationInfo = VariableControlFlowState.create(enterInitState.initState, isDeclared = true)
-                exitInstructionData = exitInstructionData.put(variable, variableDeclarationInfo, enterInitState)
-            }
-        }
-        return exitInstructionData
-    }
-
     // variable use
 
     val variableUseStatusData: Map<Instruction, Edges<ReadOnlyUseControlFlowInfo>>
@@ -300,49 +248,12 @@ class PseudocodeVariablesData(val pseudocode: Pseudocode, private val bindingCon
                 }
             }
 
-            return pseudocodeVariableDataCollector.collectData(
-                TraversalOrder.BACKWARD,
-                UseControlFlowInfo()
-            ) { instruction: Instruction, incomingEdgesData: Collection<UseControlFlowInfo> ->
-
-                val enterResult: UseControlFlowInfo = if (incomingEdgesData.size == 1) {
-                    incomingEdgesData.single()
-                } else {
-                    incomingEdgesData.fold(UseControlFlowInfo()) { result, edgeData ->
-                        edgeData.iterator().fold(result) { subResult, (variableDescriptor, variableUseState) ->
-                            subResult.put(variableDescriptor, variableUseState.merge(subResult.getOrNull(variableDescriptor)))
-                        }
-                    }
-                }
-
-                val variableDescriptor =
-                    PseudocodeUtil.extractVariableDescriptorFromReference(instruction, bindingContext)
-                        ?.takeIf { it in rootVariables.nonTrivialVariables }
-                if (variableDescriptor == null || instruction !is ReadValueInstruction && instruction !is WriteValueInstruction) {
-                    Edges(enterResult, enterResult)
-                } else {
-                    val exitResult =
-                        if (instruction is ReadValueInstruction) {
-                            enterResult.put(variableDescriptor, VariableUseState.READ)
-                        } else {
-                            var variableUseState: VariableUseState? = enterResult.getOrNull(variableDescriptor)
-                            if (variableUseState == null) {
-                                variableUseState = VariableUseState.UNUSED
-                            }
-                            when (variableUseState) {
-                                VariableUseState.UNUSED, VariableUseState.ONLY_WRITTEN_NEVER_READ ->
-                                    enterResult.put(variableDescriptor, VariableUseState.ONLY_WRITTEN_NEVER_READ)
-                                VariableUseState.WRITTEN_AFTER_READ, VariableUseState.READ ->
-                                    enterResult.put(variableDescriptor, VariableUseState.WRITTEN_AFTER_READ)
-                            }
-                        }
-                    Edges(enterResult, exitResult)
-                }
-            }.mapValues { (_, edges) ->
-
+            val analysis = UsageAnalysis(rootVariables.nonTrivialVariables, bindingContext)
+            return BitVectorDataFlow(pseudocode, analysis, pseudocodeVariableDataCollector.blockScopeVariableInfo).analyze()
+                .mapValues { (_, edges) ->
                     Edges(
-                        edgesForTrivialVals.incoming.replaceDelegate(edges.incoming),
-                        edgesForTrivialVals.outgoing.replaceDelegate(edges.outgoing)
+                        edgesForTrivialVals.incoming.replaceDelegate(analysis.info(edges.incoming)),
+                        edgesForTrivialVals.outgoing.replaceDelegate(analysis.info(edges.outgoing))
                     )
                 }
         }
@@ -423,37 +334,5 @@ class PseudocodeVariablesData(val pseudocode: Pseudocode, private val bindingCon
                         || declaredIn.blockScopeForContainingDeclaration != instruction.blockScope.blockScopeForContainingDeclaration
             return VariableControlFlowState.create(isInitialized = declaredOutsideThisDeclaration)
         }
-
-        private val EMPTY_INIT_CONTROL_FLOW_INFO = InitControlFlowInfo()
-
-        private fun mergeIncomingEdgesDataForInitializers(
-            instruction: Instruction,
-            incomingEdgesData: Collection<InitControlFlowInfo>,
-            blockScopeVariableInfo: BlockScopeVariableInfo
-        ): InitControlFlowInfo {
-            if (incomingEdgesData.size == 1) return incomingEdgesData.single()
-            if (incomingEdgesData.isEmpty()) return EMPTY_INIT_CONTROL_FLOW_INFO
-            val variablesInScope = linkedSetOf<VariableDescriptor>()
-            for (edgeData in incomingEdgesData) {
-                variablesInScope.addAll(edgeData.keySet())
-            }
-
-            return variablesInScope.fold(EMPTY_INIT_CONTROL_FLOW_INFO) { result, variable ->
-                var initState: InitState? = null
-                var isDeclared = true
-                for (edgeData in incomingEdgesData) {
-                    val varControlFlowState = edgeData.getOrNull(variable)
-                            ?: getDefaultValueForInitializers(variable, instruction, blockScopeVariableInfo)
-                    initState = initState?.merge(varControlFlowState.initState) ?: varControlFlowState.initState
-                    if (!varControlFlowState.isDeclared) {
-                        isDeclared = false
-                    }
-                }
-                if (initState == null) {
-                    throw AssertionError("An empty set of incoming edges data")
-                }
-                result.put(variable, VariableControlFlowState.create(initState, isDeclared))
-            }
-        }
     }
 }
@@ -37,6 +37,10 @@ object CommonConfigurationKeys {
 
     @JvmField
     val EXPECT_ACTUAL_TRACKER = CompilerConfigurationKey.create<ExpectActualTracker>("expect actual tracker")
+
+    @JvmField
+    val USE_STRIPED_LOCK_STORAGE_MANAGER =
+        CompilerConfigurationKey.create<Boolean>("guard lazy values by striped locks instead of a single lock [experimental]")
 }
 
 var CompilerConfiguration.languageVersionSettings: LanguageVersionSettings
@@ -17,6 +17,7 @@
 package org.jetbrains.kotlin.lexer;
 
 import com.intellij.lexer.FlexAdapter;
+import org.jetbrains.annotations.NotNull;
 
 import java.io.Reader;
 
@@ -24,4 +25,23 @@ public class KotlinLexer extends FlexAdapter {
     public KotlinLexer() {
         super(new _JetLexer((Reader) null));
     }
+
+    @Override
+    public void start(@NotNull CharSequence buffer, int startOffset, int endOffset, int initialState) {
+        // states of templates and comments left open by the previous run are not valid for the new one
+        getKotlinFlex().clearStates();
+        super.start(buffer, startOffset, endOffset, initialState);
+    }
+
+    /**
+     * Whether lexing of the text after the token returned by {@link #getTokenType()} (or after the end of the text) may be started anew
+     * from the initial state, e.g. to reparse a part of a file: the int lexer state doesn't reflect nested string templates and comments
+     */
+    public boolean isAtRestartPoint() {
+        return getKotlinFlex().isAtRestartPoint();
+    }
+
+    private _JetLexer getKotlinFlex() {
+        return (_JetLexer) getFlex();
+    }
 }
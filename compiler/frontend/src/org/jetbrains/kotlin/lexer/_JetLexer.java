@@ -665,6 +665,19 @@ class _JetLexer implements FlexLexer {
         yybegin(state.state);
     }
 
+    /**
+     * Lexing may be restarted from the initial state only where no string template or comment is open:
+     * their states are kept in the stack which is not a part of the int state passed to {@link #reset}
+     */
+    boolean isAtRestartPoint() {
+        return states.isEmpty() && yystate() == YYINITIAL;
+    }
+
+    void clearStates() {
+        states.clear();
+        lBraceCount = 0;
+    }
+
     private IElementType commentStateToTokenType(int state) {
         switch (state) {
             case BLOCK_COMMENT:
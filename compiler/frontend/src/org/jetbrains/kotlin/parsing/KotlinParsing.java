@@ -158,6 +158,19 @@ public class KotlinParsing extends AbstractKotlinParsing {
         marker.done(BLOCK_CODE_FRAGMENT);
     }
 
+    // Contents of a lazy block, see parseBlock
+    void parseBlockExpression() {
+        PsiBuilder.Marker block = mark();
+
+        parseBlockContents();
+
+        // Error recovery of the parser stops at braces, so it closes the block at the brace counted in advanceBalancedBlock,
+        // and the block gets the same tree as if it was parsed along with the file. Anything left would be reported here
+        checkForUnexpectedSymbols();
+
+        block.done(BLOCK);
+    }
+
     void parseLambdaExpression() {
         myExpressionParsing.parseFunctionLiteral(/* preferBlock = */ false, /* collapse = */false);
     }
@@ -1116,7 +1129,7 @@ public class KotlinParsing extends AbstractKotlinParsing {
         else if (at(INIT_KEYWORD)) {
             advance(); // init
             if (at(LBRACE)) {
-                parseBlock();
+                parseBlock(/* collapse = */ true);
             }
             else {
                 mark().error("Expecting '{' after 'init'");
@@ -1193,7 +1206,7 @@ public class KotlinParsing extends AbstractKotlinParsing {
         }
 
         if (at(LBRACE)) {
-            parseBlock();
+            parseBlock(/* collapse = */ true);
         }
     }
 
@@ -1691,7 +1704,7 @@ public class KotlinParsing extends AbstractKotlinParsing {
      */
     private void parseFunctionBody() {
         if (at(LBRACE)) {
-            parseBlock();
+            parseBlock(/* collapse = */ true);
         }
         else if (at(EQ)) {
             advance(); // EQ
@@ -1709,8 +1722,32 @@ public class KotlinParsing extends AbstractKotlinParsing {
      *   ;
      */
     void parseBlock() {
+        parseBlock(/* collapse = */ false);
+    }
+
+    /*
+     * Collapsed blocks are lazy: their contents are parsed on the first access, and a changed block is reparsed alone
+     * (see BlockExpressionElementType). A block which is not closed is parsed right away, as it takes the rest of the file.
+     */
+    private void parseBlock(boolean collapse) {
         PsiBuilder.Marker block = mark();
 
+        if (collapse && at(LBRACE)) {
+            advance(); // LBRACE
+            if (advanceBalancedBlock()) {
+                block.collapse(BLOCK);
+                return;
+            }
+            block.rollbackTo();
+            block = mark();
+        }
+
+        parseBlockContents();
+
+        block.done(BLOCK);
+    }
+
+    private void parseBlockContents() {
         myBuilder.enableNewlines();
         expect(LBRACE, "Expecting '{' to open a block");
 
@@ -1718,8 +1755,25 @@ public class KotlinParsing extends AbstractKotlinParsing {
 
         expect(RBRACE, "Expecting '}'");
         myBuilder.restoreNewlinesState();
+    }
 
-        block.done(BLOCK);
+    private boolean advanceBalancedBlock() {
+        int braceCount = 1;
+        while (!eof()) {
+            if (_at(LBRACE)) {
+                braceCount++;
+            }
+            else if (_at(RBRACE)) {
+                braceCount--;
+            }
+
+            advance();
+
+            if (braceCount == 0) {
+                return true;
+            }
+        }
+        return false;
     }
 
     /*
@@ -17,20 +17,27 @@
 package org.jetbrains.kotlin.psi;
 
 import com.intellij.lang.ASTNode;
+import com.intellij.lang.Language;
 import com.intellij.openapi.util.TextRange;
-import com.intellij.psi.PsiElement;
-import com.intellij.psi.PsiModifiableCodeBlock;
+import com.intellij.psi.*;
+import com.intellij.psi.impl.source.resolve.reference.ReferenceProvidersRegistry;
+import com.intellij.psi.impl.source.tree.LazyParseablePsiElement;
+import com.intellij.util.IncorrectOperationException;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 import org.jetbrains.annotations.ReadOnly;
+import org.jetbrains.kotlin.KtNodeTypes;
+import org.jetbrains.kotlin.idea.KotlinLanguage;
 import org.jetbrains.kotlin.lexer.KtTokens;
+import org.jetbrains.kotlin.psi.psiUtil.KtPsiUtilKt;
 
 import java.util.Arrays;
 import java.util.List;
 
-public class KtBlockExpression extends KtExpressionImpl implements KtStatementExpression, PsiModifiableCodeBlock {
-    public KtBlockExpression(@NotNull ASTNode node) {
-        super(node);
+public class KtBlockExpression extends LazyParseablePsiElement implements KtExpression, KtStatementExpression, PsiModifiableCodeBlock {
+    // Text of a block which is parsed on demand, or null for a block which is built with its children
+    public KtBlockExpression(@Nullable CharSequence text) {
+        super(KtNodeTypes.BLOCK, text);
     }
 
     @Override
@@ -39,11 +46,81 @@ public class KtBlockExpression extends KtExpressionImpl implements KtStatementEx
         return false;
     }
 
+    @NotNull
+    @Override
+    public Language getLanguage() {
+        return KotlinLanguage.INSTANCE;
+    }
+
+    @Override
+    public String toString() {
+        return getNode().getElementType().toString();
+    }
+
+    @Override
+    public final void accept(@NotNull PsiElementVisitor visitor) {
+        if (visitor instanceof KtVisitor) {
+            accept((KtVisitor) visitor, null);
+        }
+        else {
+            visitor.visitElement(this);
+        }
+    }
+
     @Override
     public <R, D> R accept(@NotNull KtVisitor<R, D> visitor, D data) {
         return visitor.visitBlockExpression(this, data);
     }
 
+    @Override
+    public <D> void acceptChildren(@NotNull KtVisitor<Void, D> visitor, D data) {
+        KtPsiUtil.visitChildren(this, visitor, data);
+    }
+
+    @NotNull
+    @Override
+    public KtFile getContainingKtFile() {
+        PsiFile file = getContainingFile();
+        assert file instanceof KtFile : "KtElement not inside KtFile: " + file + (file == null ? "" : " " + file.getText());
+        return (KtFile) file;
+    }
+
+    @NotNull
+    @Override
+    public KtElement getPsiOrParent() {
+        return this;
+    }
+
+    @Override
+    public PsiElement getParent() {
+        PsiElement substitute = KtPsiUtilKt.getParentSubstitute(this);
+        return substitute != null ? substitute : super.getParent();
+    }
+
+    @Override
+    public void delete() throws IncorrectOperationException {
+        KtElementUtilsKt.deleteSemicolon(this);
+        super.delete();
+    }
+
+    @Override
+    public PsiElement replace(@NotNull PsiElement newElement) throws IncorrectOperationException {
+        return KtExpressionImpl.Companion.replaceExpression(this, newElement, super::replace);
+    }
+
+    @Override
+    public PsiReference getReference() {
+        PsiReference[] references = getReferences();
+        if (references.length == 1) return references[0];
+        else return null;
+    }
+
+    @NotNull
+    @Override
+    public PsiReference[] getReferences() {
+        return ReferenceProvidersRegistry.getReferencesFromProviders(this, PsiReferenceService.Hints.NO_HINTS);
+    }
+
     @ReadOnly
     @NotNull
     public List<KtExpression> getStatements() {
@@ -58,11 +135,13 @@ public class KtBlockExpression extends KtExpressionImpl implements KtStatementEx
 
     @Nullable
     public PsiElement getRBrace() {
-        return findChildByType(KtTokens.RBRACE);
+        ASTNode node = findChildByType(KtTokens.RBRACE);
+        return node != null ? node.getPsi() : null;
     }
 
     @Nullable
     public PsiElement getLBrace() {
-        return findChildByType(KtTokens.LBRACE);
+        ASTNode node = findChildByType(KtTokens.LBRACE);
+        return node != null ? node.getPsi() : null;
     }
 }
@@ -836,11 +836,12 @@ class KtPsiFactory @JvmOverloads constructor(private val project: Project, val m
         }
         val function = createFunction("fun f() { ${expression.text} }")
         val block = function.bodyExpression as KtBlockExpression
-        return BlockWrapper(block, expression)
+        // the wrapper takes place of the block, so that it is inside of the fake function
+        return BlockWrapper(block.text, expression).also { block.rawReplaceWithList(it) }
     }
 
-    private class BlockWrapper(fakeBlockExpression: KtBlockExpression, private val expression: KtExpression) :
-        KtBlockExpression(fakeBlockExpression.node), KtPsiUtil.KtExpressionWrapper {
+    private class BlockWrapper(text: CharSequence, private val expression: KtExpression) :
+        KtBlockExpression(text), KtPsiUtil.KtExpressionWrapper {
         override fun getStatements(): List<KtExpression> {
             return listOf(expression)
         }
@@ -29,6 +29,7 @@ import org.jetbrains.kotlin.types.expressions.KotlinTypeInfo;
 import org.jetbrains.kotlin.types.expressions.typeInfoFactory.TypeInfoFactoryKt;
 import org.jetbrains.kotlin.util.slicedMap.*;
 
+import java.util.Arrays;
 import java.util.Collection;
 
 public class BindingTraceContext implements BindingTrace {
@@ -36,6 +37,37 @@ public class BindingTraceContext implements BindingTrace {
     /* package */ final static boolean TRACK_REWRITES = false;
     /* package */ final static boolean TRACK_WITH_STACK_TRACES = true;
 
+    // Store the most frequently used slices in identity-keyed columns, see ColumnarSlicedMap
+    /* package */ final static boolean USE_COLUMNAR_SLICED_MAP = Boolean.getBoolean("kotlin.binding.context.columnar");
+
+    private static class ColumnarLayoutHolder {
+        private static final ColumnarSlicedMap.Layout LAYOUT = new ColumnarSlicedMap.Layout(Arrays.asList(
+                BindingContext.EXPRESSION_TYPE_INFO,
+                BindingContext.DATA_FLOW_INFO_BEFORE,
+                BindingContext.EXPECTED_EXPRESSION_TYPE,
+                BindingContext.REFERENCE_TARGET,
+                BindingContext.RESOLVED_CALL,
+                BindingContext.CALL,
+                BindingContext.QUALIFIER,
+                BindingContext.SMARTCAST,
+                BindingContext.LEXICAL_SCOPE,
+                BindingContext.PROCESSED,
+                BindingContext.USED_AS_EXPRESSION
+        ));
+    }
+
+    @NotNull
+    /* package */ static MutableSlicedMap createSlicedMap(boolean allowSliceRewrite) {
+        //noinspection ConstantConditions
+        if (TRACK_REWRITES && !allowSliceRewrite) {
+            return new TrackingSlicedMap(TRACK_WITH_STACK_TRACES);
+        }
+        if (USE_COLUMNAR_SLICED_MAP) {
+            return new ColumnarSlicedMap(allowSliceRewrite, ColumnarLayoutHolder.LAYOUT);
+        }
+        return new SlicedMapImpl(allowSliceRewrite);
+    }
+
     private final MutableSlicedMap map;
     @Nullable private final MutableDiagnosticsWithSuppression mutableDiagnostics;
     @NotNull private final BindingTraceFilter filter;
@@ -87,8 +119,7 @@ public class BindingTraceContext implements BindingTrace {
     }
 
     public BindingTraceContext(BindingTraceFilter filter, boolean allowSliceRewrite) {
-        //noinspection ConstantConditions
-        this(TRACK_REWRITES && !allowSliceRewrite ? new TrackingSlicedMap(TRACK_WITH_STACK_TRACES) : new SlicedMapImpl(allowSliceRewrite), filter);
+        this(createSlicedMap(allowSliceRewrite), filter);
     }
 
 
@@ -0,0 +1,79 @@
+/*
+ * Copyright 2000-2018 JetBrains s.r.o. Use of this source code is governed by the Apache 2.0 license
+ * that can be found in the license/LICENSE.txt file.
+ */
+
+package org.jetbrains.kotlin.resolve
+
+import org.jetbrains.kotlin.container.DefaultImplementation
+import java.util.concurrent.*
+import java.util.concurrent.atomic.AtomicInteger
+
+/**
+ * Number of threads [BodyResolver] resolves bodies of functions on.
+ *
+ * Bodies are resolved concurrently only if the module is analyzed with a storage manager which allows concurrent lazy resolution
+ * (see StripedLockStorageManager) and the binding trace of the container is safe for concurrent access, e.g. created by
+ * [org.jetbrains.kotlin.storage.LazyResolveStorageManager.createSafeTrace].
+ */
+@DefaultImplementation(BodyResolveParallelism.Sequential::class)
+abstract class BodyResolveParallelism {
+    abstract val threadCount: Int
+
+    object Sequential : BodyResolveParallelism() {
+        override val threadCount: Int get() = 1
+
+        override fun <T> runAll(tasks: List<() -> T>): List<T> = tasks.map { it() }
+    }
+
+    /**
+     * An instance is created for one analysis and owns a pool of [threadCount] threads, which is created on the first use and
+     * shut down by [shutdown]. The threads are daemons and stop when idle, so a pool which isn't shut down doesn't keep the process alive
+     */
+    class Threads(override val threadCount: Int) : BodyResolveParallelism() {
+        private val lazyExecutor = lazy {
+            ThreadPoolExecutor(
+                    threadCount, threadCount, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS, LinkedBlockingQueue<Runnable>(), BodyResolveThreadFactory()
+            ).apply { allowCoreThreadTimeOut(true) }
+        }
+
+        override fun <T> runAll(tasks: List<() -> T>): List<T> {
+            if (tasks.size <= 1) return tasks.map { it() }
+
+            val futures = tasks.map { task -> lazyExecutor.value.submit(Callable { task() }) }
+            return futures.map { future ->
+                try {
+                    future.get()
+                }
+                catch (e: ExecutionException) {
+                    throw e.cause ?: e
+                }
+            }
+        }
+
+        fun shutdown() {
+            if (lazyExecutor.isInitialized()) {
+                lazyExecutor.value.shutdownNow()
+            }
+        }
+    }
+
+    val isParallel: Boolean
+        get() = threadCount > 1
+
+    /**
+     * Runs the tasks on the threads of this instance and returns their results in the order of the tasks
+     */
+    abstract fun <T> runAll(tasks: List<() -> T>): List<T>
+
+    private class BodyResolveThreadFactory : ThreadFactory {
+        private val threadNumber = AtomicInteger()
+
+        override fun newThread(runnable: Runnable): Thread =
+                Thread(runnable, "Body resolution ${threadNumber.incrementAndGet()}").apply { isDaemon = true }
+    }
+
+    private companion object {
+        const val KEEP_ALIVE_SECONDS = 1L
+    }
+}
@@ -23,6 +23,7 @@ import com.intellij.psi.PsiElement;
 import com.intellij.util.containers.Queue;
 import kotlin.Unit;
 import kotlin.collections.CollectionsKt;
+import kotlin.jvm.functions.Function0;
 import kotlin.jvm.functions.Function1;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
@@ -75,6 +76,7 @@ public class BodyResolver {
     @NotNull private final KotlinBuiltIns builtIns;
     @NotNull private final OverloadChecker overloadChecker;
     @NotNull private final LanguageVersionSettings languageVersionSettings;
+    @NotNull private final BodyResolveParallelism bodyResolveParallelism;
 
     public BodyResolver(
             @NotNull Project project,
@@ -91,7 +93,8 @@ public class BodyResolver {
             @NotNull AnnotationChecker annotationChecker,
             @NotNull KotlinBuiltIns builtIns,
             @NotNull OverloadChecker overloadChecker,
-            @NotNull LanguageVersionSettings languageVersionSettings
+            @NotNull LanguageVersionSettings languageVersionSettings,
+            @NotNull BodyResolveParallelism bodyResolveParallelism
     ) {
         this.project = project;
         this.annotationResolver = annotationResolver;
@@ -108,6 +111,7 @@ public class BodyResolver {
         this.valueParameterResolver = valueParameterResolver;
         this.builtIns = builtIns;
         this.languageVersionSettings = languageVersionSettings;
+        this.bodyResolveParallelism = bodyResolveParallelism;
     }
 
     private void resolveBehaviorDeclarationBodies(@NotNull BodiesResolveContext c) {
@@ -848,6 +852,12 @@ public class BodyResolver {
     }
 
     private void resolveFunctionBodies(@NotNull BodiesResolveContext c) {
+        if (bodyResolveParallelism.isParallel() && !c.getTopDownAnalysisMode().isLocalDeclarations() &&
+            (bodyResolveCache instanceof BodyResolveCache.ThrowException || expressionTypingServices.getStatementFilter() == StatementFilter.NONE)) {
+            resolveFunctionBodiesInParallel(c);
+            return;
+        }
+
         for (Map.Entry<KtNamedFunction, SimpleFunctionDescriptor> entry : c.getFunctions().entrySet()) {
             KtNamedFunction declaration = entry.getKey();
 
@@ -864,6 +874,30 @@ public class BodyResolver {
         }
     }
 
+    // Each body is resolved into its own buffer, buffers are merged in the order of declarations to keep diagnostics stable
+    private void resolveFunctionBodiesInParallel(@NotNull BodiesResolveContext c) {
+        List<Function0<DelegatingBindingTrace>> tasks = new ArrayList<>(c.getFunctions().size());
+        for (Map.Entry<KtNamedFunction, SimpleFunctionDescriptor> entry : c.getFunctions().entrySet()) {
+            KtNamedFunction declaration = entry.getKey();
+            SimpleFunctionDescriptor descriptor = entry.getValue();
+
+            LexicalScope scope = c.getDeclaringScope(declaration);
+            assert scope != null : "Scope is null: " + PsiUtilsKt.getElementTextWithContext(declaration);
+
+            tasks.add(() -> {
+                DelegatingBindingTrace buffer = new DelegatingBindingTrace(
+                        trace.getBindingContext(), "Parallel body resolution of", declaration,
+                        BindingTraceFilter.Companion.getACCEPT_ALL(), false);
+                resolveFunctionBody(c.getOuterDataFlowInfo(), buffer, declaration, descriptor, scope);
+                return buffer;
+            });
+        }
+
+        for (DelegatingBindingTrace buffer : bodyResolveParallelism.runAll(tasks)) {
+            buffer.addOwnDataTo(trace);
+        }
+    }
+
     public void resolveFunctionBody(
             @NotNull DataFlowInfo outerDataFlowInfo,
             @NotNull BindingTrace trace,
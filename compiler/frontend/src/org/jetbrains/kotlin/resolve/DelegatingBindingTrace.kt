@@ -34,10 +34,7 @@ open class DelegatingBindingTrace(
     allowSliceRewrite: Boolean = false
 ) : BindingTrace {
 
-    private val map = if (BindingTraceContext.TRACK_REWRITES && !allowSliceRewrite)
-        TrackingSlicedMap(BindingTraceContext.TRACK_WITH_STACK_TRACES)
-    else
-        SlicedMapImpl(allowSliceRewrite)
+    private val map = BindingTraceContext.createSlicedMap(allowSliceRewrite)
 
     private val mutableDiagnostics: MutableDiagnosticsWithSuppression?
 
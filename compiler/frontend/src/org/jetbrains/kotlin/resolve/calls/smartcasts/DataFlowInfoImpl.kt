@@ -19,6 +19,10 @@ package org.jetbrains.kotlin.resolve.calls.smartcasts
 import com.google.common.collect.LinkedHashMultimap
 import com.google.common.collect.SetMultimap
 import org.jetbrains.kotlin.builtins.KotlinBuiltIns
+import org.jetbrains.kotlin.cfg.ImmutableHashMap
+import org.jetbrains.kotlin.cfg.ImmutableMap
+import org.jetbrains.kotlin.cfg.component1
+import org.jetbrains.kotlin.cfg.component2
 import org.jetbrains.kotlin.config.LanguageFeature
 import org.jetbrains.kotlin.config.LanguageVersionSettings
 import org.jetbrains.kotlin.resolve.calls.smartcasts.Nullability.NOT_NULL
@@ -29,31 +33,30 @@ import org.jetbrains.kotlin.types.typeUtil.isSubtypeOf
 import org.jetbrains.kotlin.utils.newLinkedHashSetWithExpectedSize
 import java.util.*
 
-internal class DelegatingDataFlowInfo private constructor(
-    private val parent: DataFlowInfo?,
-    private val nullabilityInfo: Map<DataFlowValue, Nullability>,
-    // Also immutable
-    private val typeInfo: SetMultimap<DataFlowValue, KotlinType>,
-    /**
-     * Value for which type info was cleared or reassigned at this point
-     * so parent type info should not be in use
-     */
-    private val valueWithGivenTypeInfo: DataFlowValue?
+private typealias ImmutableSet<E> = javaslang.collection.Set<E>
+private typealias ImmutableLinkedHashSet<E> = javaslang.collection.LinkedHashSet<E>
+
+private typealias TypeInfo = ImmutableMap<DataFlowValue, ImmutableSet<KotlinType>>
+
+/**
+ * Keeps complete nullability and type info in persistent hash maps (hash array mapped tries),
+ * so that a new info shares the unchanged part of the maps with the info it's created from,
+ * and neither chains of parent infos nor copies of complete maps are needed to combine infos.
+ *
+ * Types recorded for a value are ordered from the most recently established ones.
+ */
+internal class DataFlowInfoImpl private constructor(
+    private val nullabilityInfo: ImmutableMap<DataFlowValue, Nullability>,
+    private val typeInfo: TypeInfo
 ) : DataFlowInfo {
 
-    constructor() : this(null, emptyMap(), newTypeInfo(), null)
+    constructor() : this(ImmutableHashMap.empty(), ImmutableHashMap.empty())
 
     override val completeNullabilityInfo: Map<DataFlowValue, Nullability>
         get() {
             val result = hashMapOf<DataFlowValue, Nullability>()
-            var info: DelegatingDataFlowInfo? = this
-            while (info != null) {
-                for ((key, value) in info.nullabilityInfo) {
-                    if (!result.containsKey(key)) {
-                        result.put(key, value)
-                    }
-                }
-                info = info.parent as DelegatingDataFlowInfo?
+            for ((value, nullability) in nullabilityInfo) {
+                result.put(value, nullability)
             }
             return result
         }
@@ -61,16 +64,8 @@ internal class DelegatingDataFlowInfo private constructor(
     override val completeTypeInfo: SetMultimap<DataFlowValue, KotlinType>
         get() {
             val result = newTypeInfo()
-            val withGivenTypeInfo = HashSet<DataFlowValue>()
-            var info: DelegatingDataFlowInfo? = this
-            while (info != null) {
-                for (key in info.typeInfo.keySet()) {
-                    if (!withGivenTypeInfo.contains(key)) {
-                        result.putAll(key, info.typeInfo.get(key))
-                    }
-                }
-                info.valueWithGivenTypeInfo?.let { withGivenTypeInfo.add(it) }
-                info = info.parent as DelegatingDataFlowInfo?
+            for ((value, types) in typeInfo) {
+                result.putAll(value, types)
             }
             return result
         }
@@ -83,11 +78,11 @@ internal class DelegatingDataFlowInfo private constructor(
         if (stableOnly && !key.isStable) {
             key.immanentNullability
         } else {
-            nullabilityInfo[key] ?: parent?.getCollectedNullability(key) ?: key.immanentNullability
+            nullabilityInfo[key].getOrElse(key.immanentNullability)
         }
 
     private fun putNullabilityAndTypeInfo(
-        map: MutableMap<DataFlowValue, Nullability>,
+        map: ImmutableMap<DataFlowValue, Nullability>,
         value: DataFlowValue,
         nullability: Nullability,
         languageVersionSettings: LanguageVersionSettings,
@@ -96,9 +91,10 @@ internal class DelegatingDataFlowInfo private constructor(
         // TODO: remove me in version 1.3! I'm very dirty hack!
         // In normal circumstances this should be always true
         recordUnstable: Boolean = true
-    ): Boolean {
+    ): ImmutableMap<DataFlowValue, Nullability> {
+        var result = map
         if (value.isStable || recordUnstable) {
-            map.put(value, nullability)
+            result = result.put(value, nullability)
         }
 
         val identifierInfo = value.identifierInfo
@@ -109,8 +105,8 @@ internal class DelegatingDataFlowInfo private constructor(
                     val receiverType = identifierInfo.receiverType
                     if (identifierInfo.safe && receiverType != null) {
                         val receiverValue = DataFlowValue(identifierInfo.receiverInfo, receiverType)
-                        putNullabilityAndTypeInfo(
-                            map, receiverValue, nullability,
+                        result = putNullabilityAndTypeInfo(
+                            result, receiverValue, nullability,
                             languageVersionSettings, typeInfo, recordUnstable = recordUnstable
                         )
                     }
@@ -122,8 +118,8 @@ internal class DelegatingDataFlowInfo private constructor(
                         languageVersionSettings.supportsFeature(LanguageFeature.SafeCastCheckBoundSmartCasts)) {
 
                         val subjectValue = DataFlowValue(identifierInfo.subjectInfo, subjectType)
-                        putNullabilityAndTypeInfo(
-                            map, subjectValue, nullability,
+                        result = putNullabilityAndTypeInfo(
+                            result, subjectValue, nullability,
                             languageVersionSettings, typeInfo, recordUnstable = false
                         )
                         if (subjectValue.isStable) {
@@ -132,15 +128,15 @@ internal class DelegatingDataFlowInfo private constructor(
                     }
                 }
                 is IdentifierInfo.Variable -> identifierInfo.bound?.let {
-                    putNullabilityAndTypeInfo(
-                        map, it, nullability,
+                    result = putNullabilityAndTypeInfo(
+                        result, it, nullability,
                         languageVersionSettings, typeInfo, recordUnstable = recordUnstable
                     )
                 }
             }
         }
 
-        return nullability != getCollectedNullability(value)
+        return result
     }
 
     override fun getCollectedTypes(key: DataFlowValue, languageVersionSettings: LanguageVersionSettings) =
@@ -151,12 +147,12 @@ internal class DelegatingDataFlowInfo private constructor(
         enrichWithNotNull: Boolean,
         languageVersionSettings: LanguageVersionSettings
     ): Set<KotlinType> {
-        val types = collectTypesFromMeAndParents(key, languageVersionSettings)
+        val types = typeInfo.typesOf(key)
         if (!enrichWithNotNull || getCollectedNullability(key).canBeNull()) {
-            return types
+            return types.toCollection(newLinkedHashSetWithExpectedSize(types.size()))
         }
 
-        val enrichedTypes = newLinkedHashSetWithExpectedSize<KotlinType>(types.size + 1)
+        val enrichedTypes = newLinkedHashSetWithExpectedSize<KotlinType>(types.size() + 1)
         val originalType = key.type
         for (type in types) {
             enrichedTypes.add(type.makeReallyNotNullIfNeeded(languageVersionSettings))
@@ -195,17 +191,14 @@ internal class DelegatingDataFlowInfo private constructor(
      * @param value
      */
     override fun clearValueInfo(value: DataFlowValue, languageVersionSettings: LanguageVersionSettings): DataFlowInfo {
-        val resultNullabilityInfo = hashMapOf<DataFlowValue, Nullability>()
-        putNullabilityAndTypeInfo(resultNullabilityInfo, value, value.immanentNullability, languageVersionSettings)
-        return create(this, resultNullabilityInfo, EMPTY_TYPE_INFO, value)
+        val resultNullabilityInfo = putNullabilityAndTypeInfo(nullabilityInfo, value, value.immanentNullability, languageVersionSettings)
+        return create(resultNullabilityInfo, typeInfo.remove(value))
     }
 
     override fun assign(a: DataFlowValue, b: DataFlowValue, languageVersionSettings: LanguageVersionSettings): DataFlowInfo {
-        val nullability = hashMapOf<DataFlowValue, Nullability>()
         val nullabilityOfB = getStableNullability(b)
-        putNullabilityAndTypeInfo(nullability, a, nullabilityOfB, languageVersionSettings, affectReceiver = false)
+        val resultNullabilityInfo = putNullabilityAndTypeInfo(nullabilityInfo, a, nullabilityOfB, languageVersionSettings, affectReceiver = false)
 
-        val newTypeInfo = newTypeInfo()
         var typesForB = getStableTypes(b, languageVersionSettings)
         // Own type of B must be recorded separately, e.g. for a constant
         // But if its type is the same as A, there is no reason to do it
@@ -214,34 +207,22 @@ internal class DelegatingDataFlowInfo private constructor(
         if (!b.type.isError && a.type != b.type) {
             typesForB += b.type
         }
-        newTypeInfo.putAll(a, typesForB)
 
-        return create(this, nullability, if (newTypeInfo.isEmpty) EMPTY_TYPE_INFO else newTypeInfo, a)
+        return create(resultNullabilityInfo, typeInfo.remove(a).addTypes(a, typesForB))
     }
 
     override fun equate(
         a: DataFlowValue, b: DataFlowValue, identityEquals: Boolean, languageVersionSettings: LanguageVersionSettings
     ): DataFlowInfo {
-        val resultNullabilityInfo = hashMapOf<DataFlowValue, Nullability>()
         val nullabilityOfA = getStableNullability(a)
         val nullabilityOfB = getStableNullability(b)
+        val newNullabilityOfA = nullabilityOfA.refine(nullabilityOfB)
+        val newNullabilityOfB = nullabilityOfB.refine(nullabilityOfA)
 
         val newTypeInfo = newTypeInfo()
-        var changed =
-            putNullabilityAndTypeInfo(
-                resultNullabilityInfo,
-                a,
-                nullabilityOfA.refine(nullabilityOfB),
-                languageVersionSettings,
-                newTypeInfo
-            ) or
-                    putNullabilityAndTypeInfo(
-                        resultNullabilityInfo,
-                        b,
-                        nullabilityOfB.refine(nullabilityOfA),
-                        languageVersionSettings,
-                        newTypeInfo
-                    )
+        var resultNullabilityInfo = putNullabilityAndTypeInfo(nullabilityInfo, a, newNullabilityOfA, languageVersionSettings, newTypeInfo)
+        resultNullabilityInfo = putNullabilityAndTypeInfo(resultNullabilityInfo, b, newNullabilityOfB, languageVersionSettings, newTypeInfo)
+        var changed = newNullabilityOfA != getCollectedNullability(a) || newNullabilityOfB != getCollectedNullability(b)
 
         // NB: == has no guarantees of type equality, see KT-11280 for the example
         if (identityEquals || !nullabilityOfA.canBeNonNull() || !nullabilityOfB.canBeNonNull()) {
@@ -259,52 +240,23 @@ internal class DelegatingDataFlowInfo private constructor(
             changed = changed or !newTypeInfo.isEmpty
         }
 
-        return if (changed) create(this, resultNullabilityInfo, if (newTypeInfo.isEmpty) EMPTY_TYPE_INFO else newTypeInfo) else this
-    }
-
-    private fun collectTypesFromMeAndParents(value: DataFlowValue, languageVersionSettings: LanguageVersionSettings): Set<KotlinType> {
-        val types = LinkedHashSet<KotlinType>()
-
-        var current: DataFlowInfo? = this
-        while (current != null) {
-            if (current is DelegatingDataFlowInfo) {
-                types.addAll(current.typeInfo.get(value))
-                current = if (value == current.valueWithGivenTypeInfo) null else current.parent
-            } else {
-                types.addAll(current.getCollectedTypes(value, languageVersionSettings))
-                break
-            }
-        }
-
-        return types
+        return if (changed) create(resultNullabilityInfo, typeInfo.addTypes(newTypeInfo)) else this
     }
 
     override fun disequate(
         a: DataFlowValue, b: DataFlowValue, languageVersionSettings: LanguageVersionSettings
     ): DataFlowInfo {
-        val resultNullabilityInfo = hashMapOf<DataFlowValue, Nullability>()
         val nullabilityOfA = getStableNullability(a)
         val nullabilityOfB = getStableNullability(b)
+        val newNullabilityOfA = nullabilityOfA.refine(nullabilityOfB.invert())
+        val newNullabilityOfB = nullabilityOfB.refine(nullabilityOfA.invert())
 
         val newTypeInfo = newTypeInfo()
-        val changed =
-            putNullabilityAndTypeInfo(
-                resultNullabilityInfo,
-                a,
-                nullabilityOfA.refine(nullabilityOfB.invert()),
-                languageVersionSettings,
-                newTypeInfo
-            ) or
-                    putNullabilityAndTypeInfo(
-                        resultNullabilityInfo,
-                        b,
-                        nullabilityOfB.refine(nullabilityOfA.invert()),
-                        languageVersionSettings,
-                        newTypeInfo
-                    )
-
-        return if (changed) create(this, resultNullabilityInfo, if (newTypeInfo.isEmpty) EMPTY_TYPE_INFO else newTypeInfo) else this
+        var resultNullabilityInfo = putNullabilityAndTypeInfo(nullabilityInfo, a, newNullabilityOfA, languageVersionSettings, newTypeInfo)
+        resultNullabilityInfo = putNullabilityAndTypeInfo(resultNullabilityInfo, b, newNullabilityOfB, languageVersionSettings, newTypeInfo)
+        val changed = newNullabilityOfA != getCollectedNullability(a) || newNullabilityOfB != getCollectedNullability(b)
 
+        return if (changed) create(resultNullabilityInfo, typeInfo.addTypes(newTypeInfo)) else this
     }
 
     override fun establishSubtyping(
@@ -313,13 +265,10 @@ internal class DelegatingDataFlowInfo private constructor(
         if (value.type == type) return this
         if (getCollectedTypes(value, languageVersionSettings).contains(type)) return this
         if (!value.type.isFlexible() && value.type.isSubtypeOf(type)) return this
-        val newTypeInfo = newTypeInfo()
-        newTypeInfo.put(value, type)
-        val nullabilityInfo = hashMapOf<DataFlowValue, Nullability>()
-        if (!type.isMarkedNullable) {
-            putNullabilityAndTypeInfo(nullabilityInfo, value, NOT_NULL, languageVersionSettings)
-        }
-        return create(this, if (type.isMarkedNullable) emptyMap() else nullabilityInfo, newTypeInfo)
+        val resultNullabilityInfo =
+            if (type.isMarkedNullable) nullabilityInfo
+            else putNullabilityAndTypeInfo(nullabilityInfo, value, NOT_NULL, languageVersionSettings)
+        return create(resultNullabilityInfo, typeInfo.addTypes(value, listOf(type)))
     }
 
     override fun and(other: DataFlowInfo): DataFlowInfo {
@@ -327,33 +276,48 @@ internal class DelegatingDataFlowInfo private constructor(
         if (this === DataFlowInfo.EMPTY) return other
         if (this === other) return this
 
-        assert(other is DelegatingDataFlowInfo) { "Unknown DataFlowInfo type: " + other }
+        assert(other is DataFlowInfoImpl) { "Unknown DataFlowInfo type: " + other }
+        other as DataFlowInfoImpl
 
-        val resultNullabilityInfo = hashMapOf<DataFlowValue, Nullability>()
-        for ((key, otherFlags) in other.completeNullabilityInfo) {
-            val thisFlags = getCollectedNullability(key)
-            val flags = thisFlags.and(otherFlags)
-            if (flags != thisFlags) {
-                resultNullabilityInfo.put(key, flags)
+        var resultNullabilityInfo = nullabilityInfo
+        if (other.nullabilityInfo !== nullabilityInfo) {
+            for ((key, otherFlags) in other.nullabilityInfo) {
+                val thisFlags = getCollectedNullability(key)
+                val flags = thisFlags.and(otherFlags)
+                if (flags != thisFlags) {
+                    resultNullabilityInfo = resultNullabilityInfo.put(key, flags)
+                }
             }
         }
 
-        val myTypeInfo = completeTypeInfo
-        val otherTypeInfo = other.completeTypeInfo
-        if (resultNullabilityInfo.isEmpty() && containsAll(myTypeInfo, otherTypeInfo)) {
+        val typesKnown = other.typeInfo === typeInfo || other.typeInfo.all { (key, otherTypes) ->
+            val myTypes = typeInfo.typesOf(key)
+            myTypes === otherTypes || otherTypes.all { myTypes.contains(it) }
+        }
+        if (resultNullabilityInfo === nullabilityInfo && typesKnown) {
             return this
         }
 
-        return create(this, resultNullabilityInfo, otherTypeInfo)
+        // Types of the other info go first, as the most recently established ones
+        var resultTypeInfo = typeInfo
+        if (other.typeInfo !== typeInfo) {
+            for ((key, otherTypes) in other.typeInfo) {
+                if (typeInfo.typesOf(key) !== otherTypes) {
+                    resultTypeInfo = resultTypeInfo.addTypes(key, otherTypes)
+                }
+            }
+        }
+
+        return create(resultNullabilityInfo, resultTypeInfo)
     }
 
-    private fun Set<KotlinType>.containsNothing() = any { KotlinBuiltIns.isNothing(it) }
+    private fun ImmutableSet<KotlinType>.containsNothing() = any { KotlinBuiltIns.isNothing(it) }
 
-    private fun Set<KotlinType>.intersectConsideringNothing(other: Set<KotlinType>) =
+    private fun ImmutableSet<KotlinType>.intersectConsideringNothing(other: ImmutableSet<KotlinType>) =
         when {
             other.containsNothing() -> this
             this.containsNothing() -> other
-            else -> this.intersect(other)
+            else -> this.retainAll(other)
         }
 
     override fun or(other: DataFlowInfo): DataFlowInfo {
@@ -361,59 +325,64 @@ internal class DelegatingDataFlowInfo private constructor(
         if (this === DataFlowInfo.EMPTY) return DataFlowInfo.EMPTY
         if (this === other) return this
 
-        assert(other is DelegatingDataFlowInfo) { "Unknown DataFlowInfo type: " + other }
+        assert(other is DataFlowInfoImpl) { "Unknown DataFlowInfo type: " + other }
+        other as DataFlowInfoImpl
 
-        val resultNullabilityInfo = hashMapOf<DataFlowValue, Nullability>()
-        for ((key, otherFlags) in other.completeNullabilityInfo) {
-            val thisFlags = getCollectedNullability(key)
-            resultNullabilityInfo.put(key, thisFlags.or(otherFlags))
+        // Only values known in the other info are kept, so its map is the one to be updated
+        var resultNullabilityInfo = other.nullabilityInfo
+        for ((key, otherFlags) in other.nullabilityInfo) {
+            val flags = getCollectedNullability(key).or(otherFlags)
+            if (flags != otherFlags) {
+                resultNullabilityInfo = resultNullabilityInfo.put(key, flags)
+            }
         }
 
-        val myTypeInfo = completeTypeInfo
-        val otherTypeInfo = other.completeTypeInfo
-        val newTypeInfo = newTypeInfo()
+        var resultTypeInfo = typeInfo
+        for ((key, myTypes) in typeInfo) {
+            val otherTypes = other.typeInfo[key].getOrElse(null as ImmutableSet<KotlinType>?)
+            if (otherTypes === myTypes) continue
 
-        for (key in myTypeInfo.keySet()) {
-            if (key in otherTypeInfo.keySet()) {
-                newTypeInfo.putAll(key, myTypeInfo[key].intersectConsideringNothing(otherTypeInfo[key]))
+            val commonTypes = otherTypes?.let { myTypes.intersectConsideringNothing(it) }
+            if (commonTypes == null || commonTypes.isEmpty) {
+                resultTypeInfo = resultTypeInfo.remove(key)
+            } else if (commonTypes !== myTypes) {
+                resultTypeInfo = resultTypeInfo.put(key, commonTypes)
             }
         }
-        return create(null, resultNullabilityInfo, newTypeInfo)
-    }
 
-    override fun toString() = if (typeInfo.isEmpty && nullabilityInfo.isEmpty()) "EMPTY" else "Non-trivial DataFlowInfo"
+        if (resultNullabilityInfo.isEmpty && resultTypeInfo.isEmpty) {
+            return DataFlowInfo.EMPTY
+        }
+        return create(resultNullabilityInfo, resultTypeInfo)
+    }
 
-    companion object {
-        private val EMPTY_TYPE_INFO = newTypeInfo()
+    private fun create(nullabilityInfo: ImmutableMap<DataFlowValue, Nullability>, typeInfo: TypeInfo): DataFlowInfo {
+        if (nullabilityInfo === this.nullabilityInfo && typeInfo === this.typeInfo) return this
+        return DataFlowInfoImpl(nullabilityInfo, typeInfo)
+    }
 
-        private fun containsAll(first: SetMultimap<DataFlowValue, KotlinType>, second: SetMultimap<DataFlowValue, KotlinType>) =
-            first.entries().containsAll(second.entries())
+    override fun toString() = if (typeInfo.isEmpty && nullabilityInfo.isEmpty) "EMPTY" else "Non-trivial DataFlowInfo"
 
+    companion object {
         fun newTypeInfo(): SetMultimap<DataFlowValue, KotlinType> = LinkedHashMultimap.create<DataFlowValue, KotlinType>()
 
-        private fun create(
-            parent: DataFlowInfo?,
-            nullabilityInfo: Map<DataFlowValue, Nullability>,
-            // NB: typeInfo must be mutable here!
-            typeInfo: SetMultimap<DataFlowValue, KotlinType>,
-            valueWithGivenTypeInfo: DataFlowValue? = null
-        ): DataFlowInfo {
-            val toDelete = newTypeInfo()
-            for (value in typeInfo.keys()) {
-                for (type in typeInfo[value]) {
-                    // Remove original type (see also KT-10666)
-                    if (value.type == type || type.contains { it.constructor is NewCapturedTypeConstructor }) {
-                        toDelete.put(value, type)
-                    }
-                }
-            }
-            for ((value, type) in toDelete.entries()) {
-                typeInfo.remove(value, type)
-            }
-            if (nullabilityInfo.isEmpty() && typeInfo.isEmpty && valueWithGivenTypeInfo == null) {
-                return parent ?: DataFlowInfoFactory.EMPTY
+        private fun TypeInfo.typesOf(value: DataFlowValue): ImmutableSet<KotlinType> =
+            this[value].getOrElse(ImmutableLinkedHashSet.empty())
+
+        private fun TypeInfo.addTypes(types: SetMultimap<DataFlowValue, KotlinType>): TypeInfo {
+            var result = this
+            for (value in types.keySet()) {
+                result = result.addTypes(value, types[value])
             }
-            return DelegatingDataFlowInfo(parent, nullabilityInfo, typeInfo, valueWithGivenTypeInfo)
+            return result
+        }
+
+        // Given types go before the known ones, original type of the value (see also KT-10666) and captured types are not recorded
+        private fun TypeInfo.addTypes(value: DataFlowValue, types: Iterable<KotlinType>): TypeInfo {
+            val recordedTypes = types.filter { type -> value.type != type && !type.contains { it.constructor is NewCapturedTypeConstructor } }
+            if (recordedTypes.isEmpty()) return this
+
+            return put(value, ImmutableLinkedHashSet.ofAll(recordedTypes).addAll(typesOf(value)))
         }
     }
 }
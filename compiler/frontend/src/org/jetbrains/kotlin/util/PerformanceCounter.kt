@@ -16,39 +16,38 @@
 
 package org.jetbrains.kotlin.util
 
-import java.lang.management.ManagementFactory
 import java.util.*
+import java.util.concurrent.CopyOnWriteArrayList
 import java.util.concurrent.TimeUnit
 import java.util.concurrent.atomic.AtomicInteger
 import java.util.concurrent.atomic.AtomicLong
 
 /**
  * This counter is thread-safe for initialization and usage.
- * But it may calculate time and number of runs not precisely.
+ * Time of reenterable and excluding counters is tracked per thread, so it may be calculated not precisely when the same
+ * computation is started on one thread and finished on another.
  */
 abstract class PerformanceCounter protected constructor(val name: String) {
     companion object {
-        private val allCounters = arrayListOf<PerformanceCounter>()
+        private val allCounters = CopyOnWriteArrayList<PerformanceCounter>()
 
+        @Volatile
         private var enabled = false
 
         fun currentTime(): Long = System.nanoTime()
 
         fun report(consumer: (String) -> Unit) {
-            val countersCopy = synchronized(allCounters) {
-                allCounters.toTypedArray()
-            }
-            countersCopy.forEach { it.report(consumer) }
+            allCounters.forEach { it.report(consumer) }
         }
 
+        fun getAllCounters(): List<PerformanceCounter> = allCounters
+
         fun setTimeCounterEnabled(enable: Boolean) {
             enabled = enable
         }
 
         fun resetAllCounters() {
-            synchronized(allCounters) {
-                allCounters.forEach(PerformanceCounter::reset)
-            }
+            allCounters.forEach(PerformanceCounter::reset)
         }
 
         @JvmOverloads
@@ -73,21 +72,25 @@ abstract class PerformanceCounter protected constructor(val name: String) {
 
     internal val excludedFrom: MutableList<CounterWithExclude> = ArrayList()
 
-    private var count: Int = 0
-    private var totalTimeNanos: Long = 0
+    private val countHolder = AtomicInteger()
+    private val totalTimeNanosHolder = AtomicLong()
+
+    val count: Int
+        get() = countHolder.get()
+
+    val totalTimeNanos: Long
+        get() = totalTimeNanosHolder.get()
 
     init {
-        synchronized(allCounters) {
-            allCounters.add(this)
-        }
+        allCounters.add(this)
     }
 
     fun increment() {
-        count++
+        countHolder.incrementAndGet()
     }
 
     fun <T> time(block: () -> T): T {
-        count++
+        countHolder.incrementAndGet()
         if (!enabled) return block()
 
         excludedFrom.forEach { it.enterExcludedMethod() }
@@ -99,17 +102,21 @@ abstract class PerformanceCounter protected constructor(val name: String) {
     }
 
     fun reset() {
-        count = 0
-        totalTimeNanos = 0
+        countHolder.set(0)
+        totalTimeNanosHolder.set(0)
     }
 
     protected fun incrementTime(delta: Long) {
-        totalTimeNanos += delta
+        if (delta != 0L) {
+            totalTimeNanosHolder.addAndGet(delta)
+        }
     }
 
     protected abstract fun <T> countTime(block: () -> T): T
 
     fun report(consumer: (String) -> Unit) {
+        val count = count
+        val totalTimeNanos = totalTimeNanos
         if (totalTimeNanos == 0L) {
             consumer("$name performed $count times")
         } else {
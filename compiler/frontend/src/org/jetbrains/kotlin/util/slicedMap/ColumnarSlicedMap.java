@@ -0,0 +1,275 @@
+/*
+ * Copyright 2000-2018 JetBrains s.r.o. Use of this source code is governed by the Apache 2.0 license
+ * that can be found in the license/LICENSE.txt file.
+ */
+
+package org.jetbrains.kotlin.util.slicedMap;
+
+import com.google.common.collect.ImmutableMap;
+import kotlin.jvm.functions.Function3;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A sliced map which stores the most frequently used slices in dedicated columns instead of per-key KeyFMap holders.
+ * Each column is an array of entries in the order of insertion with an open addressing index of identity-compared keys, so a binding
+ * costs a few array slots instead of a share of a holder that is copied on every put. Other slices are stored as in {@link SlicedMapImpl}.
+ *
+ * Keys of the column slices must not override equals/hashCode (e.g. PSI elements or calls), otherwise identity lookup would
+ * behave differently from the default storage.
+ */
+public class ColumnarSlicedMap extends SlicedMapImpl {
+    private final boolean alwaysAllowRewrite;
+
+    private final Layout layout;
+    private final IdentityColumn[] columns;
+    // Orders entries of all columns by insertion, see forEach
+    private int nextSequenceNumber = 0;
+
+    public ColumnarSlicedMap(boolean alwaysAllowRewrite, @NotNull Layout layout) {
+        super(alwaysAllowRewrite);
+        this.alwaysAllowRewrite = alwaysAllowRewrite;
+        this.layout = layout;
+        this.columns = new IdentityColumn[layout.slices.length];
+    }
+
+    /**
+     * The set of slices stored in columns. It's supposed to be created once and shared by all the maps.
+     */
+    public static final class Layout {
+        private final WritableSlice<?, ?>[] slices;
+        // column indices by the index of the slice key (Key.hashCode()), -1 for slices stored in the default way
+        private final int[] columnIndexByKeyIndex;
+
+        public Layout(@NotNull List<? extends WritableSlice<?, ?>> slices) {
+            this.slices = slices.toArray(new WritableSlice<?, ?>[slices.size()]);
+
+            int maxKeyIndex = -1;
+            for (WritableSlice<?, ?> slice : slices) {
+                assert !slice.isCollective() : "Collective slices can't be stored in columns: " + slice;
+                maxKeyIndex = Math.max(maxKeyIndex, slice.getKey().hashCode());
+            }
+            columnIndexByKeyIndex = new int[maxKeyIndex + 1];
+            Arrays.fill(columnIndexByKeyIndex, -1);
+            for (int i = 0; i < this.slices.length; i++) {
+                columnIndexByKeyIndex[this.slices[i].getKey().hashCode()] = i;
+            }
+        }
+
+        private int columnIndex(@NotNull ReadOnlySlice<?, ?> slice) {
+            int keyIndex = slice.getKey().hashCode();
+            if (keyIndex < 0 || keyIndex >= columnIndexByKeyIndex.length) return -1;
+            int index = columnIndexByKeyIndex[keyIndex];
+            return index >= 0 && slices[index] == slice ? index : -1;
+        }
+    }
+
+    private int columnIndex(@NotNull ReadOnlySlice<?, ?> slice) {
+        return layout.columnIndex(slice);
+    }
+
+    @Override
+    public <K, V> void put(WritableSlice<K, V> slice, K key, V value) {
+        int index = columnIndex(slice);
+        if (index < 0) {
+            super.put(slice, key, value);
+            return;
+        }
+
+        if (!slice.check(key, value)) {
+            return;
+        }
+
+        IdentityColumn column = columns[index];
+        if (column == null) {
+            column = columns[index] = new IdentityColumn();
+        }
+
+        RewritePolicy rewritePolicy = slice.getRewritePolicy();
+        if (!alwaysAllowRewrite && rewritePolicy.rewriteProcessingNeeded(key)) {
+            //noinspection unchecked
+            V oldValue = (V) column.get(key);
+            if (oldValue != null) {
+                if (!rewritePolicy.processRewrite(slice, key, oldValue, value)) {
+                    return;
+                }
+            }
+        }
+
+        column.put(key, value, nextSequenceNumber++);
+        slice.afterPut(this, key, value);
+    }
+
+    @Override
+    public void clear() {
+        super.clear();
+        for (int i = 0; i < columns.length; i++) {
+            columns[i] = null;
+        }
+        nextSequenceNumber = 0;
+    }
+
+    @Override
+    public <K, V> V get(ReadOnlySlice<K, V> slice, K key) {
+        int index = columnIndex(slice);
+        if (index < 0) {
+            return super.get(slice, key);
+        }
+
+        IdentityColumn column = columns[index];
+        //noinspection unchecked
+        V value = column == null || key == null ? null : (V) column.get(key);
+
+        return slice.computeValue(this, key, value, value == null);
+    }
+
+    /**
+     * Entries of the slices stored in the default way are visited as in {@link SlicedMapImpl}, then entries of the column slices are
+     * visited in the order they were put, regardless of the slice. This way the order in which the data of a buffered trace is
+     * committed to its parent doesn't depend on identity hash codes.
+     */
+    @Override
+    public void forEach(@NotNull Function3<WritableSlice, Object, Object, Void> f) {
+        super.forEach(f);
+
+        // Columns are merged by sequence numbers, each of them is already sorted by them
+        int[] positions = new int[columns.length];
+        while (true) {
+            int next = -1;
+            for (int i = 0; i < columns.length; i++) {
+                IdentityColumn column = columns[i];
+                if (column == null || positions[i] == column.size()) continue;
+                if (next < 0 || column.sequenceNumber(positions[i]) < columns[next].sequenceNumber(positions[next])) {
+                    next = i;
+                }
+            }
+            if (next < 0) return;
+
+            WritableSlice<?, ?> slice = layout.slices[next];
+            columns[next].accept(positions[next]++, (key, value) -> f.invoke(slice, key, value));
+        }
+    }
+
+    @NotNull
+    @Override
+    public <K, V> ImmutableMap<K, V> getSliceContents(@NotNull ReadOnlySlice<K, V> slice) {
+        int index = columnIndex(slice);
+        if (index < 0) {
+            return super.getSliceContents(slice);
+        }
+
+        ImmutableMap.Builder<K, V> builder = ImmutableMap.builder();
+        IdentityColumn column = columns[index];
+        if (column != null) {
+            //noinspection unchecked
+            column.forEach((key, value) -> builder.put((K) key, (V) value));
+        }
+        return builder.build();
+    }
+
+    private interface EntryConsumer {
+        void accept(@NotNull Object key, @NotNull Object value);
+    }
+
+    // Entries are stored in the order of insertion, together with their sequence numbers in the whole map, and are found through
+    // an open addressing table (with linear probing) of entry indices
+    private static final class IdentityColumn {
+        private static final int INITIAL_CAPACITY = 16;
+
+        // keys are stored in even elements and values in odd ones
+        private Object[] entries = new Object[INITIAL_CAPACITY * 2];
+        private int[] sequenceNumbers = new int[INITIAL_CAPACITY];
+        private int size = 0;
+
+        // entry index + 1, 0 for an empty slot
+        private int[] table = new int[INITIAL_CAPACITY * 2];
+
+        private static int indexFor(@NotNull Object key, int length) {
+            // length is a power of two, the mixing step spreads identity hash codes which are often sequential
+            int hash = System.identityHashCode(key) * 0x9E3779B9;
+            return (hash ^ (hash >>> 16)) & (length - 1);
+        }
+
+        // index of the entry with the given key, or -1
+        private int find(@NotNull Object key) {
+            int[] table = this.table;
+            int i = indexFor(key, table.length);
+            while (true) {
+                int slot = table[i];
+                if (slot == 0) return -1;
+                if (entries[(slot - 1) * 2] == key) return slot - 1;
+                i = (i + 1) & (table.length - 1);
+            }
+        }
+
+        Object get(@NotNull Object key) {
+            int index = find(key);
+            return index < 0 ? null : entries[index * 2 + 1];
+        }
+
+        // A rewritten entry keeps its place in the order of insertion
+        void put(@NotNull Object key, Object value, int sequenceNumber) {
+            int index = find(key);
+            if (index >= 0) {
+                entries[index * 2 + 1] = value;
+                return;
+            }
+
+            if (size == sequenceNumbers.length) {
+                entries = Arrays.copyOf(entries, entries.length * 2);
+                sequenceNumbers = Arrays.copyOf(sequenceNumbers, sequenceNumbers.length * 2);
+            }
+            entries[size * 2] = key;
+            entries[size * 2 + 1] = value;
+            sequenceNumbers[size] = sequenceNumber;
+            size++;
+
+            // keep the fill factor at 50% at most
+            if (size * 2 > table.length) {
+                rehash();
+            }
+            else {
+                insert(table, key, size);
+            }
+        }
+
+        private static void insert(@NotNull int[] table, @NotNull Object key, int slot) {
+            int i = indexFor(key, table.length);
+            while (table[i] != 0) {
+                i = (i + 1) & (table.length - 1);
+            }
+            table[i] = slot;
+        }
+
+        private void rehash() {
+            int[] newTable = new int[table.length * 2];
+            for (int index = 0; index < size; index++) {
+                insert(newTable, entries[index * 2], index + 1);
+            }
+            table = newTable;
+        }
+
+        int size() {
+            return size;
+        }
+
+        int sequenceNumber(int index) {
+            return sequenceNumbers[index];
+        }
+
+        void accept(int index, @NotNull EntryConsumer consumer) {
+            Object value = entries[index * 2 + 1];
+            if (value != null) {
+                consumer.accept(entries[index * 2], value);
+            }
+        }
+
+        void forEach(@NotNull EntryConsumer consumer) {
+            for (int index = 0; index < size; index++) {
+                accept(index, consumer);
+            }
+        }
+    }
+}
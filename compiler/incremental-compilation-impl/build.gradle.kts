@@ -13,7 +13,7 @@ dependencies {
     compile(project(":compiler:cli"))
     compile(project(":kotlin-build-common"))
     compileOnly(intellijCoreDep()) { includeJars("intellij-core") }
-    compileOnly(intellijDep()) { includeJars("annotations") }
+    compileOnly(intellijDep()) { includeJars("annotations", "asm-all") }
 
     testCompile(commonDep("junit:junit"))
     testCompile(projectDist(":kotlin-test:kotlin-test-junit"))
@@ -21,7 +21,7 @@ dependencies {
     testCompile(projectTests(":kotlin-build-common"))
     testCompile(projectTests(":compiler:tests-common"))
     testCompile(intellijCoreDep()) { includeJars("intellij-core") }
-    testCompile(intellijDep()) { includeJars("annotations", "log4j", "jdom") }
+    testCompile(intellijDep()) { includeJars("annotations", "log4j", "jdom", "asm-all") }
 }
 
 sourceSets {
@@ -16,6 +16,7 @@
 
 package org.jetbrains.kotlin.incremental
 
+import org.jetbrains.kotlin.incremental.multiproject.ClasspathAbiSnapshots
 import org.jetbrains.kotlin.incremental.storage.BasicMapsOwner
 import java.io.File
 
@@ -70,11 +71,15 @@ abstract class IncrementalCachesManager<PlatformCache : IncrementalCacheCommon<*
 class IncrementalJvmCachesManager(
     cacheDirectory: File,
     outputDir: File,
-    reporter: ICReporter
+    reporter: ICReporter,
+    classpathAbiSnapshotsDir: File
 ) : IncrementalCachesManager<IncrementalJvmCache>(cacheDirectory, reporter) {
 
     private val jvmCacheDir = File(cacheDirectory, "jvm").apply { mkdirs() }
     override val platformCache = IncrementalJvmCache(jvmCacheDir, outputDir).apply { registerCache() }
+
+    private val classpathCacheDir = File(cacheDirectory, "classpath").apply { mkdirs() }
+    val classpathAbiSnapshots = ClasspathAbiSnapshots(classpathCacheDir, classpathAbiSnapshotsDir, reporter).apply { registerCache() }
 }
 
 class IncrementalJsCachesManager(
@@ -17,6 +17,7 @@
 package org.jetbrains.kotlin.incremental
 
 import org.jetbrains.kotlin.build.GeneratedFile
+import org.jetbrains.kotlin.cli.common.CompilerMetrics
 import org.jetbrains.kotlin.cli.common.ExitCode
 import org.jetbrains.kotlin.cli.common.arguments.CommonCompilerArguments
 import org.jetbrains.kotlin.cli.common.messages.MessageCollector
@@ -29,6 +30,7 @@ import org.jetbrains.kotlin.incremental.components.ExpectActualTracker
 import org.jetbrains.kotlin.incremental.components.LookupTracker
 import org.jetbrains.kotlin.incremental.multiproject.ArtifactChangesProvider
 import org.jetbrains.kotlin.incremental.multiproject.ChangesRegistry
+import org.jetbrains.kotlin.incremental.storage.InMemoryStorageCache
 import org.jetbrains.kotlin.name.FqName
 import org.jetbrains.kotlin.progress.CompilationCanceledStatus
 import java.io.File
@@ -50,6 +52,9 @@ abstract class IncrementalCompilerRunner<
     protected val dirtySourcesSinceLastTimeFile = File(workingDir, DIRTY_SOURCES_FILE_NAME)
     protected val lastBuildInfoFile = File(workingDir, LAST_BUILD_INFO_FILE_NAME)
 
+    // If set, phase metrics of all the compiler invocations are collected here
+    var compilerMetrics: CompilerMetrics? = null
+
     protected abstract fun isICEnabled(): Boolean
     protected abstract fun createCacheManager(args: Args): CacheManager
     protected abstract fun destinationDir(args: Args): File
@@ -68,6 +73,8 @@ abstract class IncrementalCompilerRunner<
         fun rebuild(reason: () -> String): ExitCode {
             reporter.report(reason)
 
+            // The caches may be left open after an error, their modifications kept in memory must not be written back
+            InMemoryStorageCache.drop(cacheDirectory)
             caches.clean()
             dirtySourcesSinceLastTimeFile.delete()
             destinationDir(args).deleteRecursively()
@@ -145,6 +152,7 @@ abstract class IncrementalCompilerRunner<
 
     protected open fun preBuildHook(args: Args, compilationMode: CompilationMode) {}
     protected open fun postCompilationHook(exitCode: ExitCode) {}
+    protected open fun postBuildHook(args: Args, caches: CacheManager, exitCode: ExitCode) {}
     protected open fun additionalDirtyFiles(caches: CacheManager, generatedFiles: List<GeneratedFile>): Iterable<File> =
             emptyList()
 
@@ -162,6 +170,7 @@ abstract class IncrementalCompilerRunner<
             register(LookupTracker::class.java, lookupTracker)
             register(ExpectActualTracker::class.java, expectActualTracker)
             register(CompilationCanceledStatus::class.java, EmptyCompilationCanceledStatus)
+            compilerMetrics?.let { register(CompilerMetrics::class.java, it) }
         }
 
     protected abstract fun runCompiler(
@@ -250,6 +259,12 @@ abstract class IncrementalCompilerRunner<
                 addAll(mapClassesFqNamesToFiles(listOf(caches.platformCache), dirtyClassFqNames, reporter, excludes = compiledInThisIterationSet))
             }
 
+            if (isPredictiveDirtyFilesExpansionEnabled && dirtySources.isNotEmpty()) {
+                val predictedDirtySources = predictDirtySources(caches, dirtySources, excludes = compiledInThisIterationSet)
+                reporter.report { "Predicted dirty files: ${reporter.pathsAsString(predictedDirtySources)}" }
+                dirtySources.addAll(predictedDirtySources)
+            }
+
             buildDirtyLookupSymbols.addAll(dirtyLookupSymbols)
             buildDirtyFqNames.addAll(dirtyClassFqNames)
         }
@@ -264,6 +279,8 @@ abstract class IncrementalCompilerRunner<
         val dirtyData = DirtyData(buildDirtyLookupSymbols, buildDirtyFqNames)
         processChangesAfterBuild(compilationMode, currentBuildInfo, dirtyData)
 
+        postBuildHook(args, caches, exitCode)
+
         if (exitCode == ExitCode.OK) {
             cacheVersions.forEach { it.saveIfNeeded() }
         }
@@ -273,6 +290,31 @@ abstract class IncrementalCompilerRunner<
 
     open fun runWithNoDirtyKotlinSources(caches: CacheManager): Boolean = false
 
+    // Reports the changes which recompilation of the sources could cause in the worst case
+    protected open fun collectPossibleChanges(caches: CacheManager, sources: Collection<File>, changesCollector: ChangesCollector) {}
+
+    // Returns the files which could become dirty after recompilation of dirtySources in the following rounds,
+    // so that they are compiled in one round instead
+    private fun predictDirtySources(caches: CacheManager, dirtySources: Collection<File>, excludes: Set<File>): Set<File> {
+        val predictedDirtySources = HashSet<File>()
+        val allDirtySources = dirtySources.toHashSet()
+        var sourcesToProcess: Collection<File> = dirtySources
+
+        while (sourcesToProcess.isNotEmpty()) {
+            val changesCollector = ChangesCollector()
+            collectPossibleChanges(caches, sourcesToProcess, changesCollector)
+
+            val (dirtyLookupSymbols, dirtyClassFqNames) = changesCollector.getDirtyData(listOf(caches.platformCache), reporter)
+            val affectedSources = mapLookupSymbolsToFiles(caches.lookupCache, dirtyLookupSymbols, reporter, excludes) +
+                                  mapClassesFqNamesToFiles(listOf(caches.platformCache), dirtyClassFqNames, reporter, excludes)
+
+            sourcesToProcess = affectedSources.filter { allDirtySources.add(it) }
+            predictedDirtySources.addAll(sourcesToProcess)
+        }
+
+        return predictedDirtySources
+    }
+
     protected open fun processChangesAfterBuild(compilationMode: CompilationMode, currentBuildInfo: BuildInfo, dirtyData: DirtyData) {
         if (changesRegistry == null) return
 
@@ -288,6 +330,13 @@ abstract class IncrementalCompilerRunner<
     companion object {
         const val DIRTY_SOURCES_FILE_NAME = "dirty-sources.txt"
         const val LAST_BUILD_INFO_FILE_NAME = "last-build.bin"
+
+        // Wide changes usually take several rounds to be fully propagated. If set, each round also compiles all files
+        // which could be transitively affected by the files made dirty by the previous one, at the cost of compiling more files than necessary
+        const val PREDICTIVE_DIRTY_FILES_PROPERTY = "kotlin.incremental.predictive.dirty.files"
+
+        private val isPredictiveDirtyFilesExpansionEnabled: Boolean
+            get() = System.getProperty(PREDICTIVE_DIRTY_FILES_PROPERTY) == "true"
     }
 
     private object EmptyCompilationCanceledStatus : CompilationCanceledStatus {
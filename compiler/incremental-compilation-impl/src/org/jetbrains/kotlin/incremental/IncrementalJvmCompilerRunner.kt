@@ -104,7 +104,10 @@ class IncrementalJvmCompilerRunner(
         changesRegistry: ChangesRegistry? = null,
         private val buildHistoryFile: File? = null,
         private val friendBuildHistoryFile: File? = null,
-        private val usePreciseJavaTracking: Boolean
+        private val usePreciseJavaTracking: Boolean,
+        // Not a part of the caches, so that snapshots of unchanged jars are not computed again after a rebuild.
+        // Should be shared by all modules of a build, so that a snapshot of a jar is computed once for all of them
+        private val classpathAbiSnapshotsDir: File = File(workingDir, "classpath-abi")
 ) : IncrementalCompilerRunner<K2JVMCompilerArguments, IncrementalJvmCachesManager>(
         workingDir,
         "caches-jvm",
@@ -117,7 +120,7 @@ class IncrementalJvmCompilerRunner(
             IncrementalCompilation.isEnabled()
 
     override fun createCacheManager(args: K2JVMCompilerArguments): IncrementalJvmCachesManager =
-            IncrementalJvmCachesManager(cacheDirectory, File(args.destination), reporter)
+            IncrementalJvmCachesManager(cacheDirectory, File(args.destination), reporter, classpathAbiSnapshotsDir)
 
     override fun destinationDir(args: K2JVMCompilerArguments): File =
             args.destinationAsFile
@@ -191,7 +194,7 @@ class IncrementalJvmCompilerRunner(
 
         val classpathSet = args.classpathAsList.toHashSet()
         val modifiedClasspathEntries = changedFiles.modified.filter { it in classpathSet }
-        val classpathChanges = getClasspathChanges(modifiedClasspathEntries, lastBuildInfo)
+        val classpathChanges = getClasspathChanges(modifiedClasspathEntries, lastBuildInfo, caches)
         if (classpathChanges !is ChangesEither.Known) {
             return CompilationMode.Rebuild { "could not get changes from modified classpath entries: ${reporter.pathsAsString(modifiedClasspathEntries)}" }
         }
@@ -276,22 +279,30 @@ class IncrementalJvmCompilerRunner(
 
     private fun getClasspathChanges(
             modifiedClasspath: List<File>,
-            lastBuildInfo: BuildInfo?
+            lastBuildInfo: BuildInfo?,
+            caches: IncrementalJvmCachesManager
     ): ChangesEither {
         if (modifiedClasspath.isEmpty()) {
             reporter.report {"No classpath changes"}
             return ChangesEither.Known()
         }
 
-        val lastBuildTS = lastBuildInfo?.startTS
-        if (lastBuildTS == null) {
-            reporter.report {"Could not determine last build timestamp"}
-            return ChangesEither.Unknown()
-        }
-
         val symbols = HashSet<LookupSymbol>()
         val fqNames = HashSet<FqName>()
         for (file in modifiedClasspath) {
+            val abiChanges = caches.classpathAbiSnapshots.getChanges(file, listOf(caches.platformCache))
+            if (abiChanges != null) {
+                symbols.addAll(abiChanges.dirtyLookupSymbols)
+                fqNames.addAll(abiChanges.dirtyClassesFqNames)
+                continue
+            }
+
+            val lastBuildTS = lastBuildInfo?.startTS
+            if (lastBuildTS == null) {
+                reporter.report {"Could not determine last build timestamp"}
+                return ChangesEither.Unknown()
+            }
+
             val diffs = artifactChangesProvider?.getChanges(file, lastBuildTS)
 
             if (diffs == null) {
@@ -320,6 +331,12 @@ class IncrementalJvmCompilerRunner(
         }
     }
 
+    override fun postBuildHook(args: K2JVMCompilerArguments, caches: IncrementalJvmCachesManager, exitCode: ExitCode) {
+        if (exitCode == ExitCode.OK) {
+            caches.classpathAbiSnapshots.update(args.classpathAsList)
+        }
+    }
+
     override fun postCompilationHook(exitCode: ExitCode) {
         if (exitCode == ExitCode.OK) {
             // TODO: Is it ok that argument always was an empty list?
@@ -342,6 +359,10 @@ class IncrementalJvmCompilerRunner(
         )
     }
 
+    override fun collectPossibleChanges(caches: IncrementalJvmCachesManager, sources: Collection<File>, changesCollector: ChangesCollector) {
+        caches.platformCache.collectAllDeclarations(sources, changesCollector)
+    }
+
     override fun runWithNoDirtyKotlinSources(caches: IncrementalJvmCachesManager): Boolean =
             caches.platformCache.getObsoleteJavaClasses().isNotEmpty() || changedUntrackedJavaClasses.isNotEmpty()
 
@@ -18,7 +18,7 @@ package org.jetbrains.kotlin.incremental
 
 import java.io.File
 
-internal const val STANDALONE_CACHE_VERSION = 2
+internal const val STANDALONE_CACHE_VERSION = 3
 internal const val STANDALONE_VERSION_FILE_NAME = "standalone-ic-format-version.txt"
 
 fun standaloneCacheVersion(dataRoot: File): CacheVersion =
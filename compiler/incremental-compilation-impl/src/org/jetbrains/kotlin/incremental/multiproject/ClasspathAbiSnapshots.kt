@@ -0,0 +1,101 @@
+/*
+ * Copyright 2000-2018 JetBrains s.r.o. Use of this source code is governed by the Apache 2.0 license
+ * that can be found in the license/LICENSE.txt file.
+ */
+
+package org.jetbrains.kotlin.incremental.multiproject
+
+import org.jetbrains.kotlin.incremental.*
+import org.jetbrains.kotlin.incremental.snapshots.FastFileSnapshotProviderImpl
+import org.jetbrains.kotlin.incremental.snapshots.FileSnapshotMap
+import org.jetbrains.kotlin.incremental.storage.BasicMapsOwner
+import java.io.*
+import java.util.concurrent.TimeUnit
+
+// Allows to get changes of classpath jars without build history of the modules which produced them, by comparing
+// ABI snapshots of a jar before and after the change, see JarAbiSnapshot.
+// Hashes of the contents of the jars used by the last successful build are kept in the caches. Snapshots themselves are kept
+// by content hash in snapshotsDir, which is not cleaned on rebuild and may be shared by several modules (e.g. by all modules compiled
+// by a daemon), so a snapshot of each version of a jar is computed only once. Snapshots not used by any module for a while are deleted.
+class ClasspathAbiSnapshots(
+        cachesDir: File,
+        private val snapshotsDir: File,
+        private val reporter: ICReporter
+) : BasicMapsOwner(cachesDir) {
+    private val jarSnapshots = registerMap(FileSnapshotMap("classpath-jars".storageFile))
+
+    // Returns null if changes are unknown, e.g. the jar was not used by the last build
+    fun getChanges(jar: File, caches: Iterable<IncrementalCacheCommon<*>>): DirtyData? {
+        if (!jar.isJar()) return null
+
+        val oldHash = jarSnapshots[jar]?.hash ?: return null
+        val oldSnapshot = readSnapshot(oldHash) ?: return null
+        val newSnapshot = getOrComputeSnapshot(jar, FastFileSnapshotProviderImpl()[jar].hash)
+
+        val changesCollector = ChangesCollector()
+        newSnapshot.collectChanges(oldSnapshot, changesCollector)
+        return changesCollector.getDirtyData(caches, reporter)
+    }
+
+    // Should be called after a successful build, so that the next build compares jars with their versions used by this one
+    fun update(classpath: Iterable<File>) {
+        val jars = classpath.filter { it.isJar() }
+        jarSnapshots.compareAndUpdate(jars)
+
+        val now = System.currentTimeMillis()
+        for (jar in jars) {
+            val hash = jarSnapshots[jar]?.hash ?: continue
+            val file = snapshotFile(hash)
+            if (file.exists()) {
+                // Marks the snapshot as used without reading it
+                file.setLastModified(now)
+            }
+            else {
+                computeSnapshot(jar, hash)
+            }
+        }
+
+        // Other modules may still use a snapshot which is not used by this one, so only long unused snapshots are deleted
+        snapshotsDir.listFiles()?.filter { now - it.lastModified() > UNUSED_SNAPSHOT_TTL_MS }?.forEach { it.delete() }
+    }
+
+    private fun getOrComputeSnapshot(jar: File, hash: ByteArray): JarAbiSnapshot =
+            readSnapshot(hash) ?: computeSnapshot(jar, hash)
+
+    private fun computeSnapshot(jar: File, hash: ByteArray): JarAbiSnapshot {
+        reporter.report { "Computing ABI snapshot of ${reporter.pathsAsString(jar)}" }
+        val snapshot = JarAbiSnapshot.compute(jar)
+
+        val file = snapshotFile(hash)
+        snapshotsDir.mkdirs()
+        // Unique, because another compilation may compute the same snapshot at the same time
+        val tmpFile = File.createTempFile(file.nameWithoutExtension, ".tmp", snapshotsDir)
+        DataOutputStream(BufferedOutputStream(FileOutputStream(tmpFile))).use { JarAbiSnapshot.save(it, snapshot) }
+        if (!tmpFile.renameTo(file)) {
+            tmpFile.delete()
+        }
+        return snapshot
+    }
+
+    private fun readSnapshot(hash: ByteArray): JarAbiSnapshot? {
+        val file = snapshotFile(hash)
+        if (!file.exists()) return null
+
+        return try {
+            DataInputStream(BufferedInputStream(FileInputStream(file))).use { JarAbiSnapshot.read(it) }
+        }
+        catch (e: IOException) {
+            reporter.report { "Could not read ABI snapshot $file: $e" }
+            null
+        }
+    }
+
+    private fun snapshotFile(hash: ByteArray): File =
+            File(snapshotsDir, hash.joinToString("") { String.format("%02x", it) } + ".abi")
+
+    private fun File.isJar(): Boolean = isFile && extension.equals("jar", ignoreCase = true)
+
+    private companion object {
+        val UNUSED_SNAPSHOT_TTL_MS = TimeUnit.DAYS.toMillis(7)
+    }
+}
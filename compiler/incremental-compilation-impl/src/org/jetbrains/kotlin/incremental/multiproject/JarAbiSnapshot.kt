@@ -0,0 +1,258 @@
+/*
+ * Copyright 2000-2018 JetBrains s.r.o. Use of this source code is governed by the Apache 2.0 license
+ * that can be found in the license/LICENSE.txt file.
+ */
+
+package org.jetbrains.kotlin.incremental.multiproject
+
+import org.jetbrains.kotlin.incremental.ChangesCollector
+import org.jetbrains.kotlin.incremental.md5
+import org.jetbrains.kotlin.incremental.storage.ProtoMapValue
+import org.jetbrains.kotlin.incremental.storage.ProtoMapValueExternalizer
+import org.jetbrains.kotlin.incremental.toProtoData
+import org.jetbrains.kotlin.inline.inlineFunctionsJvmNames
+import org.jetbrains.kotlin.load.kotlin.FileBasedKotlinClass
+import org.jetbrains.kotlin.load.kotlin.header.KotlinClassHeader
+import org.jetbrains.kotlin.name.ClassId
+import org.jetbrains.kotlin.name.FqName
+import org.jetbrains.kotlin.resolve.jvm.JvmClassName
+import org.jetbrains.kotlin.serialization.jvm.BitEncoding
+import org.jetbrains.org.objectweb.asm.*
+import java.io.DataInput
+import java.io.DataOutput
+import java.io.File
+import java.util.*
+import java.util.zip.ZipFile
+
+// ABI of the classes of a jar: Kotlin metadata of Kotlin classes, and hashes of non-private declarations of Java classes,
+// Kotlin constants and bodies of Kotlin inline functions.
+// Changes between two snapshots are reported to ChangesCollector the same way as changes of the classes compiled in the module.
+internal class JarAbiSnapshot(val classes: Map<String, ClassAbiSnapshot>) {
+    fun collectChanges(oldSnapshot: JarAbiSnapshot, changesCollector: ChangesCollector) {
+        for (internalName in oldSnapshot.classes.keys + classes.keys) {
+            collectClassChanges(JvmClassName.byInternalName(internalName), oldSnapshot.classes[internalName], classes[internalName], changesCollector)
+        }
+    }
+
+    private fun collectClassChanges(
+            className: JvmClassName,
+            oldClass: ClassAbiSnapshot?,
+            newClass: ClassAbiSnapshot?,
+            changesCollector: ChangesCollector
+    ) {
+        val oldProto = oldClass?.proto
+        val newProto = newClass?.proto
+        if (oldProto != null || newProto != null) {
+            val packageFqName = className.packageFqName
+            changesCollector.collectProtoChanges(
+                    oldProto?.toProtoData(packageFqName), newProto?.toProtoData(packageFqName), collectAllMembersForNewClass = true
+            )
+        }
+
+        val isJavaClass = (oldClass != null && !oldClass.isKotlin) || (newClass != null && !newClass.isKotlin)
+        if (isJavaClass && oldClass?.signatureHash != newClass?.signatureHash) {
+            changesCollector.collectSignature(className.fqNameForClassNameWithoutDollars, areSubclassesAffected = true)
+        }
+
+        val scope = (newClass ?: oldClass)!!.scope
+        val oldMembers = oldClass?.memberHashes ?: emptyMap()
+        val newMembers = newClass?.memberHashes ?: emptyMap()
+        for (name in oldMembers.keys + newMembers.keys) {
+            changesCollector.collectMemberIfValueWasChanged(scope, name, oldMembers[name], newMembers[name])
+        }
+    }
+
+    companion object {
+        private const val VERSION = 1
+
+        fun compute(jar: File): JarAbiSnapshot {
+            val classes = HashMap<String, ClassAbiSnapshot>()
+            ZipFile(jar).use { zipFile ->
+                for (entry in zipFile.entries()) {
+                    if (entry.isDirectory || !entry.name.endsWith(".class") || entry.name.startsWith("META-INF/")) continue
+
+                    val bytes = zipFile.getInputStream(entry).use { it.readBytes() }
+                    val (internalName, snapshot) = ClassAbiSnapshot.compute(bytes) ?: continue
+                    classes[internalName] = snapshot
+                }
+            }
+            return JarAbiSnapshot(classes)
+        }
+
+        fun save(output: DataOutput, snapshot: JarAbiSnapshot) {
+            output.writeInt(VERSION)
+            output.writeInt(snapshot.classes.size)
+            for ((internalName, classSnapshot) in snapshot.classes) {
+                output.writeUTF(internalName)
+                ClassAbiSnapshot.save(output, classSnapshot)
+            }
+        }
+
+        // Returns null if the snapshot was written by a different version
+        fun read(input: DataInput): JarAbiSnapshot? {
+            if (input.readInt() != VERSION) return null
+
+            val size = input.readInt()
+            val classes = HashMap<String, ClassAbiSnapshot>(size)
+            repeat(size) {
+                classes[input.readUTF()] = ClassAbiSnapshot.read(input)
+            }
+            return JarAbiSnapshot(classes)
+        }
+    }
+}
+
+internal class ClassAbiSnapshot(
+        val isKotlin: Boolean,
+        // class for Kotlin classes and Java classes, package for Kotlin package parts and multifile facades
+        val scope: FqName,
+        // null for Java classes and Kotlin multifile facades
+        val proto: ProtoMapValue?,
+        // hash of the class declaration of Java classes, 0 for Kotlin classes
+        val signatureHash: Long,
+        // hashes of non-private members of Java classes, or of constants and inline functions of Kotlin classes, by name
+        val memberHashes: Map<String, Long>
+) {
+    companion object {
+        // Returns null for classes which are not accessible from other modules, e.g. Kotlin lambdas
+        fun compute(bytes: ByteArray): Pair<String, ClassAbiSnapshot>? {
+            val kotlinClass = FileBasedKotlinClass.create(bytes) { classId, classVersion, header, innerClasses ->
+                JarEntryKotlinClass(bytes, classId, classVersion, header, innerClasses)
+            }
+            if (kotlinClass == null) return computeForJavaClass(bytes)
+            if (kotlinClass.classId.isLocal) return null
+
+            val header = kotlinClass.classHeader
+            val data = header.data
+            val strings = header.strings
+            val proto = when (header.kind) {
+                KotlinClassHeader.Kind.CLASS, KotlinClassHeader.Kind.FILE_FACADE, KotlinClassHeader.Kind.MULTIFILE_CLASS_PART -> {
+                    // e.g. metadata of an incompatible version, only the JVM signatures are compared then
+                    if (data == null || strings == null) return computeForJavaClass(bytes)
+
+                    ProtoMapValue(header.kind != KotlinClassHeader.Kind.CLASS, BitEncoding.decodeBytes(data), strings)
+                }
+                KotlinClassHeader.Kind.MULTIFILE_CLASS -> null
+                else -> return null
+            }
+
+            val className = JvmClassName.byClassId(kotlinClass.classId)
+            val scope = if (header.kind == KotlinClassHeader.Kind.CLASS) className.fqNameForClassNameWithoutDollars else className.packageFqName
+
+            val members = MemberHashesBuilder()
+            val inlineFunctions = inlineFunctionsJvmNames(header)
+            ClassReader(bytes).accept(object : ClassVisitor(Opcodes.ASM5) {
+                override fun visitField(access: Int, name: String, desc: String, signature: String?, value: Any?): FieldVisitor? {
+                    val staticFinal = Opcodes.ACC_STATIC or Opcodes.ACC_FINAL or Opcodes.ACC_PRIVATE
+                    if (value != null && access and staticFinal == Opcodes.ACC_STATIC or Opcodes.ACC_FINAL) {
+                        members.add(name, "$desc=$value")
+                    }
+                    return null
+                }
+
+                override fun visitMethod(access: Int, name: String, desc: String, signature: String?, exceptions: Array<out String>?): MethodVisitor? {
+                    if (name + desc !in inlineFunctions) return null
+
+                    val dummyClassWriter = ClassWriter(Opcodes.ASM5)
+                    return object : MethodVisitor(Opcodes.ASM5, dummyClassWriter.visitMethod(0, name, desc, null, exceptions)) {
+                        override fun visitEnd() {
+                            members.add(name, desc + java.lang.Long.toHexString(dummyClassWriter.toByteArray().md5()))
+                        }
+                    }
+                }
+            }, 0)
+
+            return className.internalName to ClassAbiSnapshot(isKotlin = true, scope = scope, proto = proto, signatureHash = 0,
+                                                              memberHashes = members.build())
+        }
+
+        private fun computeForJavaClass(bytes: ByteArray): Pair<String, ClassAbiSnapshot>? {
+            var internalName: String? = null
+            var signatureHash = 0L
+            val members = MemberHashesBuilder()
+
+            ClassReader(bytes).accept(object : ClassVisitor(Opcodes.ASM5) {
+                override fun visit(version: Int, access: Int, name: String, signature: String?, superName: String?, interfaces: Array<out String>?) {
+                    if (access and Opcodes.ACC_SYNTHETIC != 0 || name.endsWith("/package-info") || name == "module-info") return
+
+                    internalName = name
+                    signatureHash = "$access $signature $superName ${interfaces?.joinToString()}".toByteArray().md5()
+                }
+
+                override fun visitField(access: Int, name: String, desc: String, signature: String?, value: Any?): FieldVisitor? {
+                    if (isAccessible(access)) {
+                        members.add(name, "$access $desc $signature $value")
+                    }
+                    return null
+                }
+
+                override fun visitMethod(access: Int, name: String, desc: String, signature: String?, exceptions: Array<out String>?): MethodVisitor? {
+                    if (isAccessible(access)) {
+                        members.add(name, "$access $desc $signature ${exceptions?.joinToString()}")
+                    }
+                    return null
+                }
+
+                private fun isAccessible(access: Int) = access and (Opcodes.ACC_PRIVATE or Opcodes.ACC_SYNTHETIC) == 0
+            }, ClassReader.SKIP_CODE or ClassReader.SKIP_DEBUG or ClassReader.SKIP_FRAMES)
+
+            val name = internalName ?: return null
+            return name to ClassAbiSnapshot(isKotlin = false, scope = JvmClassName.byInternalName(name).fqNameForClassNameWithoutDollars,
+                                            proto = null, signatureHash = signatureHash, memberHashes = members.build())
+        }
+
+        fun save(output: DataOutput, snapshot: ClassAbiSnapshot) {
+            output.writeBoolean(snapshot.isKotlin)
+            output.writeUTF(snapshot.scope.asString())
+            output.writeBoolean(snapshot.proto != null)
+            snapshot.proto?.let { ProtoMapValueExternalizer.save(output, it) }
+            output.writeLong(snapshot.signatureHash)
+            output.writeInt(snapshot.memberHashes.size)
+            for ((name, hash) in snapshot.memberHashes) {
+                output.writeUTF(name)
+                output.writeLong(hash)
+            }
+        }
+
+        fun read(input: DataInput): ClassAbiSnapshot {
+            val isKotlin = input.readBoolean()
+            val scope = FqName(input.readUTF())
+            val proto = if (input.readBoolean()) ProtoMapValueExternalizer.read(input) else null
+            val signatureHash = input.readLong()
+            val memberHashes = HashMap<String, Long>()
+            repeat(input.readInt()) {
+                memberHashes[input.readUTF()] = input.readLong()
+            }
+            return ClassAbiSnapshot(isKotlin, scope, proto, signatureHash, memberHashes)
+        }
+    }
+
+    // Overloads are hashed together, so that a change of any of them is reported as a change of the name
+    private class MemberHashesBuilder {
+        private val signatures = HashMap<String, MutableList<String>>()
+
+        fun add(name: String, signature: String) {
+            signatures.getOrPut(name) { ArrayList() }.add(signature)
+        }
+
+        fun build(): Map<String, Long> =
+                signatures.mapValues { (_, memberSignatures) -> memberSignatures.sorted().joinToString("\n").toByteArray().md5() }
+    }
+
+    private class JarEntryKotlinClass(
+            private val bytes: ByteArray,
+            classId: ClassId,
+            classVersion: Int,
+            classHeader: KotlinClassHeader,
+            innerClasses: InnerClassesInfo
+    ) : FileBasedKotlinClass(classId, classVersion, classHeader, innerClasses) {
+        override val location: String
+            get() = classId.asString()
+
+        override fun getFileContents(): ByteArray = bytes
+
+        override fun hashCode(): Int = classId.hashCode()
+        override fun equals(other: Any?): Boolean = other is JarEntryKotlinClass && classId == other.classId
+        override fun toString(): String = "${this::class.java}: $classId"
+    }
+}
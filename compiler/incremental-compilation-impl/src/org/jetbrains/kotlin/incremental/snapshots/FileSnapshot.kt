@@ -19,11 +19,19 @@ package org.jetbrains.kotlin.incremental.snapshots
 import java.io.File
 import java.util.*
 
+// Snapshots are equal if the files have the same contents. The timestamp and the file key (e.g. the inode) are only used to skip
+// hashing of files which were not touched since the snapshot was taken, see FastFileSnapshotProviderImpl.
 class FileSnapshot(
         val file: File,
         val length: Long,
-        val hash: ByteArray
+        val hash: ByteArray,
+        val lastModified: Long = UNKNOWN_TIMESTAMP,
+        val fileKey: String? = null
 ) {
+    companion object {
+        const val UNKNOWN_TIMESTAMP = -1L
+    }
+
     init {
         assert(!file.isDirectory)
     }
@@ -26,8 +26,11 @@ class FileSnapshotMap(storageFile: File) : BasicStringMap<FileSnapshot>(storageF
     override fun dumpValue(value: FileSnapshot): String =
             value.toString()
 
+    operator fun get(file: File): FileSnapshot? =
+            storage[file.canonicalPath]
+
     fun compareAndUpdate(newFiles: Iterable<File>): ChangedFiles.Known {
-        val snapshotProvider = SimpleFileSnapshotProviderImpl()
+        val snapshotProvider = FastFileSnapshotProviderImpl()
         val newOrModified = ArrayList<File>()
         val removed = ArrayList<File>()
 
@@ -39,15 +42,26 @@ class FileSnapshotMap(storageFile: File) : BasicStringMap<FileSnapshot>(storageF
             }
         }
 
+        val filesToHash = ArrayList<File>()
+        val oldSnapshots = ArrayList<FileSnapshot?>()
         for (path in newPaths) {
             val file = File(path)
             val oldSnapshot = storage[path]
-            val newSnapshot = snapshotProvider[file]
+            if (oldSnapshot != null && snapshotProvider.isUpToDate(oldSnapshot, file)) continue
+
+            filesToHash.add(file)
+            oldSnapshots.add(oldSnapshot)
+        }
 
+        val newSnapshots = snapshotProvider.getAll(filesToHash)
+        for ((index, newSnapshot) in newSnapshots.withIndex()) {
+            val file = filesToHash[index]
+            val oldSnapshot = oldSnapshots[index]
             if (oldSnapshot == null || oldSnapshot != newSnapshot) {
                 newOrModified.add(file)
-                storage[path] = newSnapshot
             }
+            // unchanged files are updated too, so that their new timestamps are trusted next time
+            storage[file.path] = newSnapshot
         }
 
         return ChangedFiles.Known(newOrModified, removed)
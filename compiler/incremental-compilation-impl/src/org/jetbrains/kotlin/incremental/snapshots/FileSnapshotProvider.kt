@@ -17,6 +17,11 @@
 package org.jetbrains.kotlin.incremental.snapshots
 
 import java.io.File
+import java.nio.file.Files
+import java.nio.file.attribute.BasicFileAttributes
+import java.util.concurrent.Callable
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.Executors
 
 interface FileSnapshotProvider {
     operator fun get(file: File): FileSnapshot
@@ -28,4 +33,56 @@ class SimpleFileSnapshotProviderImpl : FileSnapshotProvider {
         val hash = file.md5
         return FileSnapshot(file, length, hash)
     }
-}
\ No newline at end of file
+}
+
+// Hashes contents with 128-bit MurmurHash3 instead of MD5, and allows to skip hashing of files
+// which have the same length, timestamp and file key (e.g. inode) as when their old snapshots were taken.
+class FastFileSnapshotProviderImpl(private val snapshotTime: Long = System.currentTimeMillis()) : FileSnapshotProvider {
+    companion object {
+        // A file modified shortly before its snapshot was taken may be modified again without changing the timestamp,
+        // because of the timestamp granularity of some file systems
+        private const val RACY_INTERVAL_MS = 2000L
+
+        private const val MIN_FILES_PER_THREAD = 16
+    }
+
+    override fun get(file: File): FileSnapshot {
+        val attributes = file.attributes()
+        val lastModified = attributes.lastModifiedTime().toMillis()
+        val trustedLastModified = if (snapshotTime - lastModified > RACY_INTERVAL_MS) lastModified else FileSnapshot.UNKNOWN_TIMESTAMP
+        return FileSnapshot(file, attributes.size(), file.contentHash, trustedLastModified, attributes.fileKey()?.toString())
+    }
+
+    // Snapshots of different files are taken in parallel
+    fun getAll(files: List<File>): List<FileSnapshot> {
+        val threads = minOf(Runtime.getRuntime().availableProcessors(), files.size / MIN_FILES_PER_THREAD)
+        if (threads <= 1) return files.map { get(it) }
+
+        val executor = Executors.newFixedThreadPool(threads)
+        try {
+            val futures = files.map { file -> executor.submit(Callable { get(file) }) }
+            return futures.map {
+                try {
+                    it.get()
+                }
+                catch (e: ExecutionException) {
+                    throw e.cause ?: e
+                }
+            }
+        }
+        finally {
+            executor.shutdownNow()
+        }
+    }
+
+    fun isUpToDate(snapshot: FileSnapshot, file: File): Boolean {
+        if (snapshot.lastModified == FileSnapshot.UNKNOWN_TIMESTAMP || !file.exists()) return false
+
+        val attributes = file.attributes()
+        return attributes.size() == snapshot.length &&
+               attributes.lastModifiedTime().toMillis() == snapshot.lastModified &&
+               attributes.fileKey()?.toString() == snapshot.fileKey
+    }
+
+    private fun File.attributes(): BasicFileAttributes = Files.readAttributes(toPath(), BasicFileAttributes::class.java)
+}
@@ -17,6 +17,9 @@
 package org.jetbrains.kotlin.incremental.snapshots
 
 import java.io.File
+import java.io.FileInputStream
+import java.nio.ByteBuffer
+import java.nio.ByteOrder
 import java.security.MessageDigest
 
 internal val File.md5: ByteArray
@@ -34,3 +37,106 @@ internal val File.md5: ByteArray
         }
         return messageDigest.digest()
     }
+
+// Contents are read in pieces of this size into a buffer reused by each thread, so large files are neither kept in memory
+// nor mapped (mapped buffers are only released by GC, which keeps the files open meanwhile)
+private const val READ_BUFFER_SIZE = 64 * 1024
+
+private val readBuffer = object : ThreadLocal<ByteBuffer>() {
+    override fun initialValue(): ByteBuffer = ByteBuffer.allocate(READ_BUFFER_SIZE)
+}
+
+internal val File.contentHash: ByteArray
+    get() {
+        val hash = MurmurHash3()
+        val buffer = readBuffer.get()
+        FileInputStream(this).channel.use { channel ->
+            while (true) {
+                buffer.clear()
+                if (channel.read(buffer) < 0) break
+                buffer.flip()
+                hash.update(buffer)
+            }
+        }
+        return hash.digest()
+    }
+
+private const val C1 = -0x783c846eeebdac2bL // 0x87c37b91114253d5
+private const val C2 = 0x4cf5ad432745937fL
+
+// 128-bit MurmurHash3 (x64 variant) of the bytes passed to update in pieces of any size
+internal class MurmurHash3 {
+    private var h1 = 0L
+    private var h2 = 0L
+    private var length = 0L
+    // bytes which don't make a whole block yet
+    private val tail = ByteBuffer.allocate(16).order(ByteOrder.LITTLE_ENDIAN)
+
+    fun update(bytes: ByteBuffer) {
+        val buffer = bytes.duplicate().order(ByteOrder.LITTLE_ENDIAN)
+        length += buffer.remaining()
+
+        if (tail.position() > 0) {
+            while (tail.hasRemaining() && buffer.hasRemaining()) {
+                tail.put(buffer.get())
+            }
+            if (tail.hasRemaining()) return
+
+            tail.flip()
+            mixBlock(tail.long, tail.long)
+            tail.clear()
+        }
+
+        while (buffer.remaining() >= 16) {
+            mixBlock(buffer.long, buffer.long)
+        }
+        tail.put(buffer)
+    }
+
+    fun digest(): ByteArray {
+        val tailLength = tail.position()
+        var k1 = 0L
+        var k2 = 0L
+        for (i in tailLength - 1 downTo 0) {
+            val byte = tail.get(i).toLong() and 0xFF
+            if (i >= 8) k2 = k2 or (byte shl ((i - 8) * 8)) else k1 = k1 or (byte shl (i * 8))
+        }
+        if (tailLength > 8) h2 = h2 xor mixK2(k2)
+        if (tailLength > 0) h1 = h1 xor mixK1(k1)
+
+        h1 = h1 xor length
+        h2 = h2 xor length
+        h1 += h2
+        h2 += h1
+        h1 = fmix(h1)
+        h2 = fmix(h2)
+        h1 += h2
+        h2 += h1
+
+        return ByteBuffer.allocate(16).putLong(h1).putLong(h2).array()
+    }
+
+    private fun mixBlock(k1: Long, k2: Long) {
+        h1 = h1 xor mixK1(k1)
+        h1 = java.lang.Long.rotateLeft(h1, 27) + h2
+        h1 = h1 * 5 + 0x52dce729
+
+        h2 = h2 xor mixK2(k2)
+        h2 = java.lang.Long.rotateLeft(h2, 31) + h1
+        h2 = h2 * 5 + 0x38495ab5
+    }
+}
+
+private fun mixK1(k1: Long): Long = java.lang.Long.rotateLeft(k1 * C1, 31) * C2
+
+private fun mixK2(k2: Long): Long = java.lang.Long.rotateLeft(k2 * C2, 33) * C1
+
+private fun fmix(value: Long): Long {
+    var k = value
+    k = k xor (k ushr 33)
+    k *= -0xae502812aa7333L // 0xff51afd7ed558ccd
+    k = k xor (k ushr 33)
+    k *= -0x3b314601e57a13adL // 0xc4ceb9fe1a85ec53
+    k = k xor (k ushr 33)
+    return k
+}
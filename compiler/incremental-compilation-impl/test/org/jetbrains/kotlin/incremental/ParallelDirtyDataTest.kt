@@ -0,0 +1,137 @@
+/*
+ * Copyright 2000-2018 JetBrains s.r.o. Use of this source code is governed by the Apache 2.0 license
+ * that can be found in the license/LICENSE.txt file.
+ */
+
+package org.jetbrains.kotlin.incremental
+
+import org.jetbrains.kotlin.TestWithWorkingDir
+import org.jetbrains.kotlin.cli.common.ExitCode
+import org.jetbrains.kotlin.cli.common.arguments.K2JVMCompilerArguments
+import org.jetbrains.kotlin.incremental.testingUtils.assertEqualDirectories
+import org.jetbrains.kotlin.incremental.utils.TestMessageCollector
+import org.jetbrains.kotlin.test.KotlinTestUtils
+import java.io.File
+
+/**
+ * A change of `Base.foo` is propagated in several rounds: users of `foo` infer the changed type for their own functions,
+ * which makes the clients of these functions and `base.kt` itself dirty
+ */
+class ParallelDirtyDataTest : TestWithWorkingDir() {
+    override fun tearDown() {
+        IncrementalParallelism.minChunkSizeOverride = null
+        System.clearProperty(IncrementalCompilerRunner.PREDICTIVE_DIRTY_FILES_PROPERTY)
+        super.tearDown()
+    }
+
+    fun testParallelDirtyDataIsSameAsSequential() {
+        val sequential = buildWithChange("sequential", minChunkSize = Int.MAX_VALUE, isPredictive = false)
+        val parallel = buildWithChange("parallel", minChunkSize = 1, isPredictive = false)
+
+        assertTrue("The change should take several rounds: ${sequential.rounds}", sequential.rounds.size >= 3)
+        assertEquals(sequential.rounds, parallel.rounds)
+        assertEqualDirectories(sequential.outDir, parallel.outDir, forgiveExtraFiles = false)
+    }
+
+    fun testPredictedDirtyFilesAreCompiledInEarlierRound() {
+        val normal = buildWithChange("normal", minChunkSize = 1, isPredictive = false)
+        val predictive = buildWithChange("predictive", minChunkSize = 1, isPredictive = true)
+
+        val clients = (1..FILES).map { "client$it.kt" }
+        assertFalse(normal.rounds[1].containsAll(clients))
+        assertTrue(predictive.rounds[1].containsAll(clients))
+
+        assertEquals(normal.rounds.flatten().toSet(), predictive.rounds.flatten().toSet())
+        assertEqualDirectories(normal.outDir, predictive.outDir, forgiveExtraFiles = false)
+    }
+
+    fun testMissedPredictionIsCompiledInNextRound() {
+        // base.kt is compiled in the first round, so it isn't predicted to be affected by the users of Base.foo,
+        // the normal fixpoint finds it after they are compiled
+        val normal = buildWithChange("normal", minChunkSize = Int.MAX_VALUE, isPredictive = false)
+        val predictive = buildWithChange("predictive", minChunkSize = Int.MAX_VALUE, isPredictive = true)
+
+        assertTrue("base.kt" in predictive.rounds.last())
+        assertEqualDirectories(normal.outDir, predictive.outDir, forgiveExtraFiles = false)
+    }
+
+    private class BuildResult(val rounds: List<Set<String>>, val outDir: File)
+
+    private fun buildWithChange(name: String, minChunkSize: Int, isPredictive: Boolean): BuildResult {
+        IncrementalParallelism.minChunkSizeOverride = minChunkSize
+        System.setProperty(IncrementalCompilerRunner.PREDICTIVE_DIRTY_FILES_PROPERTY, isPredictive.toString())
+
+        val projectDir = File(workingDir, name)
+        val srcDir = File(projectDir, "src")
+        val cacheDir = File(projectDir, "caches")
+        val outDir = File(projectDir, "out")
+
+        File(srcDir, "base.kt").writeText(base(fooType = "Int", fooValue = "1"))
+        for (index in 1..FILES) {
+            File(srcDir, "user$index.kt").writeText(user(index))
+            File(srcDir, "client$index.kt").writeText(client(index))
+        }
+        make(cacheDir, srcDir, outDir)
+
+        File(srcDir, "base.kt").writeText(base(fooType = "Long", fooValue = "1L"))
+        return BuildResult(make(cacheDir, srcDir, outDir), outDir)
+    }
+
+    private fun make(cacheDir: File, srcDir: File, outDir: File): List<Set<String>> {
+        val reporter = RoundsReporter()
+        val messageCollector = TestMessageCollector()
+        val args = K2JVMCompilerArguments().apply {
+            moduleName = "test"
+            destination = outDir.path
+            classpath = listOf(File("dist/kotlinc/lib/kotlin-stdlib.jar"), KotlinTestUtils.getAnnotationsJar())
+                    .joinToString(File.pathSeparator) { it.canonicalPath }
+        }
+        makeIncrementally(cacheDir, listOf(srcDir), args, messageCollector, reporter)
+        assertEquals(messageCollector.errors.joinToString("\n"), ExitCode.OK, reporter.exitCode)
+        return reporter.rounds
+    }
+
+    private class RoundsReporter : ICReporter {
+        val rounds = arrayListOf<Set<String>>()
+        var exitCode = ExitCode.OK
+
+        override fun report(message: () -> String) {
+        }
+
+        override fun reportCompileIteration(sourceFiles: Collection<File>, exitCode: ExitCode) {
+            rounds.add(sourceFiles.mapTo(HashSet()) { it.name })
+            this.exitCode = exitCode
+        }
+    }
+
+    private fun base(fooType: String, fooValue: String) =
+        """
+        package base
+
+        open class Base {
+            open fun foo(): $fooType = $fooValue
+        }
+
+        fun useUser() = users.User1().use1()
+        """.trimIndent()
+
+    private fun user(index: Int) =
+        """
+        package users
+
+        class User$index : base.Base() {
+            fun use$index() = foo() + $index
+        }
+        """.trimIndent()
+
+    private fun client(index: Int) =
+        """
+        package clients
+
+        fun client$index() = users.User$index().use$index()
+        """.trimIndent()
+
+    private companion object {
+        const val FILES = 20
+    }
+}
@@ -0,0 +1,73 @@
+/*
+ * Copyright 2000-2018 JetBrains s.r.o. Use of this source code is governed by the Apache 2.0 license
+ * that can be found in the license/LICENSE.txt file.
+ */
+
+package org.jetbrains.kotlin.incremental.multiproject
+
+import org.jetbrains.kotlin.TestWithWorkingDir
+import org.jetbrains.kotlin.incremental.ChangesCollector
+import org.jetbrains.org.objectweb.asm.ClassWriter
+import org.jetbrains.org.objectweb.asm.Opcodes
+import org.junit.Assert.assertEquals
+import org.junit.Test
+import java.io.*
+import java.util.zip.ZipEntry
+import java.util.zip.ZipOutputStream
+
+class JarAbiSnapshotTest : TestWithWorkingDir() {
+    @Test
+    fun testJavaClassChanges() {
+        val oldJar = createJar("old.jar",
+                               "a/A" to listOf("foo" to Opcodes.ACC_PUBLIC, "bar" to Opcodes.ACC_PUBLIC, "baz" to Opcodes.ACC_PRIVATE),
+                               "a/B" to listOf("foo" to Opcodes.ACC_PUBLIC))
+        val newJar = createJar("new.jar",
+                               "a/A" to listOf("foo" to Opcodes.ACC_PUBLIC, "bar" to Opcodes.ACC_PROTECTED),
+                               "a/C" to listOf("foo" to Opcodes.ACC_PUBLIC))
+
+        assertEquals(
+                listOf("MembersChanged(fqName = a.A, names = [bar])",
+                       "MembersChanged(fqName = a.C, names = [foo])",
+                       "Removed(fqName = a.B, names = [foo])",
+                       "SignatureChanged(fqName = a.B)",
+                       "SignatureChanged(fqName = a.C)"),
+                changes(JarAbiSnapshot.compute(oldJar), JarAbiSnapshot.compute(newJar))
+        )
+    }
+
+    @Test
+    fun testNoChangesAfterSaveAndRead() {
+        val jar = createJar("test.jar", "a/A" to listOf("foo" to Opcodes.ACC_PUBLIC))
+        val snapshot = JarAbiSnapshot.compute(jar)
+
+        val bytes = ByteArrayOutputStream().apply { DataOutputStream(this).use { JarAbiSnapshot.save(it, snapshot) } }.toByteArray()
+        val readSnapshot = DataInputStream(ByteArrayInputStream(bytes)).use { JarAbiSnapshot.read(it) }!!
+
+        assertEquals(emptyList<String>(), changes(readSnapshot, snapshot))
+    }
+
+    private fun changes(oldSnapshot: JarAbiSnapshot, newSnapshot: JarAbiSnapshot): List<String> {
+        val changesCollector = ChangesCollector()
+        newSnapshot.collectChanges(oldSnapshot, changesCollector)
+        return changesCollector.changes().map { it.toString() }.sorted()
+    }
+
+    private fun createJar(name: String, vararg classes: Pair<String, List<Pair<String, Int>>>): File {
+        val file = File(workingDir, name)
+        ZipOutputStream(FileOutputStream(file)).use { output ->
+            for ((className, methods) in classes) {
+                val writer = ClassWriter(0)
+                writer.visit(Opcodes.V1_6, Opcodes.ACC_PUBLIC, className, null, "java/lang/Object", null)
+                for ((methodName, access) in methods) {
+                    writer.visitMethod(access or Opcodes.ACC_ABSTRACT, methodName, "()V", null, null).visitEnd()
+                }
+                writer.visitEnd()
+
+                output.putNextEntry(ZipEntry("$className.class"))
+                output.write(writer.toByteArray())
+                output.closeEntry()
+            }
+        }
+        return file
+    }
+}
@@ -4,6 +4,7 @@ import org.jetbrains.kotlin.TestWithWorkingDir
 import org.junit.Assert.*
 import org.junit.Test
 import java.io.*
+import java.nio.ByteBuffer
 
 class FileSnapshotTest : TestWithWorkingDir() {
     private val fileSnapshotProvider: FileSnapshotProvider
@@ -67,6 +68,45 @@ class FileSnapshotTest : TestWithWorkingDir() {
         assertNotEquals(oldSnapshot, newSnapshot)
     }
 
+    @Test
+    fun testFastProviderTimestamp() {
+        val file = File(workingDir, "1.txt").apply { writeText("file") }
+        val recentSnapshot = FastFileSnapshotProviderImpl()[file]
+        assertFalse(FastFileSnapshotProviderImpl().isUpToDate(recentSnapshot, file))
+
+        file.setLastModified(System.currentTimeMillis() - 10000)
+        val snapshot = FastFileSnapshotProviderImpl()[file]
+        assertTrue(FastFileSnapshotProviderImpl().isUpToDate(snapshot, file))
+        assertTrue(FastFileSnapshotProviderImpl().isUpToDate(saveAndReadBack(snapshot), file))
+        assertEquals(recentSnapshot, snapshot)
+
+        file.writeText("main")
+        assertFalse(FastFileSnapshotProviderImpl().isUpToDate(snapshot, file))
+        assertNotEquals(snapshot, FastFileSnapshotProviderImpl()[file])
+    }
+
+    @Test
+    fun testFastProviderParallel() {
+        val files = (0 until 100).map { i -> File(workingDir, "$i.txt").apply { writeText("file $i".repeat(i * 1000)) } }
+        val provider = FastFileSnapshotProviderImpl()
+        assertEquals(files.map { provider[it] }, provider.getAll(files))
+        assertEquals(files.size, provider.getAll(files).map { it.hash.toList() }.toSet().size)
+    }
+
+    @Test
+    fun testContentHashIsSameForAnySplit() {
+        val bytes = ByteArray(200003) { (it * 31).toByte() }
+        val file = File(workingDir, "large.bin").apply { writeBytes(bytes) }
+        val hash = MurmurHash3().apply { update(ByteBuffer.wrap(bytes)) }.digest()
+        assertArrayEquals(hash, file.contentHash)
+
+        val hashOfPieces = MurmurHash3()
+        for (start in 0 until bytes.size step 7) {
+            hashOfPieces.update(ByteBuffer.wrap(bytes, start, minOf(7, bytes.size - start)))
+        }
+        assertArrayEquals(hash, hashOfPieces.digest())
+    }
+
     private fun saveAndReadBack(snapshot: FileSnapshot): FileSnapshot {
         val byteOut = ByteArrayOutputStream()
         DataOutputStream(byteOut).use { FileSnapshotExternalizer.save(it, snapshot) }
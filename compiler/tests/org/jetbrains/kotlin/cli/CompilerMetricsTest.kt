@@ -0,0 +1,54 @@
+/*
+ * Copyright 2000-2018 JetBrains s.r.o. Use of this source code is governed by the Apache 2.0 license
+ * that can be found in the license/LICENSE.txt file.
+ */
+
+package org.jetbrains.kotlin.cli
+
+import org.jetbrains.kotlin.cli.common.CompilerMetrics
+import org.jetbrains.kotlin.cli.common.CompilerMetrics.Phase
+import org.jetbrains.kotlin.cli.common.ExitCode
+import org.jetbrains.kotlin.cli.common.arguments.K2JVMCompilerArguments
+import org.jetbrains.kotlin.cli.common.messages.MessageCollector
+import org.jetbrains.kotlin.cli.jvm.K2JVMCompiler
+import org.jetbrains.kotlin.config.Services
+import org.jetbrains.kotlin.test.CompilerTestUtil
+import org.jetbrains.kotlin.test.TestCaseWithTmpdir
+import java.io.File
+
+class CompilerMetricsTest : TestCaseWithTmpdir() {
+    private val source = File("compiler/testData/friendPaths/lib.kt")
+
+    fun testMetricsFromServices() {
+        val metrics = CompilerMetrics()
+        val exitCode = K2JVMCompiler().exec(MessageCollector.NONE, Services.Builder().register(CompilerMetrics::class.java, metrics).build(),
+                                            K2JVMCompilerArguments().apply {
+                                                destination = tmpdir.path
+                                                freeArgs = arrayListOf(source.path)
+                                            })
+        assertEquals(ExitCode.OK, exitCode)
+
+        val phases = metrics.phases.associateBy { it.phase }
+        assertEquals(setOf(Phase.PARSE, Phase.ANALYZE, Phase.CODEGEN, Phase.WRITE), phases.keys)
+        for (phase in listOf(Phase.PARSE, Phase.ANALYZE, Phase.CODEGEN)) {
+            val measurement = phases[phase]!!
+            assertEquals(1, measurement.files)
+            assertEquals(source.readLines().size, measurement.lines)
+            assertTrue(measurement.wallTimeNanos > 0)
+        }
+        assertTrue(phases[Phase.WRITE]!!.files > 0)
+    }
+
+    fun testMetricsFile() {
+        val metricsFile = File(tmpdir, "metrics.json")
+        CompilerTestUtil.executeCompilerAssertSuccessful(
+                K2JVMCompiler(), listOf("-d", File(tmpdir, "out").path, "-Xreport-metrics=${metricsFile.path}", source.path)
+        )
+
+        val json = metricsFile.readText()
+        for (phase in Phase.values()) {
+            assertTrue(json, json.contains("\"phase\": \"${phase.name}\""))
+        }
+        assertTrue(json, json.contains("\"counters\": ["))
+    }
+}
@@ -0,0 +1,77 @@
+/*
+ * Copyright 2000-2018 JetBrains s.r.o. Use of this source code is governed by the Apache 2.0 license
+ * that can be found in the license/LICENSE.txt file.
+ */
+
+package org.jetbrains.kotlin.cli
+
+import com.intellij.psi.impl.DebugUtil
+import org.jetbrains.kotlin.cli.jvm.compiler.EnvironmentConfigFiles
+import org.jetbrains.kotlin.cli.jvm.compiler.KotlinCoreEnvironment
+import org.jetbrains.kotlin.config.JVMConfigurationKeys
+import org.jetbrains.kotlin.config.addKotlinSourceRoot
+import org.jetbrains.kotlin.psi.*
+import org.jetbrains.kotlin.test.KotlinTestUtils
+import org.jetbrains.kotlin.test.TestCaseWithTmpdir
+import java.io.File
+
+class ParallelParsingTest : TestCaseWithTmpdir() {
+    fun testSourceFilesAreParsedBeforeAnalysis() {
+        val files = createEnvironment(parsingThreads = 4).getSourceFiles()
+        assertEquals(FILES, files.size)
+        for (file in files) {
+            assertTrue(file.name, file.isContentsLoaded)
+            // Looking into a lazily parseable block parses it, so only the outermost ones are checked
+            assertTrue(file.name, declarationBodiesOf(file).all { it.isParsed })
+        }
+    }
+
+    fun testTreesDoNotDependOnThreadCount() {
+        val sequential = createEnvironment(parsingThreads = 1).getSourceFiles()
+        val parallel = createEnvironment(parsingThreads = 4).getSourceFiles()
+
+        assertEquals(sequential.map { it.name }, parallel.map { it.name })
+        for ((expected, actual) in sequential.zip(parallel)) {
+            assertEquals(expected.name, DebugUtil.psiToString(expected, false), DebugUtil.psiToString(actual, false))
+        }
+    }
+
+    private fun createEnvironment(parsingThreads: Int): KotlinCoreEnvironment {
+        for (index in 1..FILES) {
+            File(tmpdir, "file$index.kt").writeText(source(index))
+        }
+
+        val configuration = KotlinTestUtils.newConfiguration()
+        configuration.addKotlinSourceRoot(tmpdir.path)
+        configuration.put(JVMConfigurationKeys.PARALLEL_PARSING_THREADS, parsingThreads)
+        return KotlinCoreEnvironment.createForTests(testRootDisposable, configuration, EnvironmentConfigFiles.JVM_CONFIG_FILES)
+    }
+
+    private fun declarationBodiesOf(file: KtFile): List<KtBlockExpression> {
+        val function = file.declarations.filterIsInstance<KtNamedFunction>().single()
+        val klass = file.declarations.filterIsInstance<KtClass>().single()
+        val initializer = klass.getAnonymousInitializers().single()
+        val accessor = klass.getProperties().single().getter!!
+        return listOf(function.bodyExpression, initializer.body, accessor.bodyExpression).map { it as KtBlockExpression }
+    }
+
+    private fun source(index: Int): String =
+        """
+        package p$index
+
+        fun foo$index(x: Int): Int {
+            val f = { y: Int -> if (y > 0) { y } else { -y } }
+            return f(x) + "${'$'}{x + $index}".length
+        }
+
+        class A$index {
+            init { foo$index(1) }
+            val x: Int
+                get() { return foo$index(2) }
+        }
+        """.trimIndent()
+
+    private companion object {
+        const val FILES = 16
+    }
+}
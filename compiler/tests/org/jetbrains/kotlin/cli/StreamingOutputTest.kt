@@ -0,0 +1,107 @@
+/*
+ * Copyright 2000-2018 JetBrains s.r.o. Use of this source code is governed by the Apache 2.0 license
+ * that can be found in the license/LICENSE.txt file.
+ */
+
+package org.jetbrains.kotlin.cli
+
+import org.jetbrains.kotlin.cli.common.ExitCode
+import org.jetbrains.kotlin.cli.jvm.K2JVMCompiler
+import org.jetbrains.kotlin.cli.jvm.compiler.EnvironmentConfigFiles
+import org.jetbrains.kotlin.cli.jvm.compiler.KotlinCoreEnvironment
+import org.jetbrains.kotlin.cli.jvm.compiler.KotlinToJVMBytecodeCompiler
+import org.jetbrains.kotlin.codegen.ImplementationBodyCodegen
+import org.jetbrains.kotlin.codegen.extensions.ExpressionCodegenExtension
+import org.jetbrains.kotlin.config.JVMConfigurationKeys
+import org.jetbrains.kotlin.config.addKotlinSourceRoots
+import org.jetbrains.kotlin.test.CompilerTestUtil
+import org.jetbrains.kotlin.test.ConfigurationKind
+import org.jetbrains.kotlin.test.KotlinTestUtils
+import org.jetbrains.kotlin.test.TestCaseWithTmpdir
+import org.jetbrains.kotlin.test.TestJdkKind
+import java.io.File
+import java.util.jar.JarFile
+
+class StreamingOutputTest : TestCaseWithTmpdir() {
+    private fun writeSources(): List<File> {
+        val a = File(tmpdir, "a.kt").apply { writeText("package a\n\nclass A\n\nfun foo() = A()\n") }
+        val b = File(tmpdir, "b.kt").apply { writeText("package b\n\nclass B\n\nfun main(args: Array<String>) {\n    a.foo()\n    B()\n}\n") }
+        return listOf(a, b)
+    }
+
+    fun testJar() {
+        val jar = File(tmpdir, "out.jar")
+        CompilerTestUtil.executeCompilerAssertSuccessful(K2JVMCompiler(), listOf("-d", jar.path) + writeSources().map(File::getPath))
+
+        JarFile(jar).use { jarFile ->
+            val entries = jarFile.entries().asSequence().map { it.name }.toSet()
+            for (entry in listOf("a/A.class", "a/AKt.class", "b/B.class", "b/BKt.class", "META-INF/main.kotlin_module")) {
+                assertTrue("$entry is not found in $entries", entry in entries)
+            }
+            assertEquals("b.BKt", jarFile.manifest.mainAttributes.getValue("Main-Class"))
+        }
+        assertEquals(listOf(jar.name), tmpdir.listFiles().filter { it.extension != "kt" }.map(File::getName))
+    }
+
+    fun testFailedAnalysisDoesNotReplaceJar() {
+        val jar = File(tmpdir, "out.jar").apply { writeText("previous") }
+        val source = File(tmpdir, "error.kt").apply { writeText("fun foo(): String = 42\n") }
+        val (_, exitCode) = CompilerTestUtil.executeCompiler(K2JVMCompiler(), listOf("-d", jar.path, source.path))
+
+        assertEquals(ExitCode.COMPILATION_ERROR, exitCode)
+        assertEquals("previous", jar.readText())
+        assertEquals(setOf(jar.name, source.name), tmpdir.listFiles().map(File::getName).toSet())
+    }
+
+    fun testFailedCodeGenerationDoesNotReplaceJar() {
+        val jar = File(tmpdir, "out.jar").apply { writeText("previous") }
+        val sources = writeSources()
+
+        val configuration = KotlinTestUtils.newConfiguration(ConfigurationKind.JDK_ONLY, TestJdkKind.MOCK_JDK)
+        configuration.addKotlinSourceRoots(sources.map(File::getPath))
+        configuration.put(JVMConfigurationKeys.OUTPUT_JAR, jar)
+        val environment = KotlinCoreEnvironment.createForTests(testRootDisposable, configuration, EnvironmentConfigFiles.JVM_CONFIG_FILES)
+        val failingExtension = FailOnSecondClassExtension()
+        ExpressionCodegenExtension.registerExtension(environment.project, failingExtension)
+
+        try {
+            KotlinToJVMBytecodeCompiler.compileBunchOfSources(environment)
+            fail("Code generation should fail")
+        }
+        catch (e: Throwable) {
+            if (generateSequence(e) { it.cause }.none { it is CodeGenerationFailure }) throw e
+        }
+
+        assertTrue("The first class should be written before the failure", failingExtension.isFirstClassWritten)
+        assertEquals("previous", jar.readText())
+        assertEquals((sources + jar).map(File::getName).toSet(), tmpdir.listFiles().map(File::getName).toSet())
+    }
+
+    private class CodeGenerationFailure : RuntimeException()
+
+    // Fails when the class of the second package is generated, after the first package has been released from the factory and written
+    private class FailOnSecondClassExtension : ExpressionCodegenExtension {
+        private var firstClass: String? = null
+        var isFirstClassWritten = false
+
+        override fun generateClassSyntheticParts(codegen: ImplementationBodyCodegen) {
+            val className = codegen.className
+            val first = firstClass
+            if (first == null) {
+                firstClass = className
+                return
+            }
+            isFirstClassWritten = codegen.state.factory.asList().none { it.relativePath == "$first.class" }
+            throw CodeGenerationFailure()
+        }
+    }
+
+    fun testDirectory() {
+        val out = File(tmpdir, "out")
+        CompilerTestUtil.executeCompilerAssertSuccessful(K2JVMCompiler(), listOf("-d", out.path) + writeSources().map(File::getPath))
+
+        for (path in listOf("a/A.class", "a/AKt.class", "b/B.class", "b/BKt.class", "META-INF/main.kotlin_module")) {
+            assertTrue("$path is not found", File(out, path).isFile)
+        }
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright 2000-2018 JetBrains s.r.o. Use of this source code is governed by the Apache 2.0 license
+ * that can be found in the license/LICENSE.txt file.
+ */
+
+package org.jetbrains.kotlin.cli.jvm
+
+import com.intellij.util.io.URLUtil
+import org.jetbrains.kotlin.cli.jvm.compiler.jarfs.FastJarFileSystem
+import org.jetbrains.kotlin.test.CompilerTestUtil
+import org.jetbrains.kotlin.test.TestCaseWithTmpdir
+import java.io.File
+import java.io.FileOutputStream
+import java.util.zip.CRC32
+import java.util.zip.ZipEntry
+import java.util.zip.ZipOutputStream
+
+class FastJarFileSystemTest : TestCaseWithTmpdir() {
+    fun testLookup() {
+        val jar = createJar(
+                "a/b/C.class" to "C",
+                "a/b/c/D.class" to "D",
+                "a/b.txt" to "b",
+                "e/" to null,
+                "e/F.class" to "F".repeat(1000)
+        )
+        val fileSystem = FastJarFileSystem()
+        val root = fileSystem.findFileByPath("${jar.path}${URLUtil.JAR_SEPARATOR}")!!
+
+        assertTrue(root.isDirectory)
+        assertEquals(listOf("a", "e"), root.children.map { it.name }.sorted())
+
+        val a = root.findChild("a")!!
+        assertTrue(a.isDirectory)
+        assertEquals(listOf("b", "b.txt"), a.children.map { it.name }.sorted())
+        assertEquals(listOf("C.class", "c"), a.findChild("b")!!.children.map { it.name }.sorted())
+
+        val c = fileSystem.findFileByPath("${jar.path}${URLUtil.JAR_SEPARATOR}a/b/C.class")!!
+        assertFalse(c.isDirectory)
+        assertEquals("C", String(c.contentsToByteArray()))
+        assertEquals(a.findChild("b")!!.findChild("C.class"), c)
+        assertEquals("${jar.path}${URLUtil.JAR_SEPARATOR}a/b/C.class", c.path)
+        assertEquals("b", c.parent.name)
+
+        val f = root.findFileByRelativePath("e/F.class")!!
+        assertEquals("F".repeat(1000), String(f.contentsToByteArray()))
+        assertEquals(1000L, f.length)
+
+        assertNull(root.findChild("x"))
+        assertNull(a.findChild("b/C.class"))
+        assertNull(fileSystem.findFileByPath("${jar.path}${URLUtil.JAR_SEPARATOR}a/b/X.class"))
+    }
+
+    fun testClearHandlers() {
+        val jar = createJar("a/B.class" to "B")
+        val fileSystem = FastJarFileSystem()
+        val b = fileSystem.findFileByPath("${jar.path}${URLUtil.JAR_SEPARATOR}a/B.class")!!
+        assertEquals("B", String(b.contentsToByteArray()))
+
+        fileSystem.clearHandlers()
+        try {
+            b.contentsToByteArray()
+            fail("The jar should be closed")
+        }
+        catch (e: IllegalStateException) {
+        }
+
+        // The jar is unmapped, so it can be rewritten, and it's mapped again on the next lookup
+        createJar("a/B.class" to "New B")
+        val newB = fileSystem.findFileByPath("${jar.path}${URLUtil.JAR_SEPARATOR}a/B.class")!!
+        assertEquals("New B", String(newB.contentsToByteArray()))
+    }
+
+    fun testNotAJar() {
+        val file = File(tmpdir, "test.jar").apply { writeText("not a jar") }
+        assertNull(FastJarFileSystem().findFileByPath("${file.path}${URLUtil.JAR_SEPARATOR}"))
+    }
+
+    fun testCompilation() {
+        val source = File(tmpdir, "test.kt").apply { writeText("fun main(args: Array<String>) { println(listOf(args).size) }\n") }
+        CompilerTestUtil.executeCompilerAssertSuccessful(
+                K2JVMCompiler(), listOf("-Xuse-fast-jar-file-system", "-d", File(tmpdir, "out").path, source.path)
+        )
+    }
+
+    // Entries with even indices are deflated, the other ones are stored
+    private fun createJar(vararg entries: Pair<String, String?>): File {
+        val file = File(tmpdir, "test.jar")
+        ZipOutputStream(FileOutputStream(file)).use { output ->
+            entries.forEachIndexed { index, (name, text) ->
+                val bytes = text?.toByteArray() ?: ByteArray(0)
+                val entry = ZipEntry(name)
+                if (index % 2 == 1) {
+                    entry.method = ZipEntry.STORED
+                    entry.size = bytes.size.toLong()
+                    entry.crc = CRC32().apply { update(bytes) }.value
+                }
+                output.putNextEntry(entry)
+                output.write(bytes)
+                output.closeEntry()
+            }
+        }
+        return file
+    }
+}
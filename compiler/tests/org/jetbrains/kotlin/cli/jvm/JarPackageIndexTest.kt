@@ -0,0 +1,69 @@
+/*
+ * Copyright 2000-2018 JetBrains s.r.o. Use of this source code is governed by the Apache 2.0 license
+ * that can be found in the license/LICENSE.txt file.
+ */
+
+package org.jetbrains.kotlin.cli.jvm
+
+import org.jetbrains.kotlin.cli.jvm.index.JarPackageIndex
+import org.jetbrains.kotlin.cli.jvm.index.JarPackageIndexCache
+import org.jetbrains.kotlin.test.KotlinTestUtils
+import org.jetbrains.kotlin.test.testFramework.KtUsefulTestCase
+import java.io.File
+import java.io.FileOutputStream
+import java.util.zip.ZipEntry
+import java.util.zip.ZipOutputStream
+
+class JarPackageIndexTest : KtUsefulTestCase() {
+    fun testPackages() {
+        val index = JarPackageIndex.compute(createJar(
+                "a/b/C.class",
+                "a/b/c/",
+                "d/META-INF/resource.txt",
+                // "e" is a class, and the directory "e" is not a package because it contains no classes
+                "e.class",
+                "e/f/resource.txt",
+                // "g" is a class, but the directory "g" contains classes and is a package as well
+                "g.class",
+                "g/h/I.class"
+        ))
+
+        assertTrue(index.containsPackage(""))
+        assertTrue(index.containsPackage("a"))
+        assertTrue(index.containsPackage("a/b"))
+        assertTrue(index.containsPackage("a/b/c"))
+        assertTrue(index.containsPackage("d/META-INF"))
+        assertTrue(index.containsPackage("g"))
+        assertTrue(index.containsPackage("g/h"))
+
+        assertFalse(index.containsPackage("a/b/C"))
+        assertFalse(index.containsPackage("e"))
+        assertFalse(index.containsPackage("e/f"))
+        assertFalse(index.containsPackage("x"))
+    }
+
+    fun testStoredIndexIsReused() {
+        val jar = createJar("a/B.class")
+        val storage = KotlinTestUtils.tmpDirForTest(this)
+
+        val index = JarPackageIndexCache(storage).getOrCompute(jar)!!
+        assertTrue(index.containsPackage("a"))
+        assertEquals(1, storage.listFiles().size)
+
+        // the jar is rewritten with different contents and size, so the stored index must be invalidated
+        createJar("c/D.class", "c/E.class", file = jar)
+        val newIndex = JarPackageIndexCache(storage).getOrCompute(jar)!!
+        assertFalse(newIndex.containsPackage("a"))
+        assertTrue(newIndex.containsPackage("c"))
+    }
+
+    private fun createJar(vararg entries: String, file: File = File(KotlinTestUtils.tmpDirForTest(this), "test.jar")): File {
+        ZipOutputStream(FileOutputStream(file)).use { output ->
+            for (entry in entries) {
+                output.putNextEntry(ZipEntry(entry))
+                output.closeEntry()
+            }
+        }
+        return file
+    }
+}
@@ -0,0 +1,159 @@
+/*
+ * Copyright 2000-2018 JetBrains s.r.o. Use of this source code is governed by the Apache 2.0 license
+ * that can be found in the license/LICENSE.txt file.
+ */
+
+package org.jetbrains.kotlin.codegen
+
+import com.intellij.psi.PsiElement
+import org.jetbrains.kotlin.config.CompilerConfiguration
+import org.jetbrains.kotlin.config.JVMConfigurationKeys
+import org.jetbrains.kotlin.diagnostics.Severity
+import org.jetbrains.kotlin.diagnostics.rendering.DefaultErrorMessages
+import org.jetbrains.kotlin.renderer.DescriptorRenderer
+import org.jetbrains.kotlin.resolve.BindingContext
+import org.jetbrains.kotlin.resolve.lazy.JvmResolveUtil
+import org.jetbrains.kotlin.test.ConfigurationKind
+import org.jetbrains.kotlin.test.KotlinTestUtils
+
+class ParallelBodyResolutionTest : CodegenTestCase() {
+    private var bodyResolutionThreads = 1
+
+    override fun updateConfiguration(configuration: CompilerConfiguration) {
+        configuration.put(JVMConfigurationKeys.PARALLEL_BODY_RESOLUTION_THREADS, bodyResolutionThreads)
+    }
+
+    fun testOutputDoesNotDependOnThreadCount() {
+        val sequential = generate(bodyResolutionThreads = 1)
+        val parallel = generate(bodyResolutionThreads = 4)
+
+        assertEquals(sequential.keys.toList(), parallel.keys.toList())
+        assertEquals(sequential, parallel)
+    }
+
+    fun testDiagnosticsDoNotDependOnThreadCount() {
+        val sequential = analyze(bodyResolutionThreads = 1)
+        val parallel = analyze(bodyResolutionThreads = 4)
+
+        val severities = sequential.diagnostics.map { it.substringBefore(' ') }.toSet()
+        assertEquals(setOf(Severity.ERROR.name, Severity.WARNING.name), severities)
+        assertEquals(sequential.diagnostics.joinToString("\n"), parallel.diagnostics.joinToString("\n"))
+    }
+
+    fun testBindingContextDoesNotDependOnThreadCount() {
+        val sequential = analyze(bodyResolutionThreads = 1)
+        val parallel = analyze(bodyResolutionThreads = 4)
+
+        assertEquals(sequential.slices.keys, parallel.slices.keys)
+        for ((slice, contents) in sequential.slices) {
+            assertEquals(slice, contents.joinToString("\n"), parallel.slices[slice]!!.joinToString("\n"))
+        }
+    }
+
+    private fun generate(bodyResolutionThreads: Int): Map<String, String> {
+        createFiles(bodyResolutionThreads, ::packageSource)
+        return generateEachFileToText()
+    }
+
+    private class AnalysisResult(val diagnostics: List<String>, val slices: Map<String, List<String>>)
+
+    private fun analyze(bodyResolutionThreads: Int): AnalysisResult {
+        createFiles(bodyResolutionThreads, ::packageSourceWithDiagnostics)
+        val bindingContext = JvmResolveUtil.analyze(myFiles.psiFiles, myEnvironment).bindingContext
+
+        val diagnostics = bindingContext.diagnostics.all().map { diagnostic ->
+            "${diagnostic.severity} ${render(diagnostic.psiElement)} ${diagnostic.factory.name}: ${DefaultErrorMessages.render(diagnostic)}"
+        }
+
+        val slices = mapOf(
+                "expression types" to bindingContext.getSliceContents(BindingContext.EXPRESSION_TYPE_INFO).map { (expression, typeInfo) ->
+                    "${render(expression)} ${typeInfo.type}"
+                },
+                "resolved calls" to bindingContext.getSliceContents(BindingContext.RESOLVED_CALL).map { (call, resolvedCall) ->
+                    "${render(call.callElement)} ${RENDERER.render(resolvedCall.resultingDescriptor)}"
+                },
+                "reference targets" to bindingContext.getSliceContents(BindingContext.REFERENCE_TARGET).map { (reference, target) ->
+                    "${render(reference)} ${RENDERER.render(target)}"
+                },
+                "functions" to bindingContext.getSliceContents(BindingContext.FUNCTION).map { (declaration, function) ->
+                    "${render(declaration)} ${RENDERER.render(function)}"
+                }
+        )
+
+        return AnalysisResult(diagnostics.sorted(), slices.mapValues { it.value.sorted() })
+    }
+
+    private fun createFiles(bodyResolutionThreads: Int, source: (Int) -> String) {
+        this.bodyResolutionThreads = bodyResolutionThreads
+        myEnvironment = null
+        classFileFactory = null
+
+        createEnvironmentWithMockJdkAndIdeaAnnotations(ConfigurationKind.JDK_ONLY)
+        val project = myEnvironment.project
+        myFiles = CodegenTestFiles.create((1..PACKAGES).map { KotlinTestUtils.createFile("file$it.kt", source(it), project) })
+    }
+
+    private fun render(element: PsiElement): String =
+            "${element.containingFile.name}:${element.textRange} '${element.text}'"
+
+    // Functions with inferred return types call each other, so their bodies are resolved lazily from other bodies
+    private fun packageSource(index: Int): String {
+        val imports = if (index > 1) "import p${index - 1}.*" else ""
+        val previousCall = if (index > 1) "inferred${index - 1}(x) + " else ""
+        return """
+            package p$index
+
+            $imports
+
+            fun inferred$index(x: Int) = ${previousCall}next$index(x).length
+
+            fun next$index(x: Int) = if (x > 0) "a".repeat(x) else other$index()
+
+            fun other$index() = listOf(1, 2, 3).map { it.toString() }.joinToString()
+
+            fun smartCast$index(x: Any?): Int {
+                if (x is String) return x.length
+                return (x as? Int) ?: inferred$index(0)
+            }
+
+            class Holder$index(val value: Int) {
+                fun compute() = inferred$index(value) * 2
+                fun lambda() = { y: Int -> compute() + y }
+            }
+        """.trimIndent()
+    }
+
+    // Errors and warnings are reported both in bodies of functions with inferred return types and in bodies calling them
+    private fun packageSourceWithDiagnostics(index: Int): String {
+        val imports = if (index > 1) "import p${index - 1}.*" else ""
+        val previousCall = if (index > 1) "broken${index - 1}() + " else ""
+        return """
+            package p$index
+
+            $imports
+
+            fun inferred$index(x: Int) = x.toString() + unresolved$index
+
+            fun broken$index() = ${previousCall}inferred$index(1).length + "a"
+
+            fun mismatch$index(): Int {
+                val unused = inferred$index(2)
+                val s: String = broken$index()
+                return s
+            }
+
+            fun warnings$index(x: String) = inferred$index(3)?.length ?: (x as String).length
+
+            class Holder$index {
+                fun compute() = broken$index().foo()
+                fun lambda() = { y: Int -> inferred$index(y) + compute() }
+            }
+        """.trimIndent()
+    }
+
+    private companion object {
+        const val PACKAGES = 8
+
+        val RENDERER = DescriptorRenderer.FQ_NAMES_IN_TYPES
+    }
+}
@@ -0,0 +1,130 @@
+/*
+ * Copyright 2000-2018 JetBrains s.r.o. Use of this source code is governed by the Apache 2.0 license
+ * that can be found in the license/LICENSE.txt file.
+ */
+
+package org.jetbrains.kotlin.codegen
+
+import org.jetbrains.kotlin.config.CompilerConfiguration
+import org.jetbrains.kotlin.config.JVMConfigurationKeys
+import org.jetbrains.kotlin.test.ConfigurationKind
+import org.jetbrains.kotlin.test.KotlinTestUtils
+
+class ParallelCodegenTest : CodegenTestCase() {
+    private var backendThreads = 1
+    private var optimizationThreads = 1
+
+    override fun updateConfiguration(configuration: CompilerConfiguration) {
+        configuration.put(JVMConfigurationKeys.PARALLEL_BACKEND_THREADS, backendThreads)
+        configuration.put(JVMConfigurationKeys.PARALLEL_OPTIMIZATION_THREADS, optimizationThreads)
+    }
+
+    fun testOutputDoesNotDependOnThreadCount() {
+        val sequential = generate(backendThreads = 1, optimizationThreads = 1)
+        val parallel = generate(backendThreads = 4, optimizationThreads = 1)
+
+        assertEquals(sequential.keys.toList(), parallel.keys.toList())
+        assertEquals(sequential, parallel)
+        assertFalse(parallel.keys.toString(), parallel.keys.any { it.startsWith("p1/Abstract1\$DefaultImpls") })
+    }
+
+    fun testOutputDoesNotDependOnOptimizationThreadCount() {
+        val sequential = generate(backendThreads = 1, optimizationThreads = 1)
+        val parallel = generate(backendThreads = 1, optimizationThreads = 4)
+        val parallelWithBackendThreads = generate(backendThreads = 4, optimizationThreads = 4)
+
+        assertEquals(sequential, parallel)
+        assertEquals(sequential, parallelWithBackendThreads)
+    }
+
+    // Constant pools differ from the ones generated with one optimization thread (see OptimizationClassBuilder), so the bytes are
+    // compared only between runs with several optimization threads
+    fun testBytesDoNotDependOnOptimizationThreadCount() {
+        val expected = generateBytes(backendThreads = 1, optimizationThreads = 2)
+
+        for ((backendThreads, optimizationThreads) in listOf(1 to 2, 1 to 4, 4 to 4)) {
+            val actual = generateBytes(backendThreads, optimizationThreads)
+            assertEquals(expected.keys.toList(), actual.keys.toList())
+            for ((path, bytes) in expected) {
+                assertTrue("$path differs with $optimizationThreads threads", bytes.contentEquals(actual[path]!!))
+            }
+        }
+    }
+
+    private fun generate(backendThreads: Int, optimizationThreads: Int): Map<String, String> {
+        createFiles(backendThreads, optimizationThreads)
+        return generateEachFileToText()
+    }
+
+    private fun generateBytes(backendThreads: Int, optimizationThreads: Int): Map<String, ByteArray> {
+        createFiles(backendThreads, optimizationThreads)
+        return generateClassesInFile().asList().associate { it.relativePath to it.asByteArray() }
+    }
+
+    private fun createFiles(backendThreads: Int, optimizationThreads: Int) {
+        this.backendThreads = backendThreads
+        this.optimizationThreads = optimizationThreads
+        myEnvironment = null
+        classFileFactory = null
+
+        createEnvironmentWithMockJdkAndIdeaAnnotations(ConfigurationKind.JDK_ONLY)
+        val project = myEnvironment.project
+        myFiles = CodegenTestFiles.create((1..PACKAGES).map { KotlinTestUtils.createFile("file$it.kt", packageSource(it), project) })
+    }
+
+    private fun packageSource(index: Int): String {
+        val imports = if (index > 1) "import p${index - 1}.*" else ""
+        val previousCall = if (index > 1) "twice${index - 1}(1) { it + $index }" else "0"
+        return """
+            package p$index
+
+            $imports
+
+            enum class Color$index { RED, GREEN, BLUE }
+
+            inline fun twice$index(x: Int, f: (Int) -> Int) = f(f(x))
+
+            fun describe$index(c: Color$index) = when (c) {
+                Color$index.RED -> "r"
+                Color$index.GREEN -> "g"
+                Color$index.BLUE -> "b"
+            }
+
+            // Large enough to be optimized on the optimization pool
+            fun sum$index(values: List<Int?>): Int {
+                var result = 0
+                ${(1..20).joinToString("\n                ") { "val v$it: Int? = values.getOrNull($it); if (v$it != null) result += v$it * $it" }}
+                return result
+            }
+
+            // DefaultImpls of an interface without bodies is generated and then removed
+            interface Abstract$index {
+                fun abstract(): Int
+            }
+
+            interface WithDefaults$index : Abstract$index {
+                fun withDefault(): Int = abstract() + $index
+            }
+
+            class Holder$index(val value: Int) : WithDefaults$index {
+                val task = Runnable { System.out.println(value) }
+                fun compute(): Int = twice$index(value) { it * 2 } + $previousCall
+                override fun abstract() = value
+
+                // The original class of the object in the inlined lambda is removed after it is regenerated at the call site
+                fun inlinedObject(): Int = twice$index(value) { x ->
+                    val task = object : Runnable { override fun run() { System.out.println(x + value) } }
+                    task.run()
+                    x + 1
+                }
+                companion object {
+                    val lazyValue = object { override fun toString() = "Holder$index" }
+                }
+            }
+        """.trimIndent()
+    }
+
+    private companion object {
+        const val PACKAGES = 8
+    }
+}
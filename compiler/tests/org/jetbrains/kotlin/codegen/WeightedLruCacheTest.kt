@@ -0,0 +1,48 @@
+/*
+ * Copyright 2000-2018 JetBrains s.r.o. Use of this source code is governed by the Apache 2.0 license
+ * that can be found in the license/LICENSE.txt file.
+ */
+
+package org.jetbrains.kotlin.codegen
+
+import junit.framework.TestCase
+import org.jetbrains.kotlin.utils.WeightedLruCache
+
+class WeightedLruCacheTest : TestCase() {
+    fun testEvictsLeastRecentlyUsedWhenBudgetIsExceeded() {
+        val cache = WeightedLruCache<String, ByteArray>(10) { it.size.toLong() }
+        cache.put("a", ByteArray(4))
+        cache.put("b", ByteArray(4))
+        assertNotNull(cache.get("a"))
+
+        cache.put("c", ByteArray(4))
+        assertNotNull(cache.get("a"))
+        assertNull(cache.get("b"))
+        assertNotNull(cache.get("c"))
+
+        val statistics = cache.statistics
+        assertEquals(3L, statistics.hits)
+        assertEquals(1L, statistics.misses)
+        assertEquals(1L, statistics.evictions)
+        assertEquals(8L, statistics.sizeInBytes)
+    }
+
+    fun testValueLargerThanBudgetIsNotCached() {
+        val cache = WeightedLruCache<String, ByteArray>(10) { it.size.toLong() }
+        cache.put("a", ByteArray(4))
+        assertEquals(11, cache.getOrPut("b") { ByteArray(11) }.size)
+
+        assertNull(cache.get("b"))
+        assertNotNull(cache.get("a"))
+    }
+
+    fun testResize() {
+        val cache = WeightedLruCache<String, ByteArray>(10) { it.size.toLong() }
+        cache.put("a", ByteArray(4))
+        cache.put("b", ByteArray(4))
+        cache.resize(5)
+
+        assertNull(cache.get("a"))
+        assertNotNull(cache.get("b"))
+    }
+}
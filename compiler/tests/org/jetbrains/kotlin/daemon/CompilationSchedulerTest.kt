@@ -0,0 +1,132 @@
+/*
+ * Copyright 2000-2018 JetBrains s.r.o. Use of this source code is governed by the Apache 2.0 license
+ * that can be found in the license/LICENSE.txt file.
+ */
+
+package org.jetbrains.kotlin.daemon
+
+import junit.framework.TestCase
+import java.util.concurrent.Callable
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.CyclicBarrier
+import java.util.concurrent.Executors
+import java.util.concurrent.Future
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.TimeoutException
+
+class CompilationSchedulerTest : TestCase() {
+    private val executor = Executors.newCachedThreadPool()
+
+    override fun tearDown() {
+        executor.shutdownNow()
+        super.tearDown()
+    }
+
+    fun testSessionsCompileConcurrently() {
+        val scheduler = scheduler(maxParallelCompilations = 2)
+        // both compilations pass the barrier only if they are running at the same time
+        val barrier = CyclicBarrier(2)
+
+        val first = compileAsync(scheduler, sessionId = 1) { barrier.await(TIMEOUT_SECONDS, TimeUnit.SECONDS) }
+        val second = compileAsync(scheduler, sessionId = 2) { barrier.await(TIMEOUT_SECONDS, TimeUnit.SECONDS) }
+        first.get(TIMEOUT_SECONDS, TimeUnit.SECONDS)
+        second.get(TIMEOUT_SECONDS, TimeUnit.SECONDS)
+
+        assertEquals(1L, scheduler.memoryUsage(1)!!.compilations.get())
+        assertEquals(1L, scheduler.memoryUsage(2)!!.compilations.get())
+    }
+
+    fun testCompilationsBeyondLimitWait() {
+        val scheduler = scheduler(maxParallelCompilations = 1)
+        val firstStarted = CountDownLatch(1)
+        val finishFirst = CountDownLatch(1)
+
+        val first = compileAsync(scheduler, sessionId = 1) {
+            firstStarted.countDown()
+            finishFirst.await()
+        }
+        firstStarted.await()
+
+        val second = compileAsync(scheduler, sessionId = 2) {}
+        assertNotFinished(second)
+        assertEquals(1, scheduler.activeCompilations)
+
+        finishFirst.countDown()
+        first.get(TIMEOUT_SECONDS, TimeUnit.SECONDS)
+        second.get(TIMEOUT_SECONDS, TimeUnit.SECONDS)
+        assertEquals(0, scheduler.activeCompilations)
+    }
+
+    fun testIdleActionRunsAfterRunningCompilations() {
+        val scheduler = scheduler(maxParallelCompilations = 2)
+        val compilationStarted = CountDownLatch(1)
+        val finishCompilation = CountDownLatch(1)
+        val actionRun = CountDownLatch(1)
+
+        val compilation = compileAsync(scheduler, sessionId = 1) {
+            compilationStarted.countDown()
+            finishCompilation.await()
+        }
+        compilationStarted.await()
+
+        scheduler.whenIdle { actionRun.countDown() }
+        assertEquals(1L, actionRun.count)
+
+        finishCompilation.countDown()
+        compilation.get(TIMEOUT_SECONDS, TimeUnit.SECONDS)
+        assertEquals(0L, actionRun.count)
+    }
+
+    fun testIdleActionRunsImmediatelyWithoutCompilations() {
+        val scheduler = scheduler(maxParallelCompilations = 2)
+        var isRun = false
+        scheduler.whenIdle { isRun = true }
+        assertTrue(isRun)
+    }
+
+    fun testCompilationsWaitForIdleActionWhichDoesNotHoldLock() {
+        val scheduler = scheduler(maxParallelCompilations = 2)
+        val actionStarted = CountDownLatch(1)
+        val finishAction = CountDownLatch(1)
+
+        val action = executor.submit(Callable {
+            scheduler.whenIdle {
+                actionStarted.countDown()
+                finishAction.await()
+            }
+        })
+        actionStarted.await()
+
+        // the scheduler can be queried while the action is running
+        val activeCompilations = executor.submit(Callable { scheduler.activeCompilations })
+        assertEquals(0, activeCompilations.get(TIMEOUT_SECONDS, TimeUnit.SECONDS))
+
+        val compilation = compileAsync(scheduler, sessionId = 1) {}
+        assertNotFinished(compilation)
+
+        finishAction.countDown()
+        action.get(TIMEOUT_SECONDS, TimeUnit.SECONDS)
+        compilation.get(TIMEOUT_SECONDS, TimeUnit.SECONDS)
+    }
+
+    private fun scheduler(maxParallelCompilations: Int) =
+            // memory usage never exceeds the max heap, so it doesn't make compilations wait
+            CompilationScheduler(maxParallelCompilations, memoryThreshold = 1.0)
+
+    private fun compileAsync(scheduler: CompilationScheduler, sessionId: Int, body: () -> Unit): Future<*> =
+            executor.submit(Callable { scheduler.compile(sessionId, body) })
+
+    private fun assertNotFinished(future: Future<*>) {
+        try {
+            future.get(WAIT_MS, TimeUnit.MILLISECONDS)
+            fail("The compilation should wait")
+        }
+        catch (e: TimeoutException) {
+        }
+    }
+
+    private companion object {
+        const val TIMEOUT_SECONDS = 10L
+        const val WAIT_MS = 200L
+    }
+}
@@ -23,20 +23,25 @@ import org.jetbrains.kotlin.cli.common.messages.PrintingMessageCollector
 import org.jetbrains.kotlin.cli.common.repl.*
 import org.jetbrains.kotlin.daemon.client.*
 import org.jetbrains.kotlin.daemon.common.*
+import org.jetbrains.kotlin.daemon.report.CompileIterationResult
+import org.jetbrains.kotlin.incremental.makeModuleFile
 import org.jetbrains.kotlin.integration.KotlinIntegrationTestBase
 import org.jetbrains.kotlin.progress.CompilationCanceledStatus
 import org.jetbrains.kotlin.test.KotlinTestUtils
 import java.io.ByteArrayOutputStream
 import java.io.File
 import java.io.PrintStream
+import java.io.Serializable
 import java.lang.management.ManagementFactory
 import java.net.URL
 import java.net.URLClassLoader
 import java.nio.charset.Charset
 import java.rmi.server.UnicastRemoteObject
+import java.util.Collections
 import java.util.concurrent.CountDownLatch
 import java.util.concurrent.TimeUnit
 import kotlin.concurrent.thread
+import kotlin.system.measureTimeMillis
 import kotlin.script.dependencies.*
 import kotlin.script.experimental.dependencies.*
 import kotlin.script.experimental.dependencies.DependenciesResolver.ResolveResult
@@ -46,6 +51,10 @@ import kotlin.test.fail
 
 val TIMEOUT_DAEMON_RUNNER_EXIT_MS = 10000L
 
+// The first builds warm up the daemon and are not measured
+private const val OVERHEAD_WARMUP_BUILDS = 5
+private const val OVERHEAD_MEASURED_BUILDS = 20
+
 class CompilerDaemonTest : KotlinIntegrationTestBase() {
 
     data class CompilerResults(val resultCode: Int, val out: String)
@@ -139,6 +148,152 @@ class CompilerDaemonTest : KotlinIntegrationTestBase() {
         }
     }
 
+    fun testLocalTransportGivesSameResultsAsRmi() {
+        withFlagFile(getTestName(true), ".alive") { flagFile ->
+            val daemonOptions = makeTestDaemonOptions(getTestName(true))
+            val daemonJVMOptions = makeTestDaemonJvmOptions()
+            val daemon = KotlinCompilerClient.connectToCompileService(compilerId, flagFile, daemonJVMOptions, daemonOptions, DaemonReportingTargets(out = System.err), autostart = true)
+            assertNotNull("failed to connect daemon", daemon)
+            daemon!!.registerClient(flagFile.absolutePath)
+            assertNotNull("local transport is not available", daemon.getLocalTransportAddress().get())
+
+            try {
+                val jar = tmpdir.absolutePath + File.separator + "hello.jar"
+                val args = arrayOf("-include-runtime", File(getHelloAppBaseDir(), "hello.kt").absolutePath, "-d", jar)
+
+                fun compileOutput(useLocalTransport: Boolean): String {
+                    System.setProperty(COMPILE_DAEMON_LOCAL_TRANSPORT_PROPERTY, useLocalTransport.toString())
+                    try {
+                        val strm = ByteArrayOutputStream()
+                        val code = KotlinCompilerClient.compile(daemon, CompileService.NO_SESSION, CompileService.TargetPlatform.JVM, args,
+                                                                PrintingMessageCollector(PrintStream(strm), MessageRenderer.WITHOUT_PATHS, true))
+                        assertEquals("compilation failed:\n$strm", 0, code)
+                        return strm.toString()
+                    }
+                    finally {
+                        System.clearProperty(COMPILE_DAEMON_LOCAL_TRANSPORT_PROPERTY)
+                    }
+                }
+
+                val rmiOutput = compileOutput(useLocalTransport = false)
+                val localTransportOutput = compileOutput(useLocalTransport = true)
+                assertEquals("build results differ", AbstractCliTest.removePerfOutput(rmiOutput), AbstractCliTest.removePerfOutput(localTransportOutput))
+            }
+            finally {
+                KotlinCompilerClient.shutdownCompileService(compilerId, daemonOptions)
+            }
+        }
+    }
+
+    fun testIncrementalCompilationOverLocalTransport() {
+        withFlagFile(getTestName(true), ".alive") { flagFile ->
+            val daemonOptions = makeTestDaemonOptions(getTestName(true))
+            val daemon = KotlinCompilerClient.connectToCompileService(compilerId, flagFile, makeTestDaemonJvmOptions(), daemonOptions, DaemonReportingTargets(out = System.err), autostart = true)
+            assertNotNull("failed to connect daemon", daemon)
+            daemon!!.registerClient(flagFile.absolutePath)
+
+            try {
+                val srcDir = File(tmpdir, "src").apply { mkdirs() }
+                val a = File(srcDir, "a.kt").apply { writeText("fun a() = 1") }
+                val b = File(srcDir, "b.kt").apply { writeText("fun b() = a()") }
+                val moduleFile = makeModuleFile("test", isTest = false, outputDir = File(tmpdir, "out"), sourcesToCompile = listOf(a, b),
+                                                javaSourceRoots = emptyList(), classpath = emptyList(), friendDirs = emptyList())
+                val servicesFacade = RecordingIncrementalCompilerServicesFacade()
+                val compilationResults = RecordingCompilationResults()
+
+                fun compile(modifiedFiles: List<File>?): Int {
+                    val compilationOptions = incrementalCompilationOptions(File(tmpdir, "caches"), modifiedFiles)
+                    val result = LocalTransportClient.compile(daemon, CompileService.NO_SESSION, arrayOf("-Xbuild-file=${moduleFile.path}"),
+                                                              compilationOptions, servicesFacade, compilationResults)
+                    assertNotNull("local transport is not available", result)
+                    return result!!.get()
+                }
+
+                assertEquals("first compilation failed: ${servicesFacade.messages}", 0, compile(modifiedFiles = null))
+                assertEquals(listOf("hasAnnotationsFileUpdater", "unknownChanges"), servicesFacade.calls)
+                assertEquals(listOf(setOf("a.kt", "b.kt")), compilationResults.compiledSources)
+
+                servicesFacade.calls.clear()
+                compilationResults.compiledSources.clear()
+                a.writeText("fun a() = \"1\"")
+                assertEquals("second compilation failed: ${servicesFacade.messages}", 0, compile(modifiedFiles = listOf(a)))
+                assertEquals(listOf("hasAnnotationsFileUpdater", "registerChanges"), servicesFacade.calls)
+                assertEquals(listOf(setOf("a.kt"), setOf("b.kt")), compilationResults.compiledSources)
+                assertTrue(servicesFacade.registeredChanges.single().dirtyLookupSymbols.isNotEmpty())
+            }
+            finally {
+                KotlinCompilerClient.shutdownCompileService(compilerId, daemonOptions)
+            }
+        }
+    }
+
+    // Reports the average time of a small incremental build over RMI and over the local transport. Nothing is asserted about
+    // the times, which depend on the machine, but the difference shows the overhead of RMI calls for a build
+    fun testLocalTransportOverheadOfIncrementalBuild() {
+        withFlagFile(getTestName(true), ".alive") { flagFile ->
+            val daemonOptions = makeTestDaemonOptions(getTestName(true))
+            val daemon = KotlinCompilerClient.connectToCompileService(compilerId, flagFile, makeTestDaemonJvmOptions(), daemonOptions, DaemonReportingTargets(out = System.err), autostart = true)
+            assertNotNull("failed to connect daemon", daemon)
+            daemon!!.registerClient(flagFile.absolutePath)
+            assertNotNull("local transport is not available", daemon.getLocalTransportAddress().get())
+
+            try {
+                fun averageBuildTimeMs(useLocalTransport: Boolean): Double {
+                    val moduleDir = File(tmpdir, if (useLocalTransport) "local" else "rmi")
+                    val srcDir = File(moduleDir, "src").apply { mkdirs() }
+                    val a = File(srcDir, "a.kt").apply { writeText("fun a() = 0") }
+                    val b = File(srcDir, "b.kt").apply { writeText("fun b() = a()") }
+                    val moduleFile = makeModuleFile("test", isTest = false, outputDir = File(moduleDir, "out"), sourcesToCompile = listOf(a, b),
+                                                    javaSourceRoots = emptyList(), classpath = emptyList(), friendDirs = emptyList())
+
+                    fun compile(modifiedFiles: List<File>?) {
+                        val servicesFacade = RecordingIncrementalCompilerServicesFacade()
+                        val result = daemon.compileOverLocalTransportIfAvailable(CompileService.NO_SESSION, arrayOf("-Xbuild-file=${moduleFile.path}"),
+                                                                                 incrementalCompilationOptions(File(moduleDir, "caches"), modifiedFiles),
+                                                                                 servicesFacade, RecordingCompilationResults())
+                        assertEquals("compilation failed: ${servicesFacade.messages}", 0, result.get())
+                    }
+
+                    System.setProperty(COMPILE_DAEMON_LOCAL_TRANSPORT_PROPERTY, useLocalTransport.toString())
+                    try {
+                        compile(modifiedFiles = null)
+                        val buildTimes = (1..OVERHEAD_WARMUP_BUILDS + OVERHEAD_MEASURED_BUILDS).map { i ->
+                            a.writeText("fun a() = $i")
+                            measureTimeMillis { compile(modifiedFiles = listOf(a)) }
+                        }
+                        return buildTimes.drop(OVERHEAD_WARMUP_BUILDS).average()
+                    }
+                    finally {
+                        System.clearProperty(COMPILE_DAEMON_LOCAL_TRANSPORT_PROPERTY)
+                    }
+                }
+
+                val rmiTime = averageBuildTimeMs(useLocalTransport = false)
+                val localTransportTime = averageBuildTimeMs(useLocalTransport = true)
+                println("Average incremental build time over RMI: %.1f ms, over the local transport: %.1f ms".format(rmiTime, localTransportTime))
+            }
+            finally {
+                KotlinCompilerClient.shutdownCompileService(compilerId, daemonOptions)
+            }
+        }
+    }
+
+    private fun incrementalCompilationOptions(workingDir: File, modifiedFiles: List<File>?) =
+            IncrementalCompilationOptions(
+                    areFileChangesKnown = modifiedFiles != null,
+                    modifiedFiles = modifiedFiles,
+                    deletedFiles = modifiedFiles?.let { emptyList<File>() },
+                    workingDir = workingDir,
+                    customCacheVersionFileName = "cache-version.txt",
+                    customCacheVersion = 0,
+                    compilerMode = CompilerMode.INCREMENTAL_COMPILER,
+                    targetPlatform = CompileService.TargetPlatform.JVM,
+                    reportCategories = arrayOf(ReportCategory.COMPILER_MESSAGE.code),
+                    reportSeverity = ReportSeverity.INFO.code,
+                    requestedCompilationResults = arrayOf(CompilationResultCategory.IC_COMPILE_ITERATION.code),
+                    usePreciseJavaTracking = false
+            )
+
     fun testDaemonJvmOptionsParsing() {
         val backupJvmOptions = System.getProperty(COMPILE_DAEMON_JVM_OPTIONS_PROPERTY)
         try {
@@ -905,6 +1060,53 @@ internal inline fun withLogFile(prefix: String, suffix: String = ".log", printLo
     }
 }
 
+private class RecordingIncrementalCompilerServicesFacade : IncrementalCompilerServicesFacade {
+    val messages = Collections.synchronizedList(arrayListOf<String?>())
+    val calls = Collections.synchronizedList(arrayListOf<String>())
+    val registeredChanges = Collections.synchronizedList(arrayListOf<SimpleDirtyData>())
+
+    override fun report(category: Int, severity: Int, message: String?, attachment: Serializable?) {
+        messages.add(message)
+    }
+
+    override fun hasAnnotationsFileUpdater(): Boolean {
+        calls.add("hasAnnotationsFileUpdater")
+        return false
+    }
+
+    override fun updateAnnotations(outdatedClassesJvmNames: Iterable<String>) {
+        calls.add("updateAnnotations")
+    }
+
+    override fun revert() {
+        calls.add("revert")
+    }
+
+    override fun registerChanges(timestamp: Long, dirtyData: SimpleDirtyData) {
+        calls.add("registerChanges")
+        registeredChanges.add(dirtyData)
+    }
+
+    override fun unknownChanges(timestamp: Long) {
+        calls.add("unknownChanges")
+    }
+
+    override fun getChanges(artifact: File, sinceTS: Long): Iterable<SimpleDirtyData>? {
+        calls.add("getChanges")
+        return null
+    }
+}
+
+private class RecordingCompilationResults : CompilationResults {
+    val compiledSources = Collections.synchronizedList(arrayListOf<Set<String>>())
+
+    override fun add(compilationResultCategory: Int, value: Serializable) {
+        if (compilationResultCategory == CompilationResultCategory.IC_COMPILE_ITERATION.code) {
+            compiledSources.add((value as CompileIterationResult).sourceFiles.mapTo(HashSet()) { it.name })
+        }
+    }
+}
+
 // java.util.Logger used in the daemon silently forgets to log into a file specified in the config on Windows,
 // if file path is given in windows form (using backslash as a separator); the reason is unknown
 // this function makes a path with forward slashed, that works on windows too
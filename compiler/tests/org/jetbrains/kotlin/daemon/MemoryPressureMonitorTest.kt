@@ -0,0 +1,142 @@
+/*
+ * Copyright 2000-2018 JetBrains s.r.o. Use of this source code is governed by the Apache 2.0 license
+ * that can be found in the license/LICENSE.txt file.
+ */
+
+package org.jetbrains.kotlin.daemon
+
+import junit.framework.TestCase
+import java.lang.management.MemoryNotificationInfo
+import java.lang.management.MemoryPoolMXBean
+import java.lang.management.MemoryUsage
+import java.lang.reflect.Proxy
+import javax.management.Notification
+import javax.management.NotificationBroadcasterSupport
+
+class MemoryPressureMonitorTest : TestCase() {
+    private val pool = FakeMemoryPool()
+    private val notifications = NotificationBroadcasterSupport()
+    private var notificationNumber = 0L
+
+    private val evicted = arrayListOf<String>()
+    private var pendingEviction: (() -> Unit)? = null
+    private var isExhausted = false
+
+    private val monitor = MemoryPressureMonitor(
+            evictionSteps = listOf(
+                    MemoryPressureMonitor.EvictionStep("first") { onEvicted -> evicted.add("first"); onEvicted() },
+                    MemoryPressureMonitor.EvictionStep("deferred") { onEvicted -> evicted.add("deferred"); pendingEviction = onEvicted },
+                    MemoryPressureMonitor.EvictionStep("last") { onEvicted -> evicted.add("last"); onEvicted() }
+            ),
+            onCachesExhausted = { isExhausted = true },
+            tenuredPool = pool.bean,
+            notificationEmitter = notifications
+    )
+
+    override fun setUp() {
+        super.setUp()
+        monitor.start()
+    }
+
+    override fun tearDown() {
+        monitor.stop()
+        super.tearDown()
+    }
+
+    fun testStepsEscalateUntilCachesAreExhausted() {
+        pool.usedAfterCollection = HIGH_USAGE
+
+        exceedThreshold()
+        assertEquals(listOf("first"), evicted)
+
+        exceedThreshold()
+        assertEquals(listOf("first", "deferred"), evicted)
+        finishPendingEviction()
+
+        exceedThreshold()
+        assertEquals(listOf("first", "deferred", "last"), evicted)
+        assertFalse(isExhausted)
+
+        exceedThreshold()
+        assertTrue(isExhausted)
+        assertEquals(listOf("first", "deferred", "last"), evicted)
+    }
+
+    fun testDeferredEvictionIsNotEscalated() {
+        pool.usedAfterCollection = HIGH_USAGE
+        exceedThreshold()
+        exceedThreshold()
+
+        exceedThreshold()
+        exceedThreshold()
+        assertEquals(listOf("first", "deferred"), evicted)
+
+        finishPendingEviction()
+        exceedThreshold()
+        assertEquals(listOf("first", "deferred", "last"), evicted)
+    }
+
+    fun testEvictionStartsFromFirstStepAfterRecovery() {
+        pool.usedAfterCollection = HIGH_USAGE
+        exceedThreshold()
+        val lastEventId = monitor.lastEventId()
+
+        pool.usedAfterCollection = LOW_USAGE
+        monitor.checkRecovered()
+        monitor.awaitProcessed()
+        assertEquals(listOf("Memory usage of the daemon is back to normal"), monitor.eventsSince(lastEventId))
+
+        pool.usedAfterCollection = HIGH_USAGE
+        exceedThreshold()
+        assertEquals(listOf("first", "first"), evicted)
+    }
+
+    fun testNoRecoveryWhileEvictionIsPending() {
+        pool.usedAfterCollection = HIGH_USAGE
+        exceedThreshold()
+        exceedThreshold()
+
+        pool.usedAfterCollection = LOW_USAGE
+        monitor.checkRecovered()
+        finishPendingEviction()
+
+        pool.usedAfterCollection = HIGH_USAGE
+        exceedThreshold()
+        assertEquals(listOf("first", "deferred", "last"), evicted)
+    }
+
+    private fun exceedThreshold() {
+        notifications.sendNotification(
+                Notification(MemoryNotificationInfo.MEMORY_COLLECTION_THRESHOLD_EXCEEDED, pool.bean, ++notificationNumber))
+        // an eviction is finished by a separate task of the monitor
+        monitor.awaitProcessed()
+        monitor.awaitProcessed()
+    }
+
+    private fun finishPendingEviction() {
+        pendingEviction!!.invoke()
+        pendingEviction = null
+        monitor.awaitProcessed()
+    }
+
+    private class FakeMemoryPool {
+        @Volatile var usedAfterCollection = 0L
+        @Volatile private var threshold = 0L
+
+        val bean = Proxy.newProxyInstance(javaClass.classLoader, arrayOf(MemoryPoolMXBean::class.java)) { _, method, args ->
+            when (method.name) {
+                "getName" -> "fake pool"
+                "getUsage", "getCollectionUsage" -> MemoryUsage(0, usedAfterCollection, MAX_USAGE, MAX_USAGE)
+                "getCollectionUsageThreshold" -> threshold
+                "setCollectionUsageThreshold" -> { threshold = args[0] as Long; null }
+                else -> throw UnsupportedOperationException(method.name)
+            }
+        } as MemoryPoolMXBean
+    }
+
+    private companion object {
+        const val MAX_USAGE = 1000L
+        const val HIGH_USAGE = 900L
+        const val LOW_USAGE = 100L
+    }
+}
@@ -0,0 +1,147 @@
+/*
+ * Copyright 2000-2018 JetBrains s.r.o. Use of this source code is governed by the Apache 2.0 license
+ * that can be found in the license/LICENSE.txt file.
+ */
+
+package org.jetbrains.kotlin.parsing
+
+import com.intellij.lang.ASTNode
+import com.intellij.psi.impl.DebugUtil
+import com.intellij.psi.impl.source.DummyHolderFactory
+import com.intellij.psi.impl.source.tree.TreeElement
+import com.intellij.psi.tree.IReparseableElementType
+import com.intellij.psi.util.PsiTreeUtil
+import org.jetbrains.kotlin.KtNodeTypes
+import org.jetbrains.kotlin.cli.jvm.compiler.EnvironmentConfigFiles
+import org.jetbrains.kotlin.cli.jvm.compiler.KotlinCoreEnvironment
+import org.jetbrains.kotlin.idea.KotlinLanguage
+import org.jetbrains.kotlin.lexer.KotlinLexer
+import org.jetbrains.kotlin.psi.*
+import org.jetbrains.kotlin.psi.psiUtil.collectDescendantsOfType
+import org.jetbrains.kotlin.test.KotlinTestUtils
+import org.jetbrains.kotlin.test.KotlinTestWithEnvironment
+
+class BlockReparseTest : KotlinTestWithEnvironment() {
+    fun testFunctionBodyIsParsedOnDemand() {
+        val body = functionBody("fun foo() { bar() }")
+        assertFalse(body.isParsed)
+        assertEquals(1, body.statements.size)
+    }
+
+    fun testReparsedBodyIsTheSameAsParsedWithFile() {
+        val text = "class A {\n    fun foo(x: Int): Int {\n        return x\n    }\n}"
+        val newBody = "{\n        val y = x + 1\n        if (y > 0) { return y }\n        fun local() { bar { it } }\n        return \"\${y}\".length\n    }"
+
+        val reparsed = reparse(functionBody(text), newBody) ?: error("Body should be reparsed")
+        val expected = functionBody(text.replace("{\n        return x\n    }", newBody))
+        assertEquals(DebugUtil.psiToString(expected, false), DebugUtil.psiToString(reparsed.psi, false))
+    }
+
+    fun testAccessorsInitializersAndConstructorsAreReparsed() {
+        val file = createFile(
+            """
+            class A {
+                val x: Int
+                    get() { return 1 }
+                init { foo() }
+                constructor(y: Int) { foo() }
+            }
+            """.trimIndent()
+        )
+        val blocks = file.collectDescendantsOfType<KtBlockExpression>()
+        assertEquals(3, blocks.size)
+        for (block in blocks) {
+            assertNotNull(reparse(block, "{ bar() }"))
+        }
+    }
+
+    fun testUnbalancedBracesAreNotReparsed() {
+        val body = functionBody("fun foo() { bar() }")
+        assertNull(reparse(body, "{ bar() "))
+        assertNull(reparse(body, "{ bar() } }"))
+        assertNull(reparse(body, "{ bar() } fun baz() {}"))
+    }
+
+    fun testOpenStringsAndCommentsAreNotReparsed() {
+        val body = functionBody("fun foo() { bar() }")
+        assertNull(reparse(body, "{ bar() /* }"))
+        assertNull(reparse(body, "{ val s = \"\"\" }"))
+        assertNull(reparse(body, "{ val s = \"\${ }"))
+    }
+
+    fun testBlocksOfControlStructuresAreNotReparsed() {
+        val file = createFile("fun foo() { if (true) { bar() } }")
+        val ifBody = file.collectDescendantsOfType<KtIfExpression>().single().then as KtBlockExpression
+        // Might be a lambda now: if (true) { x -> bar() }
+        assertNull(reparse(ifBody, "{ baz() }"))
+    }
+
+    fun testBodyClosedEarlyInClassEndsWhereParserClosesIt() {
+        val file = createFile("class A {\n    fun foo() {\n        bar(1, 2\n    }\n    }\n    fun baz() {}\n}")
+        val klass = file.declarations.first() as KtClass
+        // the brace after the body closes the class, the last one is unexpected
+        assertEquals(listOf("A", "baz"), file.declarations.map { it.name })
+        assertEquals(listOf("foo"), klass.declarations.map { it.name })
+
+        val body = (klass.declarations.single() as KtNamedFunction).bodyExpression as KtBlockExpression
+        assertEquals("{\n        bar(1, 2\n    }", body.text)
+        assertSameAsParsedRightAway(body)
+    }
+
+    fun testUnmatchedTokensInArgumentListDoNotMoveEndOfBody() {
+        val file = createFile("fun foo() { bar(1, 2 ] ) ) }\nfun baz() {}")
+        assertEquals(listOf("foo", "baz"), file.declarations.map { it.name })
+
+        val body = functionBody(file.text)
+        assertEquals("{ bar(1, 2 ] ) ) }", body.text)
+        assertTrue(PsiTreeUtil.hasErrorElements(body))
+        assertSameAsParsedRightAway(body)
+    }
+
+    fun testLexerIsAtRestartPointOnlyOutsideOfTemplates() {
+        val lexer = KotlinLexer()
+        lexer.start("\"\${ a }\" + b")
+        while (lexer.tokenType != null) {
+            // the string ends at 8
+            val insideString = lexer.tokenEnd < 8
+            assertEquals("Token at ${lexer.tokenStart}", !insideString, lexer.isAtRestartPoint)
+            lexer.advance()
+        }
+
+        // Templates left open by the previous text are not carried over
+        lexer.start("\"\${ a")
+        while (lexer.tokenType != null) lexer.advance()
+        assertFalse(lexer.isAtRestartPoint)
+        lexer.start("a")
+        while (lexer.tokenType != null) lexer.advance()
+        assertTrue(lexer.isAtRestartPoint)
+    }
+
+    // Does what BlockSupportImpl does in the IDE to reparse a changed block alone
+    private fun reparse(block: KtBlockExpression, newText: String): ASTNode? {
+        val elementType = KtNodeTypes.BLOCK as IReparseableElementType
+        if (!elementType.isParsable(block.node.treeParent, newText, KotlinLanguage.INSTANCE, project)) return null
+
+        val chameleon = elementType.createNode(newText) as TreeElement
+        DummyHolderFactory.createHolder(block.manager, null, block).treeElement.rawAddChildren(chameleon)
+        return chameleon
+    }
+
+    // Blocks of control structures are not lazy, so their boundaries and errors are the ones of the parser
+    private fun assertSameAsParsedRightAway(body: KtBlockExpression) {
+        val file = createFile("fun wrapper() { if (true) ${body.text} }")
+        val ifBody = file.collectDescendantsOfType<KtIfExpression>().single().then as KtBlockExpression
+        assertEquals(DebugUtil.psiToString(ifBody, false), DebugUtil.psiToString(body, false))
+    }
+
+    private fun functionBody(text: String): KtBlockExpression =
+        createFile(text).collectDescendantsOfType<KtNamedFunction>().first().bodyExpression as KtBlockExpression
+
+    private fun createFile(text: String): KtFile = KotlinTestUtils.createFile("test.kt", text, project)
+
+    override fun createEnvironment(): KotlinCoreEnvironment {
+        return KotlinCoreEnvironment.createForTests(
+            testRootDisposable, KotlinTestUtils.newConfiguration(), EnvironmentConfigFiles.JVM_CONFIG_FILES
+        )
+    }
+}
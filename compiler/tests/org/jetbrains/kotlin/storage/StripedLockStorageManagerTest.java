@@ -0,0 +1,207 @@
+/*
+ * Copyright 2000-2018 JetBrains s.r.o. Use of this source code is governed by the Apache 2.0 license
+ * that can be found in the license/LICENSE.txt file.
+ */
+
+package org.jetbrains.kotlin.storage;
+
+import kotlin.jvm.functions.Function0;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class StripedLockStorageManagerTest extends StorageManagerTest {
+    private static final int THREADS = 8;
+
+    @Override
+    protected StorageManager createStorageManager() {
+        return new StripedLockStorageManager();
+    }
+
+    public void testConcurrentLazyValueComputedOnce() throws Exception {
+        AtomicInteger counter = new AtomicInteger();
+        NotNullLazyValue<String> value = m.createLazyValue(() -> "ok" + counter.incrementAndGet());
+
+        for (String result : invokeConcurrently(value)) {
+            assertEquals("ok1", result);
+        }
+        assertEquals(1, counter.get());
+    }
+
+    public void testConcurrentMemoizedFunctionComputesOncePerKey() throws Exception {
+        AtomicInteger counter = new AtomicInteger();
+        MemoizedFunctionToNotNull<Integer, Integer> square = m.createMemoizedFunction(x -> {
+            counter.incrementAndGet();
+            return x * x;
+        });
+
+        for (List<Integer> results : invokeConcurrently(() -> {
+            List<Integer> squares = new ArrayList<>();
+            for (int i = 0; i < 100; i++) {
+                squares.add(square.invoke(i));
+            }
+            return squares;
+        })) {
+            for (int i = 0; i < 100; i++) {
+                assertEquals(i * i, results.get(i).intValue());
+            }
+        }
+        assertEquals(100, counter.get());
+    }
+
+    public void testValuesOnTheSameStripeDoNotBlockEachOther() throws Exception {
+        StripedLockStorageManager storageManager = new StripedLockStorageManager(
+                LockBasedStorageManager.ExceptionHandlingStrategy.THROW, 1, "single stripe"
+        );
+        NotNullLazyValue<String> c = storageManager.createLazyValue(() -> "c");
+        NotNullLazyValue<String> d = storageManager.createLazyValue(() -> "d");
+        NotNullLazyValue<String> a = storageManager.createLazyValue(() -> "a" + c.invoke());
+        NotNullLazyValue<String> b = storageManager.createLazyValue(() -> "b" + d.invoke());
+
+        assertEquals(Arrays.asList("ac", "bd"), invokeOnTwoThreads(a, b));
+    }
+
+    public void testValuesLockingEachOthersStripesDoNotDeadlock() throws Exception {
+        StripedLockStorageManager storageManager = new StripedLockStorageManager(
+                LockBasedStorageManager.ExceptionHandlingStrategy.THROW, 2, "two stripes"
+        );
+        // There is no data cycle: a depends on c and b depends on d, but a and d share one stripe, and b and c share the other one
+        CountDownLatch bothStarted = new CountDownLatch(2);
+        NotNullLazyValue<String> c = createOnStripe(storageManager, 1, () -> "c");
+        NotNullLazyValue<String> d = createOnStripe(storageManager, 0, () -> "d");
+        NotNullLazyValue<String> a = createOnStripe(storageManager, 0, () -> {
+            awaitOther(bothStarted);
+            return "a" + c.invoke();
+        });
+        NotNullLazyValue<String> b = createOnStripe(storageManager, 1, () -> {
+            awaitOther(bothStarted);
+            return "b" + d.invoke();
+        });
+
+        assertEquals(Arrays.asList("ac", "bd"), invokeOnTwoThreads(a, b));
+        assertEquals("c", c.invoke());
+        assertEquals("d", d.invoke());
+    }
+
+    public void testLazyValuesDependingOnEachOtherOnTwoThreadsAreComputedOnce() throws Exception {
+        // Each thread computes its value and then needs the value computed by the other thread.
+        // One of them detects the recursion and gets the recursion tolerant value, neither value is computed twice
+        CountDownLatch bothStarted = new CountDownLatch(2);
+        AtomicInteger aCounter = new AtomicInteger();
+        AtomicInteger bCounter = new AtomicInteger();
+        NotNullLazyValue<String>[] values = new NotNullLazyValue[2];
+        values[0] = m.createRecursionTolerantLazyValue(() -> {
+            aCounter.incrementAndGet();
+            awaitOther(bothStarted);
+            return "a" + values[1].invoke();
+        }, "A");
+        values[1] = m.createRecursionTolerantLazyValue(() -> {
+            bCounter.incrementAndGet();
+            awaitOther(bothStarted);
+            return "b" + values[0].invoke();
+        }, "B");
+
+        List<String> results = invokeOnTwoThreads(values[0], values[1]);
+        assertTrue(results.toString(), results.equals(Arrays.asList("abA", "bA")) || results.equals(Arrays.asList("aB", "baB")));
+        assertEquals(results, Arrays.asList(values[0].invoke(), values[1].invoke()));
+        assertEquals(1, aCounter.get());
+        assertEquals(1, bCounter.get());
+    }
+
+    public void testMemoizedFunctionKeysDependingOnEachOtherOnTwoThreadsAreComputedOnce() throws Exception {
+        CountDownLatch bothStarted = new CountDownLatch(2);
+        AtomicInteger counter = new AtomicInteger();
+        MemoizedFunctionToNotNull<Integer, String>[] function = new MemoizedFunctionToNotNull[1];
+        function[0] = m.createMemoizedFunction(x -> {
+            counter.incrementAndGet();
+            awaitOther(bothStarted);
+            return x + function[0].invoke(1 - x);
+        });
+
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            Future<String> first = executor.submit(() -> function[0].invoke(0));
+            Future<String> second = executor.submit(() -> function[0].invoke(1));
+            // The recursion is reported on one thread, and the other one gets the exception stored for the value it waits for
+            assertRecursionDetected(first);
+            assertRecursionDetected(second);
+        }
+        finally {
+            executor.shutdownNow();
+        }
+        assertEquals(2, counter.get());
+    }
+
+    private static void assertRecursionDetected(Future<String> result) throws Exception {
+        try {
+            result.get(30, TimeUnit.SECONDS);
+            fail("Recursion is not detected");
+        }
+        catch (ExecutionException e) {
+            assertTrue(String.valueOf(e.getCause()), e.getCause() instanceof AssertionError);
+            assertTrue(e.getCause().getMessage(), e.getCause().getMessage().startsWith("Recursion detected"));
+        }
+    }
+
+    @NotNull
+    private static NotNullLazyValue<String> createOnStripe(
+            @NotNull StripedLockStorageManager storageManager,
+            int stripe,
+            @NotNull Function0<String> computable
+    ) {
+        while (true) {
+            NotNullLazyValue<String> value = storageManager.createLazyValue(computable);
+            if (storageManager.stripeIndexOfLazyValue(value) == stripe) return value;
+        }
+    }
+
+    private static void awaitOther(CountDownLatch latch) {
+        latch.countDown();
+        try {
+            // Neither computation waits for the other one before both have started
+            assertTrue(latch.await(30, TimeUnit.SECONDS));
+        }
+        catch (InterruptedException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static List<String> invokeOnTwoThreads(NotNullLazyValue<String> first, NotNullLazyValue<String> second) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            Future<String> firstResult = executor.submit(first::invoke);
+            Future<String> secondResult = executor.submit(second::invoke);
+            return Arrays.asList(firstResult.get(30, TimeUnit.SECONDS), secondResult.get(30, TimeUnit.SECONDS));
+        }
+        finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static <T> List<T> invokeConcurrently(Function0<T> computation) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        try {
+            CyclicBarrier start = new CyclicBarrier(THREADS);
+            List<Future<T>> futures = new ArrayList<>();
+            for (int i = 0; i < THREADS; i++) {
+                futures.add(executor.submit(() -> {
+                    start.await();
+                    return computation.invoke();
+                }));
+            }
+
+            List<T> results = new ArrayList<>();
+            for (Future<T> future : futures) {
+                results.add(future.get(30, TimeUnit.SECONDS));
+            }
+            return results;
+        }
+        finally {
+            executor.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,113 @@
+/*
+ * Copyright 2000-2018 JetBrains s.r.o. Use of this source code is governed by the Apache 2.0 license
+ * that can be found in the license/LICENSE.txt file.
+ */
+
+package org.jetbrains.kotlin.util.slicedMap;
+
+import junit.framework.TestCase;
+
+import java.util.*;
+
+public class ColumnarSlicedMapTest extends TestCase {
+    private final WritableSlice<Object, Integer> COLUMN = Slices.<Object, Integer>sliceBuilder().setDebugName("COLUMN").build();
+    private final WritableSlice<Object, String> OTHER = Slices.<Object, String>sliceBuilder().setDebugName("OTHER").build();
+
+    private final ColumnarSlicedMap.Layout layout = new ColumnarSlicedMap.Layout(Collections.singletonList(COLUMN));
+
+    public void testColumnAndDefaultSlices() {
+        ColumnarSlicedMap map = new ColumnarSlicedMap(false, layout);
+        Object key = new Object();
+
+        map.put(COLUMN, key, 1);
+        map.put(OTHER, key, "one");
+
+        assertEquals(1, (int) map.get(COLUMN, key));
+        assertEquals("one", map.get(OTHER, key));
+        assertNull(map.get(COLUMN, new Object()));
+
+        Map<Object, Object> visited = new HashMap<>();
+        map.forEach((slice, k, value) -> {
+            visited.put(slice, value);
+            return null;
+        });
+        assertEquals(2, visited.size());
+        assertEquals(1, visited.get(COLUMN));
+
+        map.clear();
+        assertNull(map.get(COLUMN, key));
+        assertNull(map.get(OTHER, key));
+    }
+
+    public void testManyKeys() {
+        ColumnarSlicedMap map = new ColumnarSlicedMap(false, layout);
+        Object[] keys = new Object[10000];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = new Object();
+            map.put(COLUMN, keys[i], i);
+        }
+
+        for (int i = 0; i < keys.length; i++) {
+            assertEquals(i, (int) map.get(COLUMN, keys[i]));
+        }
+        assertEquals(keys.length, map.getSliceContents(COLUMN).size());
+    }
+
+    public void testColumnEntriesAreVisitedInInsertionOrder() {
+        WritableSlice<Object, Integer> second = Slices.<Object, Integer>sliceBuilder().setDebugName("SECOND").build();
+        ColumnarSlicedMap map = new ColumnarSlicedMap(false, new ColumnarSlicedMap.Layout(Arrays.asList(COLUMN, second)));
+
+        List<Object> keys = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            keys.add(new Object());
+            map.put(i % 3 == 0 ? second : COLUMN, keys.get(i), i);
+        }
+        // rewriting a value doesn't move the entry
+        map.put(COLUMN, keys.get(1), -1);
+
+        List<Object> visitedKeys = new ArrayList<>();
+        List<Object> visitedValues = new ArrayList<>();
+        map.forEach((slice, key, value) -> {
+            visitedKeys.add(key);
+            visitedValues.add(value);
+            return null;
+        });
+        assertEquals(keys, visitedKeys);
+        assertEquals(-1, visitedValues.get(1));
+        assertEquals(2, visitedValues.get(2));
+
+        List<Object> columnKeys = new ArrayList<>(map.getSliceContents(COLUMN).keySet());
+        List<Object> expectedColumnKeys = new ArrayList<>();
+        for (int i = 0; i < keys.size(); i++) {
+            if (i % 3 != 0) expectedColumnKeys.add(keys.get(i));
+        }
+        assertEquals(expectedColumnKeys, columnKeys);
+    }
+
+    public void testRewritePolicy() {
+        RewritePolicy keepOldValue = new RewritePolicy() {
+            @Override
+            public <K> boolean rewriteProcessingNeeded(K key) {
+                return true;
+            }
+
+            @Override
+            public <K, V> boolean processRewrite(WritableSlice<K, V> slice, K key, V oldValue, V newValue) {
+                return false;
+            }
+        };
+        WritableSlice<Object, Integer> slice = new BasicWritableSlice<>(keepOldValue);
+        ColumnarSlicedMap.Layout layout = new ColumnarSlicedMap.Layout(Collections.singletonList(slice));
+        Object key = new Object();
+
+        ColumnarSlicedMap map = new ColumnarSlicedMap(false, layout);
+        map.put(slice, key, 1);
+        map.put(slice, key, 2);
+        assertEquals(1, (int) map.get(slice, key));
+
+        ColumnarSlicedMap rewritableMap = new ColumnarSlicedMap(true, layout);
+        rewritableMap.put(slice, key, 1);
+        rewritableMap.put(slice, key, 2);
+        assertEquals(2, (int) rewritableMap.get(slice, key));
+    }
+}
@@ -16,18 +16,53 @@
 
 package org.jetbrains.kotlin.config;
 
+import org.jetbrains.annotations.Nullable;
 import org.jetbrains.annotations.TestOnly;
 
 public class IncrementalCompilation {
     private static final String INCREMENTAL_COMPILATION_PROPERTY = "kotlin.incremental.compilation";
     private static final String INCREMENTAL_COMPILATION_JS_PROPERTY = "kotlin.incremental.compilation.js";
 
+    // Overrides of the system properties for a compilation session running on the current thread (and the threads it starts),
+    // so that sessions running concurrently in the daemon don't affect each other. Other builds enable IC for the whole process
+    private static final ThreadLocal<Boolean> isEnabledForThread = new InheritableThreadLocal<Boolean>();
+    private static final ThreadLocal<Boolean> isEnabledForJsForThread = new InheritableThreadLocal<Boolean>();
+
     public static boolean isEnabled() {
-        return "true".equals(System.getProperty(INCREMENTAL_COMPILATION_PROPERTY));
+        Boolean value = isEnabledForThread.get();
+        return value != null ? value : "true".equals(System.getProperty(INCREMENTAL_COMPILATION_PROPERTY));
     }
 
     public static boolean isEnabledForJs() {
-        return "true".equals(System.getProperty(INCREMENTAL_COMPILATION_JS_PROPERTY));
+        Boolean value = isEnabledForJsForThread.get();
+        return value != null ? value : "true".equals(System.getProperty(INCREMENTAL_COMPILATION_JS_PROPERTY));
+    }
+
+    @Nullable
+    public static Boolean getIsEnabledForCurrentThread() {
+        return isEnabledForThread.get();
+    }
+
+    public static void setIsEnabledForCurrentThread(@Nullable Boolean value) {
+        setOrRemove(isEnabledForThread, value);
+    }
+
+    @Nullable
+    public static Boolean getIsEnabledForJsForCurrentThread() {
+        return isEnabledForJsForThread.get();
+    }
+
+    public static void setIsEnabledForJsForCurrentThread(@Nullable Boolean value) {
+        setOrRemove(isEnabledForJsForThread, value);
+    }
+
+    private static void setOrRemove(ThreadLocal<Boolean> threadLocal, @Nullable Boolean value) {
+        if (value != null) {
+            threadLocal.set(value);
+        }
+        else {
+            threadLocal.remove();
+        }
     }
 
     @TestOnly
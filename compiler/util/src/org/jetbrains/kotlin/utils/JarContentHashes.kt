@@ -0,0 +1,60 @@
+/*
+ * Copyright 2000-2018 JetBrains s.r.o. Use of this source code is governed by the Apache 2.0 license
+ * that can be found in the license/LICENSE.txt file.
+ */
+
+package org.jetbrains.kotlin.utils
+
+import java.io.File
+import java.io.FileInputStream
+import java.io.IOException
+import java.security.MessageDigest
+import java.util.concurrent.ConcurrentHashMap
+
+// Content hashes of jars, used as keys of caches shared between compilations in the same process (e.g. in the compile daemon),
+// so that entries stay valid for any compilation with the same jar, wherever it is located.
+object JarContentHashes {
+    private const val JAR_SEPARATOR = "!/"
+
+    private data class JarStamp(val lastModified: Long, val length: Long)
+
+    // Hashing a jar is only repeated when its timestamp or size changes
+    private val hashes = ConcurrentHashMap<String, Pair<JarStamp, String>>()
+
+    /**
+     * Returns the hash of the jar containing the entry with the given path of a jar file system (`path/to/lib.jar!/entry`),
+     * or null if the path doesn't point into a jar or the jar can't be read
+     */
+    fun ofJarEntry(entryPath: String): String? {
+        if (JAR_SEPARATOR !in entryPath) return null
+        return of(File(entryPath.substringBefore(JAR_SEPARATOR)))
+    }
+
+    fun of(jar: File): String? {
+        val stamp = JarStamp(jar.lastModified(), jar.length())
+        if (stamp.lastModified == 0L) return null
+
+        hashes[jar.path]?.let { (cachedStamp, hash) ->
+            if (cachedStamp == stamp) return hash
+        }
+
+        val hash = try {
+            val digest = MessageDigest.getInstance("SHA-1")
+            FileInputStream(jar).use { input ->
+                val buffer = ByteArray(64 * 1024)
+                while (true) {
+                    val read = input.read(buffer)
+                    if (read < 0) break
+                    digest.update(buffer, 0, read)
+                }
+            }
+            digest.digest().joinToString("") { String.format("%02x", it) }
+        }
+        catch (e: IOException) {
+            return null
+        }
+
+        hashes[jar.path] = stamp to hash
+        return hash
+    }
+}
@@ -0,0 +1,72 @@
+/*
+ * Copyright 2000-2018 JetBrains s.r.o. Use of this source code is governed by the Apache 2.0 license
+ * that can be found in the license/LICENSE.txt file.
+ */
+
+package org.jetbrains.kotlin.utils
+
+// A thread-safe LRU cache bounded by the total (estimated) size of its values in bytes rather than by the number of entries
+class WeightedLruCache<K : Any, V : Any>(private var maxWeight: Long, private val weigher: (V) -> Long) {
+    private class Entry<out V>(val value: V, val weight: Long)
+
+    private val entries = LinkedHashMap<K, Entry<V>>(16, 0.75f, /* accessOrder = */ true)
+    private var totalWeight = 0L
+
+    private var hits = 0L
+    private var misses = 0L
+    private var evictions = 0L
+
+    @Synchronized
+    fun get(key: K): V? {
+        val entry = entries[key]
+        if (entry == null) misses++ else hits++
+        return entry?.value
+    }
+
+    @Synchronized
+    fun put(key: K, value: V) {
+        val weight = weigher(value)
+        // A value which doesn't fit at all would only evict everything else
+        if (weight > maxWeight) return
+
+        entries.put(key, Entry(value, weight))?.let { totalWeight -= it.weight }
+        totalWeight += weight
+        evictIfNeeded()
+    }
+
+    @Synchronized
+    fun resize(newMaxWeight: Long) {
+        maxWeight = newMaxWeight
+        evictIfNeeded()
+    }
+
+    @Synchronized
+    fun clear() {
+        entries.clear()
+        totalWeight = 0
+    }
+
+    val statistics: Statistics
+        @Synchronized get() = Statistics(hits, misses, evictions, entries.size, totalWeight)
+
+    private fun evictIfNeeded() {
+        val iterator = entries.values.iterator()
+        while (totalWeight > maxWeight && iterator.hasNext()) {
+            totalWeight -= iterator.next().weight
+            iterator.remove()
+            evictions++
+        }
+    }
+
+    inline fun getOrPut(key: K, defaultValue: () -> V): V {
+        // The value is computed outside of the lock: computing it twice is cheaper than serializing all backend threads on I/O
+        get(key)?.let { return it }
+        val answer = defaultValue()
+        put(key, answer)
+        return answer
+    }
+
+    data class Statistics(val hits: Long, val misses: Long, val evictions: Long, val entryCount: Int, val sizeInBytes: Long) {
+        override fun toString() = "$hits hits, $misses misses, $evictions evictions, $entryCount entries (${sizeInBytes / 1024} kb)"
+    }
+}
@@ -37,6 +37,9 @@ class DeserializedDescriptorResolver {
         this.components = components.components
     }
 
+    var metadataCache: DeserializedMetadataCache = DeserializedMetadataCache.None
+        @Inject set
+
     private val skipMetadataVersionCheck: Boolean
         get() = components.configuration.skipMetadataVersionCheck
 
@@ -49,7 +52,7 @@ class DeserializedDescriptorResolver {
         val data = readData(kotlinClass, KOTLIN_CLASS) ?: return null
         val strings = kotlinClass.classHeader.strings ?: return null
         val classData = parseProto(kotlinClass) {
-            JvmProtoBufUtil.readClassDataFrom(data, strings)
+            metadataCache.getOrParseClassData(kotlinClass) { JvmProtoBufUtil.readClassDataFrom(data, strings) }
         } ?: return null
         val source = KotlinJvmBinarySourceElement(kotlinClass, kotlinClass.incompatibility, kotlinClass.isPreReleaseInvisible)
         return ClassDataWithSource(classData, source)
@@ -59,7 +62,7 @@ class DeserializedDescriptorResolver {
         val data = readData(kotlinClass, KOTLIN_FILE_FACADE_OR_MULTIFILE_CLASS_PART) ?: return null
         val strings = kotlinClass.classHeader.strings ?: return null
         val (nameResolver, packageProto) = parseProto(kotlinClass) {
-            JvmProtoBufUtil.readPackageDataFrom(data, strings)
+            metadataCache.getOrParsePackageData(kotlinClass) { JvmProtoBufUtil.readPackageDataFrom(data, strings) }
         } ?: return null
         val source = JvmPackagePartSource(
             kotlinClass, packageProto, nameResolver, kotlinClass.incompatibility, kotlinClass.isPreReleaseInvisible
@@ -0,0 +1,27 @@
+/*
+ * Copyright 2000-2018 JetBrains s.r.o. Use of this source code is governed by the Apache 2.0 license
+ * that can be found in the license/LICENSE.txt file.
+ */
+
+package org.jetbrains.kotlin.load.kotlin
+
+import org.jetbrains.kotlin.container.DefaultImplementation
+import org.jetbrains.kotlin.serialization.ClassData
+import org.jetbrains.kotlin.serialization.PackageData
+
+/**
+ * Keeps metadata parsed from binary classes. Unlike descriptors, parsed metadata doesn't reference a module or a storage manager,
+ * so it may outlive the compilation it was read for, as long as the class file is unchanged.
+ */
+@DefaultImplementation(DeserializedMetadataCache.None::class)
+interface DeserializedMetadataCache {
+    fun getOrParseClassData(kotlinClass: KotlinJvmBinaryClass, parse: () -> ClassData): ClassData
+
+    fun getOrParsePackageData(kotlinClass: KotlinJvmBinaryClass, parse: () -> PackageData): PackageData
+
+    object None : DeserializedMetadataCache {
+        override fun getOrParseClassData(kotlinClass: KotlinJvmBinaryClass, parse: () -> ClassData) = parse()
+
+        override fun getOrParsePackageData(kotlinClass: KotlinJvmBinaryClass, parse: () -> PackageData) = parse()
+    }
+}
@@ -0,0 +1,645 @@
+/*
+ * Copyright 2000-2018 JetBrains s.r.o. Use of this source code is governed by the Apache 2.0 license
+ * that can be found in the license/LICENSE.txt file.
+ */
+
+package org.jetbrains.kotlin.storage;
+
+import kotlin.Unit;
+import kotlin.jvm.functions.Function0;
+import kotlin.jvm.functions.Function1;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.jetbrains.kotlin.utils.ExceptionUtilsKt;
+import org.jetbrains.kotlin.utils.WrappedValues;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A storage manager which guards each lazy value and each key of a memoized function by one of a fixed number of locks
+ * (stripes) instead of the single lock of {@link LockBasedStorageManager}, so that independent lazy computations
+ * may run in parallel. Recursion detection and {@link LockBasedStorageManager.ExceptionHandlingStrategy} work
+ * the same way as in {@link LockBasedStorageManager}.
+ *
+ * A stripe is held only while the state of a value is changed, never while the value is computed, so values sharing a stripe
+ * don't wait for each other. A thread which needs a value computed by another thread waits on the condition of the stripe until
+ * the computation is finished, so every value is computed exactly once, as with {@link LockBasedStorageManager}.
+ *
+ * Each wait is registered in a wait-for graph. A thread which would close a cycle in that graph (e.g. it computes a value which
+ * is needed by a computation it waits for) has made a recursive call through other threads: it's handled as a recursive call
+ * on one thread would be, i.e. the recursion tolerant value or an error is returned, and the value is not computed again.
+ */
+public class StripedLockStorageManager implements StorageManager {
+    public static final int DEFAULT_STRIPE_COUNT = 64;
+
+    private static final long DEADLOCK_CHECK_INTERVAL_MS = 10;
+    private static final int MAX_WAIT_CHAIN_LENGTH = 256;
+
+    // What a thread waits for: a TrackedLock or a Computation. Shared by all storage managers, because a deadlock may involve
+    // values of several of them
+    private static final ConcurrentMap<Thread, Object> WAITING_FOR = new ConcurrentHashMap<Thread, Object>();
+
+    private final TrackedLock[] stripes;
+    private final TrackedLock computeLock = new TrackedLock();
+    private final LockBasedStorageManager.ExceptionHandlingStrategy exceptionHandlingStrategy;
+    private final String debugText;
+
+    public StripedLockStorageManager() {
+        this(LockBasedStorageManager.ExceptionHandlingStrategy.THROW, DEFAULT_STRIPE_COUNT, "<unknown creating class>");
+    }
+
+    public StripedLockStorageManager(
+            @NotNull LockBasedStorageManager.ExceptionHandlingStrategy exceptionHandlingStrategy,
+            int stripeCount,
+            @NotNull String debugText
+    ) {
+        if (stripeCount <= 0 || (stripeCount & (stripeCount - 1)) != 0) {
+            throw new IllegalArgumentException("Stripe count should be a positive power of two: " + stripeCount);
+        }
+        this.stripes = new TrackedLock[stripeCount];
+        for (int i = 0; i < stripeCount; i++) {
+            stripes[i] = new TrackedLock();
+        }
+        this.exceptionHandlingStrategy = exceptionHandlingStrategy;
+        this.debugText = debugText;
+    }
+
+    @NotNull
+    public static StripedLockStorageManager createWithExceptionHandling(
+            @NotNull LockBasedStorageManager.ExceptionHandlingStrategy exceptionHandlingStrategy
+    ) {
+        return new StripedLockStorageManager(exceptionHandlingStrategy, DEFAULT_STRIPE_COUNT, "<unknown creating class>");
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + "@" + Integer.toHexString(hashCode()) + " (" + debugText + ")";
+    }
+
+    @NotNull
+    private TrackedLock stripeFor(int hash) {
+        return stripes[stripeIndex(hash)];
+    }
+
+    private int stripeIndex(int hash) {
+        int spread = hash ^ (hash >>> 16);
+        return spread & (stripes.length - 1);
+    }
+
+    // Visible for tests
+    int stripeIndexOfLazyValue(@NotNull Object lazyValue) {
+        assert lazyValue instanceof StripedLazyValue : "Not a lazy value of this storage manager: " + lazyValue;
+        return stripeIndex(System.identityHashCode(lazyValue));
+    }
+
+    /**
+     * Waits until a computation in progress on another thread is finished or the stripe is signalled. Must be called with the stripe
+     * held by the current thread, the caller checks the state of the value again after that.
+     *
+     * @return {@code false} if the computation waits (possibly through other threads) for the current thread, so waiting would deadlock
+     */
+    private static boolean awaitComputation(@NotNull TrackedLock stripe, @NotNull Computation computation) {
+        Thread current = Thread.currentThread();
+        WAITING_FOR.put(current, computation);
+        try {
+            if (wouldDeadlock(current, computation)) return false;
+            // A cycle may be closed by a thread which starts waiting later, so it's checked again after an interval
+            stripe.computationFinished.await(DEADLOCK_CHECK_INTERVAL_MS, TimeUnit.MILLISECONDS);
+            return true;
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw ExceptionUtilsKt.rethrow(e);
+        }
+        finally {
+            WAITING_FOR.remove(current);
+        }
+    }
+
+    private static void lockRegisteringWait(@NotNull TrackedLock lock) {
+        if (lock.tryLock()) return;
+
+        Thread current = Thread.currentThread();
+        WAITING_FOR.put(current, lock);
+        try {
+            lock.lock();
+        }
+        finally {
+            WAITING_FOR.remove(current);
+        }
+    }
+
+    private static boolean wouldDeadlock(@NotNull Thread current, @NotNull Object waitedFor) {
+        Object next = waitedFor;
+        for (int i = 0; next != null && i < MAX_WAIT_CHAIN_LENGTH; i++) {
+            Thread owner = next instanceof TrackedLock ? ((TrackedLock) next).getOwnerThread() : ((Computation) next).thread;
+            if (owner == null) return false;
+            if (owner == current) return true;
+            next = WAITING_FOR.get(owner);
+        }
+        return false;
+    }
+
+    @NotNull
+    @Override
+    public <K, V> MemoizedFunctionToNotNull<K, V> createMemoizedFunction(@NotNull Function1<? super K, ? extends V> compute) {
+        return createMemoizedFunction(compute, StripedLockStorageManager.<K>createConcurrentHashMap());
+    }
+
+    @NotNull
+    @Override
+    public <K, V> MemoizedFunctionToNotNull<K, V> createMemoizedFunction(
+            @NotNull Function1<? super K, ? extends V> compute,
+            @NotNull ConcurrentMap<K, Object> map
+    ) {
+        return new StripedMemoizedFunctionToNotNull<K, V>(this, map, compute);
+    }
+
+    @NotNull
+    @Override
+    public <K, V> MemoizedFunctionToNullable<K, V> createMemoizedFunctionWithNullableValues(
+            @NotNull Function1<? super K, ? extends V> compute
+    ) {
+        return createMemoizedFunctionWithNullableValues(compute, StripedLockStorageManager.<K>createConcurrentHashMap());
+    }
+
+    @NotNull
+    @Override
+    public <K, V> MemoizedFunctionToNullable<K, V> createMemoizedFunctionWithNullableValues(
+            @NotNull Function1<? super K, ? extends V> compute,
+            @NotNull ConcurrentMap<K, Object> map
+    ) {
+        return new StripedMemoizedFunction<K, V>(this, map, compute);
+    }
+
+    @NotNull
+    @Override
+    public <K, V> CacheWithNullableValues<K, V> createCacheWithNullableValues() {
+        return new CacheWithNullableValuesBasedOnMemoizedFunction<K, V>(this);
+    }
+
+    @NotNull
+    @Override
+    public <K, V> CacheWithNotNullValues<K, V> createCacheWithNotNullValues() {
+        return new CacheWithNotNullValuesBasedOnMemoizedFunction<K, V>(this);
+    }
+
+    @NotNull
+    @Override
+    public <T> NotNullLazyValue<T> createLazyValue(@NotNull Function0<? extends T> computable) {
+        return new StripedNotNullLazyValue<T>(this, computable);
+    }
+
+    @NotNull
+    @Override
+    public <T> NotNullLazyValue<T> createRecursionTolerantLazyValue(
+            @NotNull Function0<? extends T> computable, @NotNull final T onRecursiveCall
+    ) {
+        return new StripedNotNullLazyValue<T>(this, computable) {
+            @NotNull
+            @Override
+            protected RecursionDetectedResult<T> recursionDetected(boolean firstTime) {
+                return RecursionDetectedResult.value(onRecursiveCall);
+            }
+        };
+    }
+
+    @NotNull
+    @Override
+    public <T> NotNullLazyValue<T> createLazyValueWithPostCompute(
+            @NotNull Function0<? extends T> computable,
+            final Function1<? super Boolean, ? extends T> onRecursiveCall,
+            @NotNull final Function1<? super T, Unit> postCompute
+    ) {
+        return new StripedNotNullLazyValue<T>(this, computable) {
+            @NotNull
+            @Override
+            protected RecursionDetectedResult<T> recursionDetected(boolean firstTime) {
+                if (onRecursiveCall == null) {
+                    return super.recursionDetected(firstTime);
+                }
+                return RecursionDetectedResult.value(onRecursiveCall.invoke(firstTime));
+            }
+
+            @Override
+            protected void postCompute(@NotNull T value) {
+                postCompute.invoke(value);
+            }
+        };
+    }
+
+    @NotNull
+    @Override
+    public <T> NullableLazyValue<T> createNullableLazyValue(@NotNull Function0<? extends T> computable) {
+        return new StripedLazyValue<T>(this, computable);
+    }
+
+    @NotNull
+    @Override
+    public <T> NullableLazyValue<T> createRecursionTolerantNullableLazyValue(
+            @NotNull Function0<? extends T> computable, final T onRecursiveCall
+    ) {
+        return new StripedLazyValue<T>(this, computable) {
+            @NotNull
+            @Override
+            protected RecursionDetectedResult<T> recursionDetected(boolean firstTime) {
+                return RecursionDetectedResult.value(onRecursiveCall);
+            }
+        };
+    }
+
+    @NotNull
+    @Override
+    public <T> NullableLazyValue<T> createNullableLazyValueWithPostCompute(
+            @NotNull Function0<? extends T> computable, @NotNull final Function1<? super T, Unit> postCompute
+    ) {
+        return new StripedLazyValue<T>(this, computable) {
+            @Override
+            protected void postCompute(@Nullable T value) {
+                postCompute.invoke(value);
+            }
+        };
+    }
+
+    @Override
+    public <T> T compute(@NotNull Function0<? extends T> computable) {
+        // Blocks explicitly computed under the storage manager (e.g. trace accesses) are still mutually exclusive,
+        // but they don't serialize lazy values and memoized functions anymore
+        lockRegisteringWait(computeLock);
+        try {
+            return computable.invoke();
+        }
+        catch (Throwable throwable) {
+            throw exceptionHandlingStrategy.handleException(throwable);
+        }
+        finally {
+            computeLock.unlock();
+        }
+    }
+
+    @NotNull
+    private static <K> ConcurrentMap<K, Object> createConcurrentHashMap() {
+        // memory optimization: fewer segments and entries stored
+        return new ConcurrentHashMap<K, Object>(3, 1, 2);
+    }
+
+    private static final class TrackedLock extends ReentrantLock {
+        // Signalled when a computation of a value on this stripe is finished
+        final Condition computationFinished = newCondition();
+
+        @Nullable
+        Thread getOwnerThread() {
+            return getOwner();
+        }
+    }
+
+    // A computation of a value in progress, stored in place of the value of a memoized function while it's computed
+    private static final class Computation {
+        final Thread thread;
+
+        Computation(@NotNull Thread thread) {
+            this.thread = thread;
+        }
+    }
+
+    private static class RecursionDetectedResult<T> {
+        @NotNull
+        public static <T> RecursionDetectedResult<T> value(T value) {
+            return new RecursionDetectedResult<T>(value);
+        }
+
+        private final T value;
+
+        private RecursionDetectedResult(T value) {
+            this.value = value;
+        }
+
+        public T getValue() {
+            return value;
+        }
+    }
+
+    private enum NotValue {
+        NOT_COMPUTED,
+        COMPUTING,
+        RECURSION_WAS_DETECTED
+    }
+
+    private static class StripedLazyValue<T> implements NullableLazyValue<T> {
+        private final StripedLockStorageManager storageManager;
+        private final Function0<? extends T> computable;
+
+        @Nullable
+        private volatile Object value = NotValue.NOT_COMPUTED;
+        // Not null while the value is computed, guarded by the stripe
+        @Nullable
+        private Computation computation;
+
+        public StripedLazyValue(@NotNull StripedLockStorageManager storageManager, @NotNull Function0<? extends T> computable) {
+            this.storageManager = storageManager;
+            this.computable = computable;
+        }
+
+        @Override
+        public boolean isComputed() {
+            return !(value instanceof NotValue);
+        }
+
+        @Override
+        public boolean isComputing() {
+            return value == NotValue.COMPUTING;
+        }
+
+        @Override
+        public T invoke() {
+            Object _value = value;
+            if (!(_value instanceof NotValue)) return WrappedValues.unescapeThrowable(_value);
+
+            TrackedLock stripe = storageManager.stripeFor(System.identityHashCode(this));
+            Computation started = null;
+            boolean recursionFirstTime = false;
+            stripe.lock();
+            try {
+                while (true) {
+                    _value = value;
+                    if (!(_value instanceof NotValue)) return WrappedValues.unescapeThrowable(_value);
+
+                    if (_value == NotValue.NOT_COMPUTED) {
+                        started = computation = new Computation(Thread.currentThread());
+                        value = NotValue.COMPUTING;
+                        break;
+                    }
+
+                    // A recursive call on this thread, or through the computations of other threads which wait for this one.
+                    // If the computation has failed after the recursion was detected, there is no computation to wait for
+                    Computation inProgress = computation;
+                    if (inProgress == null || inProgress.thread == Thread.currentThread() || !awaitComputation(stripe, inProgress)) {
+                        recursionFirstTime = _value == NotValue.COMPUTING;
+                        if (recursionFirstTime) {
+                            value = NotValue.RECURSION_WAS_DETECTED;
+                        }
+                        break;
+                    }
+                }
+            }
+            finally {
+                stripe.unlock();
+            }
+
+            if (started == null) {
+                return recursionDetected(recursionFirstTime).getValue();
+            }
+
+            T typedValue;
+            try {
+                typedValue = computable.invoke();
+            }
+            catch (Throwable throwable) {
+                if (ExceptionUtilsKt.isProcessCanceledException(throwable)) {
+                    finishComputation(stripe, NotValue.NOT_COMPUTED, true);
+                    //noinspection ConstantConditions
+                    throw (RuntimeException) throwable;
+                }
+
+                finishComputation(stripe, WrappedValues.escapeThrowable(throwable), false);
+                throw storageManager.exceptionHandlingStrategy.handleException(throwable);
+            }
+
+            finishComputation(stripe, typedValue, true);
+            postCompute(typedValue);
+            return typedValue;
+        }
+
+        private void finishComputation(@NotNull TrackedLock stripe, @Nullable Object result, boolean genuineResult) {
+            stripe.lock();
+            try {
+                // An exception is stored only if it's a genuine result, not something thrown through recursionDetected()
+                if (genuineResult || value == NotValue.COMPUTING) {
+                    value = result;
+                }
+                computation = null;
+                stripe.computationFinished.signalAll();
+            }
+            finally {
+                stripe.unlock();
+            }
+        }
+
+        /**
+         * @param firstTime {@code true} when recursion has been just detected, {@code false} otherwise
+         * @return a value to be returned on a recursive call or subsequent calls
+         */
+        @NotNull
+        protected RecursionDetectedResult<T> recursionDetected(boolean firstTime) {
+            throw new IllegalStateException("Recursive call in a lazy value under " + storageManager);
+        }
+
+        protected void postCompute(T value) {
+            // Doing something in post-compute helps prevent infinite recursion
+        }
+    }
+
+    private static class StripedNotNullLazyValue<T> extends StripedLazyValue<T> implements NotNullLazyValue<T> {
+        public StripedNotNullLazyValue(@NotNull StripedLockStorageManager storageManager, @NotNull Function0<? extends T> computable) {
+            super(storageManager, computable);
+        }
+
+        @Override
+        @NotNull
+        public T invoke() {
+            T result = super.invoke();
+            assert result != null : "compute() returned null";
+            return result;
+        }
+    }
+
+    private static class StripedMemoizedFunction<K, V> implements MemoizedFunctionToNullable<K, V> {
+        private final StripedLockStorageManager storageManager;
+        private final ConcurrentMap<K, Object> cache;
+        private final Function1<? super K, ? extends V> compute;
+
+        public StripedMemoizedFunction(
+                @NotNull StripedLockStorageManager storageManager,
+                @NotNull ConcurrentMap<K, Object> map,
+                @NotNull Function1<? super K, ? extends V> compute
+        ) {
+            this.storageManager = storageManager;
+            this.cache = map;
+            this.compute = compute;
+        }
+
+        @Override
+        @Nullable
+        public V invoke(K input) {
+            Object value = cache.get(input);
+            if (value != null && !(value instanceof Computation)) return WrappedValues.unescapeExceptionOrNull(value);
+
+            TrackedLock stripe = storageManager.stripeFor(31 * System.identityHashCode(this) + input.hashCode());
+            Computation started;
+            stripe.lock();
+            try {
+                while (true) {
+                    value = cache.get(input);
+                    if (value == null) {
+                        started = new Computation(Thread.currentThread());
+                        // All changes of the state of the key are made under its stripe
+                        Object published = cache.putIfAbsent(input, started);
+                        assert published == null : raceCondition(input, published);
+                        break;
+                    }
+                    if (!(value instanceof Computation)) return WrappedValues.unescapeExceptionOrNull(value);
+
+                    // A recursive call on this thread, or through the computations of other threads which wait for this one
+                    Computation inProgress = (Computation) value;
+                    if (inProgress.thread == Thread.currentThread() || !awaitComputation(stripe, inProgress)) {
+                        throw recursionDetected(input);
+                    }
+                }
+            }
+            finally {
+                stripe.unlock();
+            }
+
+            V typedValue;
+            try {
+                typedValue = compute.invoke(input);
+            }
+            catch (Throwable throwable) {
+                if (ExceptionUtilsKt.isProcessCanceledException(throwable)) {
+                    finishComputation(stripe, input, started, null);
+                    //noinspection ConstantConditions
+                    throw (RuntimeException) throwable;
+                }
+
+                finishComputation(stripe, input, started, WrappedValues.escapeThrowable(throwable));
+                throw storageManager.exceptionHandlingStrategy.handleException(throwable);
+            }
+
+            finishComputation(stripe, input, started, WrappedValues.escapeNull(typedValue));
+            return typedValue;
+        }
+
+        // Stores the result, or removes the key if the result is null, and wakes up the threads waiting for the computation
+        private void finishComputation(@NotNull TrackedLock stripe, K input, @NotNull Computation computation, @Nullable Object result) {
+            boolean replaced;
+            stripe.lock();
+            try {
+                replaced = result == null ? cache.remove(input, computation) : cache.replace(input, computation, result);
+                stripe.computationFinished.signalAll();
+            }
+            finally {
+                stripe.unlock();
+            }
+
+            if (!replaced) {
+                throw storageManager.exceptionHandlingStrategy.handleException(raceCondition(input, cache.get(input)));
+            }
+        }
+
+        @NotNull
+        private AssertionError recursionDetected(K input) {
+            return new AssertionError("Recursion detected on input: " + input + " under " + storageManager);
+        }
+
+        @NotNull
+        private AssertionError raceCondition(K input, Object oldValue) {
+            return new AssertionError("Race condition detected on input " + input + ". Old value is " + oldValue +
+                                      " under " + storageManager);
+        }
+
+        @Override
+        public boolean isComputed(K key) {
+            Object value = cache.get(key);
+            return value != null && !(value instanceof Computation);
+        }
+
+        protected StripedLockStorageManager getStorageManager() {
+            return storageManager;
+        }
+    }
+
+    private static class StripedMemoizedFunctionToNotNull<K, V> extends StripedMemoizedFunction<K, V>
+            implements MemoizedFunctionToNotNull<K, V> {
+        public StripedMemoizedFunctionToNotNull(
+                @NotNull StripedLockStorageManager storageManager,
+                @NotNull ConcurrentMap<K, Object> map,
+                @NotNull Function1<? super K, ? extends V> compute
+        ) {
+            super(storageManager, map, compute);
+        }
+
+        @NotNull
+        @Override
+        public V invoke(K input) {
+            V result = super.invoke(input);
+            assert result != null : "compute() returned null under " + getStorageManager();
+            return result;
+        }
+    }
+
+    private static class CacheWithNullableValuesBasedOnMemoizedFunction<K, V>
+            extends StripedMemoizedFunction<KeyWithComputation<K, V>, V> implements CacheWithNullableValues<K, V> {
+
+        private CacheWithNullableValuesBasedOnMemoizedFunction(@NotNull StripedLockStorageManager storageManager) {
+            super(storageManager, StripedLockStorageManager.<KeyWithComputation<K, V>>createConcurrentHashMap(),
+                  new Function1<KeyWithComputation<K, V>, V>() {
+                      @Override
+                      public V invoke(KeyWithComputation<K, V> computation) {
+                          return computation.computation.invoke();
+                      }
+                  });
+        }
+
+        @Nullable
+        @Override
+        public V computeIfAbsent(K key, @NotNull Function0<? extends V> computation) {
+            return invoke(new KeyWithComputation<K, V>(key, computation));
+        }
+    }
+
+    private static class CacheWithNotNullValuesBasedOnMemoizedFunction<K, V>
+            extends CacheWithNullableValuesBasedOnMemoizedFunction<K, V> implements CacheWithNotNullValues<K, V> {
+
+        private CacheWithNotNullValuesBasedOnMemoizedFunction(@NotNull StripedLockStorageManager storageManager) {
+            super(storageManager);
+        }
+
+        @NotNull
+        @Override
+        public V computeIfAbsent(K key, @NotNull Function0<? extends V> computation) {
+            V result = super.computeIfAbsent(key, computation);
+            assert result != null : "computeIfAbsent() returned null under " + getStorageManager();
+            return result;
+        }
+    }
+
+    // equals and hashCode use only key
+    private static class KeyWithComputation<K, V> {
+        private final K key;
+        private final Function0<? extends V> computation;
+
+        public KeyWithComputation(K key, Function0<? extends V> computation) {
+            this.key = key;
+            this.computation = computation;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+
+            KeyWithComputation<?, ?> that = (KeyWithComputation<?, ?>) o;
+
+            return key.equals(that.key);
+        }
+
+        @Override
+        public int hashCode() {
+            return key.hashCode();
+        }
+    }
+}
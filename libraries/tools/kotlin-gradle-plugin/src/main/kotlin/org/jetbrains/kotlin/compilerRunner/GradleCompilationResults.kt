@@ -3,19 +3,16 @@ package org.jetbrains.kotlin.compilerRunner
 import org.gradle.api.Project
 import org.jetbrains.kotlin.daemon.common.CompilationResultCategory
 import org.jetbrains.kotlin.daemon.common.CompilationResults
-import org.jetbrains.kotlin.daemon.common.LoopbackNetworkInterface
-import org.jetbrains.kotlin.daemon.common.SOCKET_ANY_FREE_PORT
 import org.jetbrains.kotlin.daemon.report.CompileIterationResult
 import org.jetbrains.kotlin.gradle.plugin.kotlinDebug
 import org.jetbrains.kotlin.incremental.pathsAsStringRelativeTo
 import java.io.Serializable
 import java.rmi.RemoteException
-import java.rmi.server.UnicastRemoteObject
 
+// Not exported over RMI unless the daemon is called over RMI, see compileOverLocalTransportIfAvailable
 internal class GradleCompilationResults(
         project: Project
-): CompilationResults,
-   UnicastRemoteObject(SOCKET_ANY_FREE_PORT, LoopbackNetworkInterface.clientLoopbackSocketFactory, LoopbackNetworkInterface.serverLoopbackSocketFactory) {
+): CompilationResults {
 
     private val log = project.logger
     private val projectRootFile = project.rootProject.projectDir
@@ -17,14 +17,12 @@ import org.jetbrains.kotlin.resolve.jvm.JvmClassName
 import java.io.File
 import java.io.Serializable
 import java.rmi.Remote
-import java.rmi.server.UnicastRemoteObject
 
+// Not exported over RMI unless the daemon is called over RMI, see compileOverLocalTransportIfAvailable
 internal open class GradleCompilerServicesFacadeImpl(
         project: Project,
-        val compilerMessageCollector: MessageCollector,
-        port: Int = SOCKET_ANY_FREE_PORT
-) : UnicastRemoteObject(port, LoopbackNetworkInterface.clientLoopbackSocketFactory, LoopbackNetworkInterface.serverLoopbackSocketFactory),
-    CompilerServicesFacadeBase,
+        val compilerMessageCollector: MessageCollector
+) : CompilerServicesFacadeBase,
     Remote {
 
     protected val log: Logger = project.logger
@@ -51,9 +49,8 @@ internal open class GradleCompilerServicesFacadeImpl(
 
 internal class GradleIncrementalCompilerServicesFacadeImpl(
         project: Project,
-        private val environment: GradleIncrementalCompilerEnvironment,
-        port: Int = SOCKET_ANY_FREE_PORT
-) : GradleCompilerServicesFacadeImpl(project, environment.messageCollector, port),
+        private val environment: GradleIncrementalCompilerEnvironment
+) : GradleCompilerServicesFacadeImpl(project, environment.messageCollector),
     IncrementalCompilerServicesFacade {
 
     override fun hasAnnotationsFileUpdater(): Boolean =
@@ -30,6 +30,7 @@ import org.jetbrains.kotlin.cli.common.messages.MessageRenderer
 import com.intellij.openapi.util.io.FileUtil
 import org.jetbrains.kotlin.config.Services
 import org.jetbrains.kotlin.daemon.client.CompileServiceSession
+import org.jetbrains.kotlin.daemon.client.compileOverLocalTransportIfAvailable
 import org.jetbrains.kotlin.daemon.common.*
 import org.jetbrains.kotlin.gradle.plugin.kotlinDebug
 import org.jetbrains.kotlin.incremental.*
@@ -243,7 +244,7 @@ internal class GradleCompilerRunner(private val project: Project) : KotlinCompil
                 requestedCompilationResults = emptyArray())
         val servicesFacade = GradleCompilerServicesFacadeImpl(project, environment.messageCollector)
         val argsArray = ArgumentUtils.convertArgumentsToStringList(environment.compilerArgs).toTypedArray()
-        return daemon.compile(sessionId, argsArray, compilationOptions, servicesFacade, compilationResults = null)
+        return daemon.compileOverLocalTransportIfAvailable(sessionId, argsArray, compilationOptions, servicesFacade, compilationResults = null)
     }
 
     private fun incrementalCompilationWithDaemon(
@@ -275,7 +276,7 @@ internal class GradleCompilerRunner(private val project: Project) : KotlinCompil
         log.info("Options for KOTLIN DAEMON: $compilationOptions")
         val servicesFacade = GradleIncrementalCompilerServicesFacadeImpl(project, environment)
         val argsArray = ArgumentUtils.convertArgumentsToStringList(environment.compilerArgs).toTypedArray()
-        return daemon.compile(sessionId, argsArray, compilationOptions, servicesFacade, GradleCompilationResults(project))
+        return daemon.compileOverLocalTransportIfAvailable(sessionId, argsArray, compilationOptions, servicesFacade, GradleCompilationResults(project))
     }
 
     private fun reportCategories(verbose: Boolean): Array<Int> =